@@ -12,6 +12,7 @@ import cz.cas.lib.arcstorage.security.Roles;
 import cz.cas.lib.arcstorage.security.user.UserDetails;
 import cz.cas.lib.arcstorage.service.AipService;
 import cz.cas.lib.arcstorage.service.ArchivalDbService;
+import cz.cas.lib.arcstorage.service.VerificationJobService;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageReachableException;
 import cz.cas.lib.arcstorage.service.exception.storage.SomeLogicalStoragesNotReachableException;
@@ -20,13 +21,20 @@ import cz.cas.lib.arcstorage.storagesync.ObjectAuditStore;
 import cz.cas.lib.arcstorage.storagesync.newstorage.exception.SynchronizationInProgressException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import jakarta.annotation.security.RolesAllowed;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -43,6 +51,7 @@ public class ObjectInfoApi {
     private ArchivalObjectStore archivalObjectStore;
     private ObjectAuditStore objectAuditStore;
     private UserDetails userDetails;
+    private VerificationJobService verificationJobService;
 
     @Operation(summary = "Verifies AIP consistency at given storage and retrieves result.", description = "If the AIP is not in some final, consistent state even in DB the storage is not checked and only DB data are returned.")
     @ApiResponses(value = {
@@ -56,17 +65,67 @@ public class ObjectInfoApi {
     @RequestMapping(value = "/{aipId}/info", method = RequestMethod.GET)
     public AipConsistencyVerificationResultDto getAipInfo(
             @Parameter(description = "AIP id", required = true) @PathVariable("aipId") String aipId,
-            @Parameter(description = "id of the logical storage", required = true) @RequestParam(value = "storageId") String storageId)
+            @Parameter(description = "id of the logical storage", required = true) @RequestParam(value = "storageId") String storageId,
+            @Parameter(description = "depth of the verification, the content is hashed only at FULL level") @RequestParam(value = "level", defaultValue = "FULL") VerificationLevel level)
             throws BadRequestException, NoLogicalStorageReachableException, NoLogicalStorageAttachedException, SomeLogicalStoragesNotReachableException, SynchronizationInProgressException {
         checkUUID(aipId);
         AipSip aip = archivalDbService.getAip(aipId);
-        List<AipConsistencyVerificationResultDto> aipStateAtStorageDtos = aipService.verifyAipsAtStorage(asList(aip), storageId);
+        List<AipConsistencyVerificationResultDto> aipStateAtStorageDtos = aipService.verifyAipsAtStorage(asList(aip), storageId, level);
         eq(aipStateAtStorageDtos.size(), 1, () -> new GeneralException("Internal server error, expected exactly one result but was: " +
                 Arrays.toString(aipStateAtStorageDtos.toArray())
         ));
         return aipStateAtStorageDtos.get(0);
     }
 
+    @Operation(summary = "Starts verification of AIPs in background and returns the verification job.", description = "AIPs are specified either by their ids or by the time range of their creation. For non-admin users, the AIPs are limited to those of the user's dataspace, AIPs of other dataspaces are reported as not found. Progress of the job and its results are available only to the submitter and admin. Jobs exceeding the number of threads reserved for the verification jobs wait until some running job finishes. Progress of the job is available at /verification/{jobId} and its results at /verification/{jobId}/results once the job has finished.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "verification job successfully registered", content = @Content(schema = @Schema(implementation = VerificationJobDto.class))),
+            @ApiResponse(responseCode = "400", description = "bad request, e.g. the specified id is not a valid UUID or there are no AIPs to verify")
+    })
+    @RolesAllowed({Roles.READ, Roles.READ_WRITE, Roles.ADMIN})
+    @RequestMapping(value = "/verification", method = RequestMethod.POST)
+    public VerificationJobDto verify(
+            @Parameter(description = "specification of the AIPs and of the verification", required = true) @RequestBody VerificationJobRequestDto req)
+            throws BadRequestException, IOException {
+        if (req.getAipIds() != null) {
+            for (String aipId : req.getAipIds()) {
+                checkUUID(aipId);
+            }
+        }
+        String dataSpace = userDetails.getRole() == Role.ROLE_ADMIN ? null : userDetails.getDataSpace();
+        return verificationJobService.submit(req, dataSpace, userDetails.getId());
+    }
+
+    @Operation(summary = "Returns progress of the verification job.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "verification job successfully returned", content = @Content(schema = @Schema(implementation = VerificationJobDto.class))),
+            @ApiResponse(responseCode = "404", description = "verification job not found")
+    })
+    @RolesAllowed({Roles.READ, Roles.READ_WRITE, Roles.ADMIN})
+    @RequestMapping(value = "/verification/{jobId}", method = RequestMethod.GET)
+    public VerificationJobDto getVerificationJob(
+            @Parameter(description = "ID of the verification job", required = true) @PathVariable("jobId") String jobId) {
+        return verificationJobService.getJob(jobId, userDetails.getRole() == Role.ROLE_ADMIN ? null : userDetails.getId());
+    }
+
+    @Operation(summary = "Streams results of the finished verification job.", description = "Results are returned as NDJSON, every line holds the verification result of single AIP at single storage, ordered by chunks of AIPs, then by storages and then by AIPs.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "results successfully returned"),
+            @ApiResponse(responseCode = "404", description = "verification job not found"),
+            @ApiResponse(responseCode = "409", description = "verification job has not finished yet")
+    })
+    @RolesAllowed({Roles.READ, Roles.READ_WRITE, Roles.ADMIN})
+    @RequestMapping(value = "/verification/{jobId}/results", method = RequestMethod.GET)
+    public void getVerificationResults(
+            @Parameter(description = "ID of the verification job", required = true) @PathVariable("jobId") String jobId,
+            HttpServletResponse response) throws IOException {
+        Path results = verificationJobService.getResults(jobId, userDetails.getRole() == Role.ROLE_ADMIN ? null : userDetails.getId());
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setStatus(200);
+        Files.copy(results, response.getOutputStream());
+    }
+
     @Operation(description = "Retrieves the state of AIP stored in database.",
             summary = "State of AIP.")
     @ApiResponses(value = {
@@ -155,4 +214,9 @@ public class ObjectInfoApi {
     public void setUserDetails(UserDetails userDetails) {
         this.userDetails = userDetails;
     }
-}
\ No newline at end of file
+
+    @Autowired
+    public void setVerificationJobService(VerificationJobService verificationJobService) {
+        this.verificationJobService = verificationJobService;
+    }
+}
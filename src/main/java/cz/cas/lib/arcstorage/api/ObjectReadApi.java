@@ -1,16 +1,23 @@
 package cz.cas.lib.arcstorage.api;
 
+import cz.cas.lib.arcstorage.domain.entity.AipManifestEntry;
+import cz.cas.lib.arcstorage.dto.AipExportFormat;
+import cz.cas.lib.arcstorage.dto.AipFileRetrievalResource;
 import cz.cas.lib.arcstorage.dto.AipRetrievalResource;
 import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
 import cz.cas.lib.arcstorage.dto.DataReduction;
 import cz.cas.lib.arcstorage.dto.ObjectRetrievalResource;
+import cz.cas.lib.arcstorage.dto.PrefetchJobDto;
 import cz.cas.lib.arcstorage.exception.BadRequestException;
 import cz.cas.lib.arcstorage.security.Roles;
 import cz.cas.lib.arcstorage.service.AipService;
+import cz.cas.lib.arcstorage.service.PrefetchService;
+import cz.cas.lib.arcstorage.service.SmallObjectBufferPool;
 import cz.cas.lib.arcstorage.service.exception.state.*;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageReachableException;
 import cz.cas.lib.arcstorage.service.exception.storage.ObjectCouldNotBeRetrievedException;
+import cz.cas.lib.arcstorage.storage.IoBufferPool;
 import cz.cas.lib.arcstorage.storage.exception.StorageException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -19,20 +26,34 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -44,7 +65,13 @@ import static cz.cas.lib.arcstorage.util.Utils.checkUUID;
 @RequestMapping("/api/storage")
 public class ObjectReadApi {
 
+    /**
+     * max number of AIPs of a single prefetch request, the job holds all ids until it finishes
+     */
+    private static final int PREFETCH_MAX_AIPS = 1000;
+
     private AipService aipService;
+    private PrefetchService prefetchService;
     private Path tmpFolder;
 
     @Operation(summary = "Return specified AIP as a ZIP package")
@@ -60,26 +87,18 @@ public class ObjectReadApi {
     public void getAip(
             @Parameter(description = "AIP ID", required = true) @PathVariable("aipId") String aipId,
             @Parameter(description = "true to return all XMLs, otherwise only the latest is returned") @RequestParam(value = "all", defaultValue = "false") boolean all,
+            @Parameter(description = "format of the outer container, entries are only stored without compression") @RequestParam(value = "format", defaultValue = "ZIP") AipExportFormat format,
             HttpServletResponse response)
             throws IOException, RollbackStateException, DeletedStateException, StillProcessingStateException,
             FailedStateException, ObjectCouldNotBeRetrievedException, BadRequestException, RemovedStateException,
             NoLogicalStorageReachableException, NoLogicalStorageAttachedException {
 
-        BiFunction<AipRetrievalResource, ZipOutputStream, Void> fn = (aipRetrievalResource, outputStream) -> {
-            try {
-                Path aipDataInTmpDir = tmpFolder.resolve(aipRetrievalResource.getId());
-                aipService.exportAipReducedByRegexes(aipId, aipDataInTmpDir, outputStream, null);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
-            return null;
-        };
-
-        exportAipData(aipId, all, response, fn);
+        //verified AIP data in tmp folder are returned as they are, no reduction is needed
+        exportAipData(aipId, all, format, response, null);
     }
 
     @Operation(summary = "Return specified files of AIP packed in ZIP", description = "DOES NOT validate the AIP.. " +
-            "does not return any AIP XML, requires some local storage to be reachable")
+            "does not return any AIP XML, reads only the selected files from the storage")
     @RequestMapping(value = "/{aipId}/files-specified", method = RequestMethod.POST)
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "AIP successfully returned", content = @Content(mediaType = "application/zip", schema = @Schema(type = "string", format = "binary"))),
@@ -101,11 +120,11 @@ public class ObjectReadApi {
         response.setContentType("application/zip");
         response.setStatus(200);
         response.addHeader("Content-Disposition", "attachment; filename=aip_" + aipId + "_partial.zip");
-        aipService.streamAipReducedByFileListFromLocalStorage(aipId, response.getOutputStream(), filePaths);
+        aipService.streamAipReducedByFileList(aipId, response.getOutputStream(), filePaths);
     }
 
     @Operation(summary = "Return specified files of AIP packed in ZIP", description = "DOES NOT validate the AIP, " +
-            "does not return any AIP XML, requires some local storage to be reachable")
+            "does not return any AIP XML, reads only the selected files from the storage")
     @RequestMapping(value = "/{aipId}/files-reduced", method = RequestMethod.POST)
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "AIP successfully returned", content = @Content(mediaType = "application/zip", schema = @Schema(type = "string", format = "binary"))),
@@ -127,7 +146,95 @@ public class ObjectReadApi {
         response.setContentType("application/zip");
         response.setStatus(200);
         response.addHeader("Content-Disposition", "attachment; filename=aip_" + aipId + "_partial.zip");
-        aipService.streamAipReducedByRegexesFromLocalStorage(aipId, response.getOutputStream(), dataReduction);
+        aipService.streamAipReducedByRegexes(aipId, response.getOutputStream(), dataReduction);
+    }
+
+    @Operation(summary = "Return manifest of AIP data", description = "lists all files of AIP data with their sizes, CRCs " +
+            "and offsets in the ZIP, the manifest is captured at ingest so no logical storage is accessed")
+    @RequestMapping(value = "/{aipId}/manifest", method = RequestMethod.GET)
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "manifest successfully returned"),
+            @ApiResponse(responseCode = "403", description = "operation forbidden with respect to the current AIP state"),
+            @ApiResponse(responseCode = "400", description = "bad request, e.g. the specified id is not a valid UUID"),
+            @ApiResponse(responseCode = "503", description = "all attached logical storages are currently unreachable (only for AIPs ingested without manifest)"),
+            @ApiResponse(responseCode = "500", description = "no logical storage attached, or other internal server error")
+    })
+    @RolesAllowed({Roles.READ, Roles.READ_WRITE})
+    public List<AipManifestEntry> getAipManifest(
+            @Parameter(description = "AIP ID", required = true) @PathVariable("aipId") String aipId)
+            throws IOException, RollbackStateException, DeletedStateException, StillProcessingStateException,
+            FailedStateException, BadRequestException,
+            NoLogicalStorageReachableException, NoLogicalStorageAttachedException, StorageException {
+        checkUUID(aipId);
+        return aipService.getAipManifest(aipId);
+    }
+
+    @Operation(summary = "Return single file of AIP data", description = "DOES NOT validate the AIP, returns the decompressed " +
+            "file as it is, supports single byte range requests")
+    @RequestMapping(value = "/{aipId}/file", method = RequestMethod.GET)
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "file successfully returned", content = @Content(mediaType = "application/octet-stream", schema = @Schema(type = "string", format = "binary"))),
+            @ApiResponse(responseCode = "206", description = "requested range of the file successfully returned", content = @Content(mediaType = "application/octet-stream", schema = @Schema(type = "string", format = "binary"))),
+            @ApiResponse(responseCode = "403", description = "operation forbidden with respect to the current AIP state"),
+            @ApiResponse(responseCode = "400", description = "bad request, e.g. the specified id is not a valid UUID"),
+            @ApiResponse(responseCode = "404", description = "there is no such file in the AIP data"),
+            @ApiResponse(responseCode = "416", description = "requested range is not satisfiable"),
+            @ApiResponse(responseCode = "503", description = "all attached logical storages are currently unreachable"),
+            @ApiResponse(responseCode = "500", description = "no logical storage attached, or other internal server error")
+    })
+    @RolesAllowed({Roles.READ, Roles.READ_WRITE})
+    public void getAipFile(
+            @Parameter(description = "AIP ID", required = true) @PathVariable("aipId") String aipId,
+            @Parameter(description = "path of the file inside of the AIP data", required = true) @RequestParam("path") String path,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            HttpServletResponse response)
+            throws IOException, RollbackStateException, DeletedStateException, StillProcessingStateException,
+            FailedStateException, BadRequestException,
+            NoLogicalStorageReachableException, NoLogicalStorageAttachedException, StorageException {
+        checkUUID(aipId);
+
+        try (AipFileRetrievalResource file = aipService.getAipFile(aipId, path)) {
+            long size = file.getSize();
+            response.setContentType("application/octet-stream");
+            response.addHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            //the path is user input, the filename is quoted and encoded so that it can't break the header, quotes and
+            //control characters are replaced because the quoted-printable form of the filename would keep them
+            String fileName = path.substring(path.lastIndexOf('/') + 1).replaceAll("[\"\\\\\\p{Cntrl}]", "_");
+            response.addHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(fileName, StandardCharsets.UTF_8).build().toString());
+            List<HttpRange> ranges;
+            try {
+                ranges = rangeHeader == null ? List.of() : HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of();
+            }
+            //multiple ranges are not supported, the whole file is returned instead which is allowed by RFC 9110
+            if (ranges.size() != 1) {
+                response.setContentLengthLong(size);
+                response.setStatus(200);
+                IoBufferPool.copy(file.getInputStream(), response.getOutputStream());
+                return;
+            }
+            //empty range if it is invalid, range starting at or after the end of the file is not rejected by HttpRange
+            //but it also ends before its start, so does suffix range of an empty file
+            long start;
+            long end;
+            try {
+                start = ranges.get(0).getRangeStart(size);
+                end = ranges.get(0).getRangeEnd(size);
+            } catch (IllegalArgumentException e) {
+                start = 0;
+                end = -1;
+            }
+            if (start > end) {
+                response.addHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            response.addHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            response.setContentLengthLong(end - start + 1);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            IoBufferPool.copy(file.getInputStream(), response.getOutputStream(), start, end - start + 1);
+        }
     }
 
     @Operation(summary = "Return AIP with specified files packed in ZIP", description = "validates the AIP and if it is invalid" +
@@ -145,12 +252,13 @@ public class ObjectReadApi {
             @Parameter(description = "AIP ID", required = true) @PathVariable("aipId") String aipId,
             @Parameter(description = "Set of wanted files paths sent as RequestBody", required = true) @RequestBody Set<String> filePaths,
             @Parameter(description = "true to return all XMLs, otherwise only the latest is returned") @RequestParam(value = "all", defaultValue = "false") boolean all,
+            @Parameter(description = "format of the outer container, entries are only stored without compression") @RequestParam(value = "format", defaultValue = "ZIP") AipExportFormat format,
             HttpServletResponse response)
             throws IOException, RollbackStateException, DeletedStateException, StillProcessingStateException,
             FailedStateException, BadRequestException,
             NoLogicalStorageReachableException, NoLogicalStorageAttachedException, ObjectCouldNotBeRetrievedException, RemovedStateException {
 
-        BiFunction<AipRetrievalResource, ZipOutputStream, Void> fn = (aipRetrievalResource, outputStream) -> {
+        BiFunction<AipRetrievalResource, OutputStream, Void> fn = (aipRetrievalResource, outputStream) -> {
             try {
                 Path aipDataInTmpDir = tmpFolder.resolve(aipRetrievalResource.getId());
                 aipService.exportAipReducedByFileList(aipId, aipDataInTmpDir, outputStream, filePaths);
@@ -160,7 +268,7 @@ public class ObjectReadApi {
             return null;
         };
 
-        exportAipData(aipId, all, response, fn);
+        exportAipData(aipId, all, format, response, fn);
     }
 
     @Operation(summary = "Return AIP with specified files packed in ZIP", description = "validates the AIP and if it is invalid" +
@@ -178,12 +286,13 @@ public class ObjectReadApi {
             @Parameter(description = "AIP ID", required = true) @PathVariable("aipId") String aipId,
             @Parameter(description = "Set of wanted files paths sent as RequestBody", required = true) @RequestBody @Valid DataReduction dataReduction,
             @Parameter(description = "true to return all XMLs, otherwise only the latest is returned") @RequestParam(value = "all", defaultValue = "false") boolean all,
+            @Parameter(description = "format of the outer container, entries are only stored without compression") @RequestParam(value = "format", defaultValue = "ZIP") AipExportFormat format,
             HttpServletResponse response)
             throws IOException, RollbackStateException, DeletedStateException, StillProcessingStateException,
             FailedStateException, BadRequestException,
             NoLogicalStorageReachableException, NoLogicalStorageAttachedException, ObjectCouldNotBeRetrievedException, RemovedStateException {
 
-        BiFunction<AipRetrievalResource, ZipOutputStream, Void> fn = (aipRetrievalResource, outputStream) -> {
+        BiFunction<AipRetrievalResource, OutputStream, Void> fn = (aipRetrievalResource, outputStream) -> {
             try {
                 Path aipDataInTmpDir = tmpFolder.resolve(aipRetrievalResource.getId());
                 aipService.exportAipReducedByRegexes(aipId, aipDataInTmpDir, outputStream, dataReduction);
@@ -193,7 +302,7 @@ public class ObjectReadApi {
             return null;
         };
 
-        exportAipData(aipId, all, response, fn);
+        exportAipData(aipId, all, format, response, fn);
     }
 
     @Operation(summary = "Return specified AIP XML")
@@ -214,11 +323,12 @@ public class ObjectReadApi {
             BadRequestException, NoLogicalStorageReachableException, NoLogicalStorageAttachedException {
         checkUUID(aipId);
         Pair<Integer, ObjectRetrievalResource> retrievedXml = aipService.getXml(aipId, version);
-        response.setContentType("application/xml");
-        response.setStatus(200);
-        response.addHeader("Content-Disposition", "attachment; filename=" + toXmlId(aipId, retrievedXml.getLeft()) + ".xml");
-        try (InputStream is = new BufferedInputStream(retrievedXml.getRight().getInputStream())) {
-            IOUtils.copyLarge(is, response.getOutputStream());
+        //stream is closed on every path, so that the pooled buffer of the XML retrieved to memory is released
+        try (InputStream is = retrievedXml.getRight().getInputStream()) {
+            response.setContentType("application/xml");
+            response.setStatus(200);
+            response.addHeader("Content-Disposition", "attachment; filename=" + toXmlId(aipId, retrievedXml.getLeft()) + ".xml");
+            IoBufferPool.copy(is, response.getOutputStream());
         } finally {
             tmpFolder.resolve(retrievedXml.getRight().getId()).toFile().delete();
         }
@@ -241,65 +351,211 @@ public class ObjectReadApi {
             BadRequestException, NoLogicalStorageReachableException, NoLogicalStorageAttachedException {
         checkUUID(id);
         Pair<ArchivalObjectDto, ObjectRetrievalResource> retrievedObject = aipService.getObject(id);
-        String suffix;
-        switch (retrievedObject.getKey().getObjectType()) {
-            default:
-                //content type is not known
-                throw new UnsupportedOperationException("operation not supported for generic objects");
-            case XML:
-                response.setContentType("application/xml");
-                suffix = ".xml";
-                break;
-            case SIP:
-                response.setContentType("application/zip");
-                suffix = ".zip";
-                break;
-        }
-        response.setStatus(200);
-        response.addHeader("Content-Disposition", "attachment; filename=" + id + suffix);
-        try (InputStream is = new BufferedInputStream(retrievedObject.getRight().getInputStream())) {
-            IOUtils.copyLarge(is, response.getOutputStream());
+        //stream is closed on every path, so that the pooled buffer of the XML retrieved to memory is released
+        try (InputStream is = retrievedObject.getRight().getInputStream()) {
+            String suffix;
+            switch (retrievedObject.getKey().getObjectType()) {
+                default:
+                    //content type is not known
+                    throw new UnsupportedOperationException("operation not supported for generic objects");
+                case XML:
+                    response.setContentType("application/xml");
+                    suffix = ".xml";
+                    break;
+                case SIP:
+                    response.setContentType("application/zip");
+                    suffix = ".zip";
+                    break;
+            }
+            response.setStatus(200);
+            response.addHeader("Content-Disposition", "attachment; filename=" + id + suffix);
+            IoBufferPool.copy(is, response.getOutputStream());
         } finally {
             tmpFolder.resolve(retrievedObject.getRight().getId()).toFile().delete();
         }
     }
 
-    private void exportAipData(String aipId, boolean allXmls, HttpServletResponse response, BiFunction<AipRetrievalResource, ZipOutputStream, Void> aipDataExportFunction) throws BadRequestException, NoLogicalStorageAttachedException, ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, RollbackStateException, RemovedStateException, StillProcessingStateException, DeletedStateException, FailedStateException, IOException {
-        checkUUID(aipId);
-
-        AipRetrievalResource aipRetrievalResource = aipService.getAip(aipId, allXmls);
-        response.setContentType("application/zip");
-        response.setStatus(200);
-        response.addHeader("Content-Disposition", "attachment; filename=aip_" + aipId + ".zip");
+    @Operation(summary = "Announces planned bulk read of AIPs.", description = "AIP data and all AIP XMLs of the AIPs which are not cached yet are prefetched in background to the local disk, so that the subsequent reads do not access the logical storages. Prefetch runs with lower priority than live reads and within the configured I/O budget. Returns the prefetch job with its progress.")
+    @RequestMapping(value = "/prefetch", method = RequestMethod.POST)
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "prefetch job successfully registered", content = @Content(schema = @Schema(implementation = PrefetchJobDto.class))),
+            @ApiResponse(responseCode = "400", description = "bad request, e.g. the specified id is not a valid UUID or there are too many ids")
+    })
+    @RolesAllowed({Roles.READ, Roles.READ_WRITE, Roles.ADMIN})
+    public PrefetchJobDto prefetch(
+            @Parameter(description = "IDs of AIPs to prefetch, at most " + PREFETCH_MAX_AIPS, required = true) @RequestBody List<String> aipIds) throws BadRequestException {
+        if (aipIds.size() > PREFETCH_MAX_AIPS)
+            throw new BadRequestException("at most " + PREFETCH_MAX_AIPS + " AIPs can be prefetched by a single request");
+        for (String aipId : aipIds) {
+            checkUUID(aipId);
+        }
+        return prefetchService.prefetch(aipIds);
+    }
 
-        try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(response.getOutputStream()))) {
-            zipOut.putNextEntry(new ZipEntry(aipId + ".zip"));
+    @Operation(summary = "Returns progress of the prefetch job.")
+    @RequestMapping(value = "/prefetch/{jobId}", method = RequestMethod.GET)
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "prefetch job successfully returned", content = @Content(schema = @Schema(implementation = PrefetchJobDto.class))),
+            @ApiResponse(responseCode = "404", description = "prefetch job not found")
+    })
+    @RolesAllowed({Roles.READ, Roles.READ_WRITE, Roles.ADMIN})
+    public PrefetchJobDto getPrefetchJob(
+            @Parameter(description = "ID of the prefetch job", required = true) @PathVariable("jobId") String jobId) {
+        return prefetchService.getJob(jobId);
+    }
 
-            aipDataExportFunction.apply(aipRetrievalResource, zipOut);
+    /**
+     * Writes AIP data and AIP XMLs into the outer container of the specified format. The entries of the container are
+     * only stored, without compression, because the AIP data are already compressed ZIP and recompression would make
+     * the CPU the bottleneck of the download. CRC of the AIP data is computed while the SIP is retrieved or while the
+     * reduced data are staged, CRC of the XMLs from the verified XMLs retrieved to memory or from the tmp files, before
+     * the entry is written. Entries are copied to the response through the buffers of {@link IoBufferPool}.
+     *
+     * @param aipDataExportFunction function producing reduced AIP data, if null the AIP data are returned as they are
+     */
+    private void exportAipData(String aipId, boolean allXmls, AipExportFormat format, HttpServletResponse response, BiFunction<AipRetrievalResource, OutputStream, Void> aipDataExportFunction) throws BadRequestException, NoLogicalStorageAttachedException, ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, RollbackStateException, RemovedStateException, StillProcessingStateException, DeletedStateException, FailedStateException, IOException {
+        checkUUID(aipId);
 
-            zipOut.closeEntry();
-            for (Integer xmlVersion : aipRetrievalResource.getXmls().keySet()) {
-                try (InputStream xmlIs = new BufferedInputStream(aipRetrievalResource.getXmls().get(xmlVersion))) {
-                    zipOut.putNextEntry(new ZipEntry(toXmlId(aipId, xmlVersion) + ".xml"));
-                    IOUtils.copyLarge(xmlIs, zipOut);
-                    zipOut.closeEntry();
+        AipRetrievalResource aipRetrievalResource = aipService.getAip(aipId, allXmls);
+        String tmpFileId = aipRetrievalResource.getId();
+        Path reducedAipDataInTmpDir = tmpFolder.resolve(tmpFileId + "_reduced");
+        try {
+            ExportEntry aipDataEntry;
+            if (aipDataExportFunction == null)
+                aipDataEntry = new ExportEntry(tmpFolder.resolve(tmpFileId), aipRetrievalResource.getSipCrc());
+            else {
+                //reduced data are staged because the size of the entry must precede its content, the CRC is computed
+                //while staging so that the staged file is not read twice
+                CRC32 reducedCrc = new CRC32();
+                try (OutputStream reducedOs = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(reducedAipDataInTmpDir.toFile())), reducedCrc)) {
+                    aipDataExportFunction.apply(aipRetrievalResource, reducedOs);
                 }
+                aipDataEntry = new ExportEntry(reducedAipDataInTmpDir, reducedCrc.getValue());
+            }
+            Map<String, ExportEntry> entries = new LinkedHashMap<>();
+            entries.put(aipId + ".zip", aipDataEntry);
+            for (Map.Entry<Integer, InputStream> xml : aipRetrievalResource.getXmls().entrySet()) {
+                //XMLs retrieved to memory are written from the buffer, others from the tmp file
+                ExportEntry entry = xml.getValue() instanceof SmallObjectBufferPool.BufferInputStream
+                        ? new ExportEntry(((SmallObjectBufferPool.BufferInputStream) xml.getValue()).getData())
+                        : new ExportEntry(tmpFolder.resolve(toXmlId(tmpFileId, xml.getKey())), null);
+                entries.put(toXmlId(aipId, xml.getKey()) + ".xml", entry);
+            }
+
+            response.setContentType(format.getContentType());
+            response.setStatus(200);
+            response.addHeader("Content-Disposition", "attachment; filename=aip_" + aipId + format.getSuffix());
+            switch (format) {
+                case ZIP:
+                    writeStoredZip(entries, response.getOutputStream());
+                    break;
+                case TAR:
+                    writeTar(entries, response.getOutputStream());
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported export format: " + format);
             }
         } finally {
             aipRetrievalResource.close();
-            String tmpFileId = aipRetrievalResource.getId();
             tmpFolder.resolve(tmpFileId).toFile().delete();
+            reducedAipDataInTmpDir.toFile().delete();
             for (Integer v : aipRetrievalResource.getXmls().keySet()) {
                 tmpFolder.resolve(toXmlId(tmpFileId, v)).toFile().delete();
             }
         }
     }
 
+    private void writeStoredZip(Map<String, ExportEntry> entries, OutputStream outputStream) throws IOException {
+        try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(outputStream))) {
+            zipOut.setMethod(ZipOutputStream.STORED);
+            for (Map.Entry<String, ExportEntry> entry : entries.entrySet()) {
+                long size = entry.getValue().size();
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(size);
+                zipEntry.setCompressedSize(size);
+                zipEntry.setCrc(entry.getValue().crc());
+                zipOut.putNextEntry(zipEntry);
+                entry.getValue().writeTo(zipOut);
+                zipOut.closeEntry();
+            }
+        }
+    }
+
+    private void writeTar(Map<String, ExportEntry> entries, OutputStream outputStream) throws IOException {
+        try (TarArchiveOutputStream tarOut = new TarArchiveOutputStream(new BufferedOutputStream(outputStream))) {
+            tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tarOut.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            for (Map.Entry<String, ExportEntry> entry : entries.entrySet()) {
+                TarArchiveEntry tarEntry = new TarArchiveEntry(entry.getKey());
+                tarEntry.setSize(entry.getValue().size());
+                tarOut.putArchiveEntry(tarEntry);
+                entry.getValue().writeTo(tarOut);
+                tarOut.closeArchiveEntry();
+            }
+            tarOut.finish();
+        }
+    }
+
+    /**
+     * Entry of the exported container, backed either by the verified file in the tmp folder or by the object retrieved
+     * to memory.
+     */
+    private static class ExportEntry {
+        private final Path file;
+        private final ByteBuffer data;
+        /**
+         * CRC of the file if it is already known, e.g. computed while the file has been retrieved, otherwise the file
+         * is read to compute it, e.g. if it has been linked from the prefetch cache
+         */
+        private final Long crc;
+
+        private ExportEntry(Path file, Long crc) {
+            this.file = file;
+            this.data = null;
+            this.crc = crc;
+        }
+
+        private ExportEntry(ByteBuffer data) {
+            this.file = null;
+            this.data = data;
+            this.crc = null;
+        }
+
+        private long size() throws IOException {
+            return file != null ? Files.size(file) : data.remaining();
+        }
+
+        private long crc() throws IOException {
+            if (crc != null)
+                return crc;
+            if (file != null)
+                return FileUtils.checksumCRC32(file.toFile());
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            return crc.getValue();
+        }
+
+        private void writeTo(OutputStream outputStream) throws IOException {
+            if (file != null) {
+                try (InputStream is = Files.newInputStream(file)) {
+                    IoBufferPool.copy(is, outputStream);
+                }
+            } else
+                Channels.newChannel(outputStream).write(data.duplicate());
+        }
+    }
+
     @Autowired
     public void setAipService(AipService aipService) {
         this.aipService = aipService;
     }
 
+    @Autowired
+    public void setPrefetchService(PrefetchService prefetchService) {
+        this.prefetchService = prefetchService;
+    }
+
     @Autowired
     public void setTmpFolder(@Value("${spring.servlet.multipart.location}") String path) {
         this.tmpFolder = Paths.get(path);
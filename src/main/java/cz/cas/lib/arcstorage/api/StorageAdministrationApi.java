@@ -3,7 +3,9 @@ package cz.cas.lib.arcstorage.api;
 import cz.cas.lib.arcstorage.domain.entity.Storage;
 import cz.cas.lib.arcstorage.domain.store.StorageStore;
 import cz.cas.lib.arcstorage.domain.store.Transactional;
+import cz.cas.lib.arcstorage.dto.FixityCoverageDto;
 import cz.cas.lib.arcstorage.dto.StorageBasicDto;
+import cz.cas.lib.arcstorage.dto.StoragePerformanceDto;
 import cz.cas.lib.arcstorage.dto.StorageStateDto;
 import cz.cas.lib.arcstorage.dto.StorageUpdateDto;
 import cz.cas.lib.arcstorage.exception.BadRequestException;
@@ -11,6 +13,7 @@ import cz.cas.lib.arcstorage.exception.ConflictObject;
 import cz.cas.lib.arcstorage.exception.ForbiddenByConfigException;
 import cz.cas.lib.arcstorage.exception.MissingObject;
 import cz.cas.lib.arcstorage.security.Roles;
+import cz.cas.lib.arcstorage.service.FixityHistoryService;
 import cz.cas.lib.arcstorage.service.StorageAdministrationService;
 import cz.cas.lib.arcstorage.service.StorageProvider;
 import cz.cas.lib.arcstorage.service.SystemStateService;
@@ -31,6 +34,7 @@ import org.springframework.web.bind.annotation.*;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.validation.Valid;
 import java.util.Collection;
+import java.util.List;
 
 import static cz.cas.lib.arcstorage.util.Utils.checkUUID;
 import static cz.cas.lib.arcstorage.util.Utils.notNull;
@@ -45,6 +49,7 @@ public class StorageAdministrationApi {
     private StorageAdministrationService storageAdministrationService;
     private StorageSyncStatusStore storageSyncStatusStore;
     private StorageProvider storageProvider;
+    private FixityHistoryService fixityHistoryService;
 
     @Operation(summary = "Returns all attached logical storages.")
     @RequestMapping(method = RequestMethod.GET)
@@ -75,6 +80,21 @@ public class StorageAdministrationApi {
         return storageAdministrationService.getStorageState(id);
     }
 
+    @Operation(summary = "Returns read performance of all attached logical storages.", description = "Latency, throughput and error rate " +
+            "are moving averages measured on real reads. The score is used to choose between storages of the same priority, lower is better.")
+    @RequestMapping(value = "/performance", method = RequestMethod.GET)
+    public List<StoragePerformanceDto> getStoragePerformances() {
+        return storageAdministrationService.getStoragePerformances();
+    }
+
+    @Operation(summary = "Returns coverage of objects of all attached logical storages by fixity verifications.", description = "Counts of " +
+            "objects, verified objects and objects whose last verification has not succeeded, the oldest verification and percentiles " +
+            "of the age of the last verifications in seconds. Percentile which falls to objects never verified at the storage is null.")
+    @RequestMapping(value = "/fixity", method = RequestMethod.GET)
+    public List<FixityCoverageDto> getFixityCoverage() {
+        return fixityHistoryService.getCoverage();
+    }
+
     @Operation(summary = "Check reachability of all storages")
     @RequestMapping(value = "/check_reachability", method = RequestMethod.POST)
     public void checkReachability() {
@@ -178,6 +198,11 @@ public class StorageAdministrationApi {
         this.storageSyncStatusStore = storageSyncStatusStore;
     }
 
+    @Autowired
+    public void setFixityHistoryService(FixityHistoryService fixityHistoryService) {
+        this.fixityHistoryService = fixityHistoryService;
+    }
+
     @Autowired
     public void setStorageProvider(StorageProvider storageProvider) {
         this.storageProvider = storageProvider;
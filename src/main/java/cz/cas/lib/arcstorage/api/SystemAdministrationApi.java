@@ -2,12 +2,20 @@ package cz.cas.lib.arcstorage.api;
 
 import cz.cas.lib.arcstorage.domain.entity.SystemState;
 import cz.cas.lib.arcstorage.domain.store.Transactional;
+import cz.cas.lib.arcstorage.dto.BandwidthLimitDto;
+import cz.cas.lib.arcstorage.dto.ChecksumBenchmarkDto;
+import cz.cas.lib.arcstorage.dto.ChecksumType;
+import cz.cas.lib.arcstorage.dto.IoBufferPoolDto;
+import cz.cas.lib.arcstorage.dto.TrafficClass;
+import cz.cas.lib.arcstorage.exception.BadRequestException;
 import cz.cas.lib.arcstorage.exception.ForbiddenByConfigException;
 import cz.cas.lib.arcstorage.security.Roles;
+import cz.cas.lib.arcstorage.service.BandwidthLimiter;
 import cz.cas.lib.arcstorage.service.SystemAdministrationService;
 import cz.cas.lib.arcstorage.service.SystemStateService;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
 import cz.cas.lib.arcstorage.service.exception.storage.SomeLogicalStoragesNotReachableException;
+import cz.cas.lib.arcstorage.storage.IoBufferPool;
 import cz.cas.lib.arcstorage.storage.exception.StorageException;
 import cz.cas.lib.arcstorage.storagesync.backup.BackupExportService;
 import cz.cas.lib.arcstorage.storagesync.backup.BackupProcessException;
@@ -24,6 +32,7 @@ import jakarta.annotation.security.RolesAllowed;
 import jakarta.validation.Valid;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -31,9 +40,19 @@ import java.time.Instant;
 @RolesAllowed(Roles.ADMIN)
 public class SystemAdministrationApi {
 
+    /**
+     * max size of the file of the checksum benchmark in MB, the file is written to the tmp folder shared with the ingest
+     */
+    private static final int BENCHMARK_MAX_SIZE = 10 * 1024;
+    /**
+     * max number of computations in every mode of the checksum benchmark
+     */
+    private static final int BENCHMARK_MAX_ROUNDS = 10;
+
     private SystemStateService systemStateService;
     private BackupExportService backupExportService;
     private SystemAdministrationService systemAdministrationService;
+    private BandwidthLimiter bandwidthLimiter;
 
     @Operation(summary = "Updates systemState of the Archival Storage.")
     @RequestMapping(value = "/config", method = RequestMethod.POST)
@@ -104,6 +123,46 @@ public class SystemAdministrationApi {
         backupExportService.exportDataForBackup(since, until);
     }
 
+    @Operation(summary = "Returns usage of the pool of buffers used to copy, hash and upload objects.", description = "Growing number of exhaustions means that the pool capacity is too low for the I/O concurrency.")
+    @RequestMapping(value = "/io_buffers", method = RequestMethod.GET)
+    public IoBufferPoolDto getIoBufferPool() {
+        return IoBufferPool.getStats();
+    }
+
+    @Operation(summary = "Returns bandwidth limits of the traffic classes.", description = "Limits with null storageId are the defaults applied at storages without their own limit.")
+    @RequestMapping(value = "/bandwidth", method = RequestMethod.GET)
+    public List<BandwidthLimitDto> getBandwidthLimits() {
+        return bandwidthLimiter.getLimits();
+    }
+
+    @Operation(summary = "Sets bandwidth limit of the traffic class.", description = "If storageId is null, the default limit is set. The limit applies immediately, also to the running transfers, and is kept until the restart of the application.")
+    @RequestMapping(value = "/bandwidth", method = RequestMethod.PUT)
+    public void setBandwidthLimit(
+            @Parameter(description = "bandwidth limit", required = true) @RequestBody @Valid BandwidthLimitDto limit) {
+        bandwidthLimiter.setLimit(limit);
+    }
+
+    @Operation(summary = "Removes bandwidth limit of the traffic class at the storage, the default limit applies then.")
+    @RequestMapping(value = "/bandwidth/{storageId}/{trafficClass}", method = RequestMethod.DELETE)
+    public void removeBandwidthLimit(
+            @Parameter(description = "id of the storage", required = true) @PathVariable("storageId") String storageId,
+            @Parameter(description = "traffic class", required = true) @PathVariable("trafficClass") TrafficClass trafficClass) {
+        bandwidthLimiter.removeLimit(storageId, trafficClass);
+    }
+
+    @Operation(summary = "Compares the modes of checksum computation of local files.", description = "Creates file of random data in the tmp folder and computes its checksum in every mode, see arcstorage.hashing.localFile.mode. The file is probably in the page cache, so the results show the overhead of the modes rather than the device speed.")
+    @RequestMapping(value = "/benchmark/checksum", method = RequestMethod.POST)
+    public List<ChecksumBenchmarkDto> benchmarkChecksum(
+            @Parameter(description = "size of the file in MB, at most " + BENCHMARK_MAX_SIZE) @RequestParam(value = "size", defaultValue = "1024") int size,
+            @Parameter(description = "type of checksum") @RequestParam(value = "checksumType", defaultValue = "SHA512") ChecksumType checksumType,
+            @Parameter(description = "number of computations in every mode, at most " + BENCHMARK_MAX_ROUNDS) @RequestParam(value = "rounds", defaultValue = "3") int rounds) throws IOException, BadRequestException {
+        if (size < 1 || size > BENCHMARK_MAX_SIZE)
+            throw new BadRequestException("size must be between 1 and " + BENCHMARK_MAX_SIZE + " MB");
+        if (rounds < 1 || rounds > BENCHMARK_MAX_ROUNDS)
+            throw new BadRequestException("rounds must be between 1 and " + BENCHMARK_MAX_ROUNDS);
+        return systemAdministrationService.benchmarkChecksum(size * 1024L * 1024L, checksumType, rounds);
+    }
+
     @Autowired
     public void setBackupExportService(BackupExportService backupExportService) {
         this.backupExportService = backupExportService;
@@ -118,4 +177,9 @@ public class SystemAdministrationApi {
     public void setSystemAdministrationService(SystemAdministrationService systemAdministrationService) {
         this.systemAdministrationService = systemAdministrationService;
     }
+
+    @Autowired
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
 }
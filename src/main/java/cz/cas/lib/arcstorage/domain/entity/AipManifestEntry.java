@@ -0,0 +1,49 @@
+package cz.cas.lib.arcstorage.domain.entity;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+
+/**
+ * Single entry of the AIP data ZIP as read from its central directory during the ingest.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "arcstorage_aip_manifest_entry")
+@NoArgsConstructor
+public class AipManifestEntry extends DomainObject {
+
+    @Column(name = "arcstorage_aip_sip_id")
+    private String sipId;
+    /**
+     * path of the entry inside of the ZIP, directories end with slash
+     */
+    private String path;
+    /**
+     * decompressed size in bytes
+     */
+    private long size;
+    private long compressedSize;
+    private long crc;
+    /**
+     * ZIP compression method, e.g. 0 for STORED and 8 for DEFLATED
+     */
+    private int compressionMethod;
+    /**
+     * offset of the local file header from the start of the ZIP
+     */
+    private long localHeaderOffset;
+    /**
+     * offset of the (compressed) entry data from the start of the ZIP
+     */
+    private long dataOffset;
+
+    public boolean isDirectory() {
+        return path.endsWith("/");
+    }
+}
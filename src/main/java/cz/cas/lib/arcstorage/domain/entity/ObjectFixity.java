@@ -0,0 +1,81 @@
+package cz.cas.lib.arcstorage.domain.entity;
+
+import cz.cas.lib.arcstorage.dto.ChecksumType;
+import cz.cas.lib.arcstorage.dto.FixityResult;
+import cz.cas.lib.arcstorage.dto.VerificationLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Last fixity verification of an object at a logical storage at a {@link VerificationLevel}. There is at most one record
+ * of the same object at the same storage and level, the record is overwritten by every further verification at the level
+ * or at a higher level.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "arcstorage_object_fixity", uniqueConstraints = @UniqueConstraint(columnNames = {"object_id", "arcstorage_storage_id", "level"}))
+@NoArgsConstructor
+public class ObjectFixity extends DomainObject {
+    /**
+     * database id of the verified {@link ArchivalObject}
+     */
+    @Column(name = "object_id")
+    private String objectId;
+
+    @ManyToOne
+    @JoinColumn(name = "arcstorage_storage_id")
+    private Storage storage;
+
+    /**
+     * time of the last verification, null if the object has not been verified because of an error
+     */
+    private Instant verified;
+
+    @Enumerated(EnumType.STRING)
+    private VerificationLevel level;
+
+    @Enumerated(EnumType.STRING)
+    private ChecksumType checksumType;
+
+    @Enumerated(EnumType.STRING)
+    private FixityResult result;
+    /**
+     * size of the content at the storage in bytes, null if it has not been obtained
+     */
+    private Long size;
+    /**
+     * number of bytes read from the storage, null if the checksum has been computed by the storage
+     */
+    private Long bytes;
+    /**
+     * duration of the verification in milliseconds, null if it has not been measured for the single object
+     */
+    private Long duration;
+
+    public ObjectFixity(String objectId, Storage storage, VerificationLevel level, ChecksumType checksumType, FixityResult result,
+                        Long size, Long bytes, Long duration) {
+        this.objectId = objectId;
+        this.storage = storage;
+        this.verified = Instant.now();
+        this.level = level;
+        this.checksumType = checksumType;
+        this.result = result;
+        this.size = size;
+        this.bytes = bytes;
+        this.duration = duration;
+    }
+
+    /**
+     * @return copy of the record at the lower level, covered by the verification at the level of this record
+     */
+    public ObjectFixity atLevel(VerificationLevel lowerLevel) {
+        ObjectFixity copy = new ObjectFixity(objectId, storage, lowerLevel, checksumType, result, size, bytes, duration);
+        copy.setVerified(verified);
+        return copy;
+    }
+}
@@ -0,0 +1,49 @@
+package cz.cas.lib.arcstorage.domain.entity;
+
+import cz.cas.lib.arcstorage.domain.store.InstantGenerator;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.GenerationTime;
+import org.hibernate.annotations.GeneratorType;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Pending repair of an object which has been found corrupted at the storage. There is at most one repair of the same
+ * object at the same storage, the repair is deleted once it succeeds or all its attempts fail.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "arcstorage_object_repair", uniqueConstraints = @UniqueConstraint(columnNames = {"object_id", "arcstorage_storage_id"}))
+@NoArgsConstructor
+public class ObjectRepair extends DomainObject {
+    /**
+     * database id of the {@link ArchivalObject} to repair
+     */
+    @Column(name = "object_id")
+    private String objectId;
+
+    @ManyToOne
+    @JoinColumn(name = "arcstorage_storage_id")
+    private Storage storage;
+
+    @Column(updatable = false)
+    @GeneratorType(type = InstantGenerator.class, when = GenerationTime.INSERT)
+    private Instant created;
+
+    private int attempts;
+    /**
+     * time before which the repair should not be attempted again
+     */
+    private Instant nextAttempt;
+    private String lastError;
+
+    public ObjectRepair(String objectId, Storage storage) {
+        this.objectId = objectId;
+        this.storage = storage;
+        this.nextAttempt = Instant.now();
+    }
+}
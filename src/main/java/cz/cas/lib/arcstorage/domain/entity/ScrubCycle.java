@@ -0,0 +1,44 @@
+package cz.cas.lib.arcstorage.domain.entity;
+
+import cz.cas.lib.arcstorage.dto.VerificationLevel;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Progress of the current cycle of the fixity scrubber at one {@link VerificationLevel}.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "arcstorage_scrub_cycle")
+@NoArgsConstructor
+public class ScrubCycle extends DomainObject {
+
+    @Column(unique = true)
+    @Enumerated(EnumType.STRING)
+    private VerificationLevel level;
+
+    /**
+     * start of the current cycle
+     */
+    private Instant start;
+
+    /**
+     * number of objects verified in the current cycle
+     */
+    private long verified;
+
+    /**
+     * objects created before this time have been checked for missing verification in the current cycle, null if none
+     */
+    private Instant checkedUntil;
+
+    public ScrubCycle(VerificationLevel level, Instant start) {
+        this.level = level;
+        this.start = start;
+    }
+}
@@ -0,0 +1,58 @@
+package cz.cas.lib.arcstorage.domain.store;
+
+import cz.cas.lib.arcstorage.domain.entity.AipManifestEntry;
+import cz.cas.lib.arcstorage.domain.entity.QAipManifestEntry;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public class AipManifestEntryStore extends DomainStore<AipManifestEntry, QAipManifestEntry> {
+    public AipManifestEntryStore() {
+        super(AipManifestEntry.class, QAipManifestEntry.class);
+    }
+
+    public List<AipManifestEntry> findBySip(String sipId) {
+        QAipManifestEntry qObj = qObject();
+        List<AipManifestEntry> entries = query().select(qObj).where(qObj.sipId.eq(sipId)).orderBy(qObj.localHeaderOffset.asc()).fetch();
+        detachAll();
+        return entries;
+    }
+
+    public AipManifestEntry findBySipAndPath(String sipId, String path) {
+        QAipManifestEntry qObj = qObject();
+        AipManifestEntry entry = query().select(qObj).where(qObj.sipId.eq(sipId)).where(qObj.path.eq(path)).fetchFirst();
+        detachAll();
+        return entry;
+    }
+
+    /**
+     * @return paths of the AIP data entries which are among the passed paths
+     */
+    public List<String> findExistingPaths(String sipId, Collection<String> paths) {
+        QAipManifestEntry qObj = qObject();
+        List<String> pathList = new ArrayList<>(paths);
+        List<String> existing = new ArrayList<>();
+        for (int i = 0; i < pathList.size(); i = i + BIND_PARAMS_LIMIT) {
+            existing.addAll(query().select(qObj.path).where(qObj.sipId.eq(sipId))
+                    .where(qObj.path.in(pathList.subList(i, Math.min(i + BIND_PARAMS_LIMIT, pathList.size()))))
+                    .fetch());
+        }
+        detachAll();
+        return existing;
+    }
+
+    public boolean existsForSip(String sipId) {
+        QAipManifestEntry qObj = qObject();
+        boolean exists = query().select(qObj.id).where(qObj.sipId.eq(sipId)).fetchFirst() != null;
+        detachAll();
+        return exists;
+    }
+
+    public void deleteBySip(String sipId) {
+        QAipManifestEntry qObj = qObject();
+        queryFactory.delete(qObj).where(qObj.sipId.eq(sipId)).execute();
+    }
+}
@@ -48,4 +48,27 @@ public class AipSipStore extends DomainStore<AipSip, QAipSip> {
         detachAll();
         return fetch;
     }
+
+    /**
+     * Finds ids of AIPs created in the time range ordered by creation time ASC
+     *
+     * @param from      inclusive lower bound, null for no bound
+     * @param to        exclusive upper bound, null for no bound
+     * @param dataSpace null for AIPs of all data spaces
+     * @return ids of AIPs
+     */
+    public List<String> findIdsCreatedBetween(Instant from, Instant to, String dataSpace) {
+        JPAQuery<String> query = query()
+                .select(qObject().id)
+                .orderBy(qObject().created.asc());
+        if (from != null)
+            query.where(qObject().created.goe(from));
+        if (to != null)
+            query.where(qObject().created.lt(to));
+        if (dataSpace != null)
+            query.where(qObject().owner.dataSpace.eq(dataSpace));
+        List<String> fetch = query.fetch();
+        detachAll();
+        return fetch;
+    }
 }
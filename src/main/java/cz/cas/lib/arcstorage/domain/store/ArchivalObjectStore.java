@@ -1,16 +1,22 @@
 package cz.cas.lib.arcstorage.domain.store;
 
+import com.querydsl.core.BooleanBuilder;
+import com.querydsl.jpa.JPAExpressions;
 import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAUpdateClause;
 import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
 import cz.cas.lib.arcstorage.domain.entity.QArchivalObject;
+import cz.cas.lib.arcstorage.domain.entity.QObjectFixity;
 import cz.cas.lib.arcstorage.dto.ObjectState;
+import cz.cas.lib.arcstorage.dto.VerificationLevel;
 import cz.cas.lib.arcstorage.security.authorization.assign.audit.EntitySaveEvent;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Repository
 public class ArchivalObjectStore extends DomainStore<ArchivalObject, QArchivalObject> {
@@ -44,6 +50,49 @@ public class ArchivalObjectStore extends DomainStore<ArchivalObject, QArchivalOb
         return fetch;
     }
 
+    /**
+     * Finds objects whose metadata are stored at the logical storages and whose fixity has never been verified at the level
+     * at some of the storages.
+     *
+     * @param level       level of the verification
+     * @param storageIds  storages at which the objects should be verified
+     * @param createdFrom objects created before this time are skipped, null to find all objects
+     * @param count       max number of objects to return
+     * @return objects, the oldest first
+     */
+    public List<ArchivalObject> findStoredWithoutFixity(VerificationLevel level, List<String> storageIds, Instant createdFrom, int count) {
+        QArchivalObject object = qObject();
+        QObjectFixity fixity = QObjectFixity.objectFixity;
+        BooleanBuilder withoutFixity = new BooleanBuilder();
+        for (String storageId : storageIds) {
+            withoutFixity.or(JPAExpressions.selectOne().from(fixity)
+                    .where(fixity.objectId.eq(object.id), fixity.storage.id.eq(storageId), fixity.level.eq(level)).notExists());
+        }
+        JPAQuery<ArchivalObject> query = query()
+                .select(object)
+                .where(object.state.in(storedStates()))
+                .where(withoutFixity);
+        if (createdFrom != null)
+            query.where(object.created.goe(createdFrom));
+        List<ArchivalObject> fetch = query
+                .orderBy(object.created.asc())
+                .limit(count)
+                .fetch();
+        detachAll();
+        return fetch;
+    }
+
+    /**
+     * @return number of objects whose metadata are stored at the logical storages
+     */
+    public long countStored() {
+        return query().select(qObject()).where(qObject().state.in(storedStates())).fetchCount();
+    }
+
+    private static List<ObjectState> storedStates() {
+        return Arrays.stream(ObjectState.values()).filter(ObjectState::metadataMustBeStoredAtLogicalStorage).collect(Collectors.toList());
+    }
+
     public void setObjectsState(ObjectState state, List<String> ids) {
         QArchivalObject q = qObject();
         JPAUpdateClause jpaUpdateClause = new JPAUpdateClause(entityManager, q);
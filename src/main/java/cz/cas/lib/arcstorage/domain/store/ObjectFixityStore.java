@@ -0,0 +1,98 @@
+package cz.cas.lib.arcstorage.domain.store;
+
+import com.querydsl.core.Tuple;
+import cz.cas.lib.arcstorage.domain.entity.ObjectFixity;
+import cz.cas.lib.arcstorage.domain.entity.QObjectFixity;
+import cz.cas.lib.arcstorage.dto.FixityResult;
+import cz.cas.lib.arcstorage.dto.VerificationLevel;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Repository
+public class ObjectFixityStore extends DomainStore<ObjectFixity, QObjectFixity> {
+    public ObjectFixityStore() {
+        super(ObjectFixity.class, QObjectFixity.class);
+    }
+
+    /**
+     * @return fixity records of the objects at all storages and all levels
+     */
+    public List<ObjectFixity> findByObjects(List<String> objectIds) {
+        QObjectFixity qObj = qObject();
+        List<ObjectFixity> fixities = new ArrayList<>();
+        for (int i = 0; i < objectIds.size(); i = i + BIND_PARAMS_LIMIT) {
+            fixities.addAll(query().select(qObj).where(qObj.objectId.in(objectIds.subList(i, Math.min(i + BIND_PARAMS_LIMIT, objectIds.size())))).fetch());
+        }
+        detachAll();
+        return fixities;
+    }
+
+    /**
+     * Finds objects whose last verification at the level at some of the storages is older than the given time or which have
+     * never been verified because of an error, see {@link FixityResult#ERROR}. Records of
+     * every storage are read separately in the order of the verification, so that the query is served by the index and
+     * reads at most <code>count</code> records of every storage.
+     *
+     * @param level      level of the verification
+     * @param before     objects verified at all storages after this time are skipped
+     * @param storageIds storages at which the objects should be verified
+     * @param count      max number of objects to return
+     * @return ids of the objects, the object with the oldest verification first
+     */
+    public List<String> findStaleObjectIds(VerificationLevel level, Instant before, List<String> storageIds, int count) {
+        QObjectFixity qObj = qObject();
+        Map<String, Instant> oldestVerifications = new HashMap<>();
+        for (String storageId : storageIds) {
+            List<Tuple> stale = query().select(qObj.objectId, qObj.verified)
+                    .where(qObj.storage.id.eq(storageId))
+                    .where(qObj.level.eq(level))
+                    .where(qObj.verified.before(before).or(qObj.verified.isNull()))
+                    .orderBy(qObj.verified.asc().nullsFirst())
+                    .limit(count)
+                    .fetch();
+            for (Tuple t : stale) {
+                Instant verified = t.get(qObj.verified) == null ? Instant.MIN : t.get(qObj.verified);
+                oldestVerifications.merge(t.get(qObj.objectId), verified, (a, b) -> a.isBefore(b) ? a : b);
+            }
+        }
+        detachAll();
+        return oldestVerifications.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .limit(count)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    public void deleteByObjects(List<String> objectIds) {
+        QObjectFixity qObj = qObject();
+        queryFactory.delete(qObj).where(qObj.objectId.in(objectIds)).execute();
+    }
+
+    /**
+     * @return number of objects verified at the storage, records of the objects never verified because of an error are skipped
+     */
+    public long countByStorage(String storageId, VerificationLevel level) {
+        QObjectFixity qObj = qObject();
+        return query().select(qObj).where(qObj.storage.id.eq(storageId)).where(qObj.level.eq(level)).where(qObj.verified.isNotNull()).fetchCount();
+    }
+
+    public long countFailedByStorage(String storageId, VerificationLevel level) {
+        QObjectFixity qObj = qObject();
+        return query().select(qObj).where(qObj.storage.id.eq(storageId)).where(qObj.level.eq(level)).where(qObj.result.ne(FixityResult.OK)).fetchCount();
+    }
+
+    /**
+     * @param rank position of the record when ordered from the latest verification, starting from 0
+     * @return time of the verification at the position or null if there are not enough records
+     */
+    public Instant findVerifiedAtRank(String storageId, VerificationLevel level, long rank) {
+        QObjectFixity qObj = qObject();
+        return query().select(qObj.verified).where(qObj.storage.id.eq(storageId)).where(qObj.level.eq(level)).where(qObj.verified.isNotNull()).orderBy(qObj.verified.desc()).offset(rank).limit(1).fetchFirst();
+    }
+}
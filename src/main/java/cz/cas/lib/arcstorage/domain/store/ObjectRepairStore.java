@@ -0,0 +1,32 @@
+package cz.cas.lib.arcstorage.domain.store;
+
+import cz.cas.lib.arcstorage.domain.entity.ObjectRepair;
+import cz.cas.lib.arcstorage.domain.entity.QObjectRepair;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public class ObjectRepairStore extends DomainStore<ObjectRepair, QObjectRepair> {
+    public ObjectRepairStore() {
+        super(ObjectRepair.class, QObjectRepair.class);
+    }
+
+    public ObjectRepair findByObjectAndStorage(String objectId, String storageId) {
+        QObjectRepair qObj = qObject();
+        ObjectRepair repair = query().select(qObj).where(qObj.objectId.eq(objectId)).where(qObj.storage.id.eq(storageId)).fetchFirst();
+        detachAll();
+        return repair;
+    }
+
+    /**
+     * @return repairs which should be attempted at the given time, the oldest first
+     */
+    public List<ObjectRepair> findDue(Instant now, int limit) {
+        QObjectRepair qObj = qObject();
+        List<ObjectRepair> repairs = query().select(qObj).where(qObj.nextAttempt.loe(now)).orderBy(qObj.created.asc()).limit(limit).fetch();
+        detachAll();
+        return repairs;
+    }
+}
@@ -0,0 +1,22 @@
+package cz.cas.lib.arcstorage.domain.store;
+
+import cz.cas.lib.arcstorage.domain.entity.QScrubCycle;
+import cz.cas.lib.arcstorage.domain.entity.ScrubCycle;
+import cz.cas.lib.arcstorage.dto.VerificationLevel;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class ScrubCycleStore extends DomainStore<ScrubCycle, QScrubCycle> {
+    public ScrubCycleStore() {
+        super(ScrubCycle.class, QScrubCycle.class);
+    }
+
+    /**
+     * @return progress of the cycle at the level or null if no cycle has been started yet
+     */
+    public ScrubCycle findByLevel(VerificationLevel level) {
+        ScrubCycle cycle = query().select(qObject()).where(qObject().level.eq(level)).fetchFirst();
+        detachAll();
+        return cycle;
+    }
+}
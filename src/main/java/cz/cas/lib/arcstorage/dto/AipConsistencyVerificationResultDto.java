@@ -12,6 +12,10 @@ public class AipConsistencyVerificationResultDto {
     private String storageName;
     private StorageType storageType;
     private boolean reachable;
+    /**
+     * level at which the objects have been verified
+     */
+    private VerificationLevel level = VerificationLevel.FULL;
 
     private ObjectConsistencyVerificationResultDto aipState;
     private List<XmlConsistencyVerificationResultDto> xmlStates = new ArrayList<>();
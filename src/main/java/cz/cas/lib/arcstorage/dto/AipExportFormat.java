@@ -0,0 +1,28 @@
+package cz.cas.lib.arcstorage.dto;
+
+/**
+ * Format of the outer container in which AIP data and AIP XMLs are returned.
+ * <p>
+ * Both formats only store the entries without any compression as the AIP data are already compressed ZIP.
+ * </p>
+ */
+public enum AipExportFormat {
+    ZIP("application/zip", ".zip"),
+    TAR("application/x-tar", ".tar");
+
+    private final String contentType;
+    private final String suffix;
+
+    AipExportFormat(String contentType, String suffix) {
+        this.contentType = contentType;
+        this.suffix = suffix;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+}
@@ -0,0 +1,38 @@
+package cz.cas.lib.arcstorage.dto;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Single decompressed file of AIP data together with the opened AIP data from which the file is read.
+ * Caller is responsible for calling {@link #close()} once the stream is not needed anymore.
+ */
+public class AipFileRetrievalResource implements Closeable {
+
+    @Getter
+    private final InputStream inputStream;
+
+    /**
+     * size of the decompressed file in bytes
+     */
+    @Getter
+    private final long size;
+
+    private final Closeable aipData;
+
+    public AipFileRetrievalResource(InputStream inputStream, long size, Closeable aipData) {
+        this.inputStream = inputStream;
+        this.size = size;
+        this.aipData = aipData;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (aipData) {
+            inputStream.close();
+        }
+    }
+}
@@ -29,6 +29,12 @@ public class AipRetrievalResource extends StorageSessionHolder {
      */
     @Getter
     private Map<Integer, InputStream> xmls = new TreeMap<>();
+    /**
+     * CRC32 of the SIP computed while the SIP has been retrieved, null if it is not known
+     */
+    @Setter
+    @Getter
+    private Long sipCrc;
 
     public AipRetrievalResource(Closeable connection) {
         super(connection);
@@ -0,0 +1,24 @@
+package cz.cas.lib.arcstorage.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Bandwidth limit of the traffic class at the storage.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BandwidthLimitDto {
+    @Schema(description = "id of the storage or 'backup' for the backup location, null for the default limit of the storages without their own limit")
+    private String storageId;
+    @NotNull
+    private TrafficClass trafficClass;
+    @Schema(description = "in bytes per second, 0 means unlimited")
+    private long bytesPerSecond;
+}
@@ -0,0 +1,35 @@
+package cz.cas.lib.arcstorage.dto;
+
+import cz.cas.lib.arcstorage.storage.LocalFileChecksum;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Time of checksum computation of a local file in one of the {@link LocalFileChecksum.Mode}s.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChecksumBenchmarkDto {
+    private LocalFileChecksum.Mode mode;
+    /**
+     * size of the hashed file, in bytes
+     */
+    private long size;
+    private int rounds;
+    /**
+     * shortest time of the computation, in milliseconds
+     */
+    private long bestTime;
+    /**
+     * average time of the computation, in milliseconds
+     */
+    private long averageTime;
+    /**
+     * throughput of the shortest computation, in bytes per second
+     */
+    private double throughput;
+}
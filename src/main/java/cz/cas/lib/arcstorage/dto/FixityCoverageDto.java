@@ -0,0 +1,38 @@
+package cz.cas.lib.arcstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Coverage of the objects of logical storage by the fixity verifications at a {@link VerificationLevel}. Ages are in
+ * seconds, percentile which falls to the objects never verified at the storage is null.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FixityCoverageDto {
+    private String storageId;
+    private String storageName;
+    private VerificationLevel level;
+    /**
+     * number of objects which should be stored at the storage
+     */
+    private long objects;
+    /**
+     * number of objects which have been verified at the storage at the level at least once
+     */
+    private long verifiedObjects;
+    /**
+     * number of objects whose last verification at the storage has not succeeded
+     */
+    private long failedObjects;
+    private Instant oldestVerification;
+    private Long ageP50;
+    private Long ageP90;
+    private Long ageP99;
+}
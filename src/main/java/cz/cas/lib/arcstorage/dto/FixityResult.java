@@ -0,0 +1,27 @@
+package cz.cas.lib.arcstorage.dto;
+
+/**
+ * Outcome of the fixity verification of an object at a logical storage.
+ */
+public enum FixityResult {
+    /**
+     * metadata and content match the database
+     */
+    OK,
+    /**
+     * metadata at the storage did not match the database
+     */
+    METADATA_MISMATCH,
+    /**
+     * checksum of the content at the storage did not match the database
+     */
+    CORRUPTED,
+    /**
+     * object was not found at the storage
+     */
+    MISSING,
+    /**
+     * storage error prevented the verification
+     */
+    ERROR
+}
@@ -0,0 +1,39 @@
+package cz.cas.lib.arcstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Usage of the pool of I/O buffers, counters are accumulated since the start of the application.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class IoBufferPoolDto {
+    /**
+     * size of a single buffer, in bytes
+     */
+    private int bufferSize;
+    /**
+     * max number of buffers kept in the pool
+     */
+    private int capacity;
+    /**
+     * number of free buffers in the pool
+     */
+    private int pooled;
+    private int inUse;
+    private int peakInUse;
+    private long acquisitions;
+    /**
+     * number of buffers allocated because there was no free buffer in the pool
+     */
+    private long allocations;
+    /**
+     * number of allocations made while more buffers than the capacity were in use, such buffers are not kept in the pool
+     */
+    private long exhaustions;
+}
@@ -1,6 +1,5 @@
 package cz.cas.lib.arcstorage.dto;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -10,7 +9,6 @@ import java.time.temporal.ChronoUnit;
 
 @Getter
 @Setter
-@AllArgsConstructor
 @NoArgsConstructor
 public class ObjectConsistencyVerificationResultDto {
     /**
@@ -28,6 +26,10 @@ public class ObjectConsistencyVerificationResultDto {
     /**
      * whether checksum of the object computed at storage matches the checksum in database.. this may be set to true only
      * if {@link ObjectState#contentMustBeStoredAtLogicalStorage()} is true
+     * <p>
+     * At {@link VerificationLevel#SHALLOW} it is set to true if the content exists at the storage, at
+     * {@link VerificationLevel#METADATA} the content is not verified and it is left false.
+     * </p>
      */
     private boolean contentConsistent;
     /**
@@ -46,6 +48,21 @@ public class ObjectConsistencyVerificationResultDto {
      * creation time of the object
      */
     private Instant created;
+    /**
+     * size of the content at storage in bytes, null if the content has not been accessed
+     */
+    private Long storageSize;
+
+    public ObjectConsistencyVerificationResultDto(String databaseId, String storageId, ObjectState state, boolean contentConsistent, boolean metadataConsistent, Checksum storageChecksum, Checksum databaseChecksum, Instant created) {
+        this.databaseId = databaseId;
+        this.storageId = storageId;
+        this.state = state;
+        this.contentConsistent = contentConsistent;
+        this.metadataConsistent = metadataConsistent;
+        this.storageChecksum = storageChecksum;
+        this.databaseChecksum = databaseChecksum;
+        this.created = created;
+    }
 
     public boolean considerCleanup() {
         return state.isFail() || (state.isProcessing() && created.isBefore(Instant.now().minus(1, ChronoUnit.DAYS)));
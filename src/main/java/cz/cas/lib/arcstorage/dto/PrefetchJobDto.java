@@ -0,0 +1,46 @@
+package cz.cas.lib.arcstorage.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of the prefetch of AIPs to the local disk.
+ */
+@Getter
+public class PrefetchJobDto {
+    private final String id = UUID.randomUUID().toString();
+    private final Instant created = Instant.now();
+    /**
+     * null while the job is running
+     */
+    @Setter
+    private volatile Instant finished;
+    private final int total;
+    /**
+     * number of AIPs which have been processed, successfully or not
+     */
+    private final AtomicInteger processed = new AtomicInteger();
+    /**
+     * number of AIPs whose SIP and all XMLs are in the prefetch cache
+     */
+    private final AtomicInteger prefetched = new AtomicInteger();
+    /**
+     * number of bytes downloaded from the logical storages
+     */
+    private final AtomicLong bytes = new AtomicLong();
+    /**
+     * AIPs which could not be prefetched, with the reason
+     */
+    private final Map<String, String> failed = new ConcurrentHashMap<>();
+
+    public PrefetchJobDto(int total) {
+        this.total = total;
+    }
+}
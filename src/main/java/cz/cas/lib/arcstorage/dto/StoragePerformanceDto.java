@@ -0,0 +1,36 @@
+package cz.cas.lib.arcstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Performance of logical storage measured on real read operations, all values except the count of samples are
+ * exponentially weighted moving averages.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StoragePerformanceDto {
+    private String storageId;
+    private String storageName;
+    /**
+     * time until the storage provided the stream with the object, in milliseconds, null if not measured yet
+     */
+    private Double latency;
+    /**
+     * speed of the object transfer, in bytes per second, null if not measured yet
+     */
+    private Double throughput;
+    /**
+     * ratio of failed reads, failed read is read which has thrown storage error or returned corrupted object
+     */
+    private double errorRate;
+    private long samples;
+    /**
+     * expected cost of a read used to choose between storages of the same priority, lower is better, null if not known yet
+     */
+    private Double score;
+}
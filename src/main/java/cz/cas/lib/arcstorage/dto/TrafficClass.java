@@ -0,0 +1,28 @@
+package cz.cas.lib.arcstorage.dto;
+
+/**
+ * Kind of the traffic between the Archival Storage and a logical storage, every class has its own bandwidth limit at
+ * every storage. Cleanup has no class as it only rollbacks and deletes the objects and does not transfer their content.
+ */
+public enum TrafficClass {
+    /**
+     * objects ingested by the users
+     */
+    FOREGROUND,
+    /**
+     * objects copied to the storage being synchronized
+     */
+    SYNC,
+    /**
+     * objects copied to the backup location
+     */
+    BACKUP,
+    /**
+     * content read by the fixity scrubber
+     */
+    SCRUB,
+    /**
+     * content hashed by the storage adapters during the verification of AIPs at {@link VerificationLevel#FULL} level
+     */
+    VERIFY
+}
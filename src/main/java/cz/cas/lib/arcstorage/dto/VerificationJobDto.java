@@ -0,0 +1,69 @@
+package cz.cas.lib.arcstorage.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of the verification of AIPs running in background. Results are available once the job has finished.
+ */
+@Getter
+public class VerificationJobDto {
+    private final String id = UUID.randomUUID().toString();
+    private final Instant created = Instant.now();
+    /**
+     * null while the job is running
+     */
+    @Setter
+    private volatile Instant finished;
+    /**
+     * null if the AIPs are verified at all reachable storages
+     */
+    private final String storageId;
+    private final VerificationLevel level;
+    private final int total;
+    /**
+     * number of AIPs which have been processed, successfully or not
+     */
+    private final AtomicInteger processed = new AtomicInteger();
+    /**
+     * number of copies of AIPs, i.e. AIPs at single storage, found inconsistent
+     */
+    private final AtomicInteger inconsistent = new AtomicInteger();
+    /**
+     * number of objects (SIPs and XMLs) verified over all storages
+     */
+    private final AtomicLong objects = new AtomicLong();
+    /**
+     * size of the content of the verified objects, 0 at {@link VerificationLevel#METADATA} level
+     */
+    private final AtomicLong bytes = new AtomicLong();
+    /**
+     * AIPs which could not be verified, with the reason
+     */
+    private final Map<String, String> failed = new ConcurrentHashMap<>();
+    /**
+     * reason why the whole job has been aborted, e.g. unreachable storage, null otherwise
+     */
+    @Setter
+    private volatile String error;
+    /**
+     * id of the user who has submitted the job
+     */
+    @JsonIgnore
+    private final String submitter;
+
+    public VerificationJobDto(String storageId, VerificationLevel level, int total, String submitter) {
+        this.storageId = storageId;
+        this.level = level;
+        this.total = total;
+        this.submitter = submitter;
+    }
+}
@@ -0,0 +1,28 @@
+package cz.cas.lib.arcstorage.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.List;
+
+@Getter
+@Setter
+public class VerificationJobRequestDto {
+
+    @Schema(description = "ids of AIPs to verify, if not set, AIPs created in the time range are verified")
+    private List<String> aipIds;
+
+    @Schema(description = "inclusive lower bound of the creation time of AIPs to verify, no bound if not set")
+    private Instant from;
+
+    @Schema(description = "exclusive upper bound of the creation time of AIPs to verify, no bound if not set")
+    private Instant to;
+
+    @Schema(description = "id of the logical storage, if not set, AIPs are verified at all reachable storages")
+    private String storageId;
+
+    @Schema(description = "depth of the verification, the content is hashed only at FULL level")
+    private VerificationLevel level = VerificationLevel.FULL;
+}
@@ -0,0 +1,27 @@
+package cz.cas.lib.arcstorage.dto;
+
+/**
+ * Depth of the verification of an object at a logical storage. Every level includes the checks of the lower levels.
+ */
+public enum VerificationLevel {
+    /**
+     * state, creation time and checksum kept in the metadata at the storage (.meta file or S3 metadata) are compared
+     * with the database, the content is not accessed
+     */
+    METADATA,
+    /**
+     * content is checked to exist and its size is obtained, the content is not read
+     */
+    SHALLOW,
+    /**
+     * checksum of the whole content is computed and compared with the database
+     */
+    FULL;
+
+    /**
+     * @return true if the verification at this level performs also the checks of the other level
+     */
+    public boolean includes(VerificationLevel other) {
+        return compareTo(other) >= 0;
+    }
+}
@@ -8,10 +8,13 @@ import cz.cas.lib.arcstorage.domain.entity.DomainObject;
 import cz.cas.lib.arcstorage.domain.entity.SystemState;
 import cz.cas.lib.arcstorage.domain.store.ArchivalObjectStore;
 import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
+import cz.cas.lib.arcstorage.service.FixityScrubberService;
 import cz.cas.lib.arcstorage.service.IntervalJobService;
+import cz.cas.lib.arcstorage.service.ObjectRepairService;
 import cz.cas.lib.arcstorage.service.StorageProvider;
 import cz.cas.lib.arcstorage.service.SystemAdministrationService;
 import cz.cas.lib.arcstorage.service.SystemStateService;
+import cz.cas.lib.arcstorage.service.VerificationJobService;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
 import cz.cas.lib.arcstorage.service.exception.storage.SomeLogicalStoragesNotReachableException;
 import cz.cas.lib.arcstorage.storage.StorageService;
@@ -58,6 +61,12 @@ public class BaseInitializer implements ApplicationListener<ApplicationReadyEven
     private SystemAdministrationService systemAdministrationService;
     @Autowired
     private ArchivalObjectStore archivalObjectStore;
+    @Autowired
+    private ObjectRepairService objectRepairService;
+    @Autowired
+    private FixityScrubberService fixityScrubberService;
+    @Autowired
+    private VerificationJobService verificationJobService;
 
     @Override
     public void onApplicationEvent(ApplicationReadyEvent events) {
@@ -70,6 +79,9 @@ public class BaseInitializer implements ApplicationListener<ApplicationReadyEven
         if (!env.equals("test")) {
             checkAttachedStorages(systemState);
             intervalJobService.scheduleReachabilityChecks(systemState.getReachabilityCheckIntervalInMinutes());
+            objectRepairService.scheduleRepairs();
+            fixityScrubberService.start();
+            verificationJobService.scheduleCleanup();
         }
         if (startUpCleanUp) {
             try {
@@ -0,0 +1,195 @@
+package cz.cas.lib.arcstorage.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of AIP data ZIPs opened from local storage, so that the central directory of the same AIP is not read
+ * and parsed again by every partial read of the AIP.
+ * <p>
+ * The cache is bounded by estimated heap size of the parsed central directories. Cached ZIPs are reference counted,
+ * ZIP evicted or invalidated while it is used is closed once the last {@link ZipHandle} is closed.
+ * </p>
+ * <p>
+ * The cache has to be invalidated whenever the AIP data may change or disappear at storage, i.e. on delete, forget,
+ * rollback and archival retry of the AIP.
+ * </p>
+ */
+@Slf4j
+@Service
+public class AipDataZipCache {
+
+    /**
+     * rough estimate of heap occupied by a parsed central directory entry apart from its name
+     */
+    private static final long ENTRY_WEIGHT = 320;
+
+    private final Map<String, CachedZip> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+    private long maxWeight;
+
+    /**
+     * Returns handle of the cached ZIP of AIP data or opens the ZIP at the path and caches it.
+     *
+     * @param sipId   id of the AIP
+     * @param aipData path to the AIP data at local storage
+     * @return handle of the ZIP which has to be closed once the ZIP is not needed anymore
+     * @throws IOException if the ZIP could not be opened
+     */
+    public ZipHandle acquire(String sipId, Path aipData) throws IOException {
+        synchronized (cache) {
+            CachedZip cached = cache.get(sipId);
+            if (cached != null && cached.path.equals(aipData)) {
+                cached.references++;
+                return new ZipHandle(cached.zipFile, cached, cache);
+            }
+        }
+        ZipFile zipFile = ZipFile.builder().setPath(aipData).get();
+        long zipWeight = estimateWeight(zipFile);
+        if (zipWeight > maxWeight)
+            return new ZipHandle(zipFile);
+        synchronized (cache) {
+            CachedZip cached = cache.get(sipId);
+            if (cached != null && cached.path.equals(aipData)) {
+                //opened concurrently by other request
+                IOUtils.closeQuietly(zipFile);
+                cached.references++;
+                return new ZipHandle(cached.zipFile, cached, cache);
+            }
+            if (cached != null)
+                evict(sipId);
+            cached = new CachedZip(aipData, zipFile, zipWeight);
+            cached.references++;
+            cache.put(sipId, cached);
+            weight += zipWeight;
+            Iterator<Map.Entry<String, CachedZip>> iterator = cache.entrySet().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                Map.Entry<String, CachedZip> eldest = iterator.next();
+                if (eldest.getValue() == cached)
+                    continue;
+                iterator.remove();
+                release(eldest.getValue());
+            }
+            log.debug("ZIP of AIP data with id " + sipId + " has been cached, cache weight: " + weight + ".");
+            return new ZipHandle(zipFile, cached, cache);
+        }
+    }
+
+    /**
+     * Closes and removes the cached ZIP of the AIP data. ZIP which is used at the moment is closed once it is released.
+     *
+     * @param sipId id of the AIP
+     */
+    public void invalidate(String sipId) {
+        synchronized (cache) {
+            if (cache.containsKey(sipId)) {
+                evict(sipId);
+                log.debug("Cached ZIP of AIP data with id " + sipId + " has been invalidated.");
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (cache) {
+            for (String sipId : cache.keySet().toArray(new String[0])) {
+                evict(sipId);
+            }
+        }
+    }
+
+    private void evict(String sipId) {
+        release(cache.remove(sipId));
+    }
+
+    private void release(CachedZip cached) {
+        weight -= cached.weight;
+        cached.evicted = true;
+        if (cached.references == 0)
+            IOUtils.closeQuietly(cached.zipFile);
+    }
+
+    static long estimateWeight(ZipFile zipFile) {
+        long estimate = 0;
+        Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+        while (entries.hasMoreElements()) {
+            estimate += ENTRY_WEIGHT + 2L * entries.nextElement().getName().length();
+        }
+        return estimate;
+    }
+
+    /**
+     * Handle of the opened ZIP of AIP data. The ZIP must not be closed directly, only through the handle.
+     */
+    public static class ZipHandle implements Closeable {
+        @Getter
+        private final ZipFile zipFile;
+        /**
+         * null if the ZIP is not cached and should be closed together with the handle
+         */
+        private final CachedZip cached;
+        private final Object lock;
+        private boolean closed = false;
+
+        private ZipHandle(ZipFile zipFile, CachedZip cached, Object lock) {
+            this.zipFile = zipFile;
+            this.cached = cached;
+            this.lock = lock;
+        }
+
+        /**
+         * Wraps ZIP which is not cached, the ZIP is closed together with the handle.
+         */
+        public ZipHandle(ZipFile zipFile) {
+            this(zipFile, null, null);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (cached == null) {
+                zipFile.close();
+                return;
+            }
+            synchronized (lock) {
+                if (closed)
+                    return;
+                closed = true;
+                cached.references--;
+                if (cached.evicted && cached.references == 0)
+                    zipFile.close();
+            }
+        }
+    }
+
+    private static class CachedZip {
+        private final Path path;
+        private final ZipFile zipFile;
+        private final long weight;
+        private int references = 0;
+        private boolean evicted = false;
+
+        private CachedZip(Path path, ZipFile zipFile, long weight) {
+            this.path = path;
+            this.zipFile = zipFile;
+            this.weight = weight;
+        }
+    }
+
+    @Autowired
+    public void setMaxWeight(@Value("${arcstorage.read.zipCache.maxWeight}") long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+}
@@ -1,14 +1,18 @@
 package cz.cas.lib.arcstorage.service;
 
+import cz.cas.lib.arcstorage.domain.entity.AipManifestEntry;
 import cz.cas.lib.arcstorage.domain.entity.AipSip;
 import cz.cas.lib.arcstorage.domain.entity.AipXml;
 import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
+import cz.cas.lib.arcstorage.domain.entity.ObjectFixity;
 import cz.cas.lib.arcstorage.domain.entity.Storage;
 import cz.cas.lib.arcstorage.dto.*;
+import cz.cas.lib.arcstorage.exception.GeneralException;
 import cz.cas.lib.arcstorage.exception.MissingObject;
 import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
 import cz.cas.lib.arcstorage.security.Role;
 import cz.cas.lib.arcstorage.security.user.UserDetails;
+import cz.cas.lib.arcstorage.service.AipDataZipCache.ZipHandle;
 import cz.cas.lib.arcstorage.service.exception.BadXmlVersionProvidedException;
 import cz.cas.lib.arcstorage.service.exception.InvalidChecksumException;
 import cz.cas.lib.arcstorage.service.exception.ReadOnlyStateException;
@@ -17,17 +21,20 @@ import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedE
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageReachableException;
 import cz.cas.lib.arcstorage.service.exception.storage.ObjectCouldNotBeRetrievedException;
 import cz.cas.lib.arcstorage.service.exception.storage.SomeLogicalStoragesNotReachableException;
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
+import cz.cas.lib.arcstorage.storage.RandomAccessObjectChannel;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.exception.IOStorageException;
 import cz.cas.lib.arcstorage.storage.exception.StorageException;
 import cz.cas.lib.arcstorage.storage.fs.FsAdapter;
 import cz.cas.lib.arcstorage.storage.fs.LocalFsProcessor;
 import cz.cas.lib.arcstorage.storagesync.newstorage.exception.SynchronizationInProgressException;
-import cz.cas.lib.arcstorage.util.SetUtils;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -40,14 +47,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.CRC32;
 
 import static cz.cas.lib.arcstorage.storage.StorageUtils.*;
 import static cz.cas.lib.arcstorage.util.Utils.*;
@@ -66,7 +76,21 @@ public class AipService {
     private ExecutorService executorService;
     private ArcstorageMailCenter arcstorageMailCenter;
     private ArchivalService archivalService;
+    private ObjectRepairService objectRepairService;
+    private FixityHistoryService fixityHistoryService;
+    private PrefetchCache prefetchCache;
     private UserDetails userDetails;
+    private int aipRetrievalParallelism;
+    private int verificationStorageParallelism;
+    private int verificationBatchSize;
+    /**
+     * limits the number of batches of AIPs verified at the same time over all storages and verifications
+     */
+    private Semaphore verificationPermits;
+    private int exportDeflateParallelism;
+    private StoragePerformanceTracker storagePerformanceTracker;
+    private AipDataZipCache aipDataZipCache;
+    private final SingleFlight<String, AipRetrievalResource> aipRetrievals = new SingleFlight<>();
 
     /**
      * Retrieves reference to AIP. This method choose one {@link Storage} and COPIES THE WHOLE AIP INTO WORKSPACE.
@@ -208,6 +232,7 @@ public class AipService {
                 log.debug("SIP content of AIP with id " + aip.getSip().getStorageId() + " has been stored to temporary storage.");
                 validateChecksum(aip.getSip().getChecksum(), tmpSipPath);
                 log.debug("Checksum of SIP of AIP with id " + aip.getSip().getStorageId() + " has been validated.");
+                captureManifest(aip.getSip().getDatabaseId(), tmpSipPath);
             } catch (Exception e) {
                 archivalDbService.setObjectsState(ObjectState.ARCHIVAL_FAILURE, aip.getSip().getDatabaseId(), aip.getXml().getDatabaseId());
                 if (tmpXmlPath != null)
@@ -341,12 +366,15 @@ public class AipService {
      * is created and verification is done at every such storage. If there is no such storage, exception is thrown.
      * </li>
      * <li>Then at every storage from the list all AIPs which are in state with property {@link ObjectState#metadataMustBeStoredAtLogicalStorage()} = true,
-     * are verified. If there is either metadata or data inconsistency between the AIP at storage and in DB, AIP recovery process starts in other thread (asynchronous)
+     * are verified. AIPs are verified in batches of {@link #verificationBatchSize}, each batch over a single session with the storage.
+     * Storages are verified concurrently, each with at most {@link #verificationStorageParallelism} batches at the same time
+     * and with at most {@link #verificationPermits} batches verified over all storages at the same time. If there is either metadata or data inconsistency between the AIP at storage and in DB, AIP recovery process starts in other thread (asynchronous)
      * and the DTO with inconsistency information is added to the result list. Objects which has property {@link ObjectState#metadataMustBeStoredAtLogicalStorage()} = false
      * are neither verified at storage nor recovered from other storage and the DTO with inconsistency information is added to the result list immediately, also mail with
      * list of such objects (which are recommended for cleanup) is sent to all users with admin role.
      * </li>
-     * <li>Synchronous part of the method ends and result list with consistency/inconsistency information is returned.
+     * <li>Synchronous part of the method ends and result list with consistency/inconsistency information is returned,
+     * ordered by storages and then by AIPs.
      * </li>
      * <li>Asynchronous threads continues with AIP recoveries and at the end the mail with information about inconsistencies is
      * sent to all users with admin role.
@@ -355,6 +383,8 @@ public class AipService {
      *
      * @param aipSips   list of AIPs which state should be verified, ordered by creation time (ascending)
      * @param storageId id of storage at which aip state should be verified, if null is set then verification will be done at all reachable stores
+     * @param level     depth of the verification, at {@link VerificationLevel#SHALLOW} the sizes of the objects are compared with
+     *                  the sizes found by their last full verification
      * @return states of all objects of reachable storage service/services
      * @throws NoLogicalStorageAttachedException        if storageId is null and there is not even one logical storage attached
      * @throws NoLogicalStorageReachableException       if storageId is null and there is not even one logical storage reachable
@@ -362,7 +392,7 @@ public class AipService {
      * @throws SynchronizationInProgressException       if storageId is specified and the storage is just synchronizing
      * @throws IllegalArgumentException                 if aipSips list is null or empty
      */
-    public List<AipConsistencyVerificationResultDto> verifyAipsAtStorage(List<AipSip> aipSips, String storageId) throws NoLogicalStorageAttachedException, NoLogicalStorageReachableException, SomeLogicalStoragesNotReachableException, SynchronizationInProgressException {
+    public List<AipConsistencyVerificationResultDto> verifyAipsAtStorage(List<AipSip> aipSips, String storageId, VerificationLevel level) throws NoLogicalStorageAttachedException, NoLogicalStorageReachableException, SomeLogicalStoragesNotReachableException, SynchronizationInProgressException {
         List<StorageService> reachableStorages;
         notNull(aipSips, () -> new IllegalArgumentException("List of AIPs to verify can't be null"));
         if (aipSips.isEmpty())
@@ -380,14 +410,13 @@ public class AipService {
         }
         List<AipConsistencyVerificationResultDto> allImmediateResults = new ArrayList<>();
         List<CompletableFuture<RecoveryResultDto>> allRecoveryResults = new ArrayList<>();
-        for (StorageService reachableStorage : reachableStorages) {
-            for (AipSip aipSip : aipSips) {
-                Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>> result = verifyAipAtStorage(aipSip.getId(), reachableStorage);
-                allImmediateResults.add(result.getLeft());
-                if (result.getRight() != null)
-                    allRecoveryResults.add(result.getRight());
-            }
+        List<ObjectFixity> fixities = Collections.synchronizedList(new ArrayList<>());
+        for (Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>> result : verifyAipsAtStorages(aipSips, reachableStorages, level, fixities)) {
+            allImmediateResults.add(result.getLeft());
+            if (result.getRight() != null)
+                allRecoveryResults.add(result.getRight());
         }
+        fixityHistoryService.record(fixities);
 
         Map<String, ObjectConsistencyVerificationResultDto> candidatesForCleanup = new HashMap<>();
         for (AipConsistencyVerificationResultDto singleAipVerificationResult : allImmediateResults) {
@@ -423,13 +452,66 @@ public class AipService {
     }
 
     /**
-     * Fills passed output stream with AIP data reduced by list of file paths. AIP state is validated in DB and a {@link LocalFsProcessor}
-     * with the highest priority is chosen to provide AIP data.
+     * Verifies all AIPs at all storages. AIPs are verified in batches of {@link #verificationBatchSize}, every batch over
+     * a single session with the storage. Storages are verified concurrently, at most {@link #verificationStorageParallelism}
+     * batches at the same storage and at most {@link #verificationPermits} batches over all storages at the same time.
+     *
+     * @param fixities list to which the outcomes of the verifications of single objects are added
+     * @return results ordered by storages and then by AIPs, the same as the order of the arguments
+     */
+    private List<Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>>> verifyAipsAtStorages(List<AipSip> aipSips, List<StorageService> storageServices,
+                                                                                                                    VerificationLevel level, List<ObjectFixity> fixities) {
+        List<String> sipIds = aipSips.stream().map(AipSip::getId).collect(Collectors.toList());
+        //single batch is verified on the calling thread
+        if (storageServices.size() == 1 && sipIds.size() <= verificationBatchSize)
+            return verifyAipBatchAtStorage(sipIds, storageServices.get(0), level, fixities);
+        //batch tasks are submitted directly, not by a task of the storage, so that no task of the executor waits for
+        //another task queued at the same executor
+        List<Future<List<Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>>>>> batchResults = new ArrayList<>();
+        for (StorageService storageService : storageServices) {
+            Semaphore storagePermits = new Semaphore(Math.max(1, verificationStorageParallelism));
+            for (int i = 0; i < sipIds.size(); i = i + verificationBatchSize) {
+                List<String> batch = sipIds.subList(i, Math.min(i + verificationBatchSize, sipIds.size()));
+                batchResults.add(executorService.submit(() -> {
+                    storagePermits.acquire();
+                    try {
+                        verificationPermits.acquire();
+                        try {
+                            return verifyAipBatchAtStorage(batch, storageService, level, fixities);
+                        } finally {
+                            verificationPermits.release();
+                        }
+                    } finally {
+                        storagePermits.release();
+                    }
+                }));
+            }
+        }
+        List<Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>>> results = new ArrayList<>();
+        try {
+            for (Future<List<Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>>>> batchResult : batchResults) {
+                results.addAll(batchResult.get());
+            }
+        } catch (ExecutionException e) {
+            batchResults.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new GeneralException("error during verification of AIPs", e.getCause());
+        } catch (InterruptedException e) {
+            batchResults.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new GeneralException("interrupted during verification of AIPs", e);
+        }
+        return results;
+    }
+
+    /**
+     * Fills passed output stream with AIP data reduced by list of file paths. AIP state is validated in DB and AIP data are provided
+     * by {@link #openAipDataZip(String)}, so that only the ZIP central directory and the selected entries are read.
      *
      * @param sipId        id of the AIP to retrieve
      * @param filePaths    paths of specified files we want to extract from ZIP
      * @param outputStream output stream into which result zip is stored
-     * @throws UnsupportedEncodingException       if no reachable {@link LocalFsProcessor} is attached
      * @throws DeletedStateException              if SIP is deleted {@link ObjectState}
      * @throws RollbackStateException             if SIP is rolled back or only one XML is requested and that one is rolled back {@link ObjectState}
      * @throws StillProcessingStateException      if SIP or some of requested XML is still processing {@link ObjectState}
@@ -438,7 +520,7 @@ public class AipService {
      * @throws NoLogicalStorageReachableException if storageId is null and there is not even one logical storage reachable
      * @throws IOException                        if there were an IO exception during processing
      */
-    public void streamAipReducedByFileListFromLocalStorage(String sipId, OutputStream outputStream, Set<String> filePaths)
+    public void streamAipReducedByFileList(String sipId, OutputStream outputStream, Set<String> filePaths)
             throws NoLogicalStorageAttachedException,
             NoLogicalStorageReachableException,
             IOStorageException,
@@ -446,21 +528,23 @@ public class AipService {
             StillProcessingStateException,
             DeletedStateException,
             FailedStateException,
-            IOException,
-            UnsupportedEncodingException {
-        Path aipDataPath = getPathForLocalStorageStreaming(sipId);
-        exportAipReducedByFileList(sipId, aipDataPath, outputStream, filePaths);
+            StorageException,
+            IOException {
+        AipSip sipEntity = getAipReadableForStreaming(sipId);
+        checkPathsInManifest(sipId, filePaths);
+        try (ZipHandle aipDataZip = openAipDataZip(sipEntity)) {
+            exportAipReducedByFileList(sipId, aipDataZip.getZipFile(), outputStream, filePaths);
+        }
     }
 
 
     /**
-     * Fills passed output stream with AIP data reduced by regex list. AIP state is validated in DB and a {@link LocalFsProcessor}
-     * with the highest priority is chosen to provide AIP data.
+     * Fills passed output stream with AIP data reduced by regex list. AIP state is validated in DB and AIP data are provided
+     * by {@link #openAipDataZip(String)}, so that only the ZIP central directory and the selected entries are read.
      *
      * @param sipId         id of the AIP to retrieve
      * @param dataReduction specification of reduction of files we do not want to extract from ZIP
      * @param outputStream  output stream into which result zip is stored
-     * @throws UnsupportedEncodingException       if no reachable {@link LocalFsProcessor} is attached
      * @throws DeletedStateException              if SIP is deleted {@link ObjectState}
      * @throws RollbackStateException             if SIP is rolled back or only one XML is requested and that one is rolled back {@link ObjectState}
      * @throws StillProcessingStateException      if SIP or some of requested XML is still processing {@link ObjectState}
@@ -469,7 +553,7 @@ public class AipService {
      * @throws NoLogicalStorageReachableException if storageId is null and there is not even one logical storage reachable
      * @throws IOException                        if there were an IO exception during processing
      */
-    public void streamAipReducedByRegexesFromLocalStorage(String sipId, OutputStream outputStream, @NonNull DataReduction dataReduction)
+    public void streamAipReducedByRegexes(String sipId, OutputStream outputStream, @NonNull DataReduction dataReduction)
             throws NoLogicalStorageAttachedException,
             NoLogicalStorageReachableException,
             IOStorageException,
@@ -477,13 +561,91 @@ public class AipService {
             StillProcessingStateException,
             DeletedStateException,
             FailedStateException,
-            IOException,
-            UnsupportedEncodingException {
-        Path aipDataPath = getPathForLocalStorageStreaming(sipId);
-        exportAipReducedByRegexes(sipId, aipDataPath, outputStream, dataReduction);
+            StorageException,
+            IOException {
+        try (ZipHandle aipDataZip = openAipDataZip(sipId)) {
+            exportAipReducedByRegexes(sipId, aipDataZip.getZipFile(), outputStream, dataReduction);
+        }
     }
 
 
+    /**
+     * Retrieves manifest of AIP data, i.e. all entries of the AIP data ZIP. The manifest is captured at the ingest,
+     * for AIPs ingested before, the manifest is read from the central directory of the AIP data at storage and stored
+     * so that it is answered from DB next time.
+     *
+     * @param sipId id of the AIP
+     * @return entries of the manifest ordered by their position in the ZIP
+     * @throws DeletedStateException              if SIP is deleted {@link ObjectState}
+     * @throws RollbackStateException             if SIP is rolled back {@link ObjectState}
+     * @throws StillProcessingStateException      if SIP is still processing {@link ObjectState}
+     * @throws FailedStateException               if SIP is failed {@link ObjectState}
+     * @throws NoLogicalStorageAttachedException  if there is not even one logical storage attached
+     * @throws NoLogicalStorageReachableException if there is not even one logical storage reachable
+     * @throws StorageException                   if the AIP data could not be opened at any storage
+     * @throws IOException                        if there were an IO exception during processing
+     */
+    public List<AipManifestEntry> getAipManifest(String sipId)
+            throws NoLogicalStorageAttachedException,
+            NoLogicalStorageReachableException,
+            RollbackStateException,
+            StillProcessingStateException,
+            DeletedStateException,
+            FailedStateException,
+            StorageException,
+            IOException {
+        AipSip sipEntity = getAipReadableForStreaming(sipId);
+        List<AipManifestEntry> manifest = archivalDbService.getAipManifest(sipId);
+        if (!manifest.isEmpty())
+            return manifest;
+        log.debug("Manifest of AIP with id " + sipId + " has not been captured at ingest, reading it from storage.");
+        try (ZipHandle aipDataZip = openAipDataZip(sipEntity)) {
+            manifest = readManifest(sipId, aipDataZip.getZipFile());
+        }
+        archivalDbService.saveAipManifest(sipId, manifest);
+        return manifest;
+    }
+
+    /**
+     * Retrieves single decompressed file of AIP data. AIP state is validated in DB and AIP data are provided
+     * by {@link #openAipDataZip(String)}, so that only the ZIP central directory and the file are read.
+     *
+     * @param sipId    id of the AIP
+     * @param filePath path of the file inside of the AIP data
+     * @return {@link AipFileRetrievalResource} with opened stream of the file
+     * @throws MissingObject                      if there is no such file in the AIP data
+     * @throws DeletedStateException              if SIP is deleted {@link ObjectState}
+     * @throws RollbackStateException             if SIP is rolled back {@link ObjectState}
+     * @throws StillProcessingStateException      if SIP is still processing {@link ObjectState}
+     * @throws FailedStateException               if SIP is failed {@link ObjectState}
+     * @throws NoLogicalStorageAttachedException  if there is not even one logical storage attached
+     * @throws NoLogicalStorageReachableException if there is not even one logical storage reachable
+     * @throws StorageException                   if the AIP data could not be opened at any storage
+     * @throws IOException                        if there were an IO exception during processing
+     */
+    public AipFileRetrievalResource getAipFile(String sipId, String filePath)
+            throws NoLogicalStorageAttachedException,
+            NoLogicalStorageReachableException,
+            RollbackStateException,
+            StillProcessingStateException,
+            DeletedStateException,
+            FailedStateException,
+            StorageException,
+            IOException {
+        AipSip sipEntity = getAipReadableForStreaming(sipId);
+        checkPathsInManifest(sipId, List.of(filePath));
+        ZipHandle aipDataZip = openAipDataZip(sipEntity);
+        try {
+            ZipArchiveEntry zipEntry = aipDataZip.getZipFile().getEntry(filePath);
+            if (zipEntry == null || zipEntry.isDirectory())
+                throw new MissingObject("file", filePath);
+            return new AipFileRetrievalResource(aipDataZip.getZipFile().getInputStream(zipEntry), zipEntry.getSize(), aipDataZip);
+        } catch (Exception e) {
+            aipDataZip.close();
+            throw e;
+        }
+    }
+
     /**
      * Fills passed output stream with AIP data reduced by list of file paths. Caller is responsible for validation
      * of the AIP state in DB so as providing a {@link Path} to AIP data.
@@ -494,11 +656,34 @@ public class AipService {
      * @throws IOException if there were an IO exception during processing
      */
     public void exportAipReducedByFileList(String sipId, Path aipData, OutputStream outputStream, Set<String> filePaths) throws IOException {
-        ZipOutputStream zipOut = new ZipOutputStream(outputStream);
-        try (ZipFile aipDataZip = new ZipFile(aipData.toFile())) {
-            fillOutputStreamWithSpecifiedFiles(sipId, filePaths, aipDataZip, zipOut);
-        } finally {
-            zipOut.finish();
+        try (ZipFile aipDataZip = ZipFile.builder().setPath(aipData).get()) {
+            exportAipReducedByFileList(sipId, aipDataZip, outputStream, filePaths);
+        }
+    }
+
+    /**
+     * Fills passed output stream with AIP data reduced by list of file paths. Only the selected entries are read
+     * from the opened ZIP, the ZIP is not closed by this method.
+     *
+     * @param sipId        id of the AIP to retrieve
+     * @param aipDataZip   opened AIP data
+     * @param filePaths    list of files we want to extract from ZIP
+     * @param outputStream output stream into which result zip is stored
+     * @throws IOException if there were an IO exception during processing
+     */
+    public void exportAipReducedByFileList(String sipId, ZipFile aipDataZip, OutputStream outputStream, Set<String> filePaths) throws IOException {
+        List<ZipArchiveEntry> zipEntries = new ArrayList<>();
+        for (String filePath : filePaths) {
+            ZipArchiveEntry zipEntry = aipDataZip.getEntry(filePath);
+            if (zipEntry == null)
+                throw new MissingObject("file", filePath);
+            zipEntries.add(zipEntry);
+        }
+        try (ParallelDeflateZipWriter zipWriter = new ParallelDeflateZipWriter(aipDataZip, outputStream, executorService, exportDeflateParallelism, tmpFolder)) {
+            for (ZipArchiveEntry zipEntry : zipEntries) {
+                zipWriter.add(zipEntry);
+            }
+            zipWriter.finish();
         }
     }
 
@@ -512,54 +697,99 @@ public class AipService {
      * @throws IOException if there were an IO exception during processing
      */
     public void exportAipReducedByRegexes(String sipId, Path aipData, OutputStream outputStream, DataReduction dataReduction) throws IOException {
-        ZipOutputStream zipOut = new ZipOutputStream(outputStream);
-        Set<String> allFilePaths = new HashSet<>();
-        Set<String> matchedFilePaths = new HashSet<>();
-        try (ZipFile aipDataZip = new ZipFile(aipData.toFile())) {
-            Set<String> pathsOfFilesToExport;
-            if (dataReduction != null) {
-                for (String regex : dataReduction.getRegexes()) {
-                    Pattern compiledRegex = Pattern.compile(regex);
-                    Enumeration<? extends ZipEntry> allEntries = aipDataZip.entries();
-                    while (allEntries.hasMoreElements()) {
-                        ZipEntry currentEntry = allEntries.nextElement();
-                        if (currentEntry.isDirectory()) {
-                            continue;
-                        }
-                        String currentEntryName = currentEntry.getName();
-                        allFilePaths.add(currentEntryName);
-                        if (compiledRegex.matcher(currentEntryName).matches()) {
-                            matchedFilePaths.add(currentEntryName);
-                        }
-                    }
-                }
-                switch (dataReduction.getMode()) {
-                    case INCLUDE:
-                        pathsOfFilesToExport = matchedFilePaths;
-                        break;
-                    case EXCLUDE:
-                        pathsOfFilesToExport = SetUtils.difference(allFilePaths, matchedFilePaths);
-                        break;
-                    default:
-                        throw new IllegalArgumentException("unsupported reduction mode");
+        try (ZipFile aipDataZip = ZipFile.builder().setPath(aipData).get()) {
+            exportAipReducedByRegexes(sipId, aipDataZip, outputStream, dataReduction);
+        }
+    }
+
+    /**
+     * Fills passed output stream with AIP data reduced by regex list. Only the matching entries are read
+     * from the opened ZIP, the ZIP is not closed by this method.
+     *
+     * @param sipId         id of the AIP to retrieve
+     * @param aipDataZip    opened AIP data
+     * @param dataReduction specification of reduction of files we do not want to extract from ZIP
+     * @param outputStream  output stream into which result zip is stored
+     * @throws IOException if there were an IO exception during processing
+     */
+    public void exportAipReducedByRegexes(String sipId, ZipFile aipDataZip, OutputStream outputStream, DataReduction dataReduction) throws IOException {
+        Predicate<String> combinedRegex = null;
+        if (dataReduction != null) {
+            if (dataReduction.getMode() != DataReductionMode.INCLUDE && dataReduction.getMode() != DataReductionMode.EXCLUDE)
+                throw new IllegalArgumentException("unsupported reduction mode");
+            combinedRegex = compileCombinedRegex(dataReduction.getRegexes());
+        }
+        try (ParallelDeflateZipWriter zipWriter = new ParallelDeflateZipWriter(aipDataZip, outputStream, executorService, exportDeflateParallelism, tmpFolder)) {
+            Enumeration<ZipArchiveEntry> allEntries = aipDataZip.getEntries();
+            while (allEntries.hasMoreElements()) {
+                ZipArchiveEntry currentEntry = allEntries.nextElement();
+                if (combinedRegex != null) {
+                    if (currentEntry.isDirectory())
+                        continue;
+                    boolean matches = combinedRegex.test(currentEntry.getName());
+                    if (matches != (dataReduction.getMode() == DataReductionMode.INCLUDE))
+                        continue;
                 }
-            } else {
-                Enumeration<? extends ZipEntry> allEntries = aipDataZip.entries();
-                while (allEntries.hasMoreElements()) {
-                    ZipEntry currentEntry = allEntries.nextElement();
-                    String currentEntryName = currentEntry.getName();
-                    allFilePaths.add(currentEntryName);
+                zipWriter.add(currentEntry);
+            }
+            zipWriter.finish();
+        }
+    }
+
+    /**
+     * Verifies batch of AIPs at single storage over a single session with the storage, see
+     * {@link StorageService#getAipsInfo(List, String, VerificationLevel)}, and evaluates the result of every AIP by
+     * {@link #evaluateAipAtStorage(AipSip, StorageService, VerificationLevel, AipConsistencyVerificationResultDto, List)}.
+     *
+     * @param sipIds         ids of AIPs
+     * @param storageService storage service to use
+     * @param level          depth of the verification
+     * @return results in the order of the AIPs
+     */
+    private List<Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>>> verifyAipBatchAtStorage(List<String> sipIds, StorageService storageService,
+                                                                                                                       VerificationLevel level, List<ObjectFixity> fixities) {
+        String storageId = storageService.getStorage().getId();
+        log.debug("Verifying AIPs with ids " + sipIds + " at storage with id " + storageId + ".");
+        List<AipSip> aips = sipIds.stream().map(archivalDbService::getAip).collect(Collectors.toList());
+        Map<String, List<AipSip>> aipsByDataSpace = aips.stream()
+                .filter(a -> a.getState().metadataMustBeStoredAtLogicalStorage())
+                .collect(Collectors.groupingBy(a -> a.getOwner().getDataSpace(), LinkedHashMap::new, Collectors.toList()));
+        Map<String, AipConsistencyVerificationResultDto> storageResults = new HashMap<>();
+        for (Map.Entry<String, List<AipSip>> dataSpaceAips : aipsByDataSpace.entrySet()) {
+            List<Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>>> aipsToCheck = dataSpaceAips.getValue().stream()
+                    .map(a -> Pair.of(a.toDto(), xmlsToCheck(a)))
+                    .collect(Collectors.toList());
+            try {
+                List<AipConsistencyVerificationResultDto> infos = storageService.getAipsInfo(aipsToCheck, dataSpaceAips.getKey(), level);
+                for (int i = 0; i < infos.size(); i++) {
+                    if (infos.get(i) != null)
+                        storageResults.put(dataSpaceAips.getValue().get(i).getId(), infos.get(i));
                 }
-                pathsOfFilesToExport = allFilePaths;
+            } catch (StorageException e) {
+                log.warn("Verification of AIPs of data space " + dataSpaceAips.getKey() + " at storage with id " + storageId + " has failed.", e);
             }
-            fillOutputStreamWithSpecifiedFiles(sipId, pathsOfFilesToExport, aipDataZip, zipOut);
-        } finally {
-            zipOut.finish();
         }
+        List<Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>>> results = new ArrayList<>();
+        for (AipSip aip : aips) {
+            results.add(evaluateAipAtStorage(aip, storageService, level, storageResults.get(aip.getId()), fixities));
+        }
+        return results;
+    }
+
+    /**
+     * @return XMLs of the AIP which should be verified at the storage, mapped by their versions
+     */
+    private static Map<Integer, ArchivalObjectDto> xmlsToCheck(AipSip aip) {
+        Map<Integer, ArchivalObjectDto> xmlsToCheck = new HashMap<>();
+        for (AipXml xml : aip.getXmls()) {
+            if (xml.getState().metadataMustBeStoredAtLogicalStorage())
+                xmlsToCheck.put(xml.getVersion(), xml.toDto());
+        }
+        return xmlsToCheck;
     }
 
     /**
-     * Verifies AIP at single storage and if data or metadata are inconsistent between storage and DB
+     * Evaluates verification of AIP at single storage and if data or metadata are inconsistent between storage and DB
      * starts recovery process - tries to obtain object from other storage and recover the copy at failing storage.
      * <p>
      * If the AIP is in state with {@link ObjectState#metadataMustBeStoredAtLogicalStorage()} false, then no verification
@@ -567,15 +797,17 @@ public class AipService {
      * The same applies to all AIP XMLs of the AIP.
      * </p>
      *
-     * @param sipId          id of AIP
+     * @param aip            AIP
      * @param storageService storage service to use
+     * @param level          depth of the verification
+     * @param storageResult  result of the verification at the storage, null if the verification has failed
      * @return Pair holding information about current state at of AIP at storage and Future holding result of recovery.. if no
      * no recovery has started, null is returned instead of the Future
      */
-    private Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>> verifyAipAtStorage(String sipId, StorageService storageService) {
+    private Pair<AipConsistencyVerificationResultDto, CompletableFuture<RecoveryResultDto>> evaluateAipAtStorage(AipSip aip, StorageService storageService, VerificationLevel level,
+                                                                                                         AipConsistencyVerificationResultDto storageResult, List<ObjectFixity> fixities) {
+        String sipId = aip.getId();
         String storageId = storageService.getStorage().getId();
-        log.debug("Verifying AIP with id " + sipId + " at storage with id " + storageId + ".");
-        AipSip aip = archivalDbService.getAip(sipId);
 
         if (!aip.getState().metadataMustBeStoredAtLogicalStorage()) {
             AipConsistencyVerificationResultDto incompleteStateInfo = new AipConsistencyVerificationResultDto(storageService.getStorage().getName(),
@@ -594,18 +826,16 @@ public class AipService {
             return Pair.of(incompleteStateInfo, null);
         }
 
-        Map<Integer, ArchivalObjectDto> xmlsToCheck = new HashMap<>();
-        List<AipXml> xmlsWhichCantBeChecked = new ArrayList<>();
-        for (AipXml xml : aip.getXmls()) {
-            if (xml.getState().metadataMustBeStoredAtLogicalStorage())
-                xmlsToCheck.put(xml.getVersion(), xml.toDto());
-            else
-                xmlsWhichCantBeChecked.add(xml);
-        }
-        AipConsistencyVerificationResultDto result;
-        try {
-            result = storageService.getAipInfo(aip.toDto(), xmlsToCheck, aip.getOwner().getDataSpace());
-        } catch (StorageException e) {
+        Map<Integer, ArchivalObjectDto> xmlsToCheck = xmlsToCheck(aip);
+        List<AipXml> xmlsWhichCantBeChecked = aip.getXmls().stream()
+                .filter(x -> !x.getState().metadataMustBeStoredAtLogicalStorage())
+                .collect(Collectors.toList());
+        AipConsistencyVerificationResultDto result = storageResult;
+        boolean verificationFailed = result == null;
+        if (verificationFailed) {
+            log.warn("Verification of AIP with id " + sipId + " at storage with id " + storageId + " has failed.");
+            fixities.add(new ObjectFixity(aip.getId(), storageService.getStorage(), level, aip.getChecksum().getType(), FixityResult.ERROR, null, null, null));
+            xmlsToCheck.values().forEach(x -> fixities.add(new ObjectFixity(x.getDatabaseId(), storageService.getStorage(), level, x.getChecksum().getType(), FixityResult.ERROR, null, null, null)));
             AipConsistencyVerificationResultDto incompleteStateInfo = new AipConsistencyVerificationResultDto(storageService.getStorage().getName(),
                     storageService.getStorage().getStorageType(),
                     storageService.getStorage().isReachable());
@@ -619,8 +849,30 @@ public class AipService {
         List<ObjectConsistencyVerificationResultDto> checkedObjects = new ArrayList<>();
         checkedObjects.add(result.getAipState());
         checkedObjects.addAll(result.getXmlStates());
+        if (!verificationFailed && level == VerificationLevel.SHALLOW) {
+            List<String> checkedIds = checkedObjects.stream().map(ObjectConsistencyVerificationResultDto::getDatabaseId).collect(Collectors.toList());
+            Map<String, Long> verifiedSizes = fixityHistoryService.findVerifiedSizes(storageId, checkedIds);
+            for (ObjectConsistencyVerificationResultDto o : checkedObjects) {
+                Long verifiedSize = verifiedSizes.get(o.getDatabaseId());
+                if (verifiedSize != null && !verifiedSize.equals(o.getStorageSize())) {
+                    log.error("Object " + o.getStorageId() + " at storage " + storageId + " has size " + o.getStorageSize()
+                            + " but size " + verifiedSize + " has been verified before.");
+                    o.setContentConsistent(false);
+                }
+            }
+        }
+        //content is not accessed at the metadata level
+        boolean contentVerified = level.includes(VerificationLevel.SHALLOW);
         boolean allCheckedAreOk = checkedObjects.stream().allMatch(
-                o -> o.isMetadataConsistent() && (!o.getState().contentMustBeStoredAtLogicalStorage() || o.isContentConsistent()));
+                o -> o.isMetadataConsistent() && (!contentVerified || !o.getState().contentMustBeStoredAtLogicalStorage() || o.isContentConsistent()));
+        if (!verificationFailed) {
+            for (ObjectConsistencyVerificationResultDto o : checkedObjects) {
+                FixityResult fixityResult = contentVerified && o.getState().contentMustBeStoredAtLogicalStorage() && !o.isContentConsistent() ? FixityResult.CORRUPTED
+                        : !o.isMetadataConsistent() ? FixityResult.METADATA_MISMATCH : FixityResult.OK;
+                ChecksumType checksumType = o.getDatabaseChecksum() == null ? null : o.getDatabaseChecksum().getType();
+                fixities.add(new ObjectFixity(o.getDatabaseId(), storageService.getStorage(), level, checksumType, fixityResult, o.getStorageSize(), null, null));
+            }
+        }
 
         if (xmlsWhichCantBeChecked.size() > 1)
             log.error("FATAL ERROR: found more than one XMLs of AIP " + aip.getId() + " in error or processing state.. XMLs: " + Arrays.toString(xmlsWhichCantBeChecked.toArray(new AipXml[0])));
@@ -646,7 +898,7 @@ public class AipService {
             RecoveryResultDto recResDto = new RecoveryResultDto(storageId);
 
             for (ObjectConsistencyVerificationResultDto checkedObject : checkedObjects) {
-                if (checkedObject.getState().contentMustBeStoredAtLogicalStorage() && !checkedObject.isContentConsistent()) {
+                if (contentVerified && checkedObject.getState().contentMustBeStoredAtLogicalStorage() && !checkedObject.isContentConsistent()) {
                     recResDto.getContentInconsistencyObjectsIds().add(checkedObject.getStorageId());
                     String recoveryMsg = "Recovery of content of object: " + checkedObject.getStorageId() + " has ";
                     ArchivalObject object = archivalDbService.getObject(checkedObject.getDatabaseId());
@@ -690,6 +942,11 @@ public class AipService {
     /**
      * Retrieves AIP.
      * <p>
+     * AIP prefetched by {@link PrefetchService} is read from {@link PrefetchCache} without accessing the storage.
+     * Concurrent retrievals of the same AIP with the same XMLs share a single retrieval from storage, every caller
+     * obtains its own tmp files which are hard linked to the verified tmp files of the retrieval.
+     * </p>
+     * <p>
      * Storage is chosen randomly from those with highest priority. If the chosen storage throws
      * {@link StorageException}, or checksum does not match, {@link #recoverAipFromOtherStorages(AipSip, List, List, AipRetrievalResult)}
      * is called to scan through all storages until it finds the right one or throws {@link ObjectCouldNotBeRetrievedException} which
@@ -702,13 +959,112 @@ public class AipService {
      */
     private AipRetrievalResource retrieveAip(AipSip sipEntity, List<AipXml> xmls)
             throws ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, NoLogicalStorageAttachedException {
+        AipRetrievalResource prefetched = retrievePrefetchedAip(sipEntity, xmls);
+        if (prefetched != null)
+            return prefetched;
+        String key = sipEntity.getId() + "_" + sipEntity.getChecksum().getValue() + "_" +
+                xmls.stream().map(x -> x.getVersion() + ":" + x.getChecksum().getValue()).collect(Collectors.joining(","));
+        SingleFlight.Call<String, AipRetrievalResource> call = aipRetrievals.join(key);
+        if (!call.isLeader()) {
+            AipRetrievalResource share = call.awaitShare();
+            if (share != null) {
+                log.debug("AIP: " + sipEntity.getId() + " has been retrieved by concurrent request.");
+                return share;
+            }
+            return retrieveAipFromAnyStorage(sipEntity, xmls);
+        }
+        AipRetrievalResource aip = null;
+        try {
+            aip = retrieveAipFromAnyStorage(sipEntity, xmls);
+        } finally {
+            call.complete(aip, this::shareRetrievedAip);
+        }
+        return aip;
+    }
+
+    /**
+     * @return resource backed by tmp files linked to the prefetched copies of SIP and XMLs, null if any of them is not
+     * prefetched
+     */
+    private AipRetrievalResource retrievePrefetchedAip(AipSip sipEntity, List<AipXml> xmls) {
+        if (!prefetchCache.contains(sipEntity.toDto()) || !xmls.stream().allMatch(x -> prefetchCache.contains(x.toDto())))
+            return null;
+        AipRetrievalResource aip = new AipRetrievalResource(null);
+        List<Path> tmpFiles = new ArrayList<>();
+        try {
+            Path tmpSipFile = tmpFolder.resolve(aip.getId());
+            if (!prefetchCache.linkTo(sipEntity.toDto(), tmpSipFile))
+                return null;
+            tmpFiles.add(tmpSipFile);
+            for (AipXml xml : xmls) {
+                Path tmpXmlFile = tmpFolder.resolve(toXmlId(aip.getId(), xml.getVersion()));
+                if (!prefetchCache.linkTo(xml.toDto(), tmpXmlFile))
+                    return null;
+                tmpFiles.add(tmpXmlFile);
+            }
+            aip.setSip(new FileInputStream(tmpSipFile.toFile()));
+            for (AipXml xml : xmls) {
+                aip.addXml(xml.getVersion(), new FileInputStream(tmpFolder.resolve(toXmlId(aip.getId(), xml.getVersion())).toFile()));
+            }
+            tmpFiles.clear();
+            log.debug("AIP: " + sipEntity.getId() + " has been read from prefetch cache.");
+            return aip;
+        } catch (IOException e) {
+            IOUtils.closeQuietly(aip.getSip());
+            aip.getXmls().values().forEach(IOUtils::closeQuietly);
+            return null;
+        } finally {
+            tmpFiles.forEach(f -> f.toFile().delete());
+        }
+    }
+
+    /**
+     * Creates resource of other reader backed by its own links to the tmp files of the retrieved AIP, XMLs retrieved
+     * to memory are shared without copying.
+     */
+    private AipRetrievalResource shareRetrievedAip(AipRetrievalResource aip) {
+        AipRetrievalResource share = new AipRetrievalResource(null);
+        List<Path> tmpFiles = new ArrayList<>();
+        try {
+            Path tmpSipFile = tmpFolder.resolve(share.getId());
+            SingleFlight.shareTmpFile(tmpFolder.resolve(aip.getId()), tmpSipFile);
+            tmpFiles.add(tmpSipFile);
+            for (Map.Entry<Integer, InputStream> xml : aip.getXmls().entrySet()) {
+                if (xml.getValue() instanceof SmallObjectBufferPool.BufferInputStream)
+                    continue;
+                Path tmpXmlFile = tmpFolder.resolve(toXmlId(share.getId(), xml.getKey()));
+                SingleFlight.shareTmpFile(tmpFolder.resolve(toXmlId(aip.getId(), xml.getKey())), tmpXmlFile);
+                tmpFiles.add(tmpXmlFile);
+            }
+            share.setSip(new FileInputStream(tmpSipFile.toFile()));
+            share.setSipCrc(aip.getSipCrc());
+            for (Map.Entry<Integer, InputStream> xml : aip.getXmls().entrySet()) {
+                if (xml.getValue() instanceof SmallObjectBufferPool.BufferInputStream)
+                    share.addXml(xml.getKey(), ((SmallObjectBufferPool.BufferInputStream) xml.getValue()).share());
+                else
+                    share.addXml(xml.getKey(), new FileInputStream(tmpFolder.resolve(toXmlId(share.getId(), xml.getKey())).toFile()));
+            }
+        } catch (IOException e) {
+            IOUtils.closeQuietly(share.getSip());
+            share.getXmls().values().forEach(IOUtils::closeQuietly);
+            tmpFiles.forEach(f -> f.toFile().delete());
+            throw new UncheckedIOException("could not share tmp files of AIP " + aip.getId(), e);
+        }
+        return share;
+    }
+
+    /**
+     * Retrieves AIP from the first storage which provides valid AIP.
+     */
+    private AipRetrievalResource retrieveAipFromAnyStorage(AipSip sipEntity, List<AipXml> xmls)
+            throws ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, NoLogicalStorageAttachedException {
         log.debug("Retrieving AIP with id " + sipEntity.getId() + ".");
 
         List<StorageService> storageServicesByPriorities = storageProvider.createAdaptersForRead();
 
         AipRetrievalResource aip;
         try {
-            AipRetrievalResult result = retrieveAipFromStorage(sipEntity, xmls, storageServicesByPriorities.get(0));
+            AipRetrievalResult result = retrieveAipFromStorage(sipEntity, xmls, storageServicesByPriorities.get(0), storageServicesByPriorities);
             aip = !result.invalidChecksumFound ? result.getAipFromStorage() :
                     recoverAipFromOtherStorages(sipEntity, xmls, storageServicesByPriorities, result);
         } catch (ObjectCouldNotBeRetrievedException e) {
@@ -725,31 +1081,92 @@ public class AipService {
 
     /**
      * Retrieves references to AIP files from storage together with information whether or not are SIP and XMLs valid
-     * i.e. their checksum match expected values. Currently SIP is stored to local temp folder and XMLs into main memory.
+     * i.e. their checksum match expected values. SIP and XMLs are copied to local temp folder concurrently, at most
+     * {@link #aipRetrievalParallelism} objects of the AIP at the same time.
      * Connection used for retrieval is closed.
      *
      * @param sipEntity      sip from main request
      * @param xmls           xmls from main request
      * @param storageService service used fo retrieval
+     * @param stripingStorageServices if not null, the SIP is retrieved striped from these storages if possible, see
+     *                                {@link ArchivalService#downloadObjectStriped(ArchivalObjectDto, List, File)}
      * @return AIP with additional information describing wheter the AIP is OK or has to be recovered
      * @throws StorageException if an error occurred during AIP retrieval
      */
-    private AipRetrievalResult retrieveAipFromStorage(AipSip sipEntity, List<AipXml> xmls, StorageService storageService)
+    private AipRetrievalResult retrieveAipFromStorage(AipSip sipEntity, List<AipXml> xmls, StorageService storageService,
+                                                      List<StorageService> stripingStorageServices)
             throws StorageException {
         String storageName = storageService.getStorage().getName();
         log.debug("Storage: " + storageName + " chosen to retrieve AIP: " + sipEntity.getId());
 
-        AipRetrievalResource aipFromStorage = storageService.getAip(sipEntity.getId(), sipEntity.getOwner().getDataSpace(), xmls.stream()
-                .map(AipXml::getVersion)
-                .collect(Collectors.toList())
-                .toArray(new Integer[xmls.size()]));
+        //striping is decided before the SIP is opened at the storage, so that the SIP is not requested twice
+        AipRetrievalResource aipFromStorage = null;
+        if (stripingStorageServices != null)
+            aipFromStorage = retrieveAipWithStripedSip(sipEntity, xmls, storageService, stripingStorageServices);
+        boolean sipStriped = aipFromStorage != null;
+        long start = System.currentTimeMillis();
+        if (!sipStriped) {
+            try {
+                aipFromStorage = storageService.getAip(sipEntity.getId(), sipEntity.getOwner().getDataSpace(), xmls.stream()
+                        .map(AipXml::getVersion)
+                        .collect(Collectors.toList())
+                        .toArray(new Integer[xmls.size()]));
+            } catch (StorageException e) {
+                storagePerformanceTracker.recordReadFailure(storageService.getStorage());
+                throw e;
+            }
+        }
+        long opened = System.currentTimeMillis();
         String tmpSipFileId = aipFromStorage.getId();
         File tmpSipFile = tmpFolder.resolve(tmpSipFileId).toFile();
 
         AipRetrievalResult result = new AipRetrievalResult(aipFromStorage, storageService);
 
-        boolean sipValid = archivalService.copyObjectToTmpFolderAndVerifyChecksum(sipEntity.getId(), aipFromStorage.getSip(), sipEntity.getChecksum(),
-                tmpSipFile, storageName);
+        //SIP and XMLs are copied to tmp folder and verified concurrently, results are processed once all copies are done
+        List<Callable<Boolean>> copyTasks = new ArrayList<>();
+        AipRetrievalResource aip = aipFromStorage;
+        //CRC is computed while copying, so that the export of the AIP does not read the tmp file again
+        CRC32 sipCrc = new CRC32();
+        copyTasks.add(() -> sipStriped || archivalService.copyObjectToTmpFolderAndVerifyChecksum(sipEntity.getId(), aip.getSip(),
+                sipEntity.getChecksum(), tmpSipFile, storageName, sipCrc));
+        //XMLs are usually small enough to be kept in memory, see ArchivalService#copyObjectAndVerifyChecksum
+        InputStream[] verifiedXmls = new InputStream[xmls.size()];
+        for (int i = 0; i < xmls.size(); i++) {
+            AipXml xmlEntity = xmls.get(i);
+            int xmlIndex = i;
+            File tmpXmlFile = tmpFolder.resolve(toXmlId(tmpSipFileId, xmlEntity.getVersion())).toFile();
+            InputStream xmlFromStorage = aipFromStorage.getXmls().get(xmlEntity.getVersion());
+            copyTasks.add(() -> {
+                verifiedXmls[xmlIndex] = archivalService.copyObjectAndVerifyChecksum(xmlEntity.getId(), xmlFromStorage,
+                        xmlEntity.getChecksum(), tmpXmlFile, storageName);
+                return verifiedXmls[xmlIndex] != null;
+            });
+        }
+        List<Boolean> copyResults;
+        try {
+            copyResults = invokeAllBounded(executorService, copyTasks, aipRetrievalParallelism);
+        } catch (ExecutionException e) {
+            closeQuietly(verifiedXmls);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new GeneralException("error during retrieval of AIP: " + sipEntity.getId(), e.getCause());
+        } catch (InterruptedException e) {
+            closeQuietly(verifiedXmls);
+            Thread.currentThread().interrupt();
+            throw new GeneralException("interrupted during retrieval of AIP: " + sipEntity.getId(), e);
+        }
+
+        if (copyResults.contains(false)) {
+            storagePerformanceTracker.recordReadFailure(storageService.getStorage());
+        } else if (!sipStriped) {
+            //striped SIP has been read from several storages, so the transfer is not a sample of this storage
+            long bytes = tmpSipFile.length();
+            for (int i = 0; i < xmls.size(); i++)
+                bytes += ArchivalService.sizeOf(verifiedXmls[i], tmpFolder.resolve(toXmlId(tmpSipFileId, xmls.get(i).getVersion())).toFile());
+            storagePerformanceTracker.recordRead(storageService.getStorage(), opened - start, bytes, System.currentTimeMillis() - opened);
+        }
+
+        boolean sipValid = copyResults.get(0);
         if (!sipValid) {
             log.debug("Invalid checksum of SIP with id " + sipEntity.getId() + " at storage " + storageService.getStorage().getName() + ".");
             result.setInvalidChecksumSip(sipEntity);
@@ -760,19 +1177,18 @@ public class AipService {
             log.debug("Validated checksum of SIP with id " + sipEntity.getId() + " retrieved from storage " +
                     storageService.getStorage().getName() + ".");
             try {
+                IOUtils.closeQuietly(aipFromStorage.getSip());
                 aipFromStorage.setSip(new FileInputStream(tmpSipFile));
+                if (!sipStriped)
+                    aipFromStorage.setSipCrc(sipCrc.getValue());
             } catch (FileNotFoundException e) {
                 throw new UncheckedIOException("could not find tmp file " + aipFromStorage.getId(), e);
             }
         }
 
-        //copy xmls to tmp folders and verify checksum
-        for (AipXml xmlEntity : xmls) {
-            String tmpXmlFileId = toXmlId(aipFromStorage.getId(), xmlEntity.getVersion());
-            File tmpXmlFile = tmpFolder.resolve(tmpXmlFileId).toFile();
-            boolean xmlValid = archivalService.copyObjectToTmpFolderAndVerifyChecksum(xmlEntity.getId(), aipFromStorage.getXmls().get(xmlEntity.getVersion()),
-                    xmlEntity.getChecksum(), tmpXmlFile, storageName);
-
+        for (int i = 0; i < xmls.size(); i++) {
+            AipXml xmlEntity = xmls.get(i);
+            boolean xmlValid = copyResults.get(i + 1);
             if (!xmlValid) {
                 result.addInvalidChecksumXml(xmlEntity);
                 result.setInvalidChecksumFound(true);
@@ -781,21 +1197,51 @@ public class AipService {
             else {
                 log.debug("Validated checksum of XML with id " + xmlEntity.getId() + " of AIP with id " + sipEntity.getId() +
                         " retrieved from storage " + storageService.getStorage().getName() + ".");
-                try {
-                    aipFromStorage.getXmls().put(xmlEntity.getVersion(), new FileInputStream(tmpXmlFile));
-                } catch (FileNotFoundException e) {
-                    throw new UncheckedIOException("could not find tmp file " + tmpXmlFileId, e);
-                }
+                aipFromStorage.getXmls().put(xmlEntity.getVersion(), verifiedXmls[i]);
             }
         }
         return result;
     }
 
 
+    /**
+     * Retrieves SIP striped from several storages, see {@link ArchivalService#downloadObjectStriped(ArchivalObjectDto, List, File)},
+     * and opens only the XMLs at the storage, one by one, so that the SIP is not requested from the storage at all.
+     *
+     * @param sipEntity               sip from main request
+     * @param xmls                    xmls from main request
+     * @param storageService          service used for retrieval of the XMLs
+     * @param stripingStorageServices storages from which the SIP is retrieved striped
+     * @return AIP with the SIP already copied and verified in the tmp folder and with opened XMLs, or null if the
+     * striped retrieval is not applicable or has failed
+     * @throws StorageException if an XML could not be opened at the storage
+     */
+    private AipRetrievalResource retrieveAipWithStripedSip(AipSip sipEntity, List<AipXml> xmls, StorageService storageService,
+                                                           List<StorageService> stripingStorageServices) throws StorageException {
+        List<ObjectRetrievalResource> xmlResources = new ArrayList<>();
+        AipRetrievalResource aip = new AipRetrievalResource(() -> xmlResources.forEach(IOUtils::closeQuietly));
+        File tmpSipFile = tmpFolder.resolve(aip.getId()).toFile();
+        if (!archivalService.downloadObjectStriped(sipEntity.toDto(), stripingStorageServices, tmpSipFile))
+            return null;
+        aip.setSip(InputStream.nullInputStream());
+        try {
+            for (AipXml xml : xmls) {
+                ObjectRetrievalResource xmlResource = storageService.getObject(toXmlId(sipEntity.getId(), xml.getVersion()), sipEntity.getOwner().getDataSpace());
+                xmlResources.add(xmlResource);
+                aip.addXml(xml.getVersion(), xmlResource.getInputStream());
+            }
+        } catch (StorageException | RuntimeException e) {
+            storagePerformanceTracker.recordReadFailure(storageService.getStorage());
+            IOUtils.closeQuietly(aip);
+            tmpSipFile.delete();
+            throw e;
+        }
+        return aip;
+    }
+
     /**
      * This method is called when the very first attempt to return AIP fails. It scans through all storages until it finds
-     * valid AIP. Then it tries to recover all AIPs on storages where the AIP was corrupted. If the recovery fails it is logged
-     * and the method continues.
+     * valid AIP. Then it enqueues repair of the corrupted SIP and XMLs on storages where the AIP was corrupted.
      *
      * @param sipEntity                   sip from the main request
      * @param xmls                        xmls from the main request
@@ -814,7 +1260,7 @@ public class AipService {
         List<AipRetrievalResult> invalidChecksumResults = new ArrayList<>();
 
         if (latestInvalidChecksumResult != null) {
-            tmpFolder.resolve(latestInvalidChecksumResult.getAipFromStorage().getId()).toFile().delete();
+            discardRetrievedFiles(latestInvalidChecksumResult.getAipFromStorage());
             invalidChecksumResults.add(latestInvalidChecksumResult);
         }
 
@@ -823,13 +1269,13 @@ public class AipService {
         //iterate over all the storages to find an uncorrupted version of the AIP
         for (int i = 1; i < storageServices.size(); i++) {
             try {
-                result = retrieveAipFromStorage(sipEntity, xmls, storageServices.get(i));
+                result = retrieveAipFromStorage(sipEntity, xmls, storageServices.get(i), null);
                 if (!result.invalidChecksumFound) {
                     successfulService = storageServices.get(i);
                     break;
                 }
                 invalidChecksumResults.add(result);
-                tmpFolder.resolve(result.getAipFromStorage().getId()).toFile().delete();
+                discardRetrievedFiles(result.getAipFromStorage());
             } catch (StorageException e) {
                 //try other storages when the current storage has failed
                 log.error("Storage error has occurred during retrieval process of AIP " + sipEntity.getId() + " from storage " +
@@ -849,36 +1295,108 @@ public class AipService {
             throw new ObjectCouldNotBeRetrievedException(result.getInvalidChecksumSip(), result.getInvalidChecksumXmls());
         }
 
-        log.debug("AIP " + sipEntity.getId() + " has been successfully retrieved.");
-        List<StorageService> recoveredStorages = new ArrayList<>();
+        log.debug("AIP " + sipEntity.getId() + " has been successfully retrieved from storage " + successfulService.getStorage().getName() + ".");
         for (AipRetrievalResult invalidChecksumResult : invalidChecksumResults) {
-            StorageService usedStorageService = invalidChecksumResult.storageService;
-            boolean success = true;
-            //repair sip at the storage
-            if (invalidChecksumResult.invalidChecksumSip != null) {
-                success = archivalService.recoverSingleObject(usedStorageService, sipEntity.toDto(), result.getAipFromStorage().getId());
-            }
-            //repair XMLs at the storage
+            Storage storage = invalidChecksumResult.getStorageService().getStorage();
+            if (invalidChecksumResult.invalidChecksumSip != null)
+                objectRepairService.enqueue(sipEntity.toDto(), storage);
             for (AipXml xml : invalidChecksumResult.invalidChecksumXmls) {
-                ArchivalObjectDto xmlDto = xml.toDto();
-                success = success && archivalService.recoverSingleObject(usedStorageService, xmlDto, xmlDto.getStorageId());
+                objectRepairService.enqueue(xml.toDto(), storage);
             }
-            if (success)
-                log.info("AIP has been successfully recovered at storage " + usedStorageService.getStorage().getName() + ".");
-            recoveredStorages.add(invalidChecksumResult.getStorageService());
         }
-        storageServices.removeAll(invalidChecksumStorages);
-        arcstorageMailCenter.sendObjectRetrievalError(sipEntity.toDto(), successfulService.getStorage(), servicesToEntities(storageServices),
-                servicesToEntities(invalidChecksumStorages), servicesToEntities(recoveredStorages));
         return result.getAipFromStorage();
     }
 
-    private Path getPathForLocalStorageStreaming(String sipId) throws NoLogicalStorageAttachedException, NoLogicalStorageReachableException, RollbackStateException, DeletedStateException, StillProcessingStateException, FailedStateException, IOStorageException {
-        Optional<StorageService> storageService = storageProvider.createAdaptersForRead().stream().filter(s ->
-                (s.getStorage().getStorageType() == StorageType.FS || s.getStorage().getStorageType() == StorageType.ZFS) && isLocalhost(s.getStorage())).findFirst();
-        if (storageService.isEmpty())
-            throw new UnsupportedOperationException("Operation requires FS/ZFS storage of local type");
+    /**
+     * Deletes tmp file of SIP and closes XMLs of AIP which will not be returned, so that XMLs retrieved to memory
+     * release their buffers.
+     */
+    private void discardRetrievedFiles(AipRetrievalResource aip) {
+        tmpFolder.resolve(aip.getId()).toFile().delete();
+        closeQuietly(aip.getXmls().values().toArray(new InputStream[0]));
+    }
+
+    private static void closeQuietly(InputStream[] streams) {
+        for (InputStream stream : streams) {
+            if (stream != null)
+                IOUtils.closeQuietly(stream);
+        }
+    }
 
+    /**
+     * Opens AIP data as ZIP. Data are read directly from a local FS/ZFS storage if there is some reachable, the ZIP
+     * is then shared through {@link AipDataZipCache}. Otherwise the data are read by ranges from the first storage
+     * (ordered for read) which succeeds to open them, so that only the central directory and the read entries are transferred.
+     * <p>
+     * Caller is responsible for closing the returned handle.
+     * </p>
+     */
+    ZipHandle openAipDataZip(String sipId) throws NoLogicalStorageAttachedException, NoLogicalStorageReachableException, RollbackStateException, DeletedStateException, StillProcessingStateException, FailedStateException, StorageException {
+        return openAipDataZip(getAipReadableForStreaming(sipId));
+    }
+
+    private ZipHandle openAipDataZip(AipSip sipEntity) throws NoLogicalStorageAttachedException, NoLogicalStorageReachableException, StorageException {
+        List<StorageService> storageServices = storageProvider.createAdaptersForRead();
+        String sipId = sipEntity.getId();
+        String dataSpace = sipEntity.getOwner().getDataSpace();
+
+        Optional<StorageService> localStorageService = storageServices.stream().filter(s ->
+                (s.getStorage().getStorageType() == StorageType.FS || s.getStorage().getStorageType() == StorageType.ZFS) && isLocalhost(s.getStorage())
+                        && s instanceof FsAdapter && ((FsAdapter) s).getFsProcessor() instanceof LocalFsProcessor).findFirst();
+        if (localStorageService.isPresent()) {
+            LocalFsProcessor localFsProcessor = (LocalFsProcessor) ((FsAdapter) localStorageService.get()).getFsProcessor();
+            try {
+                return aipDataZipCache.acquire(sipId, localFsProcessor.getAipDataFilePath(sipId, dataSpace));
+            } catch (IOException e) {
+                throw new IOStorageException(e, localStorageService.get().getStorage());
+            }
+        }
+
+        StorageException lastException = null;
+        for (StorageService storageService : storageServices) {
+            RandomAccessObject randomAccessObject = null;
+            try {
+                randomAccessObject = storageService.getObjectRandomAccess(sipId, dataSpace);
+                return new ZipHandle(ZipFile.builder()
+                        .setSeekableByteChannel(new RandomAccessObjectChannel(randomAccessObject))
+                        .setIgnoreLocalFileHeader(true)
+                        .get());
+            } catch (StorageException e) {
+                log.error("Storage " + storageService.getStorage().getName() + " failed to open AIP " + sipId + " for random access.", e);
+                storagePerformanceTracker.recordReadFailure(storageService.getStorage());
+                lastException = e;
+            } catch (IOException e) {
+                log.error("Storage " + storageService.getStorage().getName() + " failed to read AIP " + sipId + " as ZIP.", e);
+                storagePerformanceTracker.recordReadFailure(storageService.getStorage());
+                lastException = new IOStorageException(e, storageService.getStorage());
+                IOUtils.closeQuietly(randomAccessObject);
+            } catch (RuntimeException e) {
+                //e.g. client exception of the storage SDK, the next storage is tried as with the storage exceptions
+                log.error("Storage " + storageService.getStorage().getName() + " failed to open AIP " + sipId + " for random access.", e);
+                storagePerformanceTracker.recordReadFailure(storageService.getStorage());
+                lastException = new IOStorageException(e, storageService.getStorage());
+                IOUtils.closeQuietly(randomAccessObject);
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * Captures manifest of AIP data from the staged tmp file. SIP which is not a valid ZIP is still stored, only without
+     * the manifest.
+     */
+    private void captureManifest(String sipId, Path tmpSipPath) {
+        List<AipManifestEntry> manifest;
+        try (ZipFile aipDataZip = ZipFile.builder().setPath(tmpSipPath).get()) {
+            manifest = readManifest(sipId, aipDataZip);
+        } catch (IOException e) {
+            log.warn("SIP of AIP with id " + sipId + " could not be read as ZIP, manifest of AIP data has not been captured.", e);
+            return;
+        }
+        archivalDbService.saveAipManifest(sipId, manifest);
+    }
+
+    private AipSip getAipReadableForStreaming(String sipId) throws RollbackStateException, DeletedStateException, StillProcessingStateException, FailedStateException {
         AipSip sipEntity = archivalDbService.getAip(sipId);
         switch (sipEntity.getState()) {
             case ROLLED_BACK:
@@ -893,31 +1411,73 @@ public class AipService {
             case ARCHIVAL_FAILURE:
                 throw new FailedStateException(sipEntity);
         }
+        return sipEntity;
+    }
 
-        LocalFsProcessor localFsProcessor;
-        if (storageService.get() instanceof FsAdapter) {
-            StorageService fsProcessor = ((FsAdapter) storageService.get()).getFsProcessor();
-            if (fsProcessor instanceof LocalFsProcessor)
-                localFsProcessor = (LocalFsProcessor) fsProcessor;
-            else
-                throw new IllegalArgumentException("expected LocalFsProcessor, but got: " + fsProcessor.getClass());
-        } else
-            throw new IllegalArgumentException("expected LocalFsProcessor, but got: " + storageService.get().getStorage());
-        return localFsProcessor.getAipDataFilePath(sipId, sipEntity.getOwner().getDataSpace());
+    /**
+     * Throws {@link MissingObject} if some of the paths is not in the manifest of AIP data, so that the request fails
+     * before any data are read from storage. Nothing is checked for AIPs ingested before the manifests were captured.
+     */
+    private void checkPathsInManifest(String sipId, Collection<String> filePaths) {
+        Set<String> missingPaths = archivalDbService.findPathsMissingInAipManifest(sipId, filePaths);
+        if (missingPaths != null && !missingPaths.isEmpty())
+            throw new MissingObject("file", String.join(", ", missingPaths));
     }
 
-    private void fillOutputStreamWithSpecifiedFiles(String sipId, Set<String> filePaths, ZipFile aipDataZip, ZipOutputStream zipOut) throws IOException {
-        for (String filePath : filePaths) {
-            ZipEntry zipEntry = aipDataZip.getEntry(filePath);
-            if (zipEntry == null) {
-                //swallowed by ZIP outputstream.. this handle is not ideal
-                //but at least there is a 'MissingObject' string instead of NPE string in response body
-                throw new MissingObject("file", filePath);
+    /**
+     * Reads manifest of AIP data from the central directory of the ZIP. Offset of entry data is -1 if it is not known,
+     * i.e. if the local file headers were not read.
+     */
+    static List<AipManifestEntry> readManifest(String sipId, ZipFile aipDataZip) {
+        List<AipManifestEntry> manifest = new ArrayList<>();
+        Enumeration<ZipArchiveEntry> entries = aipDataZip.getEntries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry zipEntry = entries.nextElement();
+            AipManifestEntry entry = new AipManifestEntry();
+            entry.setSipId(sipId);
+            entry.setPath(zipEntry.getName());
+            entry.setSize(zipEntry.getSize());
+            entry.setCompressedSize(zipEntry.getCompressedSize());
+            entry.setCrc(zipEntry.getCrc());
+            entry.setCompressionMethod(zipEntry.getMethod());
+            entry.setLocalHeaderOffset(zipEntry.getLocalHeaderOffset());
+            entry.setDataOffset(zipEntry.getDataOffset());
+            manifest.add(entry);
+        }
+        return manifest;
+    }
+
+    /**
+     * Compiles the regexes so that every ZIP entry is classified by as few match calls as possible. Regexes without
+     * capturing groups are joined into a single alternation, each one wrapped in a non-capturing group so that
+     * alternations inside of the regexes stay scoped. Regexes with capturing groups are matched separately, as the groups
+     * would be renumbered in the alternation and the backreferences would point to the groups of the other regexes, also
+     * the group names could collide. Each regex is compiled separately first so that a malformed regex can't be balanced
+     * out by its neighbours.
+     *
+     * @return predicate matching the names which match any of the regexes, nothing if there are no regexes
+     */
+    static Predicate<String> compileCombinedRegex(List<String> regexes) {
+        List<String> combinable = new ArrayList<>();
+        List<Pattern> separate = new ArrayList<>();
+        if (regexes != null) {
+            for (String regex : regexes) {
+                Pattern pattern = Pattern.compile(regex);
+                if (pattern.matcher("").groupCount() == 0)
+                    combinable.add(regex);
+                else
+                    separate.add(pattern);
             }
-            zipOut.putNextEntry(new ZipEntry(zipEntry.getName()));
-            IOUtils.copyLarge(aipDataZip.getInputStream(zipEntry), zipOut);
-            zipOut.closeEntry();
         }
+        if (!combinable.isEmpty())
+            separate.add(0, Pattern.compile(combinable.stream().map(r -> "(?:" + r + ")").collect(Collectors.joining("|"))));
+        return name -> {
+            for (Pattern pattern : separate) {
+                if (pattern.matcher(name).matches())
+                    return true;
+            }
+            return false;
+        };
     }
 
     /**
@@ -973,6 +1533,21 @@ public class AipService {
         this.executorService = executorService;
     }
 
+    @Autowired
+    public void setObjectRepairService(ObjectRepairService objectRepairService) {
+        this.objectRepairService = objectRepairService;
+    }
+
+    @Autowired
+    public void setFixityHistoryService(FixityHistoryService fixityHistoryService) {
+        this.fixityHistoryService = fixityHistoryService;
+    }
+
+    @Autowired
+    public void setPrefetchCache(PrefetchCache prefetchCache) {
+        this.prefetchCache = prefetchCache;
+    }
+
     @Autowired
     public void setArchivalService(ArchivalService archivalService) {
         this.archivalService = archivalService;
@@ -982,4 +1557,39 @@ public class AipService {
     public void setUserDetails(UserDetails userDetails) {
         this.userDetails = userDetails;
     }
-}
\ No newline at end of file
+
+    @Autowired
+    public void setVerificationStorageParallelism(@Value("${arcstorage.verification.storageParallelism}") int verificationStorageParallelism) {
+        this.verificationStorageParallelism = verificationStorageParallelism;
+    }
+
+    @Autowired
+    public void setVerificationBatchSize(@Value("${arcstorage.verification.batchSize}") int verificationBatchSize) {
+        this.verificationBatchSize = Math.max(1, verificationBatchSize);
+    }
+
+    @Autowired
+    public void setVerificationMaxConcurrent(@Value("${arcstorage.verification.maxConcurrent}") int verificationMaxConcurrent) {
+        this.verificationPermits = new Semaphore(Math.max(1, verificationMaxConcurrent));
+    }
+
+    @Autowired
+    public void setAipRetrievalParallelism(@Value("${arcstorage.read.aipParallelism}") int aipRetrievalParallelism) {
+        this.aipRetrievalParallelism = aipRetrievalParallelism;
+    }
+
+    @Autowired
+    public void setExportDeflateParallelism(@Value("${arcstorage.read.exportDeflateParallelism}") int exportDeflateParallelism) {
+        this.exportDeflateParallelism = exportDeflateParallelism;
+    }
+
+    @Autowired
+    public void setStoragePerformanceTracker(StoragePerformanceTracker storagePerformanceTracker) {
+        this.storagePerformanceTracker = storagePerformanceTracker;
+    }
+
+    @Autowired
+    public void setAipDataZipCache(AipDataZipCache aipDataZipCache) {
+        this.aipDataZipCache = aipDataZipCache;
+    }
+}
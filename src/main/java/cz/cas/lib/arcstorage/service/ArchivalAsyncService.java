@@ -7,6 +7,7 @@ import cz.cas.lib.arcstorage.dto.AipDto;
 import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
 import cz.cas.lib.arcstorage.dto.ObjectState;
 import cz.cas.lib.arcstorage.dto.TmpSourceHolder;
+import cz.cas.lib.arcstorage.dto.TrafficClass;
 import cz.cas.lib.arcstorage.exception.GeneralException;
 import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
 import cz.cas.lib.arcstorage.service.exception.CantReadException;
@@ -44,6 +45,8 @@ public class ArchivalAsyncService {
     private ExecutorService executor;
     private ArcstorageMailCenter mailCenter;
     private ExecutorService batchOpsExecutor;
+    private ForegroundLoadMonitor foregroundLoadMonitor;
+    private BandwidthLimiter bandwidthLimiter;
 
     /**
      * Saves AIP asynchronously to the provided storage services.
@@ -73,9 +76,12 @@ public class ArchivalAsyncService {
                 CompletableFuture<Void> c = CompletableFuture.runAsync(() -> {
                             if (aipRollbackFlag.getLeft().get())
                                 return;
+                            foregroundLoadMonitor.ingestStarted();
                             try (InputStream sipStream = tmpSip.createInputStream();
                                  InputStream xmlStream = tmpXml.createInputStream()) {
-                                a.storeAip(new AipDto(aip, sipStream, xmlStream), aipRollbackFlag.getLeft(), dataSpace);
+                                String storageId = a.getStorage().getId();
+                                a.storeAip(new AipDto(aip, bandwidthLimiter.throttle(storageId, TrafficClass.FOREGROUND, sipStream),
+                                        bandwidthLimiter.throttle(storageId, TrafficClass.FOREGROUND, xmlStream)), aipRollbackFlag.getLeft(), dataSpace);
                                 log.debug(a.getStorage() + ", " + aip + ", " + op + (aipRollbackFlag.getLeft().get() ? "interrupted by rollback signal" : "success"));
                             } catch (StorageException e) {
                                 log.warn(a.getStorage() + ", " + aip + ", " + op + "error: " + e);
@@ -83,6 +89,8 @@ public class ArchivalAsyncService {
                             } catch (IOException e) {
                                 throw new CantReadException("SIP tmp file at path " + tmpSip.toString() +
                                         " or XML tmp file at path " + tmpXml, e);
+                            } finally {
+                                foregroundLoadMonitor.ingestFinished();
                             }
                         }, batchOpsExecutor
                 );
@@ -171,8 +179,10 @@ public class ArchivalAsyncService {
             AtomicBoolean rollback = new AtomicBoolean(false);
             for (StorageService a : storageServices) {
                 CompletableFuture<Void> c = CompletableFuture.runAsync(() -> {
+                            foregroundLoadMonitor.ingestStarted();
                             try (InputStream objectStream = tmpSourceHolder.createInputStream()) {
-                                ArchivalObjectDto archivalObjectCpy = new ArchivalObjectDto(archivalObject, objectStream);
+                                ArchivalObjectDto archivalObjectCpy = new ArchivalObjectDto(archivalObject,
+                                        bandwidthLimiter.throttle(a.getStorage().getId(), TrafficClass.FOREGROUND, objectStream));
                                 a.storeObject(archivalObjectCpy, rollback, archivalObject.getOwner().getDataSpace());
                                 log.debug(a.getStorage() + ", " + archivalObject + ", " + op + "success");
                             } catch (StorageException e) {
@@ -180,6 +190,8 @@ public class ArchivalAsyncService {
                                 throw new GeneralException(e);
                             } catch (IOException e) {
                                 throw new CantReadException("Object tmp file at path " + tmpSourceHolder.toString(), e);
+                            } finally {
+                                foregroundLoadMonitor.ingestFinished();
                             }
                         }, executorToUse
                 );
@@ -484,4 +496,14 @@ public class ArchivalAsyncService {
     public void setBatchOpsExecutor(ExecutorService batchOpsExecutor) {
         this.batchOpsExecutor = batchOpsExecutor;
     }
+
+    @Autowired
+    public void setForegroundLoadMonitor(ForegroundLoadMonitor foregroundLoadMonitor) {
+        this.foregroundLoadMonitor = foregroundLoadMonitor;
+    }
+
+    @Autowired
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
 }
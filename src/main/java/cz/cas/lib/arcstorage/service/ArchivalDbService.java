@@ -1,5 +1,6 @@
 package cz.cas.lib.arcstorage.service;
 
+import cz.cas.lib.arcstorage.domain.entity.AipManifestEntry;
 import cz.cas.lib.arcstorage.domain.entity.AipSip;
 import cz.cas.lib.arcstorage.domain.entity.AipXml;
 import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
@@ -62,6 +63,8 @@ public class ArchivalDbService {
     private SystemStateService systemStateService;
     private TransactionTemplate transactionTemplate;
     private ArchivalObjectLightweightViewStore archivalObjectLightweightViewStore;
+    private AipManifestEntryStore aipManifestEntryStore;
+    private AipDataZipCache aipDataZipCache;
 
     /**
      * Registers that AIP creation process has started. Stores AIP records to database and sets their state to <i>processing</i>.
@@ -81,6 +84,7 @@ public class ArchivalDbService {
         AipXml xml;
         boolean archivalRetry = existingSip != null;
         if (archivalRetry) {
+            aipDataZipCache.invalidate(sipId);
             eq(existingSip.getXmls().size(), 1, () -> new GeneralException("Internal error: trying ARCHIVAL RETRY on " +
                     "AIP: " + existingSip.getId() + " which has: " + existingSip.getXmls().size() + " linked XMLs.. should have exactly one"));
             xml = existingSip.getXml(0);
@@ -209,13 +213,15 @@ public class ArchivalDbService {
                 throw new RollbackStateException(obj);
         }
         obj.setState(ObjectState.DELETED);
-        return transactionTemplate.execute(status -> {
+        ArchivalObject deleted = transactionTemplate.execute(status -> {
             if (systemStateService.get().isReadOnly())
                 throw new ReadOnlyStateException();
             archivalObjectStore.save(obj);
             objectAuditStore.save(new ObjectAudit(obj, new User(userDetails.getId()), AuditedOperation.DELETION));
             return obj;
         });
+        aipDataZipCache.invalidate(id);
+        return deleted;
     }
 
     /**
@@ -227,13 +233,15 @@ public class ArchivalDbService {
      */
     public ArchivalObject rollbackObject(ArchivalObject obj) throws ReadOnlyStateException {
         obj.setState(ObjectState.ROLLED_BACK);
-        return transactionTemplate.execute(status -> {
+        ArchivalObject rolledBack = transactionTemplate.execute(status -> {
             if (systemStateService.get().isReadOnly())
                 throw new ReadOnlyStateException();
             archivalObjectStore.save(obj);
             objectAuditStore.save(new ObjectAudit(obj, new User(userDetails.getId()), AuditedOperation.ROLLBACK));
             return obj;
         });
+        aipDataZipCache.invalidate(obj.getId());
+        return rolledBack;
     }
 
     /**
@@ -328,6 +336,10 @@ public class ArchivalDbService {
     public void setObjectsState(ObjectState state, String... dbIds) {
         ne(state, ObjectState.ARCHIVED, () -> new IllegalArgumentException("setting ARCHIVED state through this method is not allowed"));
         setObjectsStateInternal(state, dbIds);
+        if (state != ObjectState.REMOVED)
+            for (String id : dbIds) {
+                aipDataZipCache.invalidate(id);
+            }
     }
 
     @Transactional
@@ -477,8 +489,47 @@ public class ArchivalDbService {
             if (systemStateService.get().isReadOnly())
                 throw new ReadOnlyStateException();
             archivalObjectStore.delete(archivalObject);
+            if (archivalObject instanceof AipSip)
+                aipManifestEntryStore.deleteBySip(archivalObject.getId());
             objectAuditStore.save(new ObjectAudit(archivalObject, new User(userDetails.getId()), AuditedOperation.FORGET));
         });
+        aipDataZipCache.invalidate(archivalObject.getId());
+    }
+
+    /**
+     * Replaces the manifest of AIP data with the passed entries.
+     */
+    public void saveAipManifest(String sipId, List<AipManifestEntry> entries) {
+        transactionTemplate.executeWithoutResult(status -> {
+            aipManifestEntryStore.deleteBySip(sipId);
+            aipManifestEntryStore.save(entries);
+        });
+        log.debug("Manifest with " + entries.size() + " entries of AIP with id " + sipId + " has been stored.");
+    }
+
+    /**
+     * @return entries of the AIP data manifest ordered by their position in the ZIP, empty list if the manifest has not been captured
+     */
+    public List<AipManifestEntry> getAipManifest(String sipId) {
+        return aipManifestEntryStore.findBySip(sipId);
+    }
+
+    /**
+     * @return manifest entry of the AIP data file or null if there is no such entry in the manifest
+     */
+    public AipManifestEntry getAipManifestEntry(String sipId, String path) {
+        return aipManifestEntryStore.findBySipAndPath(sipId, path);
+    }
+
+    /**
+     * @return those of the passed paths which are not in the AIP data manifest or null if the manifest has not been captured
+     */
+    public Set<String> findPathsMissingInAipManifest(String sipId, Collection<String> paths) {
+        if (!aipManifestEntryStore.existsForSip(sipId))
+            return null;
+        Set<String> missing = new HashSet<>(paths);
+        missing.removeAll(aipManifestEntryStore.findExistingPaths(sipId, paths));
+        return missing;
     }
 
     public AipSip findSip(String id) {
@@ -535,6 +586,16 @@ public class ArchivalDbService {
         this.aipXmlStore = store;
     }
 
+    @Autowired
+    public void setAipManifestEntryStore(AipManifestEntryStore store) {
+        this.aipManifestEntryStore = store;
+    }
+
+    @Autowired
+    public void setAipDataZipCache(AipDataZipCache aipDataZipCache) {
+        this.aipDataZipCache = aipDataZipCache;
+    }
+
     @Autowired
     public void setObjectAuditStore(ObjectAuditStore objectAuditStore) {
         this.objectAuditStore = objectAuditStore;
@@ -3,6 +3,7 @@ package cz.cas.lib.arcstorage.service;
 import cz.cas.lib.arcstorage.domain.entity.AipSip;
 import cz.cas.lib.arcstorage.domain.entity.AipXml;
 import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
+import cz.cas.lib.arcstorage.domain.entity.ObjectType;
 import cz.cas.lib.arcstorage.domain.entity.Storage;
 import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
 import cz.cas.lib.arcstorage.dto.Checksum;
@@ -16,10 +17,12 @@ import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedE
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageReachableException;
 import cz.cas.lib.arcstorage.service.exception.storage.ObjectCouldNotBeRetrievedException;
 import cz.cas.lib.arcstorage.service.exception.storage.SomeLogicalStoragesNotReachableException;
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.exception.StorageException;
 import cz.cas.lib.arcstorage.util.ApplicationContextUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -28,14 +31,17 @@ import org.springframework.stereotype.Service;
 import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
+import static cz.cas.lib.arcstorage.storage.StorageUtils.computeChecksum;
 import static cz.cas.lib.arcstorage.storage.StorageUtils.copyStreamAndComputeChecksum;
 import static cz.cas.lib.arcstorage.util.Utils.servicesToEntities;
 
@@ -53,6 +59,20 @@ public class ArchivalService {
     private ArcstorageMailCenter arcstorageMailCenter;
     private ArchivalDbService archivalDbService;
     private ArchivalAsyncService async;
+    private ExecutorService executorService;
+    private StoragePerformanceTracker storagePerformanceTracker;
+    private ObjectRepairService objectRepairService;
+    private PrefetchCache prefetchCache;
+    private SmallObjectBufferPool smallObjectBufferPool;
+    private boolean hedgingEnabled;
+    private long hedgingDelay;
+    private long hedgingInitialDelay;
+    private boolean stripingEnabled;
+    private long stripingMinSize;
+    private long stripingStripeSize;
+    private int stripingMaxStorages;
+    private final ReadLatencyWindow readLatencies = new ReadLatencyWindow();
+    private final SingleFlight<String, ObjectRetrievalResource> objectRetrievals = new SingleFlight<>();
 
     /**
      * Retrieves object if the object is in the allowed state or throws corresponding exception.
@@ -153,6 +173,7 @@ public class ArchivalService {
         log.debug("Deleting object with id " + id + ".");
         List<StorageService> reachableAdapters = storageProvider.createAdaptersForModifyOperation();
         ArchivalObject archivalObject = archivalDbService.deleteObject(id);
+        prefetchCache.evict(archivalObject.toDto().getStorageId());
         async.deleteObject(archivalObject.toDto(), reachableAdapters);
     }
 
@@ -250,6 +271,7 @@ public class ArchivalService {
         ArrayList<ArchivalObject> allObjectsToForgetReversedOrder = new ArrayList<>(allObjectsToForget);
         Collections.reverse(allObjectsToForgetReversedOrder);
         for (ArchivalObject archivalObject : allObjectsToForgetReversedOrder) {
+            prefetchCache.evict(archivalObject.toDto().getStorageId());
             for (StorageService reachableAdapter : reachableAdapters) {
                 reachableAdapter.forgetObject(archivalObject.toDto().getStorageId(), archivalObject.getOwner().getDataSpace(), null);
             }
@@ -262,6 +284,11 @@ public class ArchivalService {
     /**
      * Retrieves object.
      * <p>
+     * Object prefetched by {@link PrefetchService} is read from {@link PrefetchCache} without accessing the storage.
+     * Concurrent retrievals of the same object share a single retrieval from storage, every caller obtains its own
+     * tmp file which is hard linked to the verified tmp file of the retrieval.
+     * </p>
+     * <p>
      * Storage is chosen randomly from those with highest priority. If the chose storage throws
      * {@link StorageException}, or checksum does not match, {@link #recoverObjectFromOtherStorages(ArchivalObjectDto, List, boolean)}
      * is called to scan through all storages until it finds the right one or throws {@link ObjectCouldNotBeRetrievedException} which
@@ -273,7 +300,64 @@ public class ArchivalService {
      */
     private ObjectRetrievalResource retrieveObject(ArchivalObjectDto archivalObject)
             throws ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, NoLogicalStorageAttachedException {
-        return retrieveObject(archivalObject, null);
+        ObjectRetrievalResource prefetched = retrievePrefetchedObject(archivalObject);
+        if (prefetched != null)
+            return prefetched;
+        SingleFlight.Call<String, ObjectRetrievalResource> call = objectRetrievals.join(
+                archivalObject.getStorageId() + "_" + archivalObject.getChecksum().getValue());
+        if (!call.isLeader()) {
+            ObjectRetrievalResource share = call.awaitShare();
+            if (share != null) {
+                log.debug("object: " + archivalObject.getStorageId() + " has been retrieved by concurrent request.");
+                return share;
+            }
+            return retrieveObject(archivalObject, null);
+        }
+        ObjectRetrievalResource objectRef = null;
+        try {
+            objectRef = retrieveObject(archivalObject, null);
+        } finally {
+            call.complete(objectRef, this::shareRetrievedObject);
+        }
+        return objectRef;
+    }
+
+    /**
+     * @return resource backed by tmp file linked to the prefetched copy of the object, null if the object is not prefetched
+     */
+    private ObjectRetrievalResource retrievePrefetchedObject(ArchivalObjectDto archivalObject) {
+        ObjectRetrievalResource resource = new ObjectRetrievalResource(null, null);
+        Path tmpFile = tmpFolder.resolve(resource.getId());
+        if (!prefetchCache.linkTo(archivalObject, tmpFile))
+            return null;
+        try {
+            resource.setInputStream(new FileInputStream(tmpFile.toFile()));
+        } catch (IOException e) {
+            tmpFile.toFile().delete();
+            return null;
+        }
+        return resource;
+    }
+
+    /**
+     * Creates resource of other reader backed by its own link to the tmp file of the retrieved object, or by the same
+     * buffer if the object has been retrieved to memory.
+     */
+    private ObjectRetrievalResource shareRetrievedObject(ObjectRetrievalResource objectRef) {
+        ObjectRetrievalResource share = new ObjectRetrievalResource(null, null);
+        if (objectRef.getInputStream() instanceof SmallObjectBufferPool.BufferInputStream) {
+            share.setInputStream(((SmallObjectBufferPool.BufferInputStream) objectRef.getInputStream()).share());
+            return share;
+        }
+        Path tmpFile = tmpFolder.resolve(share.getId());
+        try {
+            SingleFlight.shareTmpFile(tmpFolder.resolve(objectRef.getId()), tmpFile);
+            share.setInputStream(new FileInputStream(tmpFile.toFile()));
+        } catch (IOException e) {
+            tmpFile.toFile().delete();
+            throw new UncheckedIOException("could not share tmp file " + objectRef.getId(), e);
+        }
+        return share;
     }
 
     /**
@@ -312,7 +396,17 @@ public class ArchivalService {
             if (storageServicesByPriorities.isEmpty())
                 throw new ObjectCouldNotBeRetrievedException(archivalObject);
         }
-        ObjectRetrievalResource objectRef;
+        ObjectRetrievalResource objectRef = retrieveObjectStriped(archivalObject, storageServicesByPriorities);
+        if (objectRef != null) {
+            log.info("object: " + archivalObject.getStorageId() + " has been successfully retrieved.");
+            return objectRef;
+        }
+        if (hedgingEnabled && storageServicesByPriorities.size() > 1 &&
+                storageServicesByPriorities.get(0).getStorage().getPriority() == storageServicesByPriorities.get(1).getStorage().getPriority()) {
+            objectRef = retrieveObjectHedged(archivalObject, storageServicesByPriorities);
+            log.info("object: " + archivalObject.getStorageId() + " has been successfully retrieved.");
+            return objectRef;
+        }
         try {
             objectRef = retrieveObjectFromStorage(archivalObject, storageServicesByPriorities.get(0));
             if (objectRef == null) {
@@ -329,9 +423,173 @@ public class ArchivalService {
         return objectRef;
     }
 
+    /**
+     * Retrieves object using hedged read across the first two storages, which are of the same priority.
+     * <p>
+     * The read is started at the first storage. If the first storage does not produce any data within the hedging delay,
+     * the same read is started also at the second storage. The first read which verifies is used and the other one is
+     * cancelled. If any of the reads fails or the object is corrupted, the remaining storages are scanned and the
+     * corrupted storages are recovered in the same way as in {@link #recoverObjectFromOtherStorages(ArchivalObjectDto, List, boolean)}.
+     * </p>
+     *
+     * @param archivalObject  object from main request
+     * @param storageServices storage services which are used for retrieval, the first two have the same priority
+     * @return {@link ObjectRetrievalResource} with valid object's input stream
+     * @throws ObjectCouldNotBeRetrievedException if object is corrupted at the given storages
+     */
+    private ObjectRetrievalResource retrieveObjectHedged(ArchivalObjectDto archivalObject, List<StorageService> storageServices)
+            throws ObjectCouldNotBeRetrievedException {
+        List<HedgedReadAttempt> attempts = new ArrayList<>();
+        HedgedReadAttempt primary = new HedgedReadAttempt(archivalObject, storageServices.get(0));
+        attempts.add(primary);
+        primary.start();
+        long hedgingDelay = getHedgingDelay();
+        try {
+            if (!primary.awaitFirstData(hedgingDelay)) {
+                log.debug("Storage: " + storageServices.get(0).getStorage().getName() + " has not produced data of object: " +
+                        archivalObject.getStorageId() + " within " + hedgingDelay + "ms, hedging the read to storage: " +
+                        storageServices.get(1).getStorage().getName());
+                HedgedReadAttempt hedge = new HedgedReadAttempt(archivalObject, storageServices.get(1));
+                attempts.add(hedge);
+                hedge.start();
+            }
+            while (attempts.stream().noneMatch(HedgedReadAttempt::isValid) && attempts.stream().anyMatch(a -> !a.result.isDone())) {
+                CompletableFuture.anyOf(attempts.stream().filter(a -> !a.result.isDone()).map(a -> a.result).toArray(CompletableFuture[]::new))
+                        .handle((r, e) -> null).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            attempts.forEach(HedgedReadAttempt::cancel);
+            throw new GeneralException("interrupted during retrieval of object: " + archivalObject.getStorageId(), e);
+        } catch (ExecutionException e) {
+            throw new GeneralException(e.getCause());
+        }
+
+        HedgedReadAttempt winner = attempts.stream().filter(HedgedReadAttempt::isValid).findFirst().orElse(null);
+        //attempts which are still running are not failures, they are just cancelled
+        List<HedgedReadAttempt> finishedAttempts = attempts.stream().filter(a -> a != winner && a.result.isDone()).collect(Collectors.toList());
+        attempts.stream().filter(a -> a != winner).forEach(HedgedReadAttempt::cancel);
+        boolean someFailed = !finishedAttempts.isEmpty();
+        List<StorageService> invalidChecksumStorages = new ArrayList<>();
+        for (HedgedReadAttempt attempt : finishedAttempts) {
+            if (attempt.result.isCompletedExceptionally())
+                log.error("Storage error has occurred during retrieval process of object: " + archivalObject.getStorageId());
+            else
+                invalidChecksumStorages.add(attempt.storageService);
+        }
+        if (winner == null)
+            return recoverObjectFromOtherStorages(archivalObject, storageServices, attempts.size(), invalidChecksumStorages, null, null);
+        readLatencies.record(winner.timeToFirstData);
+        if (!someFailed)
+            return winner.result.join();
+        return recoverObjectFromOtherStorages(archivalObject, storageServices, attempts.size(), invalidChecksumStorages,
+                winner.result.join(), winner.storageService);
+    }
+
+    private long getHedgingDelay() {
+        if (hedgingDelay > 0)
+            return hedgingDelay;
+        Long learnedDelay = readLatencies.percentile(95);
+        return learnedDelay == null ? hedgingInitialDelay : learnedDelay;
+    }
+
+    /**
+     * Retrieves object striped from several storages, see {@link #downloadObjectStriped(ArchivalObjectDto, List, File)}.
+     *
+     * @return {@link ObjectRetrievalResource} with valid object's input stream or null if the object was not retrieved striped
+     */
+    private ObjectRetrievalResource retrieveObjectStriped(ArchivalObjectDto objectDto, List<StorageService> storageServices) {
+        ObjectRetrievalResource objectRef = new ObjectRetrievalResource(null, null);
+        File tmpFile = tmpFolder.resolve(objectRef.getId()).toFile();
+        if (!downloadObjectStriped(objectDto, storageServices, tmpFile))
+            return null;
+        try {
+            objectRef.setInputStream(new FileInputStream(tmpFile));
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException("could not find tmp file " + objectRef.getId(), e);
+        }
+        return objectRef;
+    }
+
+    /**
+     * Downloads object to the tmp file by ranges read in parallel from several storages, so that the download of a large
+     * object is not limited by the throughput of a single storage. Only the storages of the same priority as the first
+     * storage are used. The content is verified against the checksum of the whole object.
+     * <p>
+     * Striped download is used only if it is enabled, there are at least two of such storages and the object is not
+     * an XML and its size is at least {@link #stripingMinSize}.
+     * </p>
+     *
+     * @param objectDto       object to download
+     * @param storageServices storage services ordered for read
+     * @param tmpFile         file to download to
+     * @return <code>true</code> if the object has been downloaded and is valid, <code>false</code> if the striped
+     * download is not applicable or has failed, the caller should then retrieve the object from single storage
+     */
+    boolean downloadObjectStriped(ArchivalObjectDto objectDto, List<StorageService> storageServices, File tmpFile) {
+        if (!stripingEnabled || objectDto.getObjectType() == ObjectType.XML || storageServices.size() < 2)
+            return false;
+        int priority = storageServices.get(0).getStorage().getPriority();
+        List<StorageService> sources = storageServices.stream()
+                .filter(s -> s.getStorage().getPriority() == priority)
+                .limit(stripingMaxStorages)
+                .collect(Collectors.toList());
+        if (sources.size() < 2)
+            return false;
+        List<RandomAccessObject> replicas = new ArrayList<>();
+        try {
+            long size = -1;
+            for (StorageService source : sources) {
+                try {
+                    RandomAccessObject replica = source.getObjectRandomAccess(objectDto.getStorageId(), objectDto.getOwner().getDataSpace());
+                    replicas.add(replica);
+                    if (size == -1) {
+                        size = replica.size();
+                        if (size < stripingMinSize)
+                            return false;
+                    } else if (replica.size() != size) {
+                        log.warn("Size of object " + objectDto.getStorageId() + " differs at storage " + source.getStorage().getName() +
+                                ", object is not retrieved striped.");
+                        return false;
+                    }
+                } catch (Exception e) {
+                    //failing replica is skipped, the object is retrieved from the others or from single storage
+                    log.warn("Could not open object " + objectDto.getStorageId() + " at storage " + source.getStorage().getName() +
+                            " for striped retrieval.", e);
+                }
+            }
+            if (replicas.size() < 2)
+                return false;
+            log.debug("Retrieving object " + objectDto.getStorageId() + " of size " + size + " striped from " + replicas.size() + " storages.");
+            long start = System.currentTimeMillis();
+            if (!new StripedDownload(replicas, size, stripingStripeSize, executorService).downloadTo(tmpFile.toPath())) {
+                log.warn("Striped retrieval of object " + objectDto.getStorageId() + " has failed at all storages.");
+                tmpFile.delete();
+                return false;
+            }
+            Checksum checksum;
+            try (InputStream is = new BufferedInputStream(new FileInputStream(tmpFile))) {
+                checksum = computeChecksum(is, objectDto.getChecksum().getType());
+            }
+            if (!objectDto.getChecksum().equals(checksum)) {
+                log.warn("Checksum of object " + objectDto.getStorageId() + " retrieved striped does not match, object is retrieved from single storage.");
+                tmpFile.delete();
+                return false;
+            }
+            log.debug("Object " + objectDto.getStorageId() + " has been retrieved striped and validated in " + (System.currentTimeMillis() - start) + "ms.");
+            return true;
+        } catch (IOException e) {
+            log.error("Striped retrieval of object " + objectDto.getStorageId() + " has failed.", e);
+            tmpFile.delete();
+            return false;
+        } finally {
+            replicas.forEach(IOUtils::closeQuietly);
+        }
+    }
+
     /**
      * Retrieves single object from storage. Returns <code>null</code> if the object has been corrupted, i.e. its checksum does not match expected value.
-     * The retrieved object is stored in temporary file. Connection used for retrieval is closed.
+     * The retrieved object is kept in memory if it is small enough, it is stored in temporary file otherwise. Connection used for retrieval is closed.
      *
      * @param objectDto      DTO with the object to retrieve
      * @param storageService storage services to retrieve he object from
@@ -340,29 +598,46 @@ public class ArchivalService {
      */
     private ObjectRetrievalResource retrieveObjectFromStorage(ArchivalObjectDto objectDto, StorageService storageService)
             throws StorageException {
+        return retrieveObjectFromStorage(objectDto, storageService, null);
+    }
+
+    /**
+     * Same as {@link #retrieveObjectFromStorage(ArchivalObjectDto, StorageService)} but passes the resource to the
+     * <code>onOpened</code> consumer as soon as it is obtained from the storage, before its content is copied.
+     */
+    private ObjectRetrievalResource retrieveObjectFromStorage(ArchivalObjectDto objectDto, StorageService storageService,
+                                                              Consumer<ObjectRetrievalResource> onOpened)
+            throws StorageException {
         String storageName = storageService.getStorage().getName();
         log.debug("Storage: " + storageName + " chosen to retrieve object: " + objectDto.getStorageId());
 
-        ObjectRetrievalResource objectFromStorage = storageService.getObject(objectDto.getStorageId(), objectDto.getOwner().getDataSpace());
-        String tmpFileId = objectFromStorage.getId();
-        File tmpFile = tmpFolder.resolve(tmpFileId).toFile();
-        boolean valid = copyObjectToTmpFolderAndVerifyChecksum(objectDto.getDatabaseId(), objectFromStorage.getInputStream(), objectDto.getChecksum(), tmpFile, storageName);
-        if (!valid)
-            return null;
+        long start = System.currentTimeMillis();
+        ObjectRetrievalResource objectFromStorage;
         try {
-            log.debug("Validated checksum of object with storage id " + objectDto.getStorageId() +
-                    " retrieved from storage " + storageService.getStorage().getName() + ".");
-            objectFromStorage.setInputStream(new FileInputStream(tmpFile));
-        } catch (FileNotFoundException e) {
-            throw new UncheckedIOException("could not find tmp file " + objectFromStorage.getId(), e);
+            objectFromStorage = storageService.getObject(objectDto.getStorageId(), objectDto.getOwner().getDataSpace());
+        } catch (StorageException e) {
+            storagePerformanceTracker.recordReadFailure(storageService.getStorage());
+            throw e;
         }
+        long opened = System.currentTimeMillis();
+        if (onOpened != null)
+            onOpened.accept(objectFromStorage);
+        File tmpFile = tmpFolder.resolve(objectFromStorage.getId()).toFile();
+        InputStream verifiedObject = copyObjectAndVerifyChecksum(objectDto.getDatabaseId(), objectFromStorage.getInputStream(), objectDto.getChecksum(), tmpFile, storageName);
+        if (verifiedObject == null) {
+            storagePerformanceTracker.recordReadFailure(storageService.getStorage());
+            return null;
+        }
+        storagePerformanceTracker.recordRead(storageService.getStorage(), opened - start, sizeOf(verifiedObject, tmpFile), System.currentTimeMillis() - opened);
+        log.debug("Validated checksum of object with storage id " + objectDto.getStorageId() +
+                " retrieved from storage " + storageService.getStorage().getName() + ".");
+        objectFromStorage.setInputStream(verifiedObject);
         return objectFromStorage;
     }
 
     /**
      * This method is called when the very first attempt to return object fails. It scans through all storages until it finds
-     * valid object. Then it tries to recover all objects on storages where the object was corrupted. If the recovery fails it is logged
-     * and the method continues.
+     * valid object. Then it enqueues repair of all objects on storages where the object was corrupted.
      *
      * @param objectDto                 object from the main request
      * @param storageServices           storage services which are used for retrieval
@@ -373,18 +648,36 @@ public class ArchivalService {
      */
     private ObjectRetrievalResource recoverObjectFromOtherStorages(ArchivalObjectDto objectDto, List<StorageService> storageServices,
                                                                    boolean problemWasInvalidChecksum) throws ObjectCouldNotBeRetrievedException {
-        log.debug("Recovering object " + objectDto.getStorageId() + " from other storages.");
         List<StorageService> invalidChecksumStorages = new ArrayList<>();
 
         //if the first storage retrieved object but it was corrupted, add the storage to those which will be recovered
         if (problemWasInvalidChecksum) {
             invalidChecksumStorages.add(storageServices.get(0));
         }
+        return recoverObjectFromOtherStorages(objectDto, storageServices, 1, invalidChecksumStorages, null, null);
+    }
 
-        ObjectRetrievalResource objectRetrievalResource = null;
-        StorageService successfulService = null;
+    /**
+     * Scans through storages starting at <code>firstUntriedStorage</code> index until it finds valid object, unless the
+     * valid object was already found. Then it enqueues repair of the object on storages where the object was corrupted,
+     * the repair is done asynchronously by {@link ObjectRepairService} which also mails its outcome.
+     *
+     * @param objectDto               object from the main request
+     * @param storageServices         storage services which are used for retrieval
+     * @param firstUntriedStorage     index of the first storage which has not been used for retrieval yet
+     * @param invalidChecksumStorages storages already known to store corrupted object
+     * @param objectRetrievalResource valid object if it was already found, null otherwise
+     * @param successfulService       storage of the valid object if it was already found, null otherwise
+     * @return {@link ObjectRetrievalResource} with valid object
+     * @throws ObjectCouldNotBeRetrievedException if no valid object was found
+     */
+    private ObjectRetrievalResource recoverObjectFromOtherStorages(ArchivalObjectDto objectDto, List<StorageService> storageServices,
+                                                                   int firstUntriedStorage, List<StorageService> invalidChecksumStorages,
+                                                                   ObjectRetrievalResource objectRetrievalResource, StorageService successfulService)
+            throws ObjectCouldNotBeRetrievedException {
+        log.debug("Recovering object " + objectDto.getStorageId() + " from other storages.");
         //iterate over all the storages to find an uncorrupted version of the object
-        for (int i = 1; i < storageServices.size(); i++) {
+        for (int i = firstUntriedStorage; objectRetrievalResource == null && i < storageServices.size(); i++) {
             try {
                 objectRetrievalResource = retrieveObjectFromStorage(objectDto, storageServices.get(i));
                 if (objectRetrievalResource != null) {
@@ -405,41 +698,59 @@ public class ArchivalService {
             throw new ObjectCouldNotBeRetrievedException(objectDto);
         }
 
-        log.debug("object " + objectDto.getStorageId() + " has been successfully retrieved");
-        List<StorageService> recoveredStorages = new ArrayList<>();
+        log.debug("object " + objectDto.getStorageId() + " has been successfully retrieved from storage " + successfulService.getStorage().getName());
         for (StorageService storageService : invalidChecksumStorages) {
-            boolean success = recoverSingleObject(storageService, objectDto, objectRetrievalResource.getId());
-            if (success)
-                recoveredStorages.add(storageService);
+            objectRepairService.enqueue(objectDto, storageService.getStorage());
         }
-        storageServices.removeAll(invalidChecksumStorages);
-        arcstorageMailCenter.sendObjectRetrievalError(objectDto, successfulService.getStorage(), servicesToEntities(storageServices), servicesToEntities(invalidChecksumStorages), servicesToEntities(recoveredStorages));
         return objectRetrievalResource;
     }
 
     /**
-     * Recovers object at the provided archival storage.
+     * Copies object to memory and verifies checksum. The object is copied to temporary folder instead if it is larger
+     * than the buffers of {@link SmallObjectBufferPool} or their memory budget is used up.
      *
-     * @param storageService storage service to recover at
-     * @param objectDto      object to be recovered
-     * @param tmpFileId      id of the file storing the object content at the temporary storage
-     * @return <code>true</code> if the recovery was successful, <code>false</code> otherwise
+     * @param objectIs       input stream with the object
+     * @param checksum       checksum of the object
+     * @param tmpFile        file to copy to if the object is not kept in memory
+     * @param objectDbId     id of the object in db
+     * @param storageLogName storage name (used in the log message)
+     * @return stream with the verified object, <code>null</code> if the checksum does not match
      */
-    boolean recoverSingleObject(StorageService storageService, ArchivalObjectDto objectDto, String tmpFileId) {
-        log.debug("Recovering object " + objectDto.getStorageId() + " at storage " + storageService.getStorage().getName() + ".");
-        try (FileInputStream objectInputStream = new FileInputStream(tmpFolder.resolve(tmpFileId).toFile())) {
-            objectDto.setInputStream(objectInputStream);
-            storageService.storeObject(objectDto, new AtomicBoolean(false), objectDto.getOwner().getDataSpace());
-            log.info("Object " + objectDto.getStorageId() + " has been successfully recovered at storage " +
-                    storageService.getStorage().getName() + ".");
-        } catch (StorageException e) {
-            log.error("Object " + objectDto.getStorageId() + " has failed to be recovered at storage " +
-                    storageService.getStorage().getName() + ".");
-            return false;
-        } catch (IOException e) {
-            throw new UncheckedIOException("cannot read tmp file " + tmpFileId, e);
+    InputStream copyObjectAndVerifyChecksum(String objectDbId, InputStream objectIs, Checksum checksum, File tmpFile,
+                                            String storageLogName) {
+        SmallObjectBufferPool.SpillingOutputStream os = smallObjectBufferPool.newOutputStream(tmpFile);
+        try {
+            if (os == null) {
+                if (!copyObjectToTmpFolderAndVerifyChecksum(objectDbId, objectIs, checksum, tmpFile, storageLogName))
+                    return null;
+                return new FileInputStream(tmpFile);
+            }
+            Checksum objectStorageChecksum;
+            try {
+                objectStorageChecksum = copyStreamAndComputeChecksum(objectIs, os, checksum.getType());
+            } catch (RuntimeException e) {
+                os.discard();
+                throw e;
+            }
+            if (!checksum.equals(objectStorageChecksum)) {
+                log.error("Checksum for object with database id: " + objectDbId + " is invalid at storage " + storageLogName +
+                        ". Expected checksum: " + checksum + " computed checksum: " + objectStorageChecksum);
+                os.discard();
+                return null;
+            }
+            return os.toInputStream();
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException("could not find tmp file " + tmpFile, e);
         }
-        return true;
+    }
+
+    /**
+     * @return size of the object returned by {@link #copyObjectAndVerifyChecksum(String, InputStream, Checksum, File, String)}
+     */
+    static long sizeOf(InputStream verifiedObject, File tmpFile) {
+        if (verifiedObject instanceof SmallObjectBufferPool.BufferInputStream)
+            return ((SmallObjectBufferPool.BufferInputStream) verifiedObject).getSize();
+        return tmpFile.length();
     }
 
     /**
@@ -454,7 +765,19 @@ public class ArchivalService {
      */
     boolean copyObjectToTmpFolderAndVerifyChecksum(String objectDbId, InputStream objectIs, Checksum checksum, File tmpFile,
                                                    String storageLogName) {
-        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+        return copyObjectToTmpFolderAndVerifyChecksum(objectDbId, objectIs, checksum, tmpFile, storageLogName, null);
+    }
+
+    /**
+     * Copies object to temporary folder, verifies checksum and computes CRC32 of the object in the same pass, e.g. for
+     * the entries of exported containers, so that the tmp file is not read again only to compute the CRC.
+     *
+     * @param crc CRC updated by the copied data, null if the CRC is not needed
+     * @see #copyObjectToTmpFolderAndVerifyChecksum(String, InputStream, Checksum, File, String)
+     */
+    boolean copyObjectToTmpFolderAndVerifyChecksum(String objectDbId, InputStream objectIs, Checksum checksum, File tmpFile,
+                                                   String storageLogName, CRC32 crc) {
+        try (OutputStream fos = crc == null ? new FileOutputStream(tmpFile) : new CheckedOutputStream(new FileOutputStream(tmpFile), crc)) {
             Checksum objectStorageChecksum = copyStreamAndComputeChecksum(objectIs, fos, checksum.getType());
             if (!checksum.equals(objectStorageChecksum)) {
                 log.error("Checksum for object with database id: " + objectDbId + " (temporarily stored in archival storage workspace as file: " + tmpFile.getName() + ") is invalid at storage " + storageLogName +
@@ -495,4 +818,167 @@ public class ArchivalService {
     public void setAsync(ArchivalAsyncService async) {
         this.async = async;
     }
+
+    /**
+     * Single read of an object from a storage started during a hedged read.
+     */
+    private class HedgedReadAttempt {
+        private final ArchivalObjectDto objectDto;
+        private final StorageService storageService;
+        private final CompletableFuture<ObjectRetrievalResource> result = new CompletableFuture<>();
+        private final CountDownLatch firstData = new CountDownLatch(1);
+        private final AtomicReference<ObjectRetrievalResource> openedResource = new AtomicReference<>();
+        private long timeToFirstData;
+
+        HedgedReadAttempt(ArchivalObjectDto objectDto, StorageService storageService) {
+            this.objectDto = objectDto;
+            this.storageService = storageService;
+        }
+
+        void start() {
+            long start = System.currentTimeMillis();
+            executorService.submit(() -> {
+                try {
+                    result.complete(retrieveObjectFromStorage(objectDto, storageService, resource -> {
+                        openedResource.set(resource);
+                        resource.setInputStream(new FilterInputStream(resource.getInputStream()) {
+                            @Override
+                            public int read(byte[] b, int off, int len) throws IOException {
+                                int read = super.read(b, off, len);
+                                if (firstData.getCount() > 0) {
+                                    timeToFirstData = System.currentTimeMillis() - start;
+                                    firstData.countDown();
+                                }
+                                return read;
+                            }
+                        });
+                    }));
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    firstData.countDown();
+                }
+            });
+        }
+
+        boolean awaitFirstData(long millis) throws InterruptedException {
+            return firstData.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        boolean isValid() {
+            return result.isDone() && !result.isCompletedExceptionally() && result.join() != null;
+        }
+
+        /**
+         * Stops the attempt by closing the stream from the storage, which makes the running copy fail.
+         */
+        void cancel() {
+            ObjectRetrievalResource resource = openedResource.get();
+            if (resource != null && !result.isDone())
+                IOUtils.closeQuietly(resource.getInputStream());
+            //whatever the outcome of the attempt, once it finishes its connection and tmp file are no longer needed,
+            //the resource is opened before the attempt finishes, so it is always set here if it has been opened
+            result.whenComplete((r, e) -> {
+                ObjectRetrievalResource opened = openedResource.get();
+                if (opened != null)
+                    discard(opened);
+            });
+        }
+
+        private void discard(ObjectRetrievalResource resource) {
+            tmpFolder.resolve(resource.getId()).toFile().delete();
+            executorService.submit(() -> {
+                try {
+                    resource.close();
+                } catch (Exception e) {
+                    log.debug("could not close resource of cancelled read of object: " + objectDto.getStorageId(), e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sliding window of the latest times to the first data of reads, used to learn the hedging delay.
+     */
+    private static class ReadLatencyWindow {
+        private static final int SIZE = 256;
+        private static final int MIN_SAMPLES = 20;
+        private final long[] samples = new long[SIZE];
+        private int count = 0;
+        private int next = 0;
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % SIZE;
+            count = Math.min(count + 1, SIZE);
+        }
+
+        synchronized Long percentile(int percentile) {
+            if (count < MIN_SAMPLES)
+                return null;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(percentile / 100.0 * count) - 1)];
+        }
+    }
+
+    @Autowired
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    @Autowired
+    public void setHedgingEnabled(@Value("${arcstorage.read.hedging.enabled}") boolean hedgingEnabled) {
+        this.hedgingEnabled = hedgingEnabled;
+    }
+
+    @Autowired
+    public void setHedgingDelay(@Value("${arcstorage.read.hedging.delay}") long hedgingDelay) {
+        this.hedgingDelay = hedgingDelay;
+    }
+
+    @Autowired
+    public void setHedgingInitialDelay(@Value("${arcstorage.read.hedging.initialDelay}") long hedgingInitialDelay) {
+        this.hedgingInitialDelay = hedgingInitialDelay;
+    }
+
+    @Autowired
+    public void setStripingEnabled(@Value("${arcstorage.read.striping.enabled}") boolean stripingEnabled) {
+        this.stripingEnabled = stripingEnabled;
+    }
+
+    @Autowired
+    public void setStripingMinSize(@Value("${arcstorage.read.striping.minSize}") long stripingMinSize) {
+        this.stripingMinSize = stripingMinSize;
+    }
+
+    @Autowired
+    public void setStripingStripeSize(@Value("${arcstorage.read.striping.stripeSize}") long stripingStripeSize) {
+        this.stripingStripeSize = stripingStripeSize;
+    }
+
+    @Autowired
+    public void setStripingMaxStorages(@Value("${arcstorage.read.striping.maxStorages}") int stripingMaxStorages) {
+        this.stripingMaxStorages = stripingMaxStorages;
+    }
+
+    @Autowired
+    public void setObjectRepairService(ObjectRepairService objectRepairService) {
+        this.objectRepairService = objectRepairService;
+    }
+
+    @Autowired
+    public void setPrefetchCache(PrefetchCache prefetchCache) {
+        this.prefetchCache = prefetchCache;
+    }
+
+    @Autowired
+    public void setSmallObjectBufferPool(SmallObjectBufferPool smallObjectBufferPool) {
+        this.smallObjectBufferPool = smallObjectBufferPool;
+    }
+
+    @Autowired
+    public void setStoragePerformanceTracker(StoragePerformanceTracker storagePerformanceTracker) {
+        this.storagePerformanceTracker = storagePerformanceTracker;
+    }
 }
@@ -0,0 +1,141 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.dto.BandwidthLimitDto;
+import cz.cas.lib.arcstorage.dto.TrafficClass;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the bandwidth used at every logical storage by every {@link TrafficClass}, so that the background work, e.g.
+ * synchronization of a new storage, does not saturate the link to the storage used by the live ingest.
+ * <p>
+ * Every storage has its own {@link TokenBucket} per traffic class, shared by all streams of the class transferred to or
+ * from the storage. Default limits of the classes are configured, limits of particular storages can be set at runtime
+ * and are kept until the restart of the application.
+ * </p>
+ */
+@Slf4j
+@Service
+public class BandwidthLimiter {
+
+    private final Map<TrafficClass, Long> defaultRates = new EnumMap<>(TrafficClass.class);
+    /**
+     * limits set at runtime, they take precedence over the default limits
+     */
+    private final Map<String, Map<TrafficClass, Long>> storageRates = new ConcurrentHashMap<>();
+    private final Map<String, Map<TrafficClass, TokenBucket>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param storageId    storage to or from which the stream is transferred
+     * @param trafficClass class of the transfer
+     * @param inputStream  stream to limit
+     * @return stream which is read at most at the rate of the traffic class at the storage
+     */
+    public InputStream throttle(String storageId, TrafficClass trafficClass, InputStream inputStream) {
+        return getBucket(storageId, trafficClass).throttle(inputStream);
+    }
+
+    TokenBucket getBucket(String storageId, TrafficClass trafficClass) {
+        Map<TrafficClass, TokenBucket> storageBuckets = buckets.computeIfAbsent(storageId, k -> new ConcurrentHashMap<>());
+        TokenBucket bucket = storageBuckets.get(trafficClass);
+        if (bucket != null)
+            return bucket;
+        //created under the lock, so that the rate can't be changed between its read and the registration of the bucket
+        synchronized (this) {
+            return storageBuckets.computeIfAbsent(trafficClass, k -> new TokenBucket(getRate(storageId, trafficClass)));
+        }
+    }
+
+    /**
+     * Sets the limit of the traffic class, the limit applies also to the streams which are being transferred.
+     *
+     * @param limit limit to set, if its storage id is null, the default limit is set
+     */
+    public synchronized void setLimit(BandwidthLimitDto limit) {
+        if (limit.getStorageId() == null)
+            defaultRates.put(limit.getTrafficClass(), limit.getBytesPerSecond());
+        else
+            storageRates.computeIfAbsent(limit.getStorageId(), k -> new ConcurrentHashMap<>()).put(limit.getTrafficClass(), limit.getBytesPerSecond());
+        updateRates(limit.getTrafficClass());
+        log.info("Bandwidth limit of " + limit.getTrafficClass() + " traffic at " + (limit.getStorageId() == null ? "all storages" : "storage " + limit.getStorageId())
+                + " has been set to " + limit.getBytesPerSecond() + " B/s.");
+    }
+
+    /**
+     * Removes the limit of the traffic class at the storage, so that the default limit applies again.
+     *
+     * @param storageId    id of the storage
+     * @param trafficClass class of the traffic
+     */
+    public synchronized void removeLimit(String storageId, TrafficClass trafficClass) {
+        Map<TrafficClass, Long> rates = storageRates.get(storageId);
+        if (rates == null || rates.remove(trafficClass) == null)
+            return;
+        updateRates(trafficClass);
+        log.info("Bandwidth limit of " + trafficClass + " traffic at storage " + storageId + " has been removed.");
+    }
+
+    /**
+     * @return default limits, which have null storage id, followed by the limits of particular storages
+     */
+    public synchronized List<BandwidthLimitDto> getLimits() {
+        List<BandwidthLimitDto> limits = new ArrayList<>();
+        defaultRates.forEach((trafficClass, rate) -> limits.add(new BandwidthLimitDto(null, trafficClass, rate)));
+        storageRates.forEach((storageId, rates) -> rates.forEach((trafficClass, rate) -> limits.add(new BandwidthLimitDto(storageId, trafficClass, rate))));
+        return limits;
+    }
+
+    private synchronized long getRate(String storageId, TrafficClass trafficClass) {
+        Map<TrafficClass, Long> rates = storageRates.get(storageId);
+        if (rates != null && rates.containsKey(trafficClass))
+            return rates.get(trafficClass);
+        return defaultRates.getOrDefault(trafficClass, 0L);
+    }
+
+    private void updateRates(TrafficClass trafficClass) {
+        buckets.forEach((storageId, storageBuckets) -> {
+            TokenBucket bucket = storageBuckets.get(trafficClass);
+            if (bucket != null)
+                bucket.setRate(getRate(storageId, trafficClass));
+        });
+    }
+
+    @Autowired
+    public void setForegroundRate(@Value("${arcstorage.bandwidth.foreground}") long bytesPerSecond) {
+        setDefaultRate(TrafficClass.FOREGROUND, bytesPerSecond);
+    }
+
+    @Autowired
+    public void setSyncRate(@Value("${arcstorage.bandwidth.sync}") long bytesPerSecond) {
+        setDefaultRate(TrafficClass.SYNC, bytesPerSecond);
+    }
+
+    @Autowired
+    public void setBackupRate(@Value("${arcstorage.bandwidth.backup}") long bytesPerSecond) {
+        setDefaultRate(TrafficClass.BACKUP, bytesPerSecond);
+    }
+
+    @Autowired
+    public void setScrubRate(@Value("${arcstorage.bandwidth.scrub}") long bytesPerSecond) {
+        setDefaultRate(TrafficClass.SCRUB, bytesPerSecond);
+    }
+
+    @Autowired
+    public void setVerifyRate(@Value("${arcstorage.bandwidth.verify}") long bytesPerSecond) {
+        setDefaultRate(TrafficClass.VERIFY, bytesPerSecond);
+    }
+
+    private synchronized void setDefaultRate(TrafficClass trafficClass, long bytesPerSecond) {
+        defaultRates.put(trafficClass, bytesPerSecond);
+        updateRates(trafficClass);
+    }
+}
@@ -5,6 +5,7 @@ import cz.cas.lib.arcstorage.domain.entity.Storage;
 import cz.cas.lib.arcstorage.domain.entity.SystemState;
 import cz.cas.lib.arcstorage.domain.store.AipSipStore;
 import cz.cas.lib.arcstorage.dto.StorageStateDto;
+import cz.cas.lib.arcstorage.dto.VerificationLevel;
 import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageReachableException;
@@ -31,6 +32,7 @@ public class CronService implements SchedulingConfigurer {
     private String consistencyCheckCron;
     private Integer consistencyCheckCount;
     private String storageStateCheckCron;
+    private boolean scrubberEnabled;
 
     private SystemStateService systemStateService;
     private AipSipStore aipSipStore;
@@ -41,15 +43,17 @@ public class CronService implements SchedulingConfigurer {
 
     @Override
     public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
-        taskRegistrar.addTriggerTask(
-                () -> {
-                    try {
-                        aipsVerification();
-                    } catch (Exception e) {
-                        log.error("Periodic AIPS Concistency Verification job failed", e);
-                    }
-                },
-                new CronTrigger(consistencyCheckCron));
+        //periodic verification of a fixed count of AIPs is superseded by the continuous fixity scrubber
+        if (!scrubberEnabled)
+            taskRegistrar.addTriggerTask(
+                    () -> {
+                        try {
+                            aipsVerification();
+                        } catch (Exception e) {
+                            log.error("Periodic AIPS Concistency Verification job failed", e);
+                        }
+                    },
+                    new CronTrigger(consistencyCheckCron));
         taskRegistrar.addTriggerTask(this::systemStateCheck, new CronTrigger(storageStateCheckCron));
     }
 
@@ -62,7 +66,7 @@ public class CronService implements SchedulingConfigurer {
             if (aipsToCheck.size() == 0)
                 return;
         }
-        aipService.verifyAipsAtStorage(aipsToCheck, null);
+        aipService.verifyAipsAtStorage(aipsToCheck, null, VerificationLevel.FULL);
         AipSip lastCheckedAip = aipsToCheck.get(aipsToCheck.size() - 1);
         transactionTemplate.execute(s -> {
             SystemState currentState = systemStateService.get();
@@ -121,6 +125,11 @@ public class CronService implements SchedulingConfigurer {
         this.storageStateCheckCron = storageStateCheckCron;
     }
 
+    @Autowired
+    public void setScrubberEnabled(@Value("${arcstorage.scrubber.enabled}") boolean scrubberEnabled) {
+        this.scrubberEnabled = scrubberEnabled;
+    }
+
     @Autowired
     public void setConsistencyCheckCount(@Value("${arcstorage.consistencyCheck.count:#{null}}") Integer consistencyCheckCount) {
         this.consistencyCheckCount = consistencyCheckCount;
@@ -0,0 +1,206 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
+import cz.cas.lib.arcstorage.domain.entity.ObjectFixity;
+import cz.cas.lib.arcstorage.domain.entity.ScrubCycle;
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.domain.store.ArchivalObjectStore;
+import cz.cas.lib.arcstorage.domain.store.ObjectFixityStore;
+import cz.cas.lib.arcstorage.domain.store.StorageStore;
+import cz.cas.lib.arcstorage.dto.FixityCoverageDto;
+import cz.cas.lib.arcstorage.dto.FixityResult;
+import cz.cas.lib.arcstorage.dto.VerificationLevel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * History of the fixity verifications of objects at the logical storages, used to verify the objects whose last
+ * verification is the oldest first and to report how well the storages are covered by the verifications.
+ * <p>
+ * History is kept for every {@link VerificationLevel} separately, verification at a level is recorded also at all lower
+ * levels, as it includes their checks.
+ * </p>
+ */
+@Slf4j
+@Service
+public class FixityHistoryService {
+
+    private ObjectFixityStore objectFixityStore;
+    private ArchivalObjectStore archivalObjectStore;
+    private StorageStore storageStore;
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Saves the outcomes of the verifications in a single transaction, previous records of the same objects at the same
+     * storages and levels are overwritten.
+     * <p>
+     * {@link FixityResult#ERROR} is not a verification, it is recorded only at its own level and keeps the time of the
+     * previous verification, so that the object stays due and is retried in the same cycle. Repeated error is recorded with
+     * the time of the attempt, so that an object which can't be read is not retried by every step of the cycle.
+     * </p>
+     *
+     * @param fixities outcomes of the verifications
+     */
+    public void record(List<ObjectFixity> fixities) {
+        if (fixities.isEmpty())
+            return;
+        Map<String, ObjectFixity> toSave = new LinkedHashMap<>();
+        for (ObjectFixity fixity : fixities) {
+            for (VerificationLevel level : VerificationLevel.values()) {
+                if (level == fixity.getLevel() || (fixity.getResult() != FixityResult.ERROR && fixity.getLevel().includes(level))) {
+                    ObjectFixity atLevel = level == fixity.getLevel() ? fixity : fixity.atLevel(level);
+                    toSave.put(key(fixity.getObjectId(), fixity.getStorage().getId(), level), atLevel);
+                }
+            }
+        }
+        transactionTemplate.execute(s -> {
+            List<String> objectIds = fixities.stream().map(ObjectFixity::getObjectId).distinct().collect(Collectors.toList());
+            Map<String, ObjectFixity> existingRecords = new HashMap<>();
+            for (ObjectFixity existing : objectFixityStore.findByObjects(objectIds)) {
+                existingRecords.put(key(existing.getObjectId(), existing.getStorage().getId(), existing.getLevel()), existing);
+            }
+            toSave.forEach((fixityKey, fixity) -> {
+                ObjectFixity existing = existingRecords.get(fixityKey);
+                if (existing != null)
+                    fixity.setId(existing.getId());
+                if (fixity.getResult() == FixityResult.ERROR && (existing == null || existing.getResult() != FixityResult.ERROR))
+                    fixity.setVerified(existing == null ? null : existing.getVerified());
+            });
+            objectFixityStore.save(toSave.values());
+            return null;
+        });
+    }
+
+    /**
+     * Finds objects which should be verified in the cycle, the objects never verified at some of the storages first, then
+     * the objects whose verification at some of the storages is the oldest.
+     * <p>
+     * Objects never verified are searched from {@link ScrubCycle#getCheckedUntil()}, which is advanced so that the objects
+     * checked in the cycle are not checked again by every call. The caller is responsible for saving the cycle.
+     * </p>
+     *
+     * @param cycle      cycle of the level of the verification, objects verified at all the storages after its start are skipped
+     * @param storageIds storages at which the objects are verified
+     * @param count      max number of objects to return
+     * @return objects to verify
+     */
+    public List<ArchivalObject> findDue(ScrubCycle cycle, List<String> storageIds, int count) {
+        VerificationLevel level = cycle.getLevel();
+        Instant searchStart = Instant.now();
+        List<ArchivalObject> due = new ArrayList<>(archivalObjectStore.findStoredWithoutFixity(level, storageIds, cycle.getCheckedUntil(), count));
+        //objects found now may not be verified before the next call, e.g. when the scrubber backs off
+        cycle.setCheckedUntil(due.isEmpty() ? searchStart : due.get(0).getCreated());
+        if (due.size() >= count)
+            return due;
+        List<String> staleIds = objectFixityStore.findStaleObjectIds(level, cycle.getStart(), storageIds, count - due.size());
+        List<ArchivalObject> stale = archivalObjectStore.findAllInList(staleIds);
+        Set<String> dueIds = due.stream().map(ArchivalObject::getId).collect(Collectors.toSet());
+        Set<String> storedIds = new HashSet<>();
+        for (ArchivalObject object : stale) {
+            if (object.getState().metadataMustBeStoredAtLogicalStorage()) {
+                //object never verified at one storage may be stale at another one
+                if (dueIds.add(object.getId()))
+                    due.add(object);
+                storedIds.add(object.getId());
+            }
+        }
+        //records of the objects deleted from the database or not stored anymore would be found again and again
+        List<String> notStoredIds = staleIds.stream().filter(id -> !storedIds.contains(id)).collect(Collectors.toList());
+        if (!notStoredIds.isEmpty()) {
+            transactionTemplate.execute(s -> {
+                objectFixityStore.deleteByObjects(notStoredIds);
+                return null;
+            });
+            log.debug("Fixity records of " + notStoredIds.size() + " objects which are not stored anymore have been deleted.");
+        }
+        return due;
+    }
+
+    /**
+     * Sizes of the objects at the storage recorded by their last successful {@link VerificationLevel#FULL} verification,
+     * to which the {@link VerificationLevel#SHALLOW} verifications compare the size found at the storage.
+     *
+     * @return map of the database ids of the objects to their sizes, objects without such a record are missing
+     */
+    public Map<String, Long> findVerifiedSizes(String storageId, List<String> objectIds) {
+        Map<String, Long> sizes = new HashMap<>();
+        for (ObjectFixity fixity : objectFixityStore.findByObjects(objectIds)) {
+            if (fixity.getStorage().getId().equals(storageId) && fixity.getLevel() == VerificationLevel.FULL
+                    && fixity.getResult() == FixityResult.OK && fixity.getSize() != null)
+                sizes.put(fixity.getObjectId(), fixity.getSize());
+        }
+        return sizes;
+    }
+
+    /**
+     * @return coverage of the objects by the fixity verifications at all attached storages and all levels
+     */
+    public List<FixityCoverageDto> getCoverage() {
+        long objects = archivalObjectStore.countStored();
+        Instant now = Instant.now();
+        List<FixityCoverageDto> coverage = new ArrayList<>();
+        for (Storage storage : storageStore.findAll()) {
+            for (VerificationLevel level : VerificationLevel.values()) {
+                long verified = objectFixityStore.countByStorage(storage.getId(), level);
+                //records of the objects removed since their verification may outnumber the objects
+                long population = Math.max(objects, verified);
+                FixityCoverageDto dto = new FixityCoverageDto();
+                dto.setStorageId(storage.getId());
+                dto.setStorageName(storage.getName());
+                dto.setLevel(level);
+                dto.setObjects(objects);
+                dto.setVerifiedObjects(verified);
+                dto.setFailedObjects(objectFixityStore.countFailedByStorage(storage.getId(), level));
+                if (verified > 0)
+                    dto.setOldestVerification(objectFixityStore.findVerifiedAtRank(storage.getId(), level, verified - 1));
+                dto.setAgeP50(agePercentile(storage, level, 0.5, population, verified, now));
+                dto.setAgeP90(agePercentile(storage, level, 0.9, population, verified, now));
+                dto.setAgeP99(agePercentile(storage, level, 0.99, population, verified, now));
+                coverage.add(dto);
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * @return age of the verification at the percentile in seconds, null if it falls to the objects never verified
+     */
+    private Long agePercentile(Storage storage, VerificationLevel level, double percentile, long objects, long verified, Instant now) {
+        long rank = (long) Math.ceil(percentile * objects) - 1;
+        if (rank < 0 || rank >= verified)
+            return null;
+        Instant verifiedAt = objectFixityStore.findVerifiedAtRank(storage.getId(), level, rank);
+        return verifiedAt == null ? null : Duration.between(verifiedAt, now).getSeconds();
+    }
+
+    private static String key(String objectId, String storageId, VerificationLevel level) {
+        return objectId + "_" + storageId + "_" + level;
+    }
+
+    @Autowired
+    public void setObjectFixityStore(ObjectFixityStore objectFixityStore) {
+        this.objectFixityStore = objectFixityStore;
+    }
+
+    @Autowired
+    public void setArchivalObjectStore(ArchivalObjectStore archivalObjectStore) {
+        this.archivalObjectStore = archivalObjectStore;
+    }
+
+    @Autowired
+    public void setStorageStore(StorageStore storageStore) {
+        this.storageStore = storageStore;
+    }
+
+    @Autowired
+    public void setTransactionTemplate(TransactionTemplate transactionTemplate) {
+        this.transactionTemplate = transactionTemplate;
+    }
+}
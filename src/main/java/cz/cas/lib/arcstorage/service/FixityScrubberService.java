@@ -0,0 +1,323 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
+import cz.cas.lib.arcstorage.domain.entity.ObjectFixity;
+import cz.cas.lib.arcstorage.domain.entity.ScrubCycle;
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.domain.store.ArchivalObjectStore;
+import cz.cas.lib.arcstorage.domain.store.ScrubCycleStore;
+import cz.cas.lib.arcstorage.dto.*;
+import cz.cas.lib.arcstorage.exception.GeneralException;
+import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
+import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageReachableException;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import cz.cas.lib.arcstorage.storage.exception.FileDoesNotExistException;
+import cz.cas.lib.arcstorage.storage.exception.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.computeChecksum;
+
+/**
+ * Continuously verifies fixity of all archival objects at all reachable logical storages.
+ * <p>
+ * Every {@link VerificationLevel} with configured cycle period has its own cycle, e.g. cheap shallow verification may run
+ * daily while the full verification of the content runs once a month. Within a cycle, objects never verified at the level
+ * are verified first, then the objects whose last verification at the level recorded by {@link FixityHistoryService} is
+ * the oldest, so objects verified recently, e.g. on request, are skipped. Progress of the cycles is persisted in
+ * {@link ScrubCycle}. The work is spread so that all objects are verified once per the cycle period, reads of the content
+ * at every storage are limited by {@link BandwidthLimiter} as {@link TrafficClass#SCRUB} traffic. The scrubber backs off while {@link ForegroundLoadMonitor}
+ * reports that the reads or ingests of the users are under load.
+ * </p>
+ * <p>
+ * Metadata which do not match the database are stored again, objects which are missing, corrupted or whose size differs
+ * from the size found by their last full verification are enqueued for repair at {@link ObjectRepairService}.
+ * </p>
+ */
+@Slf4j
+@Service
+public class FixityScrubberService {
+
+    /**
+     * delay when there is nothing to verify or the storages are not available
+     */
+    private static final long IDLE_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private boolean enabled;
+    private final Map<VerificationLevel, Duration> cyclePeriods = new EnumMap<>(VerificationLevel.class);
+    private int batchSize;
+    private long backoffMillis;
+    private long maxBackoffMillis;
+
+    private ArchivalObjectStore archivalObjectStore;
+    private FixityHistoryService fixityHistoryService;
+    private ScrubCycleStore scrubCycleStore;
+    private StorageProvider storageProvider;
+    private ObjectRepairService objectRepairService;
+    private ForegroundLoadMonitor foregroundLoadMonitor;
+    private TransactionTemplate transactionTemplate;
+    private ExecutorService scrubberExecutorService;
+    private BandwidthLimiter bandwidthLimiter;
+    private Future<?> scrubber;
+
+    /**
+     * Starts the scrubber in background, if enabled.
+     */
+    public synchronized void start() {
+        if (!enabled || cyclePeriods.isEmpty() || scrubber != null)
+            return;
+        scrubber = scrubberExecutorService.submit(this::run);
+        log.info("Fixity scrubber has been started, cycle periods: " + cyclePeriods + ".");
+    }
+
+    private void run() {
+        long backoff = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long delay;
+            try {
+                if (foregroundLoadMonitor.isBusy()) {
+                    backoff = backoff == 0 ? backoffMillis : Math.min(backoff * 2, maxBackoffMillis);
+                    log.debug("Foreground operations are under load, fixity scrubber backs off for " + backoff + " ms.");
+                    delay = backoff;
+                } else {
+                    backoff = 0;
+                    delay = IDLE_DELAY_MILLIS;
+                    for (VerificationLevel level : cyclePeriods.keySet()) {
+                        delay = Math.min(delay, step(level));
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Fixity scrubber step has failed.", e);
+                delay = IDLE_DELAY_MILLIS;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Verifies the next batch of objects at the level, if the cycle of the level is not ahead of the schedule.
+     *
+     * @param level level with configured cycle period
+     * @return delay in milliseconds before the next step of the level
+     */
+    long step(VerificationLevel level) {
+        Duration cyclePeriod = cyclePeriods.get(level);
+        ScrubCycle cycle = scrubCycleStore.findByLevel(level);
+        long total = archivalObjectStore.countStored();
+        if (total == 0)
+            return IDLE_DELAY_MILLIS;
+        Instant now = Instant.now();
+        if (cycle == null) {
+            saveProgress(new ScrubCycle(level, now));
+            return 0;
+        }
+        long elapsed = Duration.between(cycle.getStart(), now).toMillis();
+        long due = (long) ((double) total * elapsed / cyclePeriod.toMillis());
+        long verified = cycle.getVerified();
+        if (verified >= due) {
+            long nextDue = (long) ((double) (verified + 1) * cyclePeriod.toMillis() / total);
+            return Math.min(Math.max(nextDue - elapsed, 1), IDLE_DELAY_MILLIS);
+        }
+        List<StorageService> storageServices;
+        try {
+            storageServices = storageProvider.createAdaptersForRead();
+        } catch (NoLogicalStorageAttachedException | NoLogicalStorageReachableException e) {
+            log.warn("Fixity scrubber is waiting for logical storages: " + e);
+            return IDLE_DELAY_MILLIS;
+        }
+        List<String> storageIds = storageServices.stream().map(s -> s.getStorage().getId()).distinct().collect(Collectors.toList());
+        List<ArchivalObject> batch = fixityHistoryService.findDue(cycle, storageIds, (int) Math.min(batchSize, due - verified));
+        if (batch.isEmpty()) {
+            log.info("Fixity scrubber has finished " + level + " cycle started at " + cycle.getStart() + ", " + verified + " objects verified.");
+            cycle.setStart(now);
+            cycle.setVerified(0);
+            cycle.setCheckedUntil(null);
+            saveProgress(cycle);
+            return 0;
+        }
+        Map<String, Map<String, Long>> verifiedSizes = new HashMap<>();
+        if (level == VerificationLevel.SHALLOW) {
+            List<String> objectIds = batch.stream().map(ArchivalObject::getId).collect(Collectors.toList());
+            storageIds.forEach(id -> verifiedSizes.put(id, fixityHistoryService.findVerifiedSizes(id, objectIds)));
+        }
+        List<ObjectFixity> fixities = new ArrayList<>();
+        for (ArchivalObject object : batch) {
+            if (foregroundLoadMonitor.isBusy() || Thread.currentThread().isInterrupted())
+                break;
+            ArchivalObjectDto objectDto = object.toDto();
+            for (StorageService storageService : storageServices) {
+                Long verifiedSize = verifiedSizes.getOrDefault(storageService.getStorage().getId(), Map.of()).get(object.getId());
+                fixities.add(verify(objectDto, storageService, level, verifiedSize));
+            }
+            verified++;
+        }
+        fixityHistoryService.record(fixities);
+        cycle.setVerified(verified);
+        saveProgress(cycle);
+        return 0;
+    }
+
+    /**
+     * @param verifiedSize size of the object found by its last full verification, null if unknown
+     */
+    private ObjectFixity verify(ArchivalObjectDto objectDto, StorageService storageService, VerificationLevel level, Long verifiedSize) {
+        Storage storage = storageService.getStorage();
+        String dataSpace = objectDto.getOwner().getDataSpace();
+        long start = System.currentTimeMillis();
+        FixityResult result = FixityResult.OK;
+        Long size = null;
+        Long bytes = null;
+        try {
+            //content is read by the scrubber itself, so that the reads are limited by the I/O budget
+            VerificationLevel storageLevel = level == VerificationLevel.FULL ? VerificationLevel.SHALLOW : level;
+            ObjectConsistencyVerificationResultDto info = storageService.getObjectInfo(objectDto, dataSpace, storageLevel);
+            size = info.getStorageSize();
+            if (!info.isMetadataConsistent()) {
+                log.warn("Metadata of object " + objectDto.getStorageId() + " at storage " + storage.getName() + " do not match, storing them again.");
+                storageService.storeObjectMetadata(objectDto, dataSpace);
+                result = FixityResult.METADATA_MISMATCH;
+            }
+            if (objectDto.getState().contentMustBeStoredAtLogicalStorage() && level == VerificationLevel.SHALLOW
+                    && verifiedSize != null && !verifiedSize.equals(size)) {
+                log.error("Object " + objectDto.getStorageId() + " at storage " + storage.getName() + " has size " + size
+                        + " but size " + verifiedSize + " has been verified before.");
+                objectRepairService.enqueue(objectDto, storage);
+                result = FixityResult.CORRUPTED;
+            }
+            if (objectDto.getState().contentMustBeStoredAtLogicalStorage() && level == VerificationLevel.FULL) {
+                Checksum checksum;
+                try (ObjectRetrievalResource resource = storageService.getObject(objectDto.getStorageId(), dataSpace)) {
+                    BoundedInputStream countingStream = BoundedInputStream.builder().setInputStream(resource.getInputStream()).get();
+                    checksum = computeChecksum(bandwidthLimiter.throttle(storage.getId(), TrafficClass.SCRUB, countingStream), objectDto.getChecksum().getType());
+                    bytes = countingStream.getCount();
+                }
+                if (!objectDto.getChecksum().equals(checksum)) {
+                    log.error("Object " + objectDto.getStorageId() + " is corrupted at storage " + storage.getName() + ".");
+                    objectRepairService.enqueue(objectDto, storage);
+                    result = FixityResult.CORRUPTED;
+                }
+            }
+        } catch (FileDoesNotExistException e) {
+            log.error("Object " + objectDto.getStorageId() + " is missing at storage " + storage.getName() + ".");
+            objectRepairService.enqueue(objectDto, storage);
+            result = FixityResult.MISSING;
+        } catch (StorageException | IOException | GeneralException e) {
+            log.warn("Fixity of object " + objectDto.getStorageId() + " at storage " + storage.getName() + " could not be verified.", e);
+            result = FixityResult.ERROR;
+        }
+        return new ObjectFixity(objectDto.getDatabaseId(), storage, level, objectDto.getChecksum().getType(), result, size, bytes,
+                System.currentTimeMillis() - start);
+    }
+
+    private void saveProgress(ScrubCycle cycle) {
+        transactionTemplate.execute(s -> scrubCycleStore.save(cycle));
+    }
+
+    @Autowired
+    public void setArchivalObjectStore(ArchivalObjectStore archivalObjectStore) {
+        this.archivalObjectStore = archivalObjectStore;
+    }
+
+    @Autowired
+    public void setFixityHistoryService(FixityHistoryService fixityHistoryService) {
+        this.fixityHistoryService = fixityHistoryService;
+    }
+
+    @Autowired
+    public void setScrubCycleStore(ScrubCycleStore scrubCycleStore) {
+        this.scrubCycleStore = scrubCycleStore;
+    }
+
+    @Autowired
+    public void setStorageProvider(StorageProvider storageProvider) {
+        this.storageProvider = storageProvider;
+    }
+
+    @Autowired
+    public void setObjectRepairService(ObjectRepairService objectRepairService) {
+        this.objectRepairService = objectRepairService;
+    }
+
+    @Autowired
+    public void setForegroundLoadMonitor(ForegroundLoadMonitor foregroundLoadMonitor) {
+        this.foregroundLoadMonitor = foregroundLoadMonitor;
+    }
+
+    @Autowired
+    public void setTransactionTemplate(TransactionTemplate transactionTemplate) {
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Autowired
+    public void setScrubberExecutorService(@Qualifier("ScrubberExecutorService") ExecutorService scrubberExecutorService) {
+        this.scrubberExecutorService = scrubberExecutorService;
+    }
+
+    @Autowired
+    public void setEnabled(@Value("${arcstorage.scrubber.enabled}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Autowired
+    public void setMetadataCyclePeriod(@Value("${arcstorage.scrubber.cyclePeriod.metadata}") long cyclePeriodInHours) {
+        setCyclePeriod(VerificationLevel.METADATA, cyclePeriodInHours);
+    }
+
+    @Autowired
+    public void setShallowCyclePeriod(@Value("${arcstorage.scrubber.cyclePeriod.shallow}") long cyclePeriodInHours) {
+        setCyclePeriod(VerificationLevel.SHALLOW, cyclePeriodInHours);
+    }
+
+    @Autowired
+    public void setFullCyclePeriod(@Value("${arcstorage.scrubber.cyclePeriod.full}") long cyclePeriodInHours) {
+        setCyclePeriod(VerificationLevel.FULL, cyclePeriodInHours);
+    }
+
+    /**
+     * @param cyclePeriodInHours period of the cycle at the level, 0 disables the verification at the level
+     */
+    void setCyclePeriod(VerificationLevel level, long cyclePeriodInHours) {
+        if (cyclePeriodInHours > 0)
+            cyclePeriods.put(level, Duration.ofHours(cyclePeriodInHours));
+        else
+            cyclePeriods.remove(level);
+    }
+
+    @Autowired
+    public void setBatchSize(@Value("${arcstorage.scrubber.batchSize}") int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Autowired
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    @Autowired
+    public void setBackoff(@Value("${arcstorage.scrubber.backoff}") long backoffInSeconds) {
+        this.backoffMillis = TimeUnit.SECONDS.toMillis(backoffInSeconds);
+    }
+
+    @Autowired
+    public void setMaxBackoff(@Value("${arcstorage.scrubber.maxBackoff}") long maxBackoffInSeconds) {
+        this.maxBackoffMillis = TimeUnit.SECONDS.toMillis(maxBackoffInSeconds);
+    }
+}
@@ -0,0 +1,80 @@
+package cz.cas.lib.arcstorage.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the load caused by the foreground operations, i.e. by the reads and ingests requested by the users, so that
+ * the background jobs can step aside when the foreground operations slow down.
+ * <p>
+ * Read load is the moving average of the time until the storage provides the stream with the object, the average is
+ * forgotten when there has been no read for {@link #SAMPLE_VALIDITY_MILLIS}. Ingest load is the number of the objects
+ * being written to the storages.
+ * </p>
+ */
+@Service
+public class ForegroundLoadMonitor {
+
+    private static final long SAMPLE_VALIDITY_MILLIS = 60_000;
+
+    private double alpha;
+    private long maxReadLatency;
+    private int maxIngests;
+    private Double readLatency;
+    private long lastReadSample;
+    private final AtomicInteger ingestsInProgress = new AtomicInteger();
+
+    /**
+     * @param latencyMillis time until the storage provided the stream with the object read by the user
+     */
+    public synchronized void recordReadLatency(long latencyMillis) {
+        long now = System.currentTimeMillis();
+        if (readLatency == null || now - lastReadSample > SAMPLE_VALIDITY_MILLIS)
+            readLatency = (double) latencyMillis;
+        else
+            readLatency = alpha * latencyMillis + (1 - alpha) * readLatency;
+        lastReadSample = now;
+    }
+
+    /**
+     * Called before the object is written to a storage, must be paired with {@link #ingestFinished()}.
+     */
+    public void ingestStarted() {
+        ingestsInProgress.incrementAndGet();
+    }
+
+    public void ingestFinished() {
+        ingestsInProgress.decrementAndGet();
+    }
+
+    /**
+     * @return true if the recent reads are slower than the configured limit or there are more ingests in progress
+     * than the configured limit
+     */
+    public boolean isBusy() {
+        if (ingestsInProgress.get() > maxIngests)
+            return true;
+        synchronized (this) {
+            return readLatency != null && System.currentTimeMillis() - lastReadSample <= SAMPLE_VALIDITY_MILLIS
+                    && readLatency > maxReadLatency;
+        }
+    }
+
+    @Autowired
+    public void setAlpha(@Value("${arcstorage.read.replicaSelection.ewmaAlpha}") double alpha) {
+        this.alpha = alpha;
+    }
+
+    @Autowired
+    public void setMaxReadLatency(@Value("${arcstorage.scrubber.maxForegroundReadLatency}") long maxReadLatency) {
+        this.maxReadLatency = maxReadLatency;
+    }
+
+    @Autowired
+    public void setMaxIngests(@Value("${arcstorage.scrubber.maxForegroundIngests}") int maxIngests) {
+        this.maxIngests = maxIngests;
+    }
+}
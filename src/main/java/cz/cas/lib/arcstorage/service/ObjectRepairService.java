@@ -0,0 +1,287 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
+import cz.cas.lib.arcstorage.domain.entity.ObjectRepair;
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.domain.store.ArchivalObjectStore;
+import cz.cas.lib.arcstorage.domain.store.ObjectRepairStore;
+import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
+import cz.cas.lib.arcstorage.dto.Checksum;
+import cz.cas.lib.arcstorage.dto.ObjectRetrievalResource;
+import cz.cas.lib.arcstorage.exception.MissingObject;
+import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
+import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
+import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageReachableException;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import cz.cas.lib.arcstorage.storage.exception.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.copyStreamAndComputeChecksum;
+
+/**
+ * Queue of repairs of objects found corrupted at some storage during the read. Reads only enqueue the repair and
+ * return the valid copy to the client right away, the repair itself is done later by a bounded pool of workers.
+ * <p>
+ * Repairs are persisted, so that they survive the restart of the application, and deduplicated by the object and the
+ * storage. Worker retrieves the valid copy of the object from other storage on its own, stores it at the storage
+ * with the corrupted object and mails the outcome. Failed repair is retried with exponential backoff until the maximal
+ * number of attempts is reached.
+ * </p>
+ */
+@Slf4j
+@Service
+public class ObjectRepairService {
+
+    /**
+     * max number of repairs loaded from DB by a single poll
+     */
+    private static final int POLL_LIMIT = 100;
+
+    private ObjectRepairStore objectRepairStore;
+    private ArchivalObjectStore archivalObjectStore;
+    private StorageProvider storageProvider;
+    private ArcstorageMailCenter arcstorageMailCenter;
+    private TransactionTemplate transactionTemplate;
+    private ExecutorService repairExecutorService;
+    private ScheduledExecutorService scheduledExecutorService;
+    private Path tmpFolder;
+    private int maxAttempts;
+    private long retryDelay;
+    private long pollInterval;
+    /**
+     * ids of repairs which are submitted to workers, prevents the same repair from being processed twice
+     */
+    private final Set<String> submittedRepairs = ConcurrentHashMap.newKeySet();
+    private ScheduledFuture<?> pollFuture = null;
+
+    /**
+     * Registers repair of the object at the storage and submits it to the workers. Does nothing if the same repair is
+     * already registered. Never throws, so that the read which found the corrupted object is not affected.
+     *
+     * @param objectDto object to repair
+     * @param storage   storage with the corrupted object
+     */
+    public void enqueue(ArchivalObjectDto objectDto, Storage storage) {
+        ObjectRepair repair;
+        try {
+            synchronized (this) {
+                if (objectRepairStore.findByObjectAndStorage(objectDto.getDatabaseId(), storage.getId()) != null) {
+                    log.debug("Repair of object " + objectDto.getStorageId() + " at storage " + storage.getName() + " is already registered.");
+                    return;
+                }
+                repair = transactionTemplate.execute(status -> objectRepairStore.save(new ObjectRepair(objectDto.getDatabaseId(), storage)));
+            }
+        } catch (Exception e) {
+            log.error("Could not register repair of object " + objectDto.getStorageId() + " at storage " + storage.getName() + ".", e);
+            return;
+        }
+        log.info("Repair of object " + objectDto.getStorageId() + " at storage " + storage.getName() + " has been registered.");
+        submit(repair);
+    }
+
+    /**
+     * Schedules periodical submission of the registered repairs which are due, including those registered before
+     * the restart of the application.
+     */
+    public void scheduleRepairs() {
+        if (pollFuture != null)
+            pollFuture.cancel(false);
+        pollFuture = scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                objectRepairStore.findDue(Instant.now(), POLL_LIMIT).forEach(this::submit);
+            } catch (Exception e) {
+                log.error("Periodical submission of object repairs has failed.", e);
+            }
+        }, 0, pollInterval, TimeUnit.SECONDS);
+    }
+
+    private void submit(ObjectRepair repair) {
+        if (submittedRepairs.add(repair.getId()))
+            repairExecutorService.submit(() -> {
+                try {
+                    process(repair);
+                } catch (Exception e) {
+                    log.error("Repair of object " + repair.getObjectId() + " at storage " + repair.getStorage().getName() + " has failed unexpectedly.", e);
+                } finally {
+                    submittedRepairs.remove(repair.getId());
+                }
+            });
+    }
+
+    /**
+     * Processes single attempt of the repair. Repair of object which no longer exists or whose content should not be
+     * stored at storage anymore, or repair at storage which has been detached, is dropped.
+     */
+    void process(ObjectRepair repair) {
+        ArchivalObject object = archivalObjectStore.find(repair.getObjectId());
+        if (object == null || !object.getState().contentMustBeStoredAtLogicalStorage()) {
+            log.info("Repair of object " + repair.getObjectId() + " has been dropped as the object content is no longer stored.");
+            transactionTemplate.executeWithoutResult(status -> objectRepairStore.delete(repair));
+            return;
+        }
+        ArchivalObjectDto objectDto = object.toDto();
+        StorageService target;
+        try {
+            target = storageProvider.createAdapter(repair.getStorage().getId());
+        } catch (MissingObject e) {
+            log.info("Repair of object " + objectDto.getStorageId() + " has been dropped as the storage " + repair.getStorage().getId() + " no longer exists.");
+            transactionTemplate.executeWithoutResult(status -> objectRepairStore.delete(repair));
+            return;
+        }
+        Storage sourceStorage = null;
+        String error;
+        if (!target.getStorage().isReachable())
+            error = "storage is not reachable";
+        else {
+            try {
+                sourceStorage = repairFromOtherStorage(objectDto, target);
+                error = sourceStorage == null ? "no valid copy of the object has been found at other storage" : null;
+            } catch (Exception e) {
+                //also runtime exceptions of the adapters are failed attempts, otherwise the repair would be picked up
+                //by every poll without ever reaching the max number of attempts
+                error = e.toString();
+            }
+        }
+        if (error == null) {
+            log.info("Object " + objectDto.getStorageId() + " has been successfully repaired at storage " + target.getStorage().getName() + ".");
+            transactionTemplate.executeWithoutResult(status -> objectRepairStore.delete(repair));
+            arcstorageMailCenter.sendObjectRetrievalError(objectDto, sourceStorage, Collections.emptyList(),
+                    List.of(target.getStorage()), List.of(target.getStorage()));
+            return;
+        }
+        repair.setAttempts(repair.getAttempts() + 1);
+        repair.setLastError(error);
+        if (repair.getAttempts() >= maxAttempts) {
+            log.error("Repair of object " + objectDto.getStorageId() + " at storage " + target.getStorage().getName() +
+                    " has failed " + repair.getAttempts() + " times, giving up: " + error);
+            transactionTemplate.executeWithoutResult(status -> objectRepairStore.delete(repair));
+            arcstorageMailCenter.sendObjectRetrievalError(objectDto, null, Collections.emptyList(),
+                    List.of(target.getStorage()), Collections.emptyList());
+            return;
+        }
+        long delay = retryDelay << Math.min(repair.getAttempts() - 1, 16);
+        repair.setNextAttempt(Instant.now().plusSeconds(delay));
+        log.warn("Repair of object " + objectDto.getStorageId() + " at storage " + target.getStorage().getName() +
+                " has failed, next attempt in " + delay + " seconds: " + error);
+        transactionTemplate.executeWithoutResult(status -> objectRepairStore.save(repair));
+    }
+
+    /**
+     * Retrieves valid copy of the object from other storage than the target and stores it at the target storage.
+     * Storages found with corrupted object on the way are enqueued for repair too.
+     *
+     * @return storage which provided the valid copy, or null if there is no valid copy at any other reachable storage
+     */
+    private Storage repairFromOtherStorage(ArchivalObjectDto objectDto, StorageService target) throws
+            NoLogicalStorageAttachedException, NoLogicalStorageReachableException, StorageException, IOException {
+        String dataSpace = objectDto.getOwner().getDataSpace();
+        Path tmpFile = tmpFolder.resolve(UUID.randomUUID() + "_repair");
+        try {
+            for (StorageService source : storageProvider.createAdaptersForRead()) {
+                if (source.getStorage().getId().equals(target.getStorage().getId()))
+                    continue;
+                Checksum checksum;
+                try (ObjectRetrievalResource resource = source.getObject(objectDto.getStorageId(), dataSpace);
+                     FileOutputStream fos = new FileOutputStream(tmpFile.toFile())) {
+                    checksum = copyStreamAndComputeChecksum(resource.getInputStream(), fos, objectDto.getChecksum().getType());
+                } catch (StorageException e) {
+                    log.error("Storage error has occurred during retrieval of object " + objectDto.getStorageId() +
+                            " from storage " + source.getStorage().getName() + " for repair.");
+                    continue;
+                }
+                if (!objectDto.getChecksum().equals(checksum)) {
+                    log.error("Object " + objectDto.getStorageId() + " is corrupted also at storage " + source.getStorage().getName() + ".");
+                    enqueue(objectDto, source.getStorage());
+                    continue;
+                }
+                try (InputStream objectStream = new FileInputStream(tmpFile.toFile())) {
+                    objectDto.setInputStream(objectStream);
+                    target.storeObject(objectDto, new AtomicBoolean(false), dataSpace);
+                }
+                return source.getStorage();
+            }
+            return null;
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    @Autowired
+    public void setObjectRepairStore(ObjectRepairStore objectRepairStore) {
+        this.objectRepairStore = objectRepairStore;
+    }
+
+    @Autowired
+    public void setArchivalObjectStore(ArchivalObjectStore archivalObjectStore) {
+        this.archivalObjectStore = archivalObjectStore;
+    }
+
+    @Autowired
+    public void setStorageProvider(StorageProvider storageProvider) {
+        this.storageProvider = storageProvider;
+    }
+
+    @Autowired
+    public void setArcstorageMailCenter(ArcstorageMailCenter arcstorageMailCenter) {
+        this.arcstorageMailCenter = arcstorageMailCenter;
+    }
+
+    @Autowired
+    public void setTransactionTemplate(TransactionTemplate transactionTemplate) {
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Autowired
+    public void setRepairExecutorService(@Qualifier("RepairExecutorService") ExecutorService repairExecutorService) {
+        this.repairExecutorService = repairExecutorService;
+    }
+
+    @Autowired
+    public void setScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+        this.scheduledExecutorService = scheduledExecutorService;
+    }
+
+    @Autowired
+    public void setTmpFolder(@Value("${spring.servlet.multipart.location}") String path) {
+        this.tmpFolder = Paths.get(path);
+    }
+
+    @Autowired
+    public void setMaxAttempts(@Value("${arcstorage.repair.maxAttempts}") int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Autowired
+    public void setRetryDelay(@Value("${arcstorage.repair.retryDelay}") long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    @Autowired
+    public void setPollInterval(@Value("${arcstorage.repair.pollInterval}") long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+}
@@ -0,0 +1,208 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.exception.GeneralException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes entries of source ZIP into a new ZIP with DEFLATED entries. Entries are compressed independently in worker
+ * threads and written in the order in which they were added as raw entries, so a single large export scales across cores.
+ * <p>
+ * At most <code>parallelism</code> entries are compressed or waiting to be written at the same time. Compressed entry
+ * is kept in memory if it is small, otherwise it is written to a tmp file. With parallelism lower than 2 the entries are
+ * compressed on the calling thread.
+ * </p>
+ * <p>
+ * Writer is not thread safe, {@link #close()} must always be called so that the tmp files are cleaned up.
+ * </p>
+ */
+@Slf4j
+class ParallelDeflateZipWriter implements Closeable {
+    /**
+     * entries with uncompressed size up to this limit are compressed into memory
+     */
+    static final long IN_MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    private final ZipFile source;
+    private final ZipArchiveOutputStream zipOut;
+    private final ExecutorService executorService;
+    private final int parallelism;
+    private final Path tmpFolder;
+    private final Deque<Future<DeflatedEntry>> pending = new ArrayDeque<>();
+
+    ParallelDeflateZipWriter(ZipFile source, OutputStream outputStream, ExecutorService executorService, int parallelism, Path tmpFolder) {
+        this.source = source;
+        this.zipOut = new ZipArchiveOutputStream(outputStream);
+        this.executorService = executorService;
+        this.parallelism = parallelism;
+        this.tmpFolder = tmpFolder;
+    }
+
+    /**
+     * Adds the entry of the source ZIP to the output. Blocks if there are already <code>parallelism</code> pending entries
+     * until the oldest of them is written.
+     */
+    void add(ZipArchiveEntry sourceEntry) throws IOException {
+        if (parallelism < 2) {
+            ZipArchiveEntry entry = new ZipArchiveEntry(sourceEntry.getName());
+            //known size lets the output decide about ZIP64 extra fields in advance
+            if (sourceEntry.getSize() >= 0)
+                entry.setSize(sourceEntry.getSize());
+            zipOut.putArchiveEntry(entry);
+            if (!sourceEntry.isDirectory()) {
+                try (InputStream entryStream = source.getInputStream(sourceEntry)) {
+                    IOUtils.copyLarge(entryStream, zipOut);
+                }
+            }
+            zipOut.closeArchiveEntry();
+            return;
+        }
+        if (pending.size() >= parallelism)
+            writeOldest();
+        pending.add(executorService.submit(() -> deflate(sourceEntry)));
+    }
+
+    /**
+     * Writes all pending entries and finishes the ZIP, the underlying output stream is not closed.
+     */
+    void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+        zipOut.finish();
+    }
+
+    /**
+     * Cancels pending entries which have not started yet, waits for the running ones and deletes their tmp files.
+     * Running compressions are not interrupted as the interrupt would close the channel of the source ZIP which may
+     * be shared with other requests.
+     */
+    @Override
+    public void close() {
+        while (!pending.isEmpty()) {
+            Future<DeflatedEntry> future = pending.poll();
+            if (future.cancel(false))
+                continue;
+            try {
+                future.get().discard();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                //failed, nothing to discard
+            }
+        }
+    }
+
+    private void writeOldest() throws IOException {
+        DeflatedEntry deflated;
+        try {
+            deflated = pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for compressed entry");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new GeneralException("compression of ZIP entry failed", e.getCause());
+        }
+        try {
+            if (deflated.directory) {
+                zipOut.putArchiveEntry(new ZipArchiveEntry(deflated.name));
+                zipOut.closeArchiveEntry();
+                return;
+            }
+            ZipArchiveEntry entry = new ZipArchiveEntry(deflated.name);
+            entry.setMethod(ZipArchiveEntry.DEFLATED);
+            entry.setCrc(deflated.crc);
+            entry.setSize(deflated.size);
+            entry.setCompressedSize(deflated.compressedSize);
+            try (InputStream raw = deflated.openRaw()) {
+                zipOut.addRawArchiveEntry(entry, raw);
+            }
+        } finally {
+            deflated.discard();
+        }
+    }
+
+    private DeflatedEntry deflate(ZipArchiveEntry sourceEntry) throws IOException {
+        DeflatedEntry deflated = new DeflatedEntry(sourceEntry.getName(), sourceEntry.isDirectory());
+        if (deflated.directory)
+            return deflated;
+        OutputStream target;
+        if (sourceEntry.getSize() >= 0 && sourceEntry.getSize() <= IN_MEMORY_LIMIT) {
+            deflated.data = new ByteArrayOutputStream((int) Math.max(32, sourceEntry.getSize() / 2));
+            target = deflated.data;
+        } else {
+            deflated.tmpFile = tmpFolder.resolve(UUID.randomUUID() + "_deflate");
+            target = new BufferedOutputStream(Files.newOutputStream(deflated.tmpFile));
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        CRC32 crc = new CRC32();
+        try (InputStream entryStream = new CheckedInputStream(source.getInputStream(sourceEntry), crc);
+             CountingOutputStream counting = new CountingOutputStream(target);
+             DeflaterOutputStream deflaterOut = new DeflaterOutputStream(counting, deflater, 64 * 1024)) {
+            deflated.size = IOUtils.copyLarge(entryStream, deflaterOut);
+            deflaterOut.finish();
+            deflated.compressedSize = counting.getByteCount();
+            deflated.crc = crc.getValue();
+        } catch (IOException | RuntimeException e) {
+            deflated.discard();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        return deflated;
+    }
+
+    private static class DeflatedEntry {
+        private final String name;
+        private final boolean directory;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private ByteArrayOutputStream data;
+        private Path tmpFile;
+
+        private DeflatedEntry(String name, boolean directory) {
+            this.name = name;
+            this.directory = directory;
+        }
+
+        private InputStream openRaw() throws IOException {
+            if (data != null)
+                return new ByteArrayInputStream(data.toByteArray());
+            return new BufferedInputStream(Files.newInputStream(tmpFile));
+        }
+
+        private void discard() {
+            data = null;
+            if (tmpFile != null) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (IOException e) {
+                    log.error("Could not delete tmp file " + tmpFile + " with compressed ZIP entry.", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Verified copies of objects prefetched by {@link PrefetchService} to the local disk, so that the planned reads
+ * do not access the logical storage. Objects are identified by the storage id and checksum, so that a cached copy is
+ * never returned for different content.
+ * <p>
+ * Cache is bounded by the total size of the cached objects, objects expire after the configured time. Reads obtain
+ * their own hard link to the cached file, so the cached object stays in the cache until it expires.
+ * </p>
+ * <p>
+ * Index of the cached objects is kept only in memory, so the cache folder is cleared at startup.
+ * </p>
+ */
+@Slf4j
+@Service
+public class PrefetchCache {
+
+    private Path cacheFolder;
+    private long maxSize;
+    private Duration ttl;
+    private final Map<String, CachedObject> objects = new HashMap<>();
+    private long size = 0;
+
+    /**
+     * Deletes cached copies and unfinished downloads left by the previous run, these are not in the index.
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        if (Files.exists(cacheFolder)) {
+            FileUtils.cleanDirectory(cacheFolder.toFile());
+            log.info("Prefetch cache folder " + cacheFolder + " has been cleared.");
+        }
+    }
+
+    /**
+     * @return true if there is valid cached copy of the object
+     */
+    public boolean contains(ArchivalObjectDto objectDto) {
+        synchronized (objects) {
+            evictExpired();
+            CachedObject cached = objects.get(key(objectDto));
+            return cached != null && Files.exists(cached.path);
+        }
+    }
+
+    /**
+     * Creates file of the reader linked to the cached copy of the object.
+     *
+     * @param objectDto object to read
+     * @param target    file of the reader
+     * @return true if the object is cached and the file has been created, false otherwise
+     */
+    public boolean linkTo(ArchivalObjectDto objectDto, Path target) {
+        CachedObject cached;
+        synchronized (objects) {
+            evictExpired();
+            cached = objects.get(key(objectDto));
+        }
+        if (cached == null)
+            return false;
+        try {
+            SingleFlight.shareTmpFile(cached.path, target);
+        } catch (IOException e) {
+            //the file may have been removed together with the whole tmp folder
+            log.debug("Prefetched copy of object " + objectDto.getStorageId() + " is not available anymore.");
+            synchronized (objects) {
+                remove(key(objectDto));
+            }
+            return false;
+        }
+        log.debug("Object " + objectDto.getStorageId() + " has been read from prefetch cache.");
+        return true;
+    }
+
+    /**
+     * @return new file in the cache folder into which the object can be downloaded before {@link #put(ArchivalObjectDto, Path)}
+     */
+    Path newDownloadFile() throws IOException {
+        Files.createDirectories(cacheFolder);
+        return cacheFolder.resolve(UUID.randomUUID() + ".part");
+    }
+
+    /**
+     * Moves verified file with the object to the cache.
+     *
+     * @param objectDto    object
+     * @param verifiedFile file with content verified against the checksum of the object
+     * @return true if the object has been cached, false if the cache is full, the file is deleted in that case
+     */
+    boolean put(ArchivalObjectDto objectDto, Path verifiedFile) throws IOException {
+        long fileSize = Files.size(verifiedFile);
+        String key = key(objectDto);
+        synchronized (objects) {
+            evictExpired();
+            remove(key);
+            if (size + fileSize > maxSize) {
+                Files.deleteIfExists(verifiedFile);
+                return false;
+            }
+            Path path = cacheFolder.resolve(key);
+            Files.move(verifiedFile, path, StandardCopyOption.REPLACE_EXISTING);
+            objects.put(key, new CachedObject(path, fileSize, Instant.now().plus(ttl)));
+            size += fileSize;
+        }
+        return true;
+    }
+
+    /**
+     * Removes cached copy of the object, called when the object is deleted or forgotten, so that its content is not
+     * read from the cache anymore.
+     *
+     * @param storageId id of the object at storage
+     */
+    public void evict(String storageId) {
+        String keyPrefix = storageId + "_";
+        synchronized (objects) {
+            Iterator<Map.Entry<String, CachedObject>> iterator = objects.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, CachedObject> entry = iterator.next();
+                if (entry.getKey().startsWith(keyPrefix)) {
+                    iterator.remove();
+                    delete(entry.getValue());
+                    log.debug("Prefetched copy of object " + storageId + " has been evicted.");
+                }
+            }
+        }
+    }
+
+    private void evictExpired() {
+        Instant now = Instant.now();
+        Iterator<Map.Entry<String, CachedObject>> iterator = objects.entrySet().iterator();
+        while (iterator.hasNext()) {
+            CachedObject cached = iterator.next().getValue();
+            if (cached.expires.isBefore(now)) {
+                iterator.remove();
+                delete(cached);
+            }
+        }
+    }
+
+    private void remove(String key) {
+        CachedObject cached = objects.remove(key);
+        if (cached != null)
+            delete(cached);
+    }
+
+    private void delete(CachedObject cached) {
+        size -= cached.size;
+        try {
+            Files.deleteIfExists(cached.path);
+        } catch (IOException e) {
+            log.error("Could not delete prefetched file " + cached.path + ".", e);
+        }
+    }
+
+    private static String key(ArchivalObjectDto objectDto) {
+        return objectDto.getStorageId() + "_" + objectDto.getChecksum().getValue();
+    }
+
+    private static class CachedObject {
+        private final Path path;
+        private final long size;
+        private final Instant expires;
+
+        private CachedObject(Path path, long size, Instant expires) {
+            this.path = path;
+            this.size = size;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param cacheFolder folder of its own, so that the cached objects do not take the space of the uploads in the tmp
+     *                    folder, the cached objects are linked to the tmp files of the readers if both folders are at the
+     *                    same file system, otherwise they are copied
+     */
+    @Autowired
+    public void setCacheFolder(@Value("${arcstorage.prefetch.cacheFolder}") String cacheFolder) {
+        this.cacheFolder = Paths.get(cacheFolder);
+    }
+
+    @Autowired
+    public void setMaxSize(@Value("${arcstorage.prefetch.cacheSize}") long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Autowired
+    public void setTtl(@Value("${arcstorage.prefetch.ttl}") long ttlInHours) {
+        this.ttl = Duration.ofHours(ttlInHours);
+    }
+}
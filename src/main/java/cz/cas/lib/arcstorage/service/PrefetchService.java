@@ -0,0 +1,253 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.AipSip;
+import cz.cas.lib.arcstorage.domain.entity.AipXml;
+import cz.cas.lib.arcstorage.dto.AipRetrievalResource;
+import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
+import cz.cas.lib.arcstorage.dto.Checksum;
+import cz.cas.lib.arcstorage.dto.ObjectRetrievalResource;
+import cz.cas.lib.arcstorage.dto.ObjectState;
+import cz.cas.lib.arcstorage.dto.PrefetchJobDto;
+import cz.cas.lib.arcstorage.exception.MissingObject;
+import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
+import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageReachableException;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import cz.cas.lib.arcstorage.storage.exception.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.copyStreamAndComputeChecksum;
+import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
+
+/**
+ * Prefetches AIPs announced to be read in bulk to {@link PrefetchCache}, so that the planned reads are served from the
+ * local disk.
+ * <p>
+ * Prefetch runs in background in a dedicated pool of low priority threads, all prefetch jobs share the I/O budget
+ * of {@link #bytesPerSecond}, live reads are not limited. SIP and all archived XMLs of every AIP which are not cached
+ * yet are downloaded and verified, objects found corrupted are enqueued for repair.
+ * </p>
+ */
+@Slf4j
+@Service
+public class PrefetchService {
+
+    /**
+     * finished jobs are kept for the progress queries for this time
+     */
+    private static final Duration JOB_RETENTION = Duration.ofDays(7);
+    private static final String CACHE_FULL = "prefetch cache is full";
+
+    private ArchivalDbService archivalDbService;
+    private StorageProvider storageProvider;
+    private ObjectRepairService objectRepairService;
+    private PrefetchCache prefetchCache;
+    private ExecutorService prefetchExecutorService;
+    private TokenBucket ioBudget;
+    private final Map<String, PrefetchJobDto> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Starts prefetch of the AIPs in background.
+     *
+     * @param aipIds ids of AIPs to prefetch
+     * @return job with the progress of the prefetch
+     */
+    public PrefetchJobDto prefetch(List<String> aipIds) {
+        Instant retentionLimit = Instant.now().minus(JOB_RETENTION);
+        jobs.values().removeIf(j -> j.getFinished() != null && j.getFinished().isBefore(retentionLimit));
+        PrefetchJobDto job = new PrefetchJobDto(aipIds.size());
+        jobs.put(job.getId(), job);
+        log.info("Prefetch job " + job.getId() + " of " + aipIds.size() + " AIPs has been registered.");
+        prefetchExecutorService.submit(() -> run(job, new ArrayList<>(aipIds)));
+        return job;
+    }
+
+    /**
+     * @param jobId id of the prefetch job
+     * @return job with the progress of the prefetch
+     * @throws MissingObject if there is no such job
+     */
+    public PrefetchJobDto getJob(String jobId) {
+        PrefetchJobDto job = jobs.get(jobId);
+        if (job == null)
+            throw new MissingObject(PrefetchJobDto.class, jobId);
+        return job;
+    }
+
+    private void run(PrefetchJobDto job, List<String> aipIds) {
+        boolean cacheFull = false;
+        for (String aipId : aipIds) {
+            try {
+                if (cacheFull)
+                    job.getFailed().put(aipId, CACHE_FULL);
+                else {
+                    String error = prefetchAip(job, aipId);
+                    if (error == null)
+                        job.getPrefetched().incrementAndGet();
+                    else {
+                        job.getFailed().put(aipId, error);
+                        cacheFull = error.equals(CACHE_FULL);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Prefetch of AIP " + aipId + " has failed.", e);
+                job.getFailed().put(aipId, e.toString());
+            } finally {
+                job.getProcessed().incrementAndGet();
+            }
+        }
+        job.setFinished(Instant.now());
+        log.info("Prefetch job " + job.getId() + " has finished, prefetched " + job.getPrefetched() + " of " + job.getTotal() + " AIPs.");
+    }
+
+    /**
+     * @return null if the AIP has been prefetched, the reason otherwise
+     */
+    private String prefetchAip(PrefetchJobDto job, String aipId) throws IOException, NoLogicalStorageAttachedException,
+            NoLogicalStorageReachableException {
+        AipSip sipEntity = archivalDbService.getAip(aipId);
+        if (sipEntity.getState() != ObjectState.ARCHIVED)
+            return "AIP is in state " + sipEntity.getState();
+        ArchivalObjectDto sipDto = sipEntity.toDto();
+        boolean sipMissing = !prefetchCache.contains(sipDto);
+        List<AipXml> missingXmls = new ArrayList<>();
+        for (AipXml xml : sipEntity.getArchivedXmls()) {
+            if (!prefetchCache.contains(xml.toDto()))
+                missingXmls.add(xml);
+        }
+        for (StorageService storageService : storageProvider.createAdaptersForRead()) {
+            if (!sipMissing && missingXmls.isEmpty())
+                break;
+            try {
+                String error = sipMissing
+                        ? prefetchAipObjects(job, sipEntity, missingXmls, storageService)
+                        : prefetchXmls(job, sipEntity, missingXmls, storageService);
+                if (error != null)
+                    return error;
+                sipMissing = !prefetchCache.contains(sipDto);
+            } catch (StorageException e) {
+                log.warn("Storage error has occurred during prefetch of AIP " + aipId + " from storage " +
+                        storageService.getStorage().getName() + ".", e);
+            }
+        }
+        if (sipMissing || !missingXmls.isEmpty())
+            return "no valid copy found at reachable storages";
+        log.debug("AIP " + aipId + " has been prefetched.");
+        return null;
+    }
+
+    /**
+     * Downloads SIP and the missing XMLs by a single request to the storage, XMLs which have been cached are removed from
+     * the list.
+     *
+     * @return null if the objects have been downloaded or are corrupted at the storage, {@link #CACHE_FULL} if the cache is full
+     */
+    private String prefetchAipObjects(PrefetchJobDto job, AipSip sipEntity, List<AipXml> missingXmls, StorageService storageService)
+            throws IOException, StorageException {
+        Integer[] versions = missingXmls.stream().map(AipXml::getVersion).toArray(Integer[]::new);
+        try (AipRetrievalResource aip = storageService.getAip(sipEntity.getId(), sipEntity.getOwner().getDataSpace(), versions)) {
+            if (download(job, sipEntity.toDto(), aip.getSip(), storageService) == null)
+                return CACHE_FULL;
+            for (AipXml xml : new ArrayList<>(missingXmls)) {
+                Boolean cached = download(job, xml.toDto(), aip.getXmls().get(xml.getVersion()), storageService);
+                if (cached == null)
+                    return CACHE_FULL;
+                if (cached)
+                    missingXmls.remove(xml);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Downloads only the missing XMLs of AIP whose SIP is already cached, so that the SIP is not opened at the storage,
+     * XMLs which have been cached are removed from the list.
+     *
+     * @return null if the XMLs have been downloaded or are corrupted at the storage, {@link #CACHE_FULL} if the cache is full
+     */
+    private String prefetchXmls(PrefetchJobDto job, AipSip sipEntity, List<AipXml> missingXmls, StorageService storageService)
+            throws IOException, StorageException {
+        for (AipXml xml : new ArrayList<>(missingXmls)) {
+            Boolean cached;
+            try (ObjectRetrievalResource resource = storageService.getObject(toXmlId(sipEntity.getId(), xml.getVersion()), sipEntity.getOwner().getDataSpace())) {
+                cached = download(job, xml.toDto(), resource.getInputStream(), storageService);
+            }
+            if (cached == null)
+                return CACHE_FULL;
+            if (cached)
+                missingXmls.remove(xml);
+        }
+        return null;
+    }
+
+    /**
+     * Downloads the object within the I/O budget, verifies it and moves it to the cache.
+     *
+     * @return true if the object has been cached, false if it is corrupted at the storage, null if the cache is full
+     */
+    private Boolean download(PrefetchJobDto job, ArchivalObjectDto objectDto, InputStream objectStream, StorageService storageService) throws IOException {
+        Path file = prefetchCache.newDownloadFile();
+        Checksum checksum;
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            checksum = copyStreamAndComputeChecksum(ioBudget.throttle(objectStream), os, objectDto.getChecksum().getType());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        job.getBytes().addAndGet(Files.size(file));
+        if (!objectDto.getChecksum().equals(checksum)) {
+            log.error("Object " + objectDto.getStorageId() + " is corrupted at storage " + storageService.getStorage().getName() + ".");
+            Files.deleteIfExists(file);
+            objectRepairService.enqueue(objectDto, storageService.getStorage());
+            return false;
+        }
+        return prefetchCache.put(objectDto, file) ? Boolean.TRUE : null;
+    }
+
+    @Autowired
+    public void setArchivalDbService(ArchivalDbService archivalDbService) {
+        this.archivalDbService = archivalDbService;
+    }
+
+    @Autowired
+    public void setStorageProvider(StorageProvider storageProvider) {
+        this.storageProvider = storageProvider;
+    }
+
+    @Autowired
+    public void setObjectRepairService(ObjectRepairService objectRepairService) {
+        this.objectRepairService = objectRepairService;
+    }
+
+    @Autowired
+    public void setPrefetchCache(PrefetchCache prefetchCache) {
+        this.prefetchCache = prefetchCache;
+    }
+
+    @Autowired
+    public void setPrefetchExecutorService(@Qualifier("PrefetchExecutorService") ExecutorService prefetchExecutorService) {
+        this.prefetchExecutorService = prefetchExecutorService;
+    }
+
+    @Autowired
+    public void setBytesPerSecond(@Value("${arcstorage.prefetch.bytesPerSecond}") long bytesPerSecond) {
+        this.ioBudget = new TokenBucket(bytesPerSecond);
+    }
+}
@@ -0,0 +1,137 @@
+package cz.cas.lib.arcstorage.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent retrievals of the same resource. The first caller of {@link #join(Object)} becomes the leader
+ * and performs the retrieval, callers which join while the retrieval is in progress wait for it and obtain their own
+ * share of the result created by the leader.
+ * <p>
+ * Leader must always finish the call with {@link Call#complete(Object, UnaryOperator)}, with null result if the retrieval
+ * has failed. Followers obtain null in that case and should retrieve the resource on their own.
+ * </p>
+ *
+ * @param <K> key of the resource
+ * @param <V> retrieved resource
+ */
+@Slf4j
+class SingleFlight<K, V> {
+
+    private final Map<K, Call<K, V>> calls = new HashMap<>();
+
+    /**
+     * Joins the retrieval of the resource in progress or starts a new one.
+     *
+     * @param key key of the resource
+     * @return call, the caller is the leader of it if {@link Call#isLeader()} is true
+     */
+    Call<K, V> join(K key) {
+        synchronized (calls) {
+            Call<K, V> call = calls.get(key);
+            if (call == null) {
+                call = new Call<>(this, key);
+                calls.put(key, call);
+                return call;
+            }
+            CompletableFuture<V> share = new CompletableFuture<>();
+            call.followers.add(share);
+            return new Call<>(share);
+        }
+    }
+
+    /**
+     * Shares tmp file with other reader. The file is hard linked so that the data are stored only once and every reader
+     * may delete its own file independently, the file is copied if the hard link is not supported.
+     *
+     * @param source tmp file of the leader
+     * @param target tmp file of the follower
+     */
+    static void shareTmpFile(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            log.debug("Could not link tmp file " + source + ", copying it.");
+            Files.copy(source, target);
+        }
+    }
+
+    static class Call<K, V> {
+        private final SingleFlight<K, V> singleFlight;
+        private final K key;
+        private final List<CompletableFuture<V>> followers = new ArrayList<>();
+        /**
+         * share of the follower, null for the leader
+         */
+        private final CompletableFuture<V> share;
+
+        private Call(SingleFlight<K, V> singleFlight, K key) {
+            this.singleFlight = singleFlight;
+            this.key = key;
+            this.share = null;
+        }
+
+        private Call(CompletableFuture<V> share) {
+            this.singleFlight = null;
+            this.key = null;
+            this.share = share;
+        }
+
+        boolean isLeader() {
+            return share == null;
+        }
+
+        /**
+         * Called by the follower to wait for its share of the result.
+         *
+         * @return share of the result or null if the leader has failed
+         */
+        V awaitShare() {
+            try {
+                return share.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Called by the leader once the retrieval is finished. Followers which have joined so far get their shares,
+         * later callers start a new retrieval.
+         *
+         * @param result   retrieved resource or null if the retrieval has failed
+         * @param shareFun creates share of the result for a single follower
+         */
+        void complete(V result, UnaryOperator<V> shareFun) {
+            synchronized (singleFlight.calls) {
+                singleFlight.calls.remove(key);
+            }
+            if (!followers.isEmpty())
+                log.debug("Sharing retrieval of " + key + " with " + followers.size() + " other readers.");
+            for (CompletableFuture<V> follower : followers) {
+                if (result == null) {
+                    follower.complete(null);
+                    continue;
+                }
+                try {
+                    follower.complete(shareFun.apply(result));
+                } catch (RuntimeException e) {
+                    log.error("Could not share retrieval of " + key + ".", e);
+                    follower.complete(null);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package cz.cas.lib.arcstorage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of heap buffers to which small objects, typically AIP XMLs, are retrieved instead of the tmp files, so that their
+ * reads are not dominated by the creation, writes, reads and deletion of the tmp files.
+ * <p>
+ * All buffers have size {@link #maxObjectSize}, the number of buffers in use is limited so that they do not exceed
+ * the memory budget. Buffer is returned to the pool once all streams reading it are closed. Stream which is dropped
+ * without being closed, e.g. by a client which has not read the whole response, releases its share of the buffer once
+ * it is garbage collected, so that the budget is not leaked.
+ * </p>
+ */
+@Slf4j
+@Service
+public class SmallObjectBufferPool {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    private int maxObjectSize;
+    private long budget;
+    private final AtomicLong reserved = new AtomicLong();
+    private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates stream which keeps the written object in pooled buffer. Once the object does not fit the buffer, it is
+     * written to the file instead.
+     *
+     * @param spillFile file to write the object to if it does not fit the buffer
+     * @return output stream or null if retrieval to memory is disabled or the memory budget is used up, the caller
+     * should write the object to the file then
+     */
+    SpillingOutputStream newOutputStream(File spillFile) {
+        if (maxObjectSize <= 0 || !reserve())
+            return null;
+        byte[] buffer = freeBuffers.poll();
+        //buffers of the previous size are dropped if the size has been changed
+        while (buffer != null && buffer.length != maxObjectSize)
+            buffer = freeBuffers.poll();
+        return new SpillingOutputStream(buffer == null ? new byte[maxObjectSize] : buffer, spillFile);
+    }
+
+    private boolean reserve() {
+        long current;
+        do {
+            current = reserved.get();
+            if (current + maxObjectSize > budget)
+                return false;
+        } while (!reserved.compareAndSet(current, current + maxObjectSize));
+        return true;
+    }
+
+    private void release(byte[] buffer) {
+        if (buffer.length == maxObjectSize)
+            freeBuffers.offer(buffer);
+        reserved.addAndGet(-buffer.length);
+    }
+
+    /**
+     * Output stream which writes to the pooled buffer while the data fit it and to the file otherwise.
+     */
+    class SpillingOutputStream extends OutputStream {
+        private byte[] buffer;
+        private final File spillFile;
+        private OutputStream spill;
+        private long size = 0;
+
+        private SpillingOutputStream(byte[] buffer, File spillFile) {
+            this.buffer = buffer;
+            this.spillFile = spillFile;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spill == null && size + len > buffer.length) {
+                spill = new FileOutputStream(spillFile);
+                spill.write(buffer, 0, (int) size);
+                release(buffer);
+                buffer = null;
+                log.trace("Object of more than " + maxObjectSize + " bytes has been spilled to file " + spillFile.getName() + ".");
+            }
+            if (spill != null)
+                spill.write(b, off, len);
+            else
+                System.arraycopy(b, off, buffer, (int) size, len);
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spill != null)
+                spill.close();
+        }
+
+        /**
+         * @return number of bytes written
+         */
+        long getSize() {
+            return size;
+        }
+
+        /**
+         * @return stream with the written data, backed by the buffer or by the file if the data did not fit the buffer
+         */
+        InputStream toInputStream() throws FileNotFoundException {
+            if (buffer == null)
+                return new FileInputStream(spillFile);
+            BufferInputStream inputStream = new BufferInputStream(new SharedBuffer(buffer, (int) size));
+            buffer = null;
+            return inputStream;
+        }
+
+        /**
+         * Releases the buffer or deletes the file, used when the written data are not valid.
+         */
+        void discard() {
+            if (buffer != null) {
+                release(buffer);
+                buffer = null;
+            } else
+                spillFile.delete();
+        }
+    }
+
+    /**
+     * Pooled buffer with data, reference counted by the streams reading it.
+     */
+    private class SharedBuffer {
+        private final byte[] data;
+        private final int length;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private SharedBuffer(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0)
+                SmallObjectBufferPool.this.release(data);
+        }
+    }
+
+    /**
+     * Stream reading object from pooled buffer, the buffer is returned to the pool once all streams reading it are
+     * closed or garbage collected.
+     */
+    public static class BufferInputStream extends ByteArrayInputStream {
+        private final SharedBuffer sharedBuffer;
+        private final ShareRelease shareRelease;
+        private final Cleaner.Cleanable cleanable;
+
+        private BufferInputStream(SharedBuffer sharedBuffer) {
+            super(sharedBuffer.data, 0, sharedBuffer.length);
+            this.sharedBuffer = sharedBuffer;
+            this.shareRelease = new ShareRelease(sharedBuffer);
+            this.cleanable = CLEANER.register(this, shareRelease);
+        }
+
+        /**
+         * @return new stream reading the same data from the beginning, the data are not copied
+         */
+        public BufferInputStream share() {
+            sharedBuffer.references.incrementAndGet();
+            return new BufferInputStream(sharedBuffer);
+        }
+
+        /**
+         * @return size of the object
+         */
+        public int getSize() {
+            return sharedBuffer.length;
+        }
+
+        /**
+         * @return read-only view of the whole object, independent of the position of the stream, valid only until the
+         * stream is closed, so the caller must keep the stream reachable while using the view
+         */
+        public ByteBuffer getData() {
+            return ByteBuffer.wrap(sharedBuffer.data, 0, sharedBuffer.length).asReadOnlyBuffer();
+        }
+
+        @Override
+        public void close() {
+            shareRelease.closed = true;
+            //cleaning action runs at most once, either here or once the stream is garbage collected
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * Releases share of the stream, must not reference the stream so that the stream can be garbage collected.
+     */
+    private static class ShareRelease implements Runnable {
+        private final SharedBuffer sharedBuffer;
+        private volatile boolean closed;
+
+        private ShareRelease(SharedBuffer sharedBuffer) {
+            this.sharedBuffer = sharedBuffer;
+        }
+
+        @Override
+        public void run() {
+            if (!closed)
+                log.warn("Stream of object of " + sharedBuffer.length + " bytes has not been closed, its buffer has been released on garbage collection.");
+            sharedBuffer.release();
+        }
+    }
+
+    @Autowired
+    public void setMaxObjectSize(@Value("${arcstorage.read.inMemory.maxObjectSize}") int maxObjectSize) {
+        this.maxObjectSize = maxObjectSize;
+    }
+
+    @Autowired
+    public void setBudget(@Value("${arcstorage.read.inMemory.budget}") long budget) {
+        this.budget = budget;
+    }
+}
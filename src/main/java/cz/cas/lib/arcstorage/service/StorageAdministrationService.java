@@ -6,6 +6,7 @@ import cz.cas.lib.arcstorage.domain.entity.SystemState;
 import cz.cas.lib.arcstorage.domain.entity.User;
 import cz.cas.lib.arcstorage.domain.store.ArchivalObjectStore;
 import cz.cas.lib.arcstorage.domain.store.StorageStore;
+import cz.cas.lib.arcstorage.dto.StoragePerformanceDto;
 import cz.cas.lib.arcstorage.dto.StorageStateDto;
 import cz.cas.lib.arcstorage.security.user.UserStore;
 import cz.cas.lib.arcstorage.service.exception.ReadOnlyStateException;
@@ -40,6 +41,7 @@ public class StorageAdministrationService {
     private ArchivalObjectStore archivalObjectStore;
     private int transactionTimeoutSeconds;
     private int synchronizationInitTimeoutSeconds;
+    private StoragePerformanceTracker storagePerformanceTracker;
 
     public Collection<Storage> getAll() {
         return storageStore.findAll();
@@ -157,6 +159,13 @@ public class StorageAdministrationService {
         }
     }
 
+    /**
+     * @return measured read performance of all attached logical storages
+     */
+    public List<StoragePerformanceDto> getStoragePerformances() {
+        return storagePerformanceTracker.getPerformances(storageStore.findAll());
+    }
+
     /**
      * @param syncStatus
      * @param firstTime  true if this is called from {@link StorageAdministrationService#attachStorage(Storage)} i.e. this is first attempt to synchronize (in that case phase is always {@link StorageSyncPhase#COPYING_ARCHIVED_OBJECTS}),
@@ -252,4 +261,9 @@ public class StorageAdministrationService {
     public void setSynchronizationInitTimeoutSeconds(@Value("${arcstorage.synchronizationInitTimeout}") int synchronizationInitTimeoutSeconds) {
         this.synchronizationInitTimeoutSeconds = synchronizationInitTimeoutSeconds;
     }
+
+    @Autowired
+    public void setStoragePerformanceTracker(StoragePerformanceTracker storagePerformanceTracker) {
+        this.storagePerformanceTracker = storagePerformanceTracker;
+    }
 }
@@ -0,0 +1,73 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.storage.ChecksumPipeline;
+import cz.cas.lib.arcstorage.storage.IoBufferPool;
+import cz.cas.lib.arcstorage.storage.LocalFileChecksum;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Configures {@link IoBufferPool}, {@link ChecksumPipeline} and {@link LocalFileChecksum} used by the storage adapters.
+ * <p>
+ * These are static, because the adapters are not Spring beans, so they are configured once the application properties
+ * are injected. Without this component (e.g. in unit tests) they run with their default configuration.
+ * </p>
+ */
+@Component
+public class StorageIoConfigurer {
+
+    private ExecutorService hashingExecutorService;
+    private int hashingBuffersPerStream;
+    private int ioBufferSize;
+    private int ioBufferCapacity;
+    private LocalFileChecksum.Mode localFileChecksumMode;
+    private int localFileChecksumWindowSize;
+    private boolean localFileChecksumSequentialHint;
+
+    @PostConstruct
+    public void configure() {
+        IoBufferPool.configure(ioBufferSize, ioBufferCapacity);
+        ChecksumPipeline.configure(hashingExecutorService, hashingBuffersPerStream);
+        LocalFileChecksum.configure(localFileChecksumMode, localFileChecksumWindowSize, localFileChecksumSequentialHint);
+    }
+
+    @Autowired
+    public void setHashingExecutorService(@Qualifier("HashingExecutorService") ExecutorService hashingExecutorService) {
+        this.hashingExecutorService = hashingExecutorService;
+    }
+
+    @Autowired
+    public void setHashingBuffersPerStream(@Value("${arcstorage.hashing.buffersPerStream}") int hashingBuffersPerStream) {
+        this.hashingBuffersPerStream = hashingBuffersPerStream;
+    }
+
+    @Autowired
+    public void setIoBufferSize(@Value("${arcstorage.ioBuffers.size}") int ioBufferSize) {
+        this.ioBufferSize = ioBufferSize;
+    }
+
+    @Autowired
+    public void setIoBufferCapacity(@Value("${arcstorage.ioBuffers.capacity}") int ioBufferCapacity) {
+        this.ioBufferCapacity = ioBufferCapacity;
+    }
+
+    @Autowired
+    public void setLocalFileChecksumMode(@Value("${arcstorage.hashing.localFile.mode}") LocalFileChecksum.Mode localFileChecksumMode) {
+        this.localFileChecksumMode = localFileChecksumMode;
+    }
+
+    @Autowired
+    public void setLocalFileChecksumWindowSize(@Value("${arcstorage.hashing.localFile.windowSize}") int localFileChecksumWindowSize) {
+        this.localFileChecksumWindowSize = localFileChecksumWindowSize;
+    }
+
+    @Autowired
+    public void setLocalFileChecksumSequentialHint(@Value("${arcstorage.hashing.localFile.sequentialHint}") boolean localFileChecksumSequentialHint) {
+        this.localFileChecksumSequentialHint = localFileChecksumSequentialHint;
+    }
+}
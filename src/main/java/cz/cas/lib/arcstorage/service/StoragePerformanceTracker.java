@@ -0,0 +1,161 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.dto.StoragePerformanceDto;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks latency, throughput and error rate of reads of every logical storage and uses them to order storages of the
+ * same priority for read operations.
+ * <p>
+ * Storages are ordered randomly with probability inversely proportional to their score, so that the fastest healthy
+ * storage gets most of the reads while the other storages still get some and their measurements stay up-to-date.
+ * </p>
+ */
+@Slf4j
+@Service
+public class StoragePerformanceTracker {
+
+    /**
+     * size of the object used to compute score from the measured latency and throughput
+     */
+    private static final double REFERENCE_OBJECT_BYTES = 1024 * 1024;
+    private static final double MAX_ERROR_RATE = 0.95;
+
+    private final Map<String, StoragePerformance> performances = new ConcurrentHashMap<>();
+    private boolean enabled;
+    private double alpha;
+    private ForegroundLoadMonitor foregroundLoadMonitor;
+
+    /**
+     * Records successful read.
+     *
+     * @param storage        storage which was read
+     * @param latencyMillis  time until the storage provided the stream with the object
+     * @param bytes          size of the transferred object
+     * @param transferMillis time of the transfer
+     */
+    public void recordRead(Storage storage, long latencyMillis, long bytes, long transferMillis) {
+        getPerformance(storage).record(alpha, latencyMillis, bytes, transferMillis);
+        foregroundLoadMonitor.recordReadLatency(latencyMillis);
+    }
+
+    /**
+     * Records read which has thrown storage error or returned corrupted object.
+     *
+     * @param storage storage which was read
+     */
+    public void recordReadFailure(Storage storage) {
+        getPerformance(storage).recordFailure(alpha);
+    }
+
+    /**
+     * Orders storages randomly, the lower score of the storage the higher chance it is ordered first. If the
+     * replica selection is disabled, storages are just shuffled.
+     *
+     * @param storageServices storage services of the same priority
+     * @return ordered storage services
+     */
+    public List<StorageService> orderForRead(List<StorageService> storageServices) {
+        List<StorageService> ordered = new ArrayList<>(storageServices);
+        if (!enabled || ordered.size() < 2) {
+            Collections.shuffle(ordered);
+            return ordered;
+        }
+        Map<StorageService, Double> weights = new HashMap<>();
+        double maxKnownWeight = 0;
+        for (StorageService storageService : ordered) {
+            Double score = getPerformance(storageService.getStorage()).toDto(storageService.getStorage()).getScore();
+            if (score != null) {
+                double weight = 1 / Math.max(score, 1);
+                weights.put(storageService, weight);
+                maxKnownWeight = Math.max(maxKnownWeight, weight);
+            }
+        }
+        //storages without successful read are given the best weight so that they are measured soon, unless they fail
+        for (StorageService storageService : ordered) {
+            if (!weights.containsKey(storageService)) {
+                double errorRate = getPerformance(storageService.getStorage()).toDto(storageService.getStorage()).getErrorRate();
+                weights.put(storageService, (maxKnownWeight == 0 ? 1 : maxKnownWeight) * (1 - Math.min(errorRate, MAX_ERROR_RATE)));
+            }
+        }
+        //weighted random ordering: each storage draws exponentially distributed time with rate equal to its weight
+        Map<StorageService, Double> keys = new HashMap<>();
+        for (StorageService storageService : ordered) {
+            double u = ThreadLocalRandom.current().nextDouble();
+            keys.put(storageService, -Math.log(1 - u) / weights.get(storageService));
+        }
+        ordered.sort(Comparator.comparing(keys::get));
+        return ordered;
+    }
+
+    /**
+     * @param storages storages to return performance of
+     * @return performance of the storages
+     */
+    public List<StoragePerformanceDto> getPerformances(Collection<Storage> storages) {
+        return storages.stream().map(s -> getPerformance(s).toDto(s)).collect(Collectors.toList());
+    }
+
+    private StoragePerformance getPerformance(Storage storage) {
+        return performances.computeIfAbsent(storage.getId(), k -> new StoragePerformance());
+    }
+
+    private static class StoragePerformance {
+        private Double latency;
+        private Double throughput;
+        private double errorRate = 0;
+        private long samples = 0;
+
+        synchronized void record(double alpha, long latencyMillis, long bytes, long transferMillis) {
+            latency = ewma(alpha, latency, latencyMillis);
+            //throughput of tiny objects is dominated by the timer resolution
+            if (transferMillis > 0)
+                throughput = ewma(alpha, throughput, bytes * 1000.0 / transferMillis);
+            errorRate = ewma(alpha, errorRate, 0);
+            samples++;
+        }
+
+        synchronized void recordFailure(double alpha) {
+            errorRate = ewma(alpha, errorRate, 1);
+            samples++;
+        }
+
+        synchronized StoragePerformanceDto toDto(Storage storage) {
+            Double score = null;
+            if (latency != null) {
+                double transferCost = throughput == null || throughput == 0 ? 0 : REFERENCE_OBJECT_BYTES * 1000 / throughput;
+                score = (latency + transferCost) / (1 - Math.min(errorRate, MAX_ERROR_RATE));
+            }
+            return new StoragePerformanceDto(storage.getId(), storage.getName(), latency, throughput, errorRate, samples, score);
+        }
+
+        private static double ewma(double alpha, Double average, double value) {
+            return average == null ? value : alpha * value + (1 - alpha) * average;
+        }
+    }
+
+    @Autowired
+    public void setEnabled(@Value("${arcstorage.read.replicaSelection.enabled}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Autowired
+    public void setAlpha(@Value("${arcstorage.read.replicaSelection.ewmaAlpha}") double alpha) {
+        this.alpha = alpha;
+    }
+
+    @Autowired
+    public void setForegroundLoadMonitor(ForegroundLoadMonitor foregroundLoadMonitor) {
+        this.foregroundLoadMonitor = foregroundLoadMonitor;
+    }
+}
@@ -8,6 +8,7 @@ import cz.cas.lib.arcstorage.domain.entity.SystemState;
 import cz.cas.lib.arcstorage.domain.store.StorageStore;
 import cz.cas.lib.arcstorage.domain.store.SystemStateStore;
 import cz.cas.lib.arcstorage.domain.store.Transactional;
+import cz.cas.lib.arcstorage.dto.TrafficClass;
 import cz.cas.lib.arcstorage.exception.GeneralException;
 import cz.cas.lib.arcstorage.exception.MissingObject;
 import cz.cas.lib.arcstorage.service.exception.ConfigParserException;
@@ -36,7 +37,6 @@ import java.util.stream.Collectors;
 
 import static cz.cas.lib.arcstorage.util.Utils.notNull;
 import static cz.cas.lib.arcstorage.util.Utils.parseEnumFromConfig;
-import static java.util.Collections.shuffle;
 
 @Service
 @Slf4j
@@ -48,6 +48,8 @@ public class StorageProvider {
     private int connectionTimeout;
     private SystemStateStore systemStateStore;
     private TransactionTemplate transactionTemplate;
+    private StoragePerformanceTracker storagePerformanceTracker;
+    private BandwidthLimiter bandwidthLimiter;
 
     /**
      * Returns storage service according to the database object. The storage is tested for reachability and is updated if
@@ -108,6 +110,7 @@ public class StorageProvider {
             default:
                 throw new GeneralException("unknown storage type: " + storage.getStorageType());
         }
+        service.setVerificationThrottle(is -> bandwidthLimiter.throttle(storage.getId(), TrafficClass.VERIFY, is));
         if (checkReachability) {
             boolean reachable = service.testConnection();
             if (reachable != storage.isReachable()) {
@@ -223,6 +226,7 @@ public class StorageProvider {
      * @return map of reachable and readable storage services sorted by priorities in the descending order (highest priority storages first),
      * where the key is the priority and the value is a list of storages with the given priority..
      * <p>storages which are just synchronizing are not returned</p>
+     * <p>storages of the same priority are ordered by {@link StoragePerformanceTracker#orderForRead(List)}</p>
      * @throws NoLogicalStorageReachableException if the number of reachable storages is zero
      * @throws NoLogicalStorageAttachedException  if the number of attached storages is zero
      */
@@ -249,10 +253,8 @@ public class StorageProvider {
             log.error("there are no logical storages reachable");
             throw new NoLogicalStorageReachableException();
         }
-        return storageServicesByPriorities.values().stream().map(storageServicesByPriority -> {
-                    shuffle(storageServicesByPriority);
-                    return storageServicesByPriority;
-                })
+        return storageServicesByPriorities.values().stream()
+                .map(storageServicesByPriority -> storagePerformanceTracker.orderForRead(storageServicesByPriority))
                 .flatMap(List::stream)
                 .collect(Collectors.toList());
     }
@@ -290,4 +292,14 @@ public class StorageProvider {
     public void setTransactionTemplate(TransactionTemplate transactionTemplate) {
         this.transactionTemplate = transactionTemplate;
     }
+
+    @Autowired
+    public void setStoragePerformanceTracker(StoragePerformanceTracker storagePerformanceTracker) {
+        this.storagePerformanceTracker = storagePerformanceTracker;
+    }
+
+    @Autowired
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
 }
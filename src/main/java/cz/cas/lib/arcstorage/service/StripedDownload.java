@@ -0,0 +1,138 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads object split into stripes (ranges) from several replicas at the same time. Every replica is read by its
+ * own worker which takes the stripes from a shared queue, so that faster replicas download more stripes. Stripe of
+ * a failed replica is returned to the queue and downloaded from other replica.
+ * <p>
+ * Stripes are written at their positions to the target file, so the file is assembled in order regardless of the
+ * order in which the stripes are downloaded. The content is not verified, the caller has to verify the checksum
+ * of the whole file.
+ * </p>
+ */
+@Slf4j
+class StripedDownload {
+    /**
+     * size of a single read from replica, ranged reads of some storages are separate requests so it should not be small
+     * <p>
+     * The read buffers are not taken from {@link cz.cas.lib.arcstorage.storage.IoBufferPool}, whose buffers are smaller
+     * and would multiply the requests. Only one buffer per replica is allocated by the download of object of at least
+     * {@code arcstorage.read.striping.minSize}, so the allocation is negligible compared to the download.
+     * </p>
+     */
+    private static final int READ_SIZE = 4 * 1024 * 1024;
+
+    private final List<RandomAccessObject> replicas;
+    private final long size;
+    private final long stripeSize;
+    private final ExecutorService executorService;
+
+    /**
+     * @param replicas        opened replicas of the object, all of the same size
+     * @param size            size of the object
+     * @param stripeSize      size of a single stripe
+     * @param executorService executor running the workers, one per replica
+     */
+    StripedDownload(List<RandomAccessObject> replicas, long size, long stripeSize, ExecutorService executorService) {
+        this.replicas = replicas;
+        this.size = size;
+        this.stripeSize = stripeSize;
+        this.executorService = executorService;
+    }
+
+    /**
+     * Downloads the object to the target file.
+     *
+     * @param target file to write to, it is created or truncated
+     * @return <code>true</code> if all stripes have been downloaded, <code>false</code> if all replicas have failed
+     * @throws IOException if the target file could not be written
+     */
+    boolean downloadTo(Path target) throws IOException {
+        int stripesCount = (int) ((size + stripeSize - 1) / stripeSize);
+        Queue<Integer> stripes = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < stripesCount; i++) {
+            stripes.add(i);
+        }
+        AtomicInteger downloaded = new AtomicInteger();
+        List<RandomAccessObject> healthyReplicas = new ArrayList<>(replicas);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            //stripe returned to the queue after the other workers have finished is downloaded in the next round
+            while (!stripes.isEmpty() && !healthyReplicas.isEmpty()) {
+                List<Future<Boolean>> workers = new ArrayList<>();
+                for (RandomAccessObject replica : healthyReplicas) {
+                    workers.add(executorService.submit(() -> downloadStripes(replica, stripes, channel, downloaded)));
+                }
+                List<RandomAccessObject> stillHealthy = new ArrayList<>();
+                for (int i = 0; i < workers.size(); i++) {
+                    if (awaitWorker(workers.get(i)))
+                        stillHealthy.add(healthyReplicas.get(i));
+                }
+                healthyReplicas = stillHealthy;
+            }
+        }
+        return downloaded.get() == stripesCount;
+    }
+
+    private boolean downloadStripes(RandomAccessObject replica, Queue<Integer> stripes, FileChannel channel, AtomicInteger downloaded) {
+        byte[] buffer = new byte[(int) Math.min(READ_SIZE, stripeSize)];
+        Integer stripe;
+        while ((stripe = stripes.poll()) != null) {
+            try {
+                downloadStripe(replica, stripe, channel, buffer);
+                downloaded.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Download of stripe " + stripe + " has failed, the stripe will be downloaded from other replica.", e);
+                stripes.add(stripe);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void downloadStripe(RandomAccessObject replica, int stripe, FileChannel channel, byte[] buffer) throws IOException {
+        long position = stripe * stripeSize;
+        long end = Math.min(size, position + stripeSize);
+        while (position < end) {
+            int read = replica.read(position, buffer, 0, (int) Math.min(buffer.length, end - position));
+            if (read < 0)
+                throw new EOFException("replica ended at " + position + " before the expected size " + size);
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+            long writePosition = position;
+            while (byteBuffer.hasRemaining()) {
+                writePosition += channel.write(byteBuffer, writePosition);
+            }
+            position += read;
+        }
+    }
+
+    private static boolean awaitWorker(Future<Boolean> worker) throws IOException {
+        try {
+            return worker.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for striped download");
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+}
@@ -2,11 +2,14 @@ package cz.cas.lib.arcstorage.service;
 
 import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
 import cz.cas.lib.arcstorage.domain.entity.SystemState;
+import cz.cas.lib.arcstorage.dto.ChecksumBenchmarkDto;
+import cz.cas.lib.arcstorage.dto.ChecksumType;
 import cz.cas.lib.arcstorage.dto.ObjectState;
 import cz.cas.lib.arcstorage.service.exception.ReadOnlyStateException;
 import cz.cas.lib.arcstorage.service.exception.ReadOnlyStateRequiredException;
 import cz.cas.lib.arcstorage.service.exception.storage.NoLogicalStorageAttachedException;
 import cz.cas.lib.arcstorage.service.exception.storage.SomeLogicalStoragesNotReachableException;
+import cz.cas.lib.arcstorage.storage.LocalFileChecksum;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.exception.StorageException;
 import cz.cas.lib.arcstorage.storagesync.newstorage.StorageSyncStatus;
@@ -19,9 +22,13 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static cz.cas.lib.arcstorage.util.Utils.asList;
 
@@ -93,6 +100,51 @@ public class SystemAdministrationService {
         archivalDbService.recoverDbDataFromStorage(adapter, override);
     }
 
+    /**
+     * Measures checksum computation of a local file in all {@link LocalFileChecksum.Mode}s. The file of random data is
+     * created in the tmp folder, which is the folder where the incoming objects are validated, and deleted afterwards.
+     * <p>
+     * Unless the file is larger than the free memory, it is in the page cache once written, so the results compare the
+     * hashing overhead of the modes rather than the device speed.
+     * </p>
+     *
+     * @param size         size of the file, in bytes
+     * @param checksumType type of checksum to compute
+     * @param rounds       number of computations in every mode
+     * @return results of the modes
+     */
+    public List<ChecksumBenchmarkDto> benchmarkChecksum(long size, ChecksumType checksumType, int rounds) throws IOException {
+        Path file = Files.createTempFile(tmpFolder, "checksum-benchmark", null);
+        try {
+            byte[] buffer = new byte[1024 * 1024];
+            Random random = new Random();
+            try (OutputStream os = Files.newOutputStream(file)) {
+                for (long written = 0; written < size; written = written + buffer.length) {
+                    random.nextBytes(buffer);
+                    os.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+                }
+            }
+            List<ChecksumBenchmarkDto> results = new ArrayList<>();
+            for (LocalFileChecksum.Mode mode : LocalFileChecksum.Mode.values()) {
+                long best = Long.MAX_VALUE;
+                long total = 0;
+                for (int i = 0; i < rounds; i++) {
+                    long start = System.nanoTime();
+                    LocalFileChecksum.compute(file, checksumType, null, mode);
+                    long time = System.nanoTime() - start;
+                    best = Math.min(best, time);
+                    total = total + time;
+                }
+                results.add(new ChecksumBenchmarkDto(mode, size, rounds, best / 1_000_000, total / rounds / 1_000_000,
+                        size / (Math.max(best, 1) / 1_000_000_000d)));
+                log.info("Checksum of " + size + " bytes file computed in " + mode + " mode in " + best / 1_000_000 + " ms at best.");
+            }
+            return results;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
 
     @Autowired
     public void setAsync(ArchivalAsyncService async) {
@@ -1,5 +1,6 @@
 package cz.cas.lib.arcstorage.service;
 
+import cz.cas.lib.arcstorage.storage.ChecksumPipeline;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -14,13 +15,35 @@ public class ThreadPoolProducer {
 
     private ExecutorService executorService;
     private ExecutorService batchOpsExecutorService;
+    private ExecutorService repairExecutorService;
+    private ExecutorService prefetchExecutorService;
+    private ExecutorService scrubberExecutorService;
+    private ExecutorService hashingExecutorService;
+    private ExecutorService verificationJobExecutorService;
     private ScheduledExecutorService scheduledExecutorService;
 
     public ThreadPoolProducer(@Value("${arcstorage.threadPools.batchOps}") int batchOpsThreadCount,
-                              @Value("${arcstorage.threadPools.scheduled}") int scheduledThreadCount) {
+                              @Value("${arcstorage.threadPools.scheduled}") int scheduledThreadCount,
+                              @Value("${arcstorage.threadPools.repair}") int repairThreadCount,
+                              @Value("${arcstorage.threadPools.prefetch}") int prefetchThreadCount,
+                              @Value("${arcstorage.threadPools.hashing}") int hashingThreadCount,
+                              @Value("${arcstorage.threadPools.verificationJobs}") int verificationJobThreadCount) {
         executorService = Executors.newCachedThreadPool();
         batchOpsExecutorService = Executors.newWorkStealingPool(batchOpsThreadCount);
         scheduledExecutorService = Executors.newScheduledThreadPool(scheduledThreadCount);
+        repairExecutorService = Executors.newFixedThreadPool(repairThreadCount);
+        prefetchExecutorService = Executors.newFixedThreadPool(prefetchThreadCount, runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scrubberExecutorService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        hashingExecutorService = ChecksumPipeline.newHashingExecutor(hashingThreadCount);
+        verificationJobExecutorService = Executors.newFixedThreadPool(verificationJobThreadCount);
     }
 
     @Bean
@@ -34,6 +57,31 @@ public class ThreadPoolProducer {
         return batchOpsExecutorService;
     }
 
+    @Bean(name = "RepairExecutorService")
+    public ExecutorService repairExecutorService() {
+        return repairExecutorService;
+    }
+
+    @Bean(name = "PrefetchExecutorService")
+    public ExecutorService prefetchExecutorService() {
+        return prefetchExecutorService;
+    }
+
+    @Bean(name = "ScrubberExecutorService")
+    public ExecutorService scrubberExecutorService() {
+        return scrubberExecutorService;
+    }
+
+    @Bean(name = "HashingExecutorService")
+    public ExecutorService hashingExecutorService() {
+        return hashingExecutorService;
+    }
+
+    @Bean(name = "VerificationJobExecutorService")
+    public ExecutorService verificationJobExecutorService() {
+        return verificationJobExecutorService;
+    }
+
     @Bean
     public ScheduledExecutorService scheduledExecutorService() {
         return scheduledExecutorService;
@@ -0,0 +1,94 @@
+package cz.cas.lib.arcstorage.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting throughput of I/O, one token is one byte. The bucket holds at most the tokens for one second.
+ * Caller which takes more tokens than available is put to sleep until the tokens would have been refilled, so concurrent
+ * callers share the rate.
+ */
+class TokenBucket {
+
+    /**
+     * tokens per second, 0 or less means unlimited
+     */
+    private long rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    TokenBucket(long rate) {
+        this.rate = rate;
+        this.tokens = Math.max(rate, 0);
+    }
+
+    /**
+     * Takes the tokens from the bucket, blocks if they are not available.
+     *
+     * @param count number of tokens to take
+     */
+    void acquire(long count) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (rate <= 0)
+                return;
+            refill();
+            tokens -= count;
+            waitNanos = tokens < 0 ? (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        }
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    synchronized long getRate() {
+        return rate;
+    }
+
+    synchronized void setRate(long rate) {
+        refill();
+        this.rate = rate;
+        tokens = Math.min(tokens, Math.max(rate, 0));
+    }
+
+    /**
+     * @return stream which takes tokens from the bucket for every read byte
+     */
+    InputStream throttle(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    take(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0)
+                    take(read);
+                return read;
+            }
+
+            private void take(long count) throws InterruptedIOException {
+                try {
+                    acquire(count);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for I/O budget");
+                }
+            }
+        };
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0)
+            tokens = Math.min(rate, tokens + (double) (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+}
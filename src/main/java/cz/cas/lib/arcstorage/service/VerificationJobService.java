@@ -0,0 +1,253 @@
+package cz.cas.lib.arcstorage.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cas.lib.arcstorage.domain.entity.AipSip;
+import cz.cas.lib.arcstorage.domain.store.AipSipStore;
+import cz.cas.lib.arcstorage.dto.*;
+import cz.cas.lib.arcstorage.exception.BadRequestException;
+import cz.cas.lib.arcstorage.exception.ConflictObject;
+import cz.cas.lib.arcstorage.exception.MissingObject;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies AIPs in background, so that the long verifications do not hold the HTTP requests.
+ * <p>
+ * AIPs are verified by {@link AipService#verifyAipsAtStorage(List, String, VerificationLevel)} in chunks of
+ * {@link #CHUNK_SIZE}, results of every chunk are appended to the NDJSON file in the tmp folder, one
+ * {@link AipConsistencyVerificationResultDto} per line, so that the memory used by the job does not grow with the
+ * number of AIPs. Results are available once the job has finished.
+ * </p>
+ * <p>
+ * Jobs run in the dedicated pool of {@code arcstorage.threadPools.verificationJobs} threads, further jobs wait in its
+ * queue. Jobs are kept only in memory, results left by the previous run are deleted at startup.
+ * </p>
+ */
+@Slf4j
+@Service
+public class VerificationJobService {
+
+    /**
+     * finished jobs and their results are kept for this time
+     */
+    private static final Duration JOB_RETENTION = Duration.ofDays(7);
+    /**
+     * number of AIPs verified at once, bounds the results held in memory
+     */
+    private static final int CHUNK_SIZE = 100;
+    /**
+     * interval of the periodical deletion of the expired jobs, in minutes
+     */
+    private static final int CLEANUP_INTERVAL = 60;
+
+    private AipService aipService;
+    private ArchivalDbService archivalDbService;
+    private AipSipStore aipSipStore;
+    private ObjectMapper objectMapper;
+    private ExecutorService verificationJobExecutorService;
+    private ScheduledExecutorService scheduledExecutorService;
+    private Path resultsFolder;
+    private final Map<String, VerificationJobDto> jobs = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> cleanupFuture;
+
+    /**
+     * Deletes results of the jobs of the previous run, these jobs are not known anymore.
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        if (Files.exists(resultsFolder)) {
+            FileUtils.cleanDirectory(resultsFolder.toFile());
+        }
+    }
+
+    /**
+     * Schedules periodical deletion of the expired jobs and of their results.
+     */
+    public void scheduleCleanup() {
+        if (cleanupFuture != null)
+            cleanupFuture.cancel(false);
+        cleanupFuture = scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            try {
+                cleanup();
+            } catch (Exception e) {
+                log.error("Periodical cleanup of verification jobs has failed.", e);
+            }
+        }, CLEANUP_INTERVAL, CLEANUP_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Starts verification of the AIPs in background.
+     *
+     * @param request   AIPs to verify, either their ids or the time range of their creation
+     * @param dataSpace data space to which the AIPs are limited, null for all data spaces
+     * @param submitter id of the user submitting the job, only this user and admin can access the job
+     * @return job with the progress of the verification
+     * @throws BadRequestException if there are no AIPs to verify
+     */
+    public VerificationJobDto submit(VerificationJobRequestDto request, String dataSpace, String submitter) throws BadRequestException, IOException {
+        List<String> aipIds = request.getAipIds() != null && !request.getAipIds().isEmpty()
+                ? new ArrayList<>(request.getAipIds())
+                : aipSipStore.findIdsCreatedBetween(request.getFrom(), request.getTo(), dataSpace);
+        if (aipIds.isEmpty())
+            throw new BadRequestException("there are no AIPs to verify");
+        VerificationLevel level = request.getLevel() == null ? VerificationLevel.FULL : request.getLevel();
+        Files.createDirectories(resultsFolder);
+        VerificationJobDto job = new VerificationJobDto(request.getStorageId(), level, aipIds.size(), submitter);
+        jobs.put(job.getId(), job);
+        log.info("Verification job " + job.getId() + " of " + aipIds.size() + " AIPs has been registered.");
+        verificationJobExecutorService.submit(() -> run(job, aipIds, dataSpace));
+        return job;
+    }
+
+    /**
+     * @param jobId     id of the verification job
+     * @param submitter id of the user requesting the job, null if the user is admin
+     * @return job with the progress of the verification
+     * @throws MissingObject if there is no such job or it has been submitted by other user
+     */
+    public VerificationJobDto getJob(String jobId, String submitter) {
+        VerificationJobDto job = jobs.get(jobId);
+        if (job == null || (submitter != null && !submitter.equals(job.getSubmitter())))
+            throw new MissingObject(VerificationJobDto.class, jobId);
+        return job;
+    }
+
+    /**
+     * @param jobId     id of the verification job
+     * @param submitter id of the user requesting the results, null if the user is admin
+     * @return NDJSON file with the results of the verification
+     * @throws MissingObject  if there is no such job or it has been submitted by other user
+     * @throws ConflictObject if the job has not finished yet
+     */
+    public Path getResults(String jobId, String submitter) {
+        VerificationJobDto job = getJob(jobId, submitter);
+        if (job.getFinished() == null)
+            throw new ConflictObject(job);
+        return resultsFile(jobId);
+    }
+
+    /**
+     * Deletes jobs which have finished before more than {@link #JOB_RETENTION} and their results.
+     */
+    public void cleanup() throws IOException {
+        Instant retentionLimit = Instant.now().minus(JOB_RETENTION);
+        for (VerificationJobDto expired : jobs.values()) {
+            if (expired.getFinished() != null && expired.getFinished().isBefore(retentionLimit)) {
+                jobs.remove(expired.getId());
+                Files.deleteIfExists(resultsFile(expired.getId()));
+            }
+        }
+    }
+
+    private void run(VerificationJobDto job, List<String> aipIds, String dataSpace) {
+        try (BufferedWriter writer = Files.newBufferedWriter(resultsFile(job.getId()), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < aipIds.size(); i = i + CHUNK_SIZE) {
+                List<AipSip> chunk = new ArrayList<>();
+                for (String aipId : aipIds.subList(i, Math.min(i + CHUNK_SIZE, aipIds.size()))) {
+                    try {
+                        AipSip aip = archivalDbService.getAip(aipId);
+                        //AIPs of other data spaces are reported the same way as missing ones
+                        if (dataSpace != null && !dataSpace.equals(aip.getOwner().getDataSpace()))
+                            throw new MissingObject(AipSip.class, aipId);
+                        chunk.add(aip);
+                    } catch (MissingObject e) {
+                        job.getFailed().put(aipId, "AIP not found");
+                        job.getProcessed().incrementAndGet();
+                    }
+                }
+                if (chunk.isEmpty())
+                    continue;
+                List<AipConsistencyVerificationResultDto> results = aipService.verifyAipsAtStorage(chunk, job.getStorageId(), job.getLevel());
+                for (AipConsistencyVerificationResultDto result : results) {
+                    writer.write(objectMapper.writeValueAsString(result));
+                    writer.newLine();
+                    List<ObjectConsistencyVerificationResultDto> objects = new ArrayList<>(result.getXmlStates());
+                    objects.add(result.getAipState());
+                    job.getObjects().addAndGet(objects.size());
+                    objects.stream().filter(o -> o.getStorageSize() != null).forEach(o -> job.getBytes().addAndGet(o.getStorageSize()));
+                    if (!isConsistent(result, objects))
+                        job.getInconsistent().incrementAndGet();
+                }
+                writer.flush();
+                job.getProcessed().addAndGet(chunk.size());
+            }
+        } catch (Exception e) {
+            log.error("Verification job " + job.getId() + " has failed.", e);
+            job.setError(e.toString());
+        } finally {
+            job.setFinished(Instant.now());
+        }
+        log.info("Verification job " + job.getId() + " has finished, verified " + job.getProcessed() + " of " + job.getTotal() + " AIPs.");
+    }
+
+    /**
+     * @return false if some object which should be stored at the storage has inconsistent metadata or content there
+     */
+    private static boolean isConsistent(AipConsistencyVerificationResultDto result, List<ObjectConsistencyVerificationResultDto> objects) {
+        boolean contentVerified = result.getLevel().includes(VerificationLevel.SHALLOW);
+        return objects.stream()
+                .filter(o -> o.getState().metadataMustBeStoredAtLogicalStorage())
+                .allMatch(o -> o.isMetadataConsistent() && (!contentVerified || !o.getState().contentMustBeStoredAtLogicalStorage() || o.isContentConsistent()));
+    }
+
+    private Path resultsFile(String jobId) {
+        return resultsFolder.resolve(jobId + ".ndjson");
+    }
+
+    @Autowired
+    public void setAipService(AipService aipService) {
+        this.aipService = aipService;
+    }
+
+    @Autowired
+    public void setArchivalDbService(ArchivalDbService archivalDbService) {
+        this.archivalDbService = archivalDbService;
+    }
+
+    @Autowired
+    public void setAipSipStore(AipSipStore aipSipStore) {
+        this.aipSipStore = aipSipStore;
+    }
+
+    @Autowired
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Autowired
+    public void setVerificationJobExecutorService(@Qualifier("VerificationJobExecutorService") ExecutorService verificationJobExecutorService) {
+        this.verificationJobExecutorService = verificationJobExecutorService;
+    }
+
+    @Autowired
+    public void setScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
+        this.scheduledExecutorService = scheduledExecutorService;
+    }
+
+    @Autowired
+    public void setResultsFolder(@Value("${spring.servlet.multipart.location}") String tmpFolder) {
+        this.resultsFolder = Paths.get(tmpFolder).resolve("verification");
+    }
+}
@@ -0,0 +1,215 @@
+package cz.cas.lib.arcstorage.storage;
+
+import cz.cas.lib.arcstorage.dto.Checksum;
+import cz.cas.lib.arcstorage.dto.ChecksumType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.checksumComputationPrecheck;
+import static cz.cas.lib.arcstorage.util.Utils.bytesToHexString;
+
+/**
+ * Copies stream and computes its checksum in two overlapping stages, so that the CPU bound hashing does not run on the
+ * I/O threads.
+ * <p>
+ * The calling thread reads the stream to buffers of {@link IoBufferPool}, writes them to the output stream and passes
+ * them to the hashing stage running at the shared executor of {@link #hashingExecutor}, sized to the number of cores.
+ * The hashing stage of a single stream runs at most on one thread at a time, it occupies the thread only while there
+ * are buffers to hash. Up to {@link #buffersPerStream} buffers of a single stream are in flight, when all of them wait
+ * for hashing, the reading stops until the hashing catches up.
+ * </p>
+ * <p>
+ * Stream which fits a single buffer is hashed by the calling thread, the hand-off would take longer than the hashing.
+ * </p>
+ */
+public class ChecksumPipeline {
+
+    private static volatile ExecutorService hashingExecutor;
+    private static volatile int buffersPerStream = 4;
+
+    /**
+     * Configures the pipelines started after this call.
+     *
+     * @param executor         executor running the hashing stages, should be sized to the number of cores
+     * @param buffersPerStream max number of buffers of a single stream being hashed or waiting for hashing
+     */
+    public static void configure(ExecutorService executor, int buffersPerStream) {
+        ChecksumPipeline.hashingExecutor = executor;
+        ChecksumPipeline.buffersPerStream = Math.max(1, buffersPerStream);
+    }
+
+    /**
+     * Reads the input stream, writes it to the output stream and computes checksum of the stream. Neither of the streams
+     * is closed.
+     *
+     * @param inputStream  stream to be copied
+     * @param outputStream stream to which should be the input copied, null if the stream is only hashed
+     * @param checksumType type of checksum to compute
+     * @param rollback     flag watched for rollback signal (if set by other thread, the copy ends to do not waste
+     *                     resources), null if the copy can't be rolled back
+     * @return computed checksum or null if the rollback flag was set
+     * @throws IOException in case of error of any of the streams
+     */
+    public static Checksum copy(InputStream inputStream, OutputStream outputStream, ChecksumType checksumType, AtomicBoolean rollback) throws IOException {
+        MessageDigest digest = checksumComputationPrecheck(inputStream, checksumType);
+        HashingStage hashingStage = new HashingStage(digest, buffersPerStream);
+        byte[] buffer = null;
+        try {
+            while (true) {
+                if (rollback != null && rollback.get())
+                    return null;
+                buffer = hashingStage.takeFreeBuffer();
+                int numRead = inputStream.readNBytes(buffer, 0, buffer.length);
+                if (numRead > 0 && outputStream != null)
+                    outputStream.write(buffer, 0, numRead);
+                boolean end = numRead < buffer.length;
+                if (end && !hashingStage.isStarted()) {
+                    digest.update(buffer, 0, numRead);
+                    break;
+                }
+                if (numRead > 0) {
+                    hashingStage.submit(buffer, numRead);
+                    buffer = null;
+                }
+                if (end)
+                    break;
+            }
+        } finally {
+            hashingStage.awaitBuffers(buffer);
+        }
+        return new Checksum(checksumType, bytesToHexString(digest.digest()));
+    }
+
+    /**
+     * @return executor configured by {@link #configure(ExecutorService, int)}, or executor of a thread per core created on
+     * first use if none has been configured
+     */
+    static ExecutorService getHashingExecutor() {
+        if (hashingExecutor == null) {
+            synchronized (ChecksumPipeline.class) {
+                if (hashingExecutor == null)
+                    hashingExecutor = newHashingExecutor(0);
+            }
+        }
+        return hashingExecutor;
+    }
+
+    /**
+     * @param threads number of threads, 0 for the number of cores
+     * @return executor of daemon threads for the hashing stages
+     */
+    public static ExecutorService newHashingExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setDaemon(true);
+            thread.setName("hashing-" + thread.getName());
+            return thread;
+        });
+    }
+
+    /**
+     * Hashing stage of a single stream. Buffers are hashed in the order of submission, the stage is scheduled at the
+     * executor when the first buffer arrives and leaves the executor once there is no buffer to hash.
+     */
+    private static class HashingStage implements Runnable {
+        private final MessageDigest digest;
+        private final int maxBuffers;
+        private int allocatedBuffers = 0;
+        private boolean started = false;
+        private final BlockingQueue<byte[]> freeBuffers;
+        private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private HashingStage(MessageDigest digest, int maxBuffers) {
+            this.digest = digest;
+            this.maxBuffers = maxBuffers;
+            this.freeBuffers = new ArrayBlockingQueue<>(maxBuffers);
+        }
+
+        /**
+         * Buffers are taken from the pool lazily, so that small streams do not hold all of them.
+         */
+        private byte[] takeFreeBuffer() throws InterruptedIOException {
+            byte[] buffer = freeBuffers.poll();
+            if (buffer != null)
+                return buffer;
+            if (allocatedBuffers < maxBuffers) {
+                allocatedBuffers++;
+                return IoBufferPool.acquire();
+            }
+            try {
+                return freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for hashing");
+            }
+        }
+
+        private boolean isStarted() {
+            return started;
+        }
+
+        private void submit(byte[] buffer, int length) {
+            started = true;
+            chunks.add(new Chunk(buffer, length));
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    getHashingExecutor().execute(this);
+                } catch (RejectedExecutionException e) {
+                    //executor is shut down during the application shutdown
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Chunk chunk = chunks.poll();
+                digest.update(chunk.buffer, 0, chunk.length);
+                freeBuffers.offer(chunk.buffer);
+            } while (pending.decrementAndGet() != 0);
+        }
+
+        /**
+         * Waits until all submitted buffers are hashed, so that the digest is complete, and returns the buffers to the pool.
+         *
+         * @param heldBuffer buffer held by the reading thread, null if there is none
+         */
+        private void awaitBuffers(byte[] heldBuffer) {
+            if (heldBuffer != null)
+                freeBuffers.offer(heldBuffer);
+            boolean interrupted = false;
+            for (int i = 0; i < allocatedBuffers; i++) {
+                while (true) {
+                    try {
+                        IoBufferPool.release(freeBuffers.take());
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] buffer;
+        private final int length;
+
+        private Chunk(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
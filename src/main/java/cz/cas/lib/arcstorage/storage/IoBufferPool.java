@@ -0,0 +1,134 @@
+package cz.cas.lib.arcstorage.storage;
+
+import cz.cas.lib.arcstorage.dto.IoBufferPoolDto;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of large heap buffers shared by the loops copying, hashing and uploading the objects, so that every copied
+ * stream does not allocate its own buffers.
+ * <p>
+ * All buffers have size {@link #bufferSize}, at most {@link #capacity} buffers are kept in the pool. The pool never
+ * blocks: when there is no free buffer, a new one is allocated and counted as exhaustion if the buffers in use already
+ * exceed the capacity, such buffer is dropped once released to the full pool. Exhaustions which keep growing mean that
+ * the capacity is too low for the concurrency of the I/O operations.
+ * </p>
+ */
+public class IoBufferPool {
+
+    private static volatile int bufferSize = 1024 * 1024;
+    private static volatile int capacity = 64;
+    private static final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+    private static final AtomicInteger inUse = new AtomicInteger();
+    private static final AtomicInteger peakInUse = new AtomicInteger();
+    private static final AtomicLong acquisitions = new AtomicLong();
+    private static final AtomicLong allocations = new AtomicLong();
+    private static final AtomicLong exhaustions = new AtomicLong();
+
+    /**
+     * Configures the pool, buffers of the previous size are dropped once released.
+     *
+     * @param bufferSize size of a single buffer, in bytes
+     * @param capacity   max number of buffers kept in the pool
+     */
+    public static void configure(int bufferSize, int capacity) {
+        IoBufferPool.bufferSize = Math.max(1, bufferSize);
+        IoBufferPool.capacity = Math.max(0, capacity);
+        while (freeBuffers.poll() != null)
+            pooled.decrementAndGet();
+    }
+
+    /**
+     * @return size of the buffers returned by {@link #acquire()}
+     */
+    public static int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Takes buffer from the pool or allocates a new one if the pool is empty. The buffer should be returned by
+     * {@link #release(byte[])} once it is not used.
+     *
+     * @return buffer of {@link #getBufferSize()}, its content is undefined
+     */
+    public static byte[] acquire() {
+        acquisitions.incrementAndGet();
+        int used = inUse.incrementAndGet();
+        peakInUse.accumulateAndGet(used, Math::max);
+        int size = bufferSize;
+        byte[] buffer;
+        while ((buffer = freeBuffers.poll()) != null) {
+            pooled.decrementAndGet();
+            if (buffer.length == size)
+                return buffer;
+        }
+        allocations.incrementAndGet();
+        if (used > capacity)
+            exhaustions.incrementAndGet();
+        return new byte[size];
+    }
+
+    /**
+     * Returns the buffer to the pool, the buffer must not be used by the caller afterwards.
+     *
+     * @param buffer buffer obtained by {@link #acquire()}, null is ignored
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null)
+            return;
+        inUse.decrementAndGet();
+        if (buffer.length != bufferSize)
+            return;
+        if (pooled.incrementAndGet() > capacity) {
+            pooled.decrementAndGet();
+            return;
+        }
+        freeBuffers.offer(buffer);
+    }
+
+    /**
+     * Copies the input stream to the output stream through a pooled buffer. Neither of the streams is closed.
+     *
+     * @return number of copied bytes
+     */
+    public static long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            return IOUtils.copyLarge(inputStream, outputStream, buffer);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Copies part of the input stream to the output stream through a pooled buffer. Neither of the streams is closed.
+     *
+     * @param offset number of bytes of the input stream skipped before the copy
+     * @param length number of bytes to copy
+     * @return number of copied bytes
+     */
+    public static long copy(InputStream inputStream, OutputStream outputStream, long offset, long length) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            return IOUtils.copyLarge(inputStream, outputStream, offset, length, buffer);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * @return current usage of the pool and the counters since the start of the application
+     */
+    public static IoBufferPoolDto getStats() {
+        return new IoBufferPoolDto(bufferSize, capacity, pooled.get(), inUse.get(), peakInUse.get(),
+                acquisitions.get(), allocations.get(), exhaustions.get());
+    }
+}
@@ -0,0 +1,265 @@
+package cz.cas.lib.arcstorage.storage;
+
+import cz.cas.lib.arcstorage.dto.Checksum;
+import cz.cas.lib.arcstorage.dto.ChecksumType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.newMessageDigest;
+import static cz.cas.lib.arcstorage.util.Utils.bytesToHexString;
+
+/**
+ * Computes checksums of files at the local file system, e.g. tmp files of the incoming objects or objects stored at the
+ * local storage.
+ * <p>
+ * The file is read in one of the {@link Mode}s, {@link Mode#DIRECT} is used by default. Windows of the mapped file and
+ * reads to the direct buffers have size of {@link #windowSize}, so that the file is hashed with few system calls and
+ * without copying the data to the heap.
+ * </p>
+ * <p>
+ * {@link Mode#MAPPED} is opt-in: access to the mapped window of a file truncated meanwhile by other process faults in
+ * the JVM, such fault is reported as {@link IOException}.
+ * </p>
+ * <p>
+ * In {@link Mode#MAPPED} and {@link Mode#DIRECT}, the file is read by the calling thread and its windows are hashed at
+ * the hashing executor of {@link ChecksumPipeline}, the next window is read while the previous one is hashed. The hashing
+ * threads are not blocked by the reads of the disk and the concurrent computations do not occupy more cores than the
+ * hashing of streams. File which fits a single window is hashed by the calling thread, the hand-off would take longer
+ * than the hashing.
+ * </p>
+ */
+public class LocalFileChecksum {
+
+    public enum Mode {
+        /**
+         * file is read through the input stream by {@link ChecksumPipeline}
+         */
+        STREAM,
+        /**
+         * file is memory-mapped window by window
+         */
+        MAPPED,
+        /**
+         * file channel is read to the pooled direct buffers
+         */
+        DIRECT
+    }
+
+    private static volatile Mode mode = Mode.DIRECT;
+    private static volatile int windowSize = 16 * 1024 * 1024;
+    private static volatile boolean sequentialHint = true;
+    /**
+     * direct buffers are released only by GC, at most this number of them is kept for reuse
+     */
+    private static final Queue<ByteBuffer> directBuffers = new ArrayBlockingQueue<>(8);
+
+    /**
+     * Configures the computations started after this call.
+     *
+     * @param mode           mode used to read the files
+     * @param windowSize     size of the mapped window or of the direct buffer, in bytes
+     * @param sequentialHint if true, every mapped window is loaded to the memory at once before it is hashed, so that
+     *                       the pages are read in sequence instead of being faulted in one by one
+     */
+    public static void configure(Mode mode, int windowSize, boolean sequentialHint) {
+        LocalFileChecksum.mode = mode;
+        LocalFileChecksum.windowSize = Math.max(4096, windowSize);
+        LocalFileChecksum.sequentialHint = sequentialHint;
+        directBuffers.clear();
+    }
+
+    /**
+     * Computes checksum of the file in the configured mode.
+     *
+     * @param file         file to hash
+     * @param checksumType type of checksum to compute
+     * @param rollback     flag watched for rollback signal (if set by other thread, the computation ends to do not waste
+     *                     resources), null if the computation can't be rolled back
+     * @return computed checksum or null if the rollback flag was set
+     * @throws IOException in case of error
+     */
+    public static Checksum compute(Path file, ChecksumType checksumType, AtomicBoolean rollback) throws IOException {
+        return compute(file, checksumType, rollback, mode);
+    }
+
+    /**
+     * Computes checksum of the file in the given mode.
+     *
+     * @see #compute(Path, ChecksumType, AtomicBoolean)
+     */
+    public static Checksum compute(Path file, ChecksumType checksumType, AtomicBoolean rollback, Mode mode) throws IOException {
+        return compute(file, checksumType, rollback, mode, windowSize);
+    }
+
+    /**
+     * Computes checksum of the file in the given mode with the given size of the mapped window or of the direct buffer.
+     *
+     * @see #compute(Path, ChecksumType, AtomicBoolean)
+     */
+    public static Checksum compute(Path file, ChecksumType checksumType, AtomicBoolean rollback, Mode mode, int windowSize) throws IOException {
+        int window = Math.max(4096, windowSize);
+        if (mode == Mode.STREAM) {
+            try (InputStream is = Files.newInputStream(file)) {
+                return ChecksumPipeline.copy(is, null, checksumType, rollback);
+            }
+        }
+        MessageDigest digest = newMessageDigest(checksumType);
+        boolean completed;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            boolean inline = channel.size() <= window;
+            completed = mode == Mode.MAPPED
+                    ? hashMapped(channel, digest, rollback, window, inline)
+                    : hashDirect(channel, digest, rollback, window, inline);
+        }
+        if (!completed)
+            return null;
+        return new Checksum(checksumType, bytesToHexString(digest.digest()));
+    }
+
+    private static boolean hashMapped(FileChannel channel, MessageDigest digest, AtomicBoolean rollback, int window, boolean inline) throws IOException {
+        long size = channel.size();
+        Future<?> hashing = null;
+        try {
+            for (long position = 0; position < size; position = position + window) {
+                if (rollback != null && rollback.get())
+                    return false;
+                long windowPosition = position;
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position));
+                try {
+                    if (sequentialHint)
+                        mapped.load();
+                } catch (InternalError e) {
+                    throw truncated(windowPosition, e);
+                }
+                await(hashing);
+                hashing = hash(() -> {
+                    try {
+                        digest.update(mapped);
+                    } catch (InternalError e) {
+                        throw new UncheckedIOException(truncated(windowPosition, e));
+                    }
+                }, inline);
+            }
+            await(hashing);
+            return true;
+        } finally {
+            awaitQuietly(hashing);
+        }
+    }
+
+    private static boolean hashDirect(FileChannel channel, MessageDigest digest, AtomicBoolean rollback, int window, boolean inline) throws IOException {
+        //the next buffer is read while the previous one is hashed
+        ByteBuffer[] buffers = {takeDirectBuffer(window), inline ? null : takeDirectBuffer(window)};
+        Future<?> hashing = null;
+        try {
+            for (int i = 0; ; i++) {
+                if (rollback != null && rollback.get())
+                    return false;
+                ByteBuffer buffer = buffers[inline ? 0 : i % 2];
+                buffer.clear();
+                int numRead = 0;
+                while (buffer.hasRemaining() && numRead != -1)
+                    numRead = channel.read(buffer);
+                buffer.flip();
+                await(hashing);
+                hashing = hash(() -> digest.update(buffer), inline);
+                if (numRead == -1) {
+                    await(hashing);
+                    return true;
+                }
+            }
+        } finally {
+            awaitQuietly(hashing);
+            for (ByteBuffer buffer : buffers) {
+                if (buffer != null && buffer.capacity() == windowSize)
+                    directBuffers.offer(buffer);
+            }
+        }
+    }
+
+    private static ByteBuffer takeDirectBuffer(int window) {
+        ByteBuffer buffer = directBuffers.poll();
+        return buffer == null || buffer.capacity() != window ? ByteBuffer.allocateDirect(window) : buffer;
+    }
+
+    /**
+     * @param inline if true, the update runs at the calling thread
+     * @return hashing of the window, its failure is reported by {@link #await(Future)}
+     */
+    private static Future<?> hash(Runnable update, boolean inline) {
+        if (!inline) {
+            try {
+                return ChecksumPipeline.getHashingExecutor().submit(update);
+            } catch (RejectedExecutionException e) {
+                //executor is shut down during the application shutdown
+            }
+        }
+        FutureTask<?> task = new FutureTask<>(update, null);
+        task.run();
+        return task;
+    }
+
+    /**
+     * Waits until the previous window is hashed, so that the windows update the digest in order.
+     */
+    private static void await(Future<?> hashing) throws IOException {
+        if (hashing == null)
+            return;
+        try {
+            hashing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("computation of checksum has been interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Waits until the hashing ends when the computation ends early, so that the buffer is not reused while it is hashed.
+     */
+    private static void awaitQuietly(Future<?> hashing) {
+        if (hashing == null)
+            return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                hashing.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static IOException truncated(long position, InternalError e) {
+        return new IOException("mapped window at " + position + " is not accessible, the file has probably been truncated", e);
+    }
+}
@@ -0,0 +1,32 @@
+package cz.cas.lib.arcstorage.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Read-only random access to an object at logical storage. Used when only a small part of a large object is needed,
+ * e.g. the central directory and few entries of a SIP ZIP.
+ * <p>
+ * Caller is responsible for calling {@link #close()} once the object is not needed anymore.
+ * </p>
+ */
+public interface RandomAccessObject extends Closeable {
+
+    /**
+     * @return size of the object in bytes
+     * @throws IOException in the case of error
+     */
+    long size() throws IOException;
+
+    /**
+     * Reads up to <code>length</code> bytes of the object starting at the <code>position</code>.
+     *
+     * @param position position in the object from which to read
+     * @param buffer   buffer into which the data are read
+     * @param offset   offset in the buffer
+     * @param length   maximal number of bytes to read
+     * @return number of bytes read, -1 if the position is at the end of the object
+     * @throws IOException in the case of error
+     */
+    int read(long position, byte[] buffer, int offset, int length) throws IOException;
+}
@@ -0,0 +1,114 @@
+package cz.cas.lib.arcstorage.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only {@link SeekableByteChannel} over {@link RandomAccessObject}.
+ * <p>
+ * Reads are served from a block read ahead from the object, blocks are aligned to the block size so that both
+ * sequential reads and short backward scans (e.g. searching for the end of the ZIP central directory) are served
+ * with as few requests to the storage as possible.
+ * </p>
+ */
+public class RandomAccessObjectChannel implements SeekableByteChannel {
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final RandomAccessObject object;
+    private final long size;
+    private final byte[] block;
+    private long blockStart = 0;
+    private int blockLength = 0;
+    private long position = 0;
+    private boolean open = true;
+
+    public RandomAccessObjectChannel(RandomAccessObject object) throws IOException {
+        this(object, DEFAULT_BLOCK_SIZE);
+    }
+
+    public RandomAccessObjectChannel(RandomAccessObject object, int blockSize) throws IOException {
+        this.object = object;
+        this.size = object.size();
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size)
+            return -1;
+        if (position < blockStart || position >= blockStart + blockLength)
+            fillBlock();
+        int count = (int) Math.min(dst.remaining(), blockStart + blockLength - position);
+        dst.put(block, (int) (position - blockStart), count);
+        position += count;
+        return count;
+    }
+
+    private void fillBlock() throws IOException {
+        blockStart = position - position % block.length;
+        int toRead = (int) Math.min(block.length, size - blockStart);
+        int read = 0;
+        while (read < toRead) {
+            int count = object.read(blockStart + read, block, read, toRead - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        blockLength = read;
+        if (position >= blockStart + blockLength)
+            throw new IOException("unexpected end of object at position " + (blockStart + blockLength) + ", expected size " + size);
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0)
+            throw new IllegalArgumentException("negative position: " + newPosition);
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        object.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+}
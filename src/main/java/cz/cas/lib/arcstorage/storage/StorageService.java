@@ -6,24 +6,25 @@ import cz.cas.lib.arcstorage.domain.entity.Storage;
 import cz.cas.lib.arcstorage.dto.*;
 import cz.cas.lib.arcstorage.exception.GeneralException;
 import cz.cas.lib.arcstorage.service.ArchivalService;
+import cz.cas.lib.arcstorage.storage.exception.CantParseMetadataFile;
 import cz.cas.lib.arcstorage.storage.exception.FileCorruptedAfterStoreException;
+import cz.cas.lib.arcstorage.storage.exception.FileDoesNotExistException;
 import cz.cas.lib.arcstorage.storage.exception.IOStorageException;
 import cz.cas.lib.arcstorage.storage.exception.StorageException;
 import cz.cas.lib.arcstorage.storage.fs.ObjectMetadata;
 import cz.cas.lib.arcstorage.storagesync.ObjectAudit;
+import org.apache.commons.lang3.tuple.Pair;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 
-import static cz.cas.lib.arcstorage.storage.StorageUtils.checksumComputationPrecheck;
-import static cz.cas.lib.arcstorage.util.Utils.bytesToHexString;
 
 /**
  * Interface to be implemented by storage service adapters managing custom types of the logical storages.
@@ -134,6 +135,16 @@ public interface StorageService {
      */
     ObjectRetrievalResource getObject(String id, String dataSpace) throws StorageException;
 
+    /**
+     * Opens object for random access reads, so that only the needed parts of the object are transferred.
+     * Caller is responsible for calling {@link RandomAccessObject#close()} once the object is not needed anymore.
+     *
+     * @param id of the object
+     * @return {@link RandomAccessObject} of the object
+     * @throws StorageException in the case of error
+     */
+    RandomAccessObject getObjectRandomAccess(String id, String dataSpace) throws StorageException;
+
     /**
      * Deletes SIP object from storage. Must not fail if SIP is already physically deleted.
      *
@@ -212,12 +223,59 @@ public interface StorageService {
     /**
      * Retrieves information about AIP such as its state etc. and also info about SIP and XMLs checksums.
      *
-     * @param aip  filled up with aip properties from DB
-     * @param xmls list of xml version numbers with XML {@link ArchivalObjectDto}s as values
+     * @param aip   filled up with aip properties from DB
+     * @param xmls  list of xml version numbers with XML {@link ArchivalObjectDto}s as values
+     * @param level depth of the verification, checksums of the content are computed only at {@link VerificationLevel#FULL}
      * @return AipStateInfoDto object
      * @throws StorageException in the case of error, e.g. if the file could not be found
      */
-    AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace) throws StorageException;
+    AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace, VerificationLevel level) throws StorageException;
+
+    /**
+     * Retrieves the same information as {@link #getAipInfo(ArchivalObjectDto, Map, String, VerificationLevel)} about
+     * multiple AIPs of the same data space. Implementations should verify all AIPs over a single session with the storage
+     * and read the metadata of the objects at once, the default implementation verifies the AIPs one by one and stops
+     * at the first failure which is not specific to the AIP.
+     *
+     * @param aips  pairs of AIP and its XMLs mapped by version numbers
+     * @param level depth of the verification
+     * @return results in the order of the AIPs, null in place of the AIP which verification has failed, e.g. if its
+     * file could not be found
+     * @throws StorageException if the verification of the whole batch has failed, e.g. if the storage is unreachable
+     */
+    default List<AipConsistencyVerificationResultDto> getAipsInfo(List<Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>>> aips, String dataSpace, VerificationLevel level) throws StorageException {
+        List<AipConsistencyVerificationResultDto> results = new ArrayList<>();
+        for (Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>> aip : aips) {
+            try {
+                results.add(getAipInfo(aip.getLeft(), aip.getRight(), dataSpace, level));
+            } catch (FileDoesNotExistException | CantParseMetadataFile e) {
+                results.add(null);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Retrieves information about single object, the same as {@link #getAipInfo(ArchivalObjectDto, Map, String, VerificationLevel)}
+     * retrieves about the SIP.
+     *
+     * @param object filled up with object properties from DB
+     * @param level  depth of the verification, checksum of the content is computed only at {@link VerificationLevel#FULL}
+     * @return result of the verification
+     * @throws StorageException in the case of error, e.g. if the file could not be found
+     */
+    ObjectConsistencyVerificationResultDto getObjectInfo(ArchivalObjectDto object, String dataSpace, VerificationLevel level) throws StorageException;
+
+    /**
+     * Sets the wrapper of the content streams hashed by {@link #getAipInfo(ArchivalObjectDto, Map, String, VerificationLevel)},
+     * {@link #getAipsInfo(List, String, VerificationLevel)} and {@link #getObjectInfo(ArchivalObjectDto, String, VerificationLevel)}
+     * at {@link VerificationLevel#FULL}, e.g. to limit their bandwidth. The default implementation ignores it, which is
+     * right for the adapters hashing files of the local file system.
+     *
+     * @param verificationThrottle wrapper of the content stream
+     */
+    default void setVerificationThrottle(UnaryOperator<InputStream> verificationThrottle) {
+    }
 
     /**
      * Verifies that the storage contains valid state metadata objects for all input objects. If verification of some object fail, immediately returns.
@@ -292,28 +350,17 @@ public interface StorageService {
     }
 
     /**
-     * Computes checksum using buffer.
+     * Computes checksum with the hashing pipeline, see {@link ChecksumPipeline}.
      *
-     * @param objectStream stream
+     * @param objectStream stream, closed by this method
      * @param checksumType checksum type
      * @param rollback     flag watched for rollback signal (if set by other thread, the computation ends to do not waste resources)
      * @return checksum of the stream or null, if rollback flag was set to true by another thread
      * @throws IOException in case of error
      */
     default Checksum computeChecksumRollbackAware(InputStream objectStream, ChecksumType checksumType, AtomicBoolean rollback) throws IOException {
-        MessageDigest complete = checksumComputationPrecheck(objectStream, checksumType);
-        try (BufferedInputStream bis = new BufferedInputStream(objectStream)) {
-            byte[] buffer = new byte[8192];
-            int numRead;
-            do {
-                if (rollback.get())
-                    return null;
-                numRead = bis.read(buffer);
-                if (numRead > 0) {
-                    complete.update(buffer, 0, numRead);
-                }
-            } while (numRead != -1);
-            return new Checksum(checksumType, bytesToHexString(complete.digest()));
+        try (InputStream is = objectStream) {
+            return ChecksumPipeline.copy(is, null, checksumType, rollback);
         }
     }
 }
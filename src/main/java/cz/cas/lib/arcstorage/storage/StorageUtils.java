@@ -14,31 +14,21 @@ import java.security.NoSuchAlgorithmException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static cz.cas.lib.arcstorage.util.Utils.bytesToHexString;
 import static cz.cas.lib.arcstorage.util.Utils.notNull;
 
 @Slf4j
 public class StorageUtils {
 
     /**
-     * Computes checksum of the given type for the file.
+     * Computes checksum of the given type for the file, see {@link ChecksumPipeline}.
      *
      * @param fileStream   which is closed by this method
      * @param checksumType type of checksum to compute
      * @return computed checksum
      */
     public static Checksum computeChecksum(InputStream fileStream, ChecksumType checksumType) {
-        MessageDigest complete = checksumComputationPrecheck(fileStream, checksumType);
-        try (BufferedInputStream bis = new BufferedInputStream(fileStream)) {
-            byte[] buffer = new byte[8192];
-            int numRead;
-            do {
-                numRead = bis.read(buffer);
-                if (numRead > 0) {
-                    complete.update(buffer, 0, numRead);
-                }
-            } while (numRead != -1);
-            return new Checksum(checksumType, bytesToHexString(complete.digest()));
+        try (InputStream is = fileStream) {
+            return ChecksumPipeline.copy(is, null, checksumType, null);
         } catch (IOException e) {
             log.error("unable to compute value", e);
             throw new GeneralException("unable to compute value", e);
@@ -46,7 +36,8 @@ public class StorageUtils {
     }
 
     /**
-     * Reads inputstream, writes it to ouptutstream and computes checksum of the stream during the copy process.
+     * Reads inputstream, writes it to ouptutstream and computes checksum of the stream during the copy process, see
+     * {@link ChecksumPipeline}. Both streams are closed by this method.
      *
      * @param inputStream  stream to be copied
      * @param outputStream stream to which should be the input copied
@@ -54,20 +45,9 @@ public class StorageUtils {
      * @return computed checksum
      */
     public static Checksum copyStreamAndComputeChecksum(InputStream inputStream, OutputStream outputStream, ChecksumType checksumType) {
-        MessageDigest checksum = checksumComputationPrecheck(inputStream, checksumType);
-
-        try (BufferedInputStream bis = new BufferedInputStream(inputStream);
-             BufferedOutputStream bos = new BufferedOutputStream(outputStream)) {
-            byte[] buffer = new byte[8192];
-            int numRead;
-            do {
-                numRead = bis.read(buffer);
-                if (numRead > 0) {
-                    checksum.update(buffer, 0, numRead);
-                    bos.write(buffer, 0, numRead);
-                }
-            } while (numRead != -1);
-            return new Checksum(checksumType, bytesToHexString(checksum.digest()));
+        try (InputStream is = inputStream;
+             OutputStream os = outputStream) {
+            return ChecksumPipeline.copy(is, os, checksumType, null);
         } catch (IOException e) {
             log.error("unable to compute value", e);
             throw new GeneralException("unable to compute value", e);
@@ -78,6 +58,10 @@ public class StorageUtils {
         notNull(fileStream, () -> {
             throw new IllegalArgumentException();
         });
+        return newMessageDigest(checksumType);
+    }
+
+    public static MessageDigest newMessageDigest(ChecksumType checksumType) {
         try {
             switch (checksumType) {
                 case MD5:
@@ -97,11 +81,9 @@ public class StorageUtils {
     }
 
     public static void validateChecksum(Checksum checksum, Path tmpSipPath) throws IOException {
-        try (BufferedInputStream fis = new BufferedInputStream(new FileInputStream(tmpSipPath.toString()))) {
-            Checksum computedChecksum = StorageUtils.computeChecksum(fis, checksum.getType());
-            if (!checksum.equals(computedChecksum)) {
-                throw new InvalidChecksumException(computedChecksum, checksum);
-            }
+        Checksum computedChecksum = LocalFileChecksum.compute(tmpSipPath, checksum.getType(), null);
+        if (!checksum.equals(computedChecksum)) {
+            throw new InvalidChecksumException(computedChecksum, checksum);
         }
     }
 
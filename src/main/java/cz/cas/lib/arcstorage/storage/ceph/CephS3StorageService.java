@@ -12,6 +12,8 @@ import com.amazonaws.services.s3.model.*;
 import cz.cas.lib.arcstorage.domain.entity.Storage;
 import cz.cas.lib.arcstorage.dto.*;
 import cz.cas.lib.arcstorage.exception.GeneralException;
+import cz.cas.lib.arcstorage.storage.IoBufferPool;
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.StorageUtils;
 import cz.cas.lib.arcstorage.storage.exception.*;
@@ -22,16 +24,21 @@ import lombok.extern.slf4j.Slf4j;
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
 import org.apache.commons.io.input.NullInputStream;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.*;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static cz.cas.lib.arcstorage.storage.StorageUtils.checksumComputationPrecheck;
 import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
+import static cz.cas.lib.arcstorage.util.Utils.bytesToHexString;
 import static cz.cas.lib.arcstorage.util.Utils.fetchDataFromRemote;
 
 /**
@@ -54,6 +61,10 @@ public class CephS3StorageService implements StorageService {
     public static final String CMD_DF = "ceph df";
     public static final String CMD_PGS = "ceph pg ls-by-pool";
 
+    /**
+     * size of the part of multipart upload, S3 requires at least 5 MB for all parts but the last one
+     */
+    static final int PART_SIZE = 8 * 1024 * 1024;
     //keys must not contain dash or camelcase
     static final String STATE_KEY = "state";
     static final String CREATED_KEY = "created";
@@ -71,6 +82,8 @@ public class CephS3StorageService implements StorageService {
     private String cluster;
     private String cephBinHome;
     private String region;
+    @Setter
+    private UnaryOperator<InputStream> verificationThrottle = UnaryOperator.identity();
 
     public CephS3StorageService(Storage storage,
                                 String userAccessKey,
@@ -177,6 +190,50 @@ public class CephS3StorageService implements StorageService {
                 new ClosableS3(s3));
     }
 
+    @Override
+    public RandomAccessObject getObjectRandomAccess(String id, String dataSpace) throws FileDoesNotExistException {
+        AmazonS3 s3 = connect();
+        long size;
+        try {
+            checkFileExists(s3, id, dataSpace);
+            size = s3.getObjectMetadata(dataSpace, id).getContentLength();
+        } catch (Exception e) {
+            //the client is otherwise closed with the returned object
+            s3.shutdown();
+            throw e;
+        }
+        return new RandomAccessObject() {
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+                if (position >= size)
+                    return -1;
+                long lastByte = Math.min(size, position + length) - 1;
+                GetObjectRequest request = new GetObjectRequest(dataSpace, id).withRange(position, lastByte);
+                try (S3ObjectInputStream is = s3.getObject(request).getObjectContent()) {
+                    int read = 0;
+                    int toRead = (int) (lastByte - position + 1);
+                    while (read < toRead) {
+                        int count = is.read(buffer, offset + read, toRead - read);
+                        if (count < 0)
+                            break;
+                        read += count;
+                    }
+                    return read;
+                }
+            }
+
+            @Override
+            public void close() {
+                s3.shutdown();
+            }
+        };
+    }
+
     @Override
     public void delete(ArchivalObjectDto sipDto, String dataSpace, boolean createMetaFileIfMissing) throws StorageException {
         if (createMetaFileIfMissing) {
@@ -242,20 +299,54 @@ public class CephS3StorageService implements StorageService {
     }
 
     @Override
-    public AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace) throws FileDoesNotExistException {
+    public AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace, VerificationLevel level) throws FileDoesNotExistException {
         AmazonS3 s3 = connect();
         AipConsistencyVerificationResultDto aipStateInfo = new AipConsistencyVerificationResultDto(storage.getName(), storage.getStorageType(), true);
-        aipStateInfo.setAipState(fillObjectStateInfo(s3, new ObjectConsistencyVerificationResultDto(), aip, dataSpace));
+        aipStateInfo.setLevel(level);
+        aipStateInfo.setAipState(fillObjectStateInfo(s3, new ObjectConsistencyVerificationResultDto(), aip, dataSpace, level));
         for (Integer version : xmls.keySet()) {
             xmls.get(version);
             XmlConsistencyVerificationResultDto info = new XmlConsistencyVerificationResultDto();
             info.setVersion(version);
-            fillObjectStateInfo(s3, info, xmls.get(version), dataSpace);
+            fillObjectStateInfo(s3, info, xmls.get(version), dataSpace, level);
             aipStateInfo.addXmlInfo(info);
         }
         return aipStateInfo;
     }
 
+    /**
+     * Verifies all AIPs with a single S3 client, so that its connection pool is reused by all requests. Existence and
+     * metadata of every object are obtained by a single HEAD request.
+     */
+    @Override
+    public List<AipConsistencyVerificationResultDto> getAipsInfo(List<Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>>> aips, String dataSpace, VerificationLevel level) {
+        AmazonS3 s3 = connect();
+        List<AipConsistencyVerificationResultDto> results = new ArrayList<>();
+        for (Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>> aip : aips) {
+            try {
+                AipConsistencyVerificationResultDto aipStateInfo = new AipConsistencyVerificationResultDto(storage.getName(), storage.getStorageType(), true);
+                aipStateInfo.setLevel(level);
+                aipStateInfo.setAipState(fillObjectStateInfo(s3, new ObjectConsistencyVerificationResultDto(), aip.getLeft(), dataSpace, level));
+                for (Integer version : aip.getRight().keySet()) {
+                    XmlConsistencyVerificationResultDto info = new XmlConsistencyVerificationResultDto();
+                    info.setVersion(version);
+                    fillObjectStateInfo(s3, info, aip.getRight().get(version), dataSpace, level);
+                    aipStateInfo.addXmlInfo(info);
+                }
+                results.add(aipStateInfo);
+            } catch (FileDoesNotExistException e) {
+                log.warn("Verification of AIP " + aip.getLeft().getDatabaseId() + " at storage " + storage.getName() + " has failed: " + e.getMessage());
+                results.add(null);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public ObjectConsistencyVerificationResultDto getObjectInfo(ArchivalObjectDto object, String dataSpace, VerificationLevel level) throws FileDoesNotExistException {
+        return fillObjectStateInfo(connect(), new ObjectConsistencyVerificationResultDto(), object, dataSpace, level);
+    }
+
     @Override
     public StorageStateDto getStorageState() throws StorageException {
         Map<String, Object> storageStateData = new HashMap<>();
@@ -371,7 +462,7 @@ public class CephS3StorageService implements StorageService {
         throw new UnsupportedOperationException();
     }
 
-    private ObjectConsistencyVerificationResultDto fillObjectStateInfo(AmazonS3 s3, ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object, String dataSpace) throws FileDoesNotExistException {
+    private ObjectConsistencyVerificationResultDto fillObjectStateInfo(AmazonS3 s3, ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object, String dataSpace, VerificationLevel level) throws FileDoesNotExistException {
         info.setStorageId(object.getStorageId());
         info.setState(object.getState());
         info.setDatabaseChecksum(object.getChecksum());
@@ -380,12 +471,10 @@ public class CephS3StorageService implements StorageService {
         if (!object.getState().metadataMustBeStoredAtLogicalStorage()) {
             return info;
         }
-        String metadataId = toMetadataObjectId(object.getStorageId());
-
-        if (!s3.doesObjectExist(dataSpace, metadataId)) {
+        ObjectMetadata s3ObjectMetadata = getObjectMetadataIfExists(s3, toMetadataObjectId(object.getStorageId()), dataSpace);
+        if (s3ObjectMetadata == null) {
             info.setMetadataConsistent(false);
         } else {
-            ObjectMetadata s3ObjectMetadata = s3.getObjectMetadata(dataSpace, metadataId);
             Map<String, String> userMetadata = s3ObjectMetadata.getUserMetadata();
             boolean stateMetadataConsistent = object.getState().toString().equals(userMetadata.get(STATE_KEY));
             String storageChecksumMetadataValue = userMetadata.get(object.getChecksum().getType().toString());
@@ -393,14 +482,29 @@ public class CephS3StorageService implements StorageService {
             boolean timestampMetadataConsistent = object.getCreated().getEpochSecond() == Long.parseLong(userMetadata.get(CREATED_KEY));
             info.setMetadataConsistent(stateMetadataConsistent && checksumMetadataConsistent && timestampMetadataConsistent);
         }
-        if (object.getState().contentMustBeStoredAtLogicalStorage()) {
-            checkFileExists(s3, object.getStorageId(), dataSpace);
-            S3Object s3Object = s3.getObject(dataSpace, object.getStorageId());
-            Checksum storageFileChecksum = StorageUtils.computeChecksum(s3Object.getObjectContent(),
-                    object.getChecksum().getType());
-            info.setStorageChecksum(storageFileChecksum);
-            if (info.getDatabaseChecksum().equals(storageFileChecksum))
+        if (object.getState().contentMustBeStoredAtLogicalStorage() && level.includes(VerificationLevel.SHALLOW)) {
+            if (level.includes(VerificationLevel.FULL)) {
+                S3Object s3Object;
+                try {
+                    s3Object = s3.getObject(dataSpace, object.getStorageId());
+                } catch (AmazonS3Exception e) {
+                    if (e.getStatusCode() != 404)
+                        throw e;
+                    throw new FileDoesNotExistException("bucket: " + dataSpace + " storageId: " + object.getStorageId(), storage);
+                }
+                info.setStorageSize(s3Object.getObjectMetadata().getContentLength());
+                Checksum storageFileChecksum = StorageUtils.computeChecksum(verificationThrottle.apply(s3Object.getObjectContent()),
+                        object.getChecksum().getType());
+                info.setStorageChecksum(storageFileChecksum);
+                if (info.getDatabaseChecksum().equals(storageFileChecksum))
+                    info.setContentConsistent(true);
+            } else {
+                ObjectMetadata contentMetadata = getObjectMetadataIfExists(s3, object.getStorageId(), dataSpace);
+                if (contentMetadata == null)
+                    throw new FileDoesNotExistException("bucket: " + dataSpace + " storageId: " + object.getStorageId(), storage);
+                info.setStorageSize(contentMetadata.getContentLength());
                 info.setContentConsistent(true);
+            }
         }
         return info;
     }
@@ -435,38 +539,51 @@ public class CephS3StorageService implements StorageService {
     void storeFile(AmazonS3 s3, String id, InputStream stream, Checksum checksum, AtomicBoolean rollback, String dataSpace, Instant timestamp) throws FileCorruptedAfterStoreException, IOStorageException {
         if (rollback.get())
             return;
-        try (BufferedInputStream bis = new BufferedInputStream(stream)) {
+        List<byte[]> buffers = new ArrayList<>();
+        try (InputStream is = stream) {
             InitiateMultipartUploadRequest initReq = new InitiateMultipartUploadRequest(dataSpace, id, new ObjectMetadata());
             InitiateMultipartUploadResult initRes = s3.initiateMultipartUpload(initReq);
 
             PutObjectRequest metadataPutRequest = storeMetadata(s3, id, checksum, ObjectState.PROCESSING, dataSpace, timestamp);
 
-            byte[] buff = new byte[8 * 1024 * 1024];
-            int read;
-            boolean last;
+            boolean last = false;
             List<PartETag> partETags = new ArrayList<>();
             int partNumber = 0;
             do {
                 if (rollback.get())
                     return;
                 partNumber++;
-                read = bis.read(buff);
-                last = read != buff.length;
-                long partSize = Math.min(read, buff.length);
-                if (last)
-                    buff = Arrays.copyOf(buff, read);
+                //part is assembled from the pooled buffers, they are reused by the following parts
+                MessageDigest partDigest = checksumComputationPrecheck(is, ChecksumType.MD5);
+                List<InputStream> partChunks = new ArrayList<>();
+                long partSize = 0;
+                for (int i = 0; partSize < PART_SIZE; i++) {
+                    if (buffers.size() == i)
+                        buffers.add(IoBufferPool.acquire());
+                    byte[] buffer = buffers.get(i);
+                    int toRead = (int) Math.min(buffer.length, PART_SIZE - partSize);
+                    int read = is.readNBytes(buffer, 0, toRead);
+                    partDigest.update(buffer, 0, read);
+                    partChunks.add(new ByteArrayInputStream(buffer, 0, read));
+                    partSize += read;
+                    if (read < toRead) {
+                        last = true;
+                        break;
+                    }
+                }
+                //stream of a size divisible by the part size has ended with the previous part
+                if (partSize == 0 && partNumber > 1)
+                    break;
                 UploadPartRequest uploadPartRequest = new UploadPartRequest()
                         .withBucketName(dataSpace)
                         .withUploadId(initRes.getUploadId())
                         .withKey(id)
-                        .withInputStream(new ByteArrayInputStream(buff))
+                        .withInputStream(new SequenceInputStream(Collections.enumeration(partChunks)))
                         .withPartNumber(partNumber)
                         .withPartSize(partSize)
                         .withLastPart(last);
                 UploadPartResult uploadPartResult = s3.uploadPart(uploadPartRequest);
-                Checksum partChecksum = computeChecksumRollbackAware(new ByteArrayInputStream(buff), ChecksumType.MD5, rollback);
-                if (partChecksum == null)
-                    return;
+                Checksum partChecksum = new Checksum(ChecksumType.MD5, bytesToHexString(partDigest.digest()));
                 if (!partChecksum.getValue().equalsIgnoreCase(uploadPartResult.getETag()))
                     throw new FileCorruptedAfterStoreException("S3 - part of multipart file", new Checksum(ChecksumType.MD5, uploadPartResult.getETag()), partChecksum, storage);
                 partETags.add(uploadPartResult.getPartETag());
@@ -482,6 +599,8 @@ public class CephS3StorageService implements StorageService {
             if (e instanceof FileCorruptedAfterStoreException)
                 throw (FileCorruptedAfterStoreException) e;
             throw new GeneralException(e);
+        } finally {
+            buffers.forEach(IoBufferPool::release);
         }
     }
 
@@ -529,6 +648,19 @@ public class CephS3StorageService implements StorageService {
         return metadataPutRequest;
     }
 
+    /**
+     * @return metadata of the object obtained by a single HEAD request, null if the object does not exist
+     */
+    private ObjectMetadata getObjectMetadataIfExists(AmazonS3 s3, String id, String dataSpace) {
+        try {
+            return s3.getObjectMetadata(dataSpace, id);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404)
+                return null;
+            throw e;
+        }
+    }
+
     private void checkFileExists(AmazonS3 s3, String id, String dataSpace) throws FileDoesNotExistException {
         boolean exist = s3.doesObjectExist(dataSpace, id);
         if (!exist)
@@ -1,9 +1,11 @@
 package cz.cas.lib.arcstorage.storage.fs;
 
 import cz.cas.lib.arcstorage.dto.*;
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.exception.IOStorageException;
 import cz.cas.lib.arcstorage.storage.exception.StorageException;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.time.Instant;
 import java.util.List;
@@ -51,6 +53,11 @@ public interface FsAdapter extends StorageService {
         return getFsProcessor().getObject(id, dataSpace);
     }
 
+    @Override
+    default RandomAccessObject getObjectRandomAccess(String id, String dataSpace) throws StorageException {
+        return getFsProcessor().getObjectRandomAccess(id, dataSpace);
+    }
+
     @Override
     default void delete(ArchivalObjectDto objectDto, String dataSpace, boolean createMetaFileIfMissing) throws StorageException {
         getFsProcessor().delete(objectDto, dataSpace, createMetaFileIfMissing);
@@ -83,8 +90,18 @@ public interface FsAdapter extends StorageService {
     }
 
     @Override
-    default AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace) throws StorageException {
-        return getFsProcessor().getAipInfo(aip, xmls, dataSpace);
+    default AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace, VerificationLevel level) throws StorageException {
+        return getFsProcessor().getAipInfo(aip, xmls, dataSpace, level);
+    }
+
+    @Override
+    default List<AipConsistencyVerificationResultDto> getAipsInfo(List<Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>>> aips, String dataSpace, VerificationLevel level) throws StorageException {
+        return getFsProcessor().getAipsInfo(aips, dataSpace, level);
+    }
+
+    @Override
+    default ObjectConsistencyVerificationResultDto getObjectInfo(ArchivalObjectDto object, String dataSpace, VerificationLevel level) throws StorageException {
+        return getFsProcessor().getObjectInfo(object, dataSpace, level);
     }
 
     @Override
@@ -18,12 +18,14 @@ import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
+import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
 
 import static cz.cas.lib.arcstorage.storage.StorageUtils.isLocalhost;
@@ -103,4 +105,9 @@ public class FsStorageService implements FsAdapter {
     public List<ArchivalObjectDto> createDtosForAllObjects(String dataSpace) throws StorageException {
         return fsProcessor.createDtosForAllObjects(dataSpace);
     }
+
+    @Override
+    public void setVerificationThrottle(UnaryOperator<InputStream> verificationThrottle) {
+        fsProcessor.setVerificationThrottle(verificationThrottle);
+    }
 }
@@ -6,6 +6,9 @@ import cz.cas.lib.arcstorage.domain.entity.ObjectType;
 import cz.cas.lib.arcstorage.domain.entity.Storage;
 import cz.cas.lib.arcstorage.dto.*;
 import cz.cas.lib.arcstorage.exception.GeneralException;
+import cz.cas.lib.arcstorage.storage.IoBufferPool;
+import cz.cas.lib.arcstorage.storage.LocalFileChecksum;
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.StorageUtils;
 import cz.cas.lib.arcstorage.storage.exception.*;
@@ -14,7 +17,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
@@ -138,6 +144,34 @@ public class LocalFsProcessor implements StorageService {
         }
     }
 
+    @Override
+    public RandomAccessObject getObjectRandomAccess(String id, String dataSpace) throws FileDoesNotExistException, IOStorageException {
+        Path objectPath = getFolderPath(id, dataSpace).resolve(id);
+        if (!Files.isRegularFile(objectPath))
+            throw new FileDoesNotExistException(id, storage);
+        try {
+            FileChannel channel = FileChannel.open(objectPath, StandardOpenOption.READ);
+            return new RandomAccessObject() {
+                @Override
+                public long size() throws IOException {
+                    return channel.size();
+                }
+
+                @Override
+                public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+                    return channel.read(ByteBuffer.wrap(buffer, offset, length), position);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        } catch (IOException e) {
+            throw new IOStorageException(e, storage);
+        }
+    }
+
     @Override
     public void delete(ArchivalObjectDto sipDto, String dataSpace, boolean createMetaFileIfMissing) throws IOStorageException, CantParseMetadataFile, FileDoesNotExistException {
         Path sipFolder = getFolderPath(sipDto.getStorageId(), dataSpace);
@@ -214,18 +248,24 @@ public class LocalFsProcessor implements StorageService {
     }
 
     @Override
-    public AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace) throws StorageException {
+    public AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace, VerificationLevel level) throws StorageException {
         AipConsistencyVerificationResultDto aipStateInfo = new AipConsistencyVerificationResultDto(storage.getName(), storage.getStorageType(), true);
-        aipStateInfo.setAipState(fillObjectStateInfo(new ObjectConsistencyVerificationResultDto(), aip, dataSpace));
+        aipStateInfo.setLevel(level);
+        aipStateInfo.setAipState(fillObjectStateInfo(new ObjectConsistencyVerificationResultDto(), aip, dataSpace, level));
         for (Integer version : xmls.keySet()) {
             XmlConsistencyVerificationResultDto info = new XmlConsistencyVerificationResultDto();
             info.setVersion(version);
-            fillObjectStateInfo(info, xmls.get(version), dataSpace);
+            fillObjectStateInfo(info, xmls.get(version), dataSpace, level);
             aipStateInfo.addXmlInfo(info);
         }
         return aipStateInfo;
     }
 
+    @Override
+    public ObjectConsistencyVerificationResultDto getObjectInfo(ArchivalObjectDto object, String dataSpace, VerificationLevel level) throws StorageException {
+        return fillObjectStateInfo(new ObjectConsistencyVerificationResultDto(), object, dataSpace, level);
+    }
+
     @Override
     public StorageStateDto getStorageState() {
         throw new UnsupportedOperationException();
@@ -363,7 +403,7 @@ public class LocalFsProcessor implements StorageService {
         return xmls;
     }
 
-    private ObjectConsistencyVerificationResultDto fillObjectStateInfo(ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object, String dataSpace) throws FileDoesNotExistException, IOStorageException, CantParseMetadataFile {
+    private ObjectConsistencyVerificationResultDto fillObjectStateInfo(ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object, String dataSpace, VerificationLevel level) throws FileDoesNotExistException, IOStorageException, CantParseMetadataFile {
         Path folder = getFolderPath(object.getStorageId(), dataSpace);
         info.setDatabaseId(object.getDatabaseId());
         info.setCreated(object.getCreated());
@@ -380,12 +420,17 @@ public class LocalFsProcessor implements StorageService {
         boolean timestampMetadataConsistent = object.getCreated().getEpochSecond() == (metadataAtStorage.getCreated().getEpochSecond());
         boolean checksumMetadataConsistent = object.getChecksum().equals(metadataAtStorage.getChecksum());
         info.setMetadataConsistent(stateMetadataConsistent && checksumMetadataConsistent && timestampMetadataConsistent);
-        if (object.getState().contentMustBeStoredAtLogicalStorage()) {
-            try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(folder.resolve(object.getStorageId()).toFile()))) {
-                Checksum storageChecksum = StorageUtils.computeChecksum(bis, object.getChecksum().getType());
-                info.setStorageChecksum(storageChecksum);
-                info.setContentConsistent(object.getChecksum().equals(storageChecksum));
-            } catch (FileNotFoundException e) {
+        if (object.getState().contentMustBeStoredAtLogicalStorage() && level.includes(VerificationLevel.SHALLOW)) {
+            Path content = folder.resolve(object.getStorageId());
+            try {
+                info.setStorageSize(Files.size(content));
+                if (level.includes(VerificationLevel.FULL)) {
+                    Checksum storageChecksum = LocalFileChecksum.compute(content, object.getChecksum().getType(), null);
+                    info.setStorageChecksum(storageChecksum);
+                    info.setContentConsistent(object.getChecksum().equals(storageChecksum));
+                } else
+                    info.setContentConsistent(true);
+            } catch (FileNotFoundException | NoSuchFileException e) {
                 throw new FileDoesNotExistException(folder.resolve(object.getStorageId()).toAbsolutePath().toString(), storage);
             } catch (IOException e) {
                 throw new IOStorageException(e, storage);
@@ -406,20 +451,23 @@ public class LocalFsProcessor implements StorageService {
     void storeFile(Path folder, ArchivalObjectDto dto, AtomicBoolean rollback) throws FileCorruptedAfterStoreException, IOStorageException, CantParseMetadataFile, FileDoesNotExistException {
         if (rollback.get())
             return;
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(folder.resolve(dto.getStorageId()).toFile()))) {
+        byte[] buffer = IoBufferPool.acquire();
+        try (OutputStream os = new FileOutputStream(folder.resolve(dto.getStorageId()).toFile())) {
             writeObjectMetadata(folder, new ObjectMetadata(dto.getStorageId(), ObjectState.PROCESSING, dto.getCreated(), dto.getChecksum()));
-            byte[] buffer = new byte[8192];
-            int read = dto.getInputStream().read(buffer);
+            int read = dto.getInputStream().readNBytes(buffer, 0, buffer.length);
             while (read > 0) {
                 if (rollback.get())
                     return;
-                bos.write(buffer, 0, read);
-                read = dto.getInputStream().read(buffer);
+                os.write(buffer, 0, read);
+                read = dto.getInputStream().readNBytes(buffer, 0, buffer.length);
             }
-            bos.flush();
-            boolean rollbackInterruption = !verifyChecksum(new FileInputStream(folder.resolve(dto.getStorageId()).toFile()), dto.getChecksum(), rollback, storage);
-            if (rollbackInterruption)
+            Checksum storedChecksum = computeChecksumRollbackAware(folder.resolve(dto.getStorageId()), dto.getChecksum().getType(), rollback);
+            if (storedChecksum == null)
                 return;
+            if (!storedChecksum.getValue().equalsIgnoreCase(dto.getChecksum().getValue())) {
+                rollback.set(true);
+                throw new FileCorruptedAfterStoreException(storedChecksum, dto.getChecksum(), storage);
+            }
             setState(folder, dto, ObjectState.ARCHIVED, false);
         } catch (IOException e) {
             rollback.set(true);
@@ -429,9 +477,20 @@ public class LocalFsProcessor implements StorageService {
                 throw e;
             rollback.set(true);
             throw new GeneralException(e);
+        } finally {
+            IoBufferPool.release(buffer);
         }
     }
 
+    /**
+     * Computes checksum of the stored file, see {@link LocalFileChecksum}.
+     *
+     * @return checksum of the file or null, if rollback flag was set to true by another thread
+     */
+    Checksum computeChecksumRollbackAware(Path file, ChecksumType checksumType, AtomicBoolean rollback) throws IOException {
+        return LocalFileChecksum.compute(file, checksumType, rollback);
+    }
+
     void rollbackFile(Path folder, ArchivalObjectDto dto) throws StorageException, IOException {
         setState(folder, dto, ObjectState.ROLLED_BACK, true);
         Files.deleteIfExists(folder.resolve(dto.getStorageId()));
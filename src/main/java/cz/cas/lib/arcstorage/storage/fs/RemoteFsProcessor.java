@@ -3,33 +3,42 @@ package cz.cas.lib.arcstorage.storage.fs;
 import cz.cas.lib.arcstorage.domain.entity.Storage;
 import cz.cas.lib.arcstorage.dto.*;
 import cz.cas.lib.arcstorage.exception.GeneralException;
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.StorageUtils;
 import cz.cas.lib.arcstorage.storage.exception.*;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.common.SSHException;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.RemoteFile;
 import net.schmizz.sshj.sftp.SFTPClient;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
 import net.schmizz.sshj.xfer.FilePermission;
 import net.schmizz.sshj.xfer.InMemoryDestFile;
 import net.schmizz.sshj.xfer.InMemorySourceFile;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
+import static cz.cas.lib.arcstorage.util.Utils.fetchDataFromRemote;
 
 /**
  * implementation used by {@link FsAdapter} to provide {@link ZfsStorageService} and {@link FsStorageService} with methods
@@ -45,6 +54,16 @@ public class RemoteFsProcessor implements StorageService {
     private String sshUserName;
     private String rootDirPath;
     private int connectionTimeout;
+    @Setter
+    private UnaryOperator<InputStream> verificationThrottle = UnaryOperator.identity();
+    /**
+     * max length of a single remote command reading the metadata of multiple objects during the verification of multiple
+     * AIPs, the command is passed to the shell as a single argument, which is limited to 128 KiB at Linux
+     */
+    private static final int STATE_COMMAND_MAX_LENGTH = 32 * 1024;
+    private static final String STATE_OBJECT_MARKER = "#object:";
+    private static final String STATE_NO_METADATA_MARKER = "#no-metadata";
+    private static final String STATE_SIZE_MARKER = "#size";
 
     public RemoteFsProcessor(Storage storage, String rootDirPath, String sshKeyFilePath, String sshUserName, int connectionTimeout) {
         this.storage = storage;
@@ -209,6 +228,52 @@ public class RemoteFsProcessor implements StorageService {
         }
     }
 
+    @Override
+    public RandomAccessObject getObjectRandomAccess(String id, String dataSpace) throws StorageException {
+        String objectFilePath = getFolderPath(id, dataSpace) + separator + id;
+        SSHClient ssh = new SSHClient();
+        try {
+            connect(ssh);
+            SFTPClient sftp = ssh.newSFTPClient();
+            if (sftp.statExistence(objectFilePath) == null)
+                throw new FileDoesNotExistException(objectFilePath, storage);
+            RemoteFile remoteFile = sftp.open(objectFilePath);
+            long size = remoteFile.length();
+            return new RandomAccessObject() {
+                @Override
+                public long size() {
+                    return size;
+                }
+
+                @Override
+                public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+                    return remoteFile.read(position, buffer, offset, length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try (ssh; sftp; remoteFile) {
+                        //closes all the resources
+                    }
+                }
+            };
+        } catch (IOException e) {
+            try {
+                ssh.close();
+            } catch (IOException ioEx) {
+                throw new SshException(ioEx, storage);
+            }
+            throw new SshException(e, storage);
+        } catch (Exception e) {
+            try {
+                ssh.close();
+            } catch (IOException ioEx) {
+                throw new SshException(ioEx, storage);
+            }
+            throw e;
+        }
+    }
+
     @Override
     public void delete(ArchivalObjectDto sipDto, String dataSpace, boolean createMetaFileIfMissing) throws StorageException {
         if (createMetaFileIfMissing) {
@@ -295,18 +360,24 @@ public class RemoteFsProcessor implements StorageService {
     }
 
     @Override
-    public AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace) throws StorageException {
+    public AipConsistencyVerificationResultDto getAipInfo(ArchivalObjectDto aip, Map<Integer, ArchivalObjectDto> xmls, String dataSpace, VerificationLevel level) throws StorageException {
         AipConsistencyVerificationResultDto aipStateInfo = new AipConsistencyVerificationResultDto(storage.getName(), storage.getStorageType(), true);
-        aipStateInfo.setAipState(fillObjectStateInfo(new ObjectConsistencyVerificationResultDto(), aip, dataSpace));
+        aipStateInfo.setLevel(level);
+        aipStateInfo.setAipState(fillObjectStateInfo(new ObjectConsistencyVerificationResultDto(), aip, dataSpace, level));
         for (Integer version : xmls.keySet()) {
             XmlConsistencyVerificationResultDto info = new XmlConsistencyVerificationResultDto();
             info.setVersion(version);
-            fillObjectStateInfo(info, xmls.get(version), dataSpace);
+            fillObjectStateInfo(info, xmls.get(version), dataSpace, level);
             aipStateInfo.addXmlInfo(info);
         }
         return aipStateInfo;
     }
 
+    @Override
+    public ObjectConsistencyVerificationResultDto getObjectInfo(ArchivalObjectDto object, String dataSpace, VerificationLevel level) throws StorageException {
+        return fillObjectStateInfo(new ObjectConsistencyVerificationResultDto(), object, dataSpace, level);
+    }
+
     @Override
     public StorageStateDto getStorageState() {
         throw new UnsupportedOperationException();
@@ -329,40 +400,209 @@ public class RemoteFsProcessor implements StorageService {
         throw new UnsupportedOperationException();
     }
 
-    private ObjectConsistencyVerificationResultDto fillObjectStateInfo(ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object, String dataSpace) throws FileDoesNotExistException, IOStorageException, SshException, CantParseMetadataFile {
-        info.setStorageId(object.getStorageId());
-        info.setState(object.getState());
-        info.setDatabaseChecksum(object.getChecksum());
-        info.setDatabaseId(object.getDatabaseId());
-        info.setCreated(object.getCreated());
-        if (!object.getState().metadataMustBeStoredAtLogicalStorage()) {
+    private ObjectConsistencyVerificationResultDto fillObjectStateInfo(ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object, String dataSpace, VerificationLevel level) throws FileDoesNotExistException, IOStorageException, SshException, CantParseMetadataFile {
+        if (!initObjectStateInfo(info, object))
             return info;
-        }
         String folder = getFolderPath(object.getStorageId(), dataSpace);
 
         try (SSHClient ssh = new SSHClient()) {
             connect(ssh);
             try (SFTPClient sftp = ssh.newSFTPClient()) {
                 ObjectMetadata metadataAtStorage = readObjectMetadata(sftp, folder, object.getStorageId());
-                if (metadataAtStorage == null)
-                    throw new FileDoesNotExistException(metadataFilePath(folder, object.getStorageId()), storage);
-                boolean stateMetadataConsistent = metadataAtStorage.getState() == object.getState();
-                boolean timestampMetadataConsistent = object.getCreated().getEpochSecond() == (metadataAtStorage.getCreated().getEpochSecond());
-                boolean checksumMetadataConsistent = object.getChecksum().equals(metadataAtStorage.getChecksum());
-                info.setMetadataConsistent(stateMetadataConsistent && checksumMetadataConsistent && timestampMetadataConsistent);
-                if (object.getState().contentMustBeStoredAtLogicalStorage()) {
-                    checkFileExists(ssh, sftp, folder + separator + object.getStorageId());
-                    Checksum storageFileChecksum = StorageUtils.computeChecksum(getFile(ssh, sftp, folder + separator + object.getStorageId()), object.getChecksum().getType());
-                    info.setStorageChecksum(storageFileChecksum);
-                    info.setContentConsistent(object.getChecksum().equals(storageFileChecksum));
+                Long sizeAtStorage = null;
+                if (metadataAtStorage != null && object.getState().contentMustBeStoredAtLogicalStorage() && level.includes(VerificationLevel.SHALLOW)) {
+                    FileAttributes attributes = sftp.statExistence(folder + separator + object.getStorageId());
+                    if (attributes != null)
+                        sizeAtStorage = attributes.getSize();
+                }
+                compareObjectState(info, object, folder, level, metadataAtStorage, sizeAtStorage, ssh, sftp);
+            }
+        } catch (IOException e) {
+            throw new SshException(e, storage);
+        }
+        return info;
+    }
+
+    /**
+     * Verifies all AIPs over a single SSH connection. Metadata files and sizes of the content files of multiple objects are
+     * read by a single remote command of up to {@link #STATE_COMMAND_MAX_LENGTH} characters, only the content files which
+     * have to be hashed at {@link VerificationLevel#FULL} are transferred one by one.
+     */
+    @Override
+    public List<AipConsistencyVerificationResultDto> getAipsInfo(List<Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>>> aips, String dataSpace, VerificationLevel level) throws StorageException {
+        //the batch read relies on POSIX shell at the storage
+        if (!separator.equals("/"))
+            return StorageService.super.getAipsInfo(aips, dataSpace, level);
+        List<ArchivalObjectDto> objectsToRead = new ArrayList<>();
+        for (Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>> aip : aips) {
+            if (aip.getLeft().getState().metadataMustBeStoredAtLogicalStorage())
+                objectsToRead.add(aip.getLeft());
+            aip.getRight().values().stream()
+                    .filter(x -> x.getState().metadataMustBeStoredAtLogicalStorage())
+                    .forEach(objectsToRead::add);
+        }
+        List<AipConsistencyVerificationResultDto> results = new ArrayList<>();
+        try (SSHClient ssh = new SSHClient()) {
+            connect(ssh);
+            Map<String, Pair<List<String>, Long>> objectStates = readObjectStates(ssh, objectsToRead, dataSpace, level);
+            try (SFTPClient sftp = ssh.newSFTPClient()) {
+                for (Pair<ArchivalObjectDto, Map<Integer, ArchivalObjectDto>> aip : aips) {
+                    try {
+                        AipConsistencyVerificationResultDto aipStateInfo = new AipConsistencyVerificationResultDto(storage.getName(), storage.getStorageType(), true);
+                        aipStateInfo.setLevel(level);
+                        aipStateInfo.setAipState(fillObjectStateInfo(new ObjectConsistencyVerificationResultDto(), aip.getLeft(), dataSpace, level, objectStates, ssh, sftp));
+                        for (Integer version : aip.getRight().keySet()) {
+                            XmlConsistencyVerificationResultDto info = new XmlConsistencyVerificationResultDto();
+                            info.setVersion(version);
+                            fillObjectStateInfo(info, aip.getRight().get(version), dataSpace, level, objectStates, ssh, sftp);
+                            aipStateInfo.addXmlInfo(info);
+                        }
+                        results.add(aipStateInfo);
+                    } catch (FileDoesNotExistException | CantParseMetadataFile e) {
+                        log.warn("Verification of AIP " + aip.getLeft().getDatabaseId() + " at storage " + storage.getName() + " has failed: " + e.getMessage());
+                        results.add(null);
+                    }
                 }
             }
         } catch (IOException e) {
             throw new SshException(e, storage);
         }
+        return results;
+    }
+
+    private ObjectConsistencyVerificationResultDto fillObjectStateInfo(ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object, String dataSpace, VerificationLevel level,
+                                                                       Map<String, Pair<List<String>, Long>> objectStates, SSHClient ssh, SFTPClient sftp) throws FileDoesNotExistException, CantParseMetadataFile, IOException {
+        if (!initObjectStateInfo(info, object))
+            return info;
+        String folder = getFolderPath(object.getStorageId(), dataSpace);
+        Pair<List<String>, Long> objectState = objectStates.getOrDefault(object.getStorageId(), Pair.of(null, null));
+        ObjectMetadata metadataAtStorage = objectState.getLeft() == null ? null : new ObjectMetadata(objectState.getLeft(), object.getStorageId(), storage);
+        compareObjectState(info, object, folder, level, metadataAtStorage, objectState.getRight(), ssh, sftp);
         return info;
     }
 
+    /**
+     * Reads metadata files and sizes of the content files of the objects by remote commands of up to
+     * {@link #STATE_COMMAND_MAX_LENGTH} characters, so that the command fits the limit of the remote shell no matter how
+     * long are the paths.
+     *
+     * @return lines of the metadata file (null if the file does not exist) and size of the content file (null if the
+     * file does not exist or its size is not needed at the level) mapped by the storage ids of the objects
+     */
+    private Map<String, Pair<List<String>, Long>> readObjectStates(SSHClient ssh, List<ArchivalObjectDto> objects, String dataSpace, VerificationLevel level) throws IOStorageException, SshException, CmdProcessException {
+        Map<String, Pair<List<String>, Long>> objectStates = new HashMap<>();
+        StringBuilder cmd = new StringBuilder();
+        for (ArchivalObjectDto object : objects) {
+            String objectCmd = objectStateCommand(object, dataSpace, level);
+            if (cmd.length() > 0 && cmd.length() + objectCmd.length() > STATE_COMMAND_MAX_LENGTH) {
+                objectStates.putAll(fetchObjectStates(ssh, cmd.toString()));
+                cmd.setLength(0);
+            }
+            cmd.append(objectCmd);
+        }
+        if (cmd.length() > 0)
+            objectStates.putAll(fetchObjectStates(ssh, cmd.toString()));
+        return objectStates;
+    }
+
+    /**
+     * @return part of the remote command printing the metadata file and the size of the content file of the object
+     */
+    private String objectStateCommand(ArchivalObjectDto object, String dataSpace, VerificationLevel level) {
+        StringBuilder cmd = new StringBuilder();
+        String folder = getFolderPath(object.getStorageId(), dataSpace);
+        String metadataFile = quote(metadataFilePath(folder, object.getStorageId()));
+        cmd.append("echo ").append(quote(STATE_OBJECT_MARKER + object.getStorageId())).append("; ");
+        cmd.append("if [ -f ").append(metadataFile).append(" ]; then cat ").append(metadataFile).append("; echo; else echo ").append(quote(STATE_NO_METADATA_MARKER)).append("; fi; ");
+        if (object.getState().contentMustBeStoredAtLogicalStorage() && level.includes(VerificationLevel.SHALLOW)) {
+            cmd.append("echo ").append(quote(STATE_SIZE_MARKER)).append("; ");
+            //wc reads the size of the regular file from its metadata, unlike stat its syntax is the same at GNU and BSD systems
+            String contentFile = quote(folder + separator + object.getStorageId());
+            cmd.append("if [ -f ").append(contentFile).append(" ]; then wc -c < ").append(contentFile).append("; fi; ");
+        }
+        return cmd.toString();
+    }
+
+    /**
+     * Runs the remote command composed of {@link #objectStateCommand(ArchivalObjectDto, String, VerificationLevel)} parts
+     * and parses its output.
+     */
+    private Map<String, Pair<List<String>, Long>> fetchObjectStates(SSHClient ssh, String cmd) throws IOStorageException, SshException, CmdProcessException {
+        Map<String, Pair<List<String>, Long>> objectStates = new HashMap<>();
+        String storageId = null;
+        List<String> metadataLines = null;
+        Long size = null;
+        boolean readingSize = false;
+        for (String line : fetchDataFromRemote(ssh, cmd + "true", storage)) {
+            if (line.startsWith(STATE_OBJECT_MARKER)) {
+                if (storageId != null)
+                    objectStates.put(storageId, Pair.of(metadataLines, size));
+                storageId = line.substring(STATE_OBJECT_MARKER.length());
+                metadataLines = new ArrayList<>();
+                size = null;
+                readingSize = false;
+            } else if (line.equals(STATE_NO_METADATA_MARKER)) {
+                metadataLines = null;
+            } else if (line.equals(STATE_SIZE_MARKER)) {
+                readingSize = true;
+            } else if (!line.isBlank()) {
+                if (readingSize)
+                    size = Long.parseLong(line.trim());
+                else if (metadataLines != null)
+                    metadataLines.add(line);
+            }
+        }
+        if (storageId != null)
+            objectStates.put(storageId, Pair.of(metadataLines, size));
+        return objectStates;
+    }
+
+    /**
+     * Fills the values known from DB.
+     *
+     * @return false if the object is not expected to be at the storage and thus should not be verified
+     */
+    private boolean initObjectStateInfo(ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object) {
+        info.setStorageId(object.getStorageId());
+        info.setState(object.getState());
+        info.setDatabaseChecksum(object.getChecksum());
+        info.setDatabaseId(object.getDatabaseId());
+        info.setCreated(object.getCreated());
+        return object.getState().metadataMustBeStoredAtLogicalStorage();
+    }
+
+    /**
+     * Compares metadata and content of the object at the storage with DB.
+     *
+     * @param metadataAtStorage metadata read from the storage, null if the metadata file does not exist
+     * @param sizeAtStorage     size of the content file, null if the file does not exist
+     */
+    private void compareObjectState(ObjectConsistencyVerificationResultDto info, ArchivalObjectDto object, String folder, VerificationLevel level,
+                                    ObjectMetadata metadataAtStorage, Long sizeAtStorage, SSHClient ssh, SFTPClient sftp) throws FileDoesNotExistException, IOException {
+        if (metadataAtStorage == null)
+            throw new FileDoesNotExistException(metadataFilePath(folder, object.getStorageId()), storage);
+        boolean stateMetadataConsistent = metadataAtStorage.getState() == object.getState();
+        boolean timestampMetadataConsistent = object.getCreated().getEpochSecond() == (metadataAtStorage.getCreated().getEpochSecond());
+        boolean checksumMetadataConsistent = object.getChecksum().equals(metadataAtStorage.getChecksum());
+        info.setMetadataConsistent(stateMetadataConsistent && checksumMetadataConsistent && timestampMetadataConsistent);
+        if (object.getState().contentMustBeStoredAtLogicalStorage() && level.includes(VerificationLevel.SHALLOW)) {
+            String pathToFile = folder + separator + object.getStorageId();
+            if (sizeAtStorage == null)
+                throw new FileDoesNotExistException(pathToFile, storage);
+            info.setStorageSize(sizeAtStorage);
+            if (level.includes(VerificationLevel.FULL)) {
+                Checksum storageFileChecksum = StorageUtils.computeChecksum(verificationThrottle.apply(getFile(ssh, sftp, pathToFile)), object.getChecksum().getType());
+                info.setStorageChecksum(storageFileChecksum);
+                info.setContentConsistent(object.getChecksum().equals(storageFileChecksum));
+            } else
+                info.setContentConsistent(true);
+        }
+    }
+
+    private static String quote(String shellArgument) {
+        return "'" + shellArgument.replace("'", "'\\''") + "'";
+    }
+
     /**
      * pipes data from remote location to the consumer which consumes the returned inputstream
      * <p>
@@ -16,10 +16,12 @@ import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
+import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
 
 import static cz.cas.lib.arcstorage.storage.StorageUtils.isLocalhost;
@@ -153,4 +155,9 @@ public class ZfsStorageService implements FsAdapter {
         private String USED;
         private String AVAILABLE;
     }
+
+    @Override
+    public void setVerificationThrottle(UnaryOperator<InputStream> verificationThrottle) {
+        fsProcessor.setVerificationThrottle(verificationThrottle);
+    }
 }
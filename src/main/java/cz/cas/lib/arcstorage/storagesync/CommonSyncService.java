@@ -3,8 +3,10 @@ package cz.cas.lib.arcstorage.storagesync;
 import cz.cas.lib.arcstorage.domain.views.ArchivalObjectLightweightView;
 import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
 import cz.cas.lib.arcstorage.dto.ObjectRetrievalResource;
+import cz.cas.lib.arcstorage.dto.TrafficClass;
 import cz.cas.lib.arcstorage.exception.ForbiddenByConfigException;
 import cz.cas.lib.arcstorage.service.ArchivalService;
+import cz.cas.lib.arcstorage.service.BandwidthLimiter;
 import cz.cas.lib.arcstorage.service.exception.state.FailedStateException;
 import cz.cas.lib.arcstorage.service.exception.state.RollbackStateException;
 import cz.cas.lib.arcstorage.service.exception.state.StillProcessingStateException;
@@ -18,7 +20,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
@@ -33,8 +34,9 @@ public class CommonSyncService {
     private ArchivalService archivalService;
     private Path tmpFolder;
     private boolean forgetFeatureAllowed;
+    private BandwidthLimiter bandwidthLimiter;
 
-    public void copyObject(ArchivalObjectDto object, StorageService targetStorage) throws StorageException, NoLogicalStorageAttachedException, ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, RollbackStateException, StillProcessingStateException, FailedStateException {
+    public void copyObject(ArchivalObjectDto object, StorageService targetStorage, TrafficClass trafficClass) throws StorageException, NoLogicalStorageAttachedException, ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, RollbackStateException, StillProcessingStateException, FailedStateException {
         switch (object.getState()) {
             case DELETED:
             case DELETION_FAILURE:
@@ -49,7 +51,7 @@ public class CommonSyncService {
                 log.trace("copying " + object);
                 String objectRetrievalResourceId = null;
                 try (ObjectRetrievalResource objectRetrievalResource = archivalService.getObject(object);
-                     InputStream is = new BufferedInputStream(objectRetrievalResource.getInputStream())) {
+                     InputStream is = bandwidthLimiter.throttle(targetStorage.getStorage().getId(), trafficClass, objectRetrievalResource.getInputStream())) {
                     objectRetrievalResourceId = objectRetrievalResource.getId();
                     object.setInputStream(is);
                     targetStorage.storeObject(object, new AtomicBoolean(false), object.getOwner().getDataSpace());
@@ -75,8 +77,9 @@ public class CommonSyncService {
      * @param targetStorage           storage to which operations are propagated
      * @param createMetaFileIfMissing if false and metadata file is missing at the storage then the underlying storage
      *                                operation should rather fail then create a new one
+     * @param trafficClass            class of the traffic to the target storage
      */
-    public void propagateModification(ObjectAudit objectAudit, ArchivalObjectLightweightView objectInDb, StorageService targetStorage, boolean createMetaFileIfMissing) throws StorageException, NoLogicalStorageAttachedException, ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, RollbackStateException, StillProcessingStateException, FailedStateException, ForbiddenByConfigException {
+    public void propagateModification(ObjectAudit objectAudit, ArchivalObjectLightweightView objectInDb, StorageService targetStorage, boolean createMetaFileIfMissing, TrafficClass trafficClass) throws StorageException, NoLogicalStorageAttachedException, ObjectCouldNotBeRetrievedException, NoLogicalStorageReachableException, RollbackStateException, StillProcessingStateException, FailedStateException, ForbiddenByConfigException {
         log.trace("propagating " + objectAudit);
         switch (objectAudit.getOperation()) {
             case REMOVAL:
@@ -94,7 +97,7 @@ public class CommonSyncService {
             case ARCHIVED:
             case ARCHIVAL_RETRY:
                 if (!objectInDb.getState().isProcessing()) {
-                    copyObject(objectInDb.toDto(), targetStorage);
+                    copyObject(objectInDb.toDto(), targetStorage, trafficClass);
                 }
                 break;
             case FORGET:
@@ -123,4 +126,9 @@ public class CommonSyncService {
     public void setForgetFeatureAllowed(@Value("${arcstorage.optionalFeatures.forgetObject}") boolean forgetFeatureAllowed) {
         this.forgetFeatureAllowed = forgetFeatureAllowed;
     }
+
+    @Autowired
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
 }
@@ -5,6 +5,7 @@ import cz.cas.lib.arcstorage.domain.store.ArchivalObjectLightweightViewStore;
 import cz.cas.lib.arcstorage.domain.views.ArchivalObjectLightweightView;
 import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
 import cz.cas.lib.arcstorage.dto.StorageType;
+import cz.cas.lib.arcstorage.dto.TrafficClass;
 import cz.cas.lib.arcstorage.exception.ForbiddenByConfigException;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.fs.LocalFsProcessor;
@@ -31,6 +32,11 @@ import java.util.stream.Collectors;
 @Slf4j
 public class BackupExportService {
 
+    /**
+     * id of the backup location, e.g. for its bandwidth limits
+     */
+    public static final String BACKUP_STORAGE_ID = "backup";
+
     public static final String EXPORT_FINISHED_FILE_NAME = "BACKUP_EXPORT_FINISHED";
 
     private ArchivalObjectLightweightViewStore archivalObjectLightweightViewStore;
@@ -47,6 +53,7 @@ public class BackupExportService {
         }
         log.info("Backup export has started: export of new/modified objects in time range: [" + since + ", " + to + "] to backup directory at path: " + backupDir);
         Storage backupStorage = new Storage();
+        backupStorage.setId(BACKUP_STORAGE_ID);
         backupStorage.setName("backup storage");
         backupStorage.setStorageType(StorageType.FS);
         backupStorage.setHost("localhost");
@@ -80,7 +87,7 @@ public class BackupExportService {
                     continue;
                 }
                 try {
-                    commonSyncService.propagateModification(objectAudit, objectsInDb.get(objectAudit.getIdInDatabase()), backupStorageService, incrementalBackup);
+                    commonSyncService.propagateModification(objectAudit, objectsInDb.get(objectAudit.getIdInDatabase()), backupStorageService, incrementalBackup, TrafficClass.BACKUP);
                 } catch (Exception e) {
                     throw new BackupProcessException("sync of " + backupStorageService.getStorage() + " failed during propagating operation " + objectAudit, e);
                 }
@@ -104,7 +111,7 @@ public class BackupExportService {
 
     private void copyObject(ArchivalObjectDto object, StorageService destinationStorage) throws BackupProcessException {
         try {
-            commonSyncService.copyObject(object, destinationStorage);
+            commonSyncService.copyObject(object, destinationStorage, TrafficClass.BACKUP);
         } catch (Exception e) {
             throw new BackupProcessException("sync of " + destinationStorage.getStorage() + " failed during copying " + object, e);
         }
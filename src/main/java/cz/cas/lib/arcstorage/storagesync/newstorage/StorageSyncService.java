@@ -6,6 +6,7 @@ import cz.cas.lib.arcstorage.domain.store.ArchivalObjectLightweightViewStore;
 import cz.cas.lib.arcstorage.domain.store.StorageStore;
 import cz.cas.lib.arcstorage.domain.views.ArchivalObjectLightweightView;
 import cz.cas.lib.arcstorage.dto.ArchivalObjectDto;
+import cz.cas.lib.arcstorage.dto.TrafficClass;
 import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
 import cz.cas.lib.arcstorage.service.ArchivalDbService;
 import cz.cas.lib.arcstorage.service.SystemStateService;
@@ -95,7 +96,7 @@ public class StorageSyncService {
         if (!operationsToBeSynced.isEmpty()) {
             for (ObjectAudit objectAudit : operationsToBeSynced) {
                 try {
-                    commonSyncService.propagateModification(objectAudit, objectsInDb.get(objectAudit.getIdInDatabase()), destinationStorage, false);
+                    commonSyncService.propagateModification(objectAudit, objectsInDb.get(objectAudit.getIdInDatabase()), destinationStorage, false, TrafficClass.SYNC);
                     status.clearExeptionInfo();
                     status.setDoneInThisPhase(status.getDoneInThisPhase() + 1);
                     syncStatusStore.save(status);
@@ -194,7 +195,7 @@ public class StorageSyncService {
 
     private boolean copyObjectAndUpdateStatus(ArchivalObjectDto object, StorageSyncStatus status, StorageService destinationStorage) {
         try {
-            commonSyncService.copyObject(object, destinationStorage);
+            commonSyncService.copyObject(object, destinationStorage, TrafficClass.SYNC);
             status.clearExeptionInfo();
             status.setDoneInThisPhase(status.getDoneInThisPhase() + 1);
             syncStatusStore.save(status);
@@ -23,6 +23,7 @@ import java.io.*;
 import java.nio.file.Files;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -341,6 +342,55 @@ public class Utils {
         return baos.toByteArray();
     }
 
+    /**
+     * Runs the tasks at the executor so that at most <code>parallelism</code> of them run at the same time and waits
+     * until all of them are finished.
+     * <p>
+     * If some task fails, the tasks which have not been started yet are skipped and the first failure is thrown once
+     * the running tasks are finished.
+     * </p>
+     *
+     * @param executor    executor running the tasks
+     * @param tasks       tasks to run
+     * @param parallelism maximal number of tasks running at the same time
+     * @return results of the tasks in the order of the tasks
+     */
+    public static <T> List<T> invokeAllBounded(ExecutorService executor, List<? extends Callable<T>> tasks, int parallelism)
+            throws ExecutionException, InterruptedException {
+        ExecutorCompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<T>, Integer> taskIndexes = new HashMap<>();
+        List<T> results = new ArrayList<>(Collections.nCopies(tasks.size(), null));
+        int submitted = 0;
+        int finished = 0;
+        ExecutionException failure = null;
+        try {
+            while (submitted < tasks.size() && submitted < Math.max(1, parallelism)) {
+                taskIndexes.put(completionService.submit(tasks.get(submitted)), submitted);
+                submitted++;
+            }
+            while (finished < submitted) {
+                Future<T> done = completionService.take();
+                finished++;
+                try {
+                    results.set(taskIndexes.get(done), done.get());
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e;
+                }
+                if (failure == null && submitted < tasks.size()) {
+                    taskIndexes.put(completionService.submit(tasks.get(submitted)), submitted);
+                    submitted++;
+                }
+            }
+        } catch (InterruptedException e) {
+            taskIndexes.keySet().forEach(f -> f.cancel(true));
+            throw e;
+        }
+        if (failure != null)
+            throw failure;
+        return results;
+    }
+
     public static List<Storage> servicesToEntities(List<StorageService> storageServices) {
         if (storageServices == null)
             return null;
@@ -48,6 +48,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.zip.ZipEntry;
@@ -221,20 +222,26 @@ public class AipApiTest implements ApiTest {
         AipConsistencyVerificationResultDto aipStateInfoFsDto = new AipConsistencyVerificationResultDto(fsStorageService.getStorage().getName(),
                 StorageType.FS, true);
         aipStateInfoFsDto.setAipState(aipState);
-        when(fsStorageService.getAipInfo(any(), any(), any()))
+        when(fsStorageService.getAipInfo(any(), any(), any(), any()))
                 .thenReturn(aipStateInfoFsDto);
+        when(fsStorageService.getAipsInfo(any(), any(), any()))
+                .thenAnswer(i -> Collections.nCopies(((List<?>) i.getArgument(0)).size(), aipStateInfoFsDto));
 
         AipConsistencyVerificationResultDto aipStateInfoZfsDto = new AipConsistencyVerificationResultDto(zfsStorageService.getStorage().getName(),
                 StorageType.ZFS, true);
         aipStateInfoZfsDto.setAipState(aipState);
-        when(zfsStorageService.getAipInfo(any(), any(), any()))
+        when(zfsStorageService.getAipInfo(any(), any(), any(), any()))
                 .thenReturn(aipStateInfoZfsDto);
+        when(zfsStorageService.getAipsInfo(any(), any(), any()))
+                .thenAnswer(i -> Collections.nCopies(((List<?>) i.getArgument(0)).size(), aipStateInfoZfsDto));
 
         AipConsistencyVerificationResultDto aipStateInfoCephDto = new AipConsistencyVerificationResultDto(cephS3StorageService.getStorage().getName(),
                 StorageType.CEPH, true);
         aipStateInfoCephDto.setAipState(aipState);
-        when(cephS3StorageService.getAipInfo(any(), any(), any()))
+        when(cephS3StorageService.getAipInfo(any(), any(), any(), any()))
                 .thenReturn(aipStateInfoCephDto);
+        when(cephS3StorageService.getAipsInfo(any(), any(), any()))
+                .thenAnswer(i -> Collections.nCopies(((List<?>) i.getArgument(0)).size(), aipStateInfoCephDto));
 
         List<StorageService> serviceList = asList(fsStorageService, zfsStorageService, cephS3StorageService);
         when(storageProvider.createAdaptersForRead()).thenReturn(serviceList);
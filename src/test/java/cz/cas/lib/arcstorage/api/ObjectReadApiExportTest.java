@@ -0,0 +1,293 @@
+package cz.cas.lib.arcstorage.api;
+
+import cz.cas.lib.arcstorage.dto.AipFileRetrievalResource;
+import cz.cas.lib.arcstorage.dto.AipRetrievalResource;
+import cz.cas.lib.arcstorage.service.AipService;
+import helper.ApiTest;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class ObjectReadApiExportTest implements ApiTest {
+    private static final String AIP_ID = "8f719ff7-8756-4101-9e87-42391ced37f1";
+    private static final String BASE = "/api/storage";
+    private static final byte[] SIP_CONTENT = "sip content, already compressed".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REDUCED_SIP_CONTENT = "reduced sip content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] XML1_CONTENT = "<xml>1</xml>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] XML2_CONTENT = "<xml>2</xml>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FILE_CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+    private static final String FILE_PATH = "dir/file.txt";
+
+    private ObjectReadApi api;
+    private AipService aipService;
+    private Path tmpFolder;
+
+    @Before
+    public void before() throws Exception {
+        tmpFolder = Files.createTempDirectory("export");
+        aipService = mock(AipService.class);
+        api = new ObjectReadApi();
+        api.setAipService(aipService);
+        api.setTmpFolder(tmpFolder.toString());
+
+        //AIP data and XMLs are retrieved to the tmp folder the same way as AipService does
+        when(aipService.getAip(eq(AIP_ID), anyBoolean())).thenAnswer(i -> {
+            AipRetrievalResource resource = new AipRetrievalResource(null);
+            Files.write(tmpFolder.resolve(resource.getId()), SIP_CONTENT);
+            Files.write(tmpFolder.resolve(toXmlId(resource.getId(), 1)), XML1_CONTENT);
+            Files.write(tmpFolder.resolve(toXmlId(resource.getId(), 2)), XML2_CONTENT);
+            resource.setSip(new FileInputStream(tmpFolder.resolve(resource.getId()).toFile()));
+            resource.setSipCrc(crc(SIP_CONTENT));
+            resource.addXml(1, new FileInputStream(tmpFolder.resolve(toXmlId(resource.getId(), 1)).toFile()));
+            resource.addXml(2, new FileInputStream(tmpFolder.resolve(toXmlId(resource.getId(), 2)).toFile()));
+            return resource;
+        });
+    }
+
+    @After
+    public void after() throws Exception {
+        FileUtils.deleteDirectory(tmpFolder.toFile());
+    }
+
+    @Test
+    public void storedZipRoundTrip() throws Exception {
+        MockHttpServletResponse response = mvc(api)
+                .perform(MockMvcRequestBuilders.get(BASE + "/{aipId}", AIP_ID).param("all", "true"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/zip"))
+                .andExpect(header().string("Content-Disposition", containsString("aip_" + AIP_ID + ".zip")))
+                .andReturn().getResponse();
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                byte[] content = IOUtils.toByteArray(zis);
+                assertThat(entry.getMethod(), is(ZipEntry.STORED));
+                assertThat(entry.getSize(), is((long) content.length));
+                assertThat(entry.getCrc(), is(crc(content)));
+                entries.put(entry.getName(), content);
+            }
+        }
+        assertThat(entries.keySet(), contains(AIP_ID + ".zip", toXmlId(AIP_ID, 1) + ".xml", toXmlId(AIP_ID, 2) + ".xml"));
+        assertArrayEquals(SIP_CONTENT, entries.get(AIP_ID + ".zip"));
+        assertArrayEquals(XML1_CONTENT, entries.get(toXmlId(AIP_ID, 1) + ".xml"));
+        assertArrayEquals(XML2_CONTENT, entries.get(toXmlId(AIP_ID, 2) + ".xml"));
+        assertThat(tmpFolder.toFile().list(), emptyArray());
+    }
+
+    @Test
+    public void tarRoundTrip() throws Exception {
+        MockHttpServletResponse response = mvc(api)
+                .perform(MockMvcRequestBuilders.get(BASE + "/{aipId}", AIP_ID).param("all", "true").param("format", "TAR"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/x-tar"))
+                .andExpect(header().string("Content-Disposition", containsString("aip_" + AIP_ID + ".tar")))
+                .andReturn().getResponse();
+
+        Map<String, byte[]> entries = readTar(response.getContentAsByteArray());
+        assertThat(entries.keySet(), contains(AIP_ID + ".zip", toXmlId(AIP_ID, 1) + ".xml", toXmlId(AIP_ID, 2) + ".xml"));
+        assertArrayEquals(SIP_CONTENT, entries.get(AIP_ID + ".zip"));
+        assertArrayEquals(XML1_CONTENT, entries.get(toXmlId(AIP_ID, 1) + ".xml"));
+        assertArrayEquals(XML2_CONTENT, entries.get(toXmlId(AIP_ID, 2) + ".xml"));
+        assertThat(tmpFolder.toFile().list(), emptyArray());
+    }
+
+    @Test
+    public void reducedStoredZipRoundTrip() throws Exception {
+        doAnswer(i -> {
+            ((OutputStream) i.getArgument(2)).write(REDUCED_SIP_CONTENT);
+            return null;
+        }).when(aipService).exportAipReducedByFileList(eq(AIP_ID), any(Path.class), any(), any());
+
+        MockHttpServletResponse response = mvc(api)
+                .perform(MockMvcRequestBuilders.post(BASE + "/{aipId}/aip-with-files-specified", AIP_ID)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"some/file.xml\"]"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            ZipEntry entry = zis.getNextEntry();
+            assertThat(entry.getName(), is(AIP_ID + ".zip"));
+            assertThat(entry.getMethod(), is(ZipEntry.STORED));
+            //CRC computed while staging the reduced data must match the content
+            assertThat(entry.getCrc(), is(crc(REDUCED_SIP_CONTENT)));
+            assertArrayEquals(REDUCED_SIP_CONTENT, IOUtils.toByteArray(zis));
+        }
+        assertThat(tmpFolder.toFile().list(), emptyArray());
+    }
+
+    @Test
+    public void reducedTarRoundTrip() throws Exception {
+        doAnswer(i -> {
+            ((OutputStream) i.getArgument(2)).write(REDUCED_SIP_CONTENT);
+            return null;
+        }).when(aipService).exportAipReducedByFileList(eq(AIP_ID), any(Path.class), any(), any());
+
+        MockHttpServletResponse response = mvc(api)
+                .perform(MockMvcRequestBuilders.post(BASE + "/{aipId}/aip-with-files-specified", AIP_ID)
+                        .param("format", "TAR")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"some/file.xml\"]"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/x-tar"))
+                .andReturn().getResponse();
+
+        Map<String, byte[]> entries = readTar(response.getContentAsByteArray());
+        assertThat(entries.keySet(), contains(AIP_ID + ".zip", toXmlId(AIP_ID, 1) + ".xml", toXmlId(AIP_ID, 2) + ".xml"));
+        assertArrayEquals(REDUCED_SIP_CONTENT, entries.get(AIP_ID + ".zip"));
+    }
+
+    @Test
+    public void fileNameIsQuotedAndEncoded() throws Exception {
+        String path = "dir/evil\"; name\r\nX-Injected: 1 č.xml";
+        when(aipService.getAipFile(AIP_ID, path)).thenReturn(new AipFileRetrievalResource(new ByteArrayInputStream(XML1_CONTENT), XML1_CONTENT.length, null));
+
+        MockHttpServletResponse response = mvc(api)
+                .perform(MockMvcRequestBuilders.get(BASE + "/{aipId}/file", AIP_ID).param("path", path))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+
+        String contentDisposition = response.getHeader(HttpHeaders.CONTENT_DISPOSITION);
+        assertThat(contentDisposition, startsWith("attachment; "));
+        assertThat(contentDisposition, containsString("filename*=UTF-8''evil_%3B%20name__X-Injected%3A%201%20%C4%8D.xml"));
+        assertThat(contentDisposition, not(containsString("\r")));
+        assertThat(contentDisposition, not(containsString("\n")));
+        assertThat(contentDisposition, not(containsString("dir")));
+        assertThat(ContentDisposition.parse(contentDisposition).getFilename(), is("evil_; name__X-Injected: 1 č.xml"));
+        assertArrayEquals(XML1_CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void fileRange() throws Exception {
+        MockHttpServletResponse response = getFile("bytes=2-5")
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/" + FILE_CONTENT.length))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "4"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andReturn().getResponse();
+        assertArrayEquals(Arrays.copyOfRange(FILE_CONTENT, 2, 6), response.getContentAsByteArray());
+
+        //end of the range beyond the end of the file is limited to the size of the file
+        response = getFile("bytes=30-1000")
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 30-35/" + FILE_CONTENT.length))
+                .andReturn().getResponse();
+        assertArrayEquals(Arrays.copyOfRange(FILE_CONTENT, 30, 36), response.getContentAsByteArray());
+
+        response = getFile("bytes=10-")
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-35/" + FILE_CONTENT.length))
+                .andReturn().getResponse();
+        assertArrayEquals(Arrays.copyOfRange(FILE_CONTENT, 10, 36), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void fileSuffixRange() throws Exception {
+        MockHttpServletResponse response = getFile("bytes=-5")
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 31-35/" + FILE_CONTENT.length))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "5"))
+                .andReturn().getResponse();
+        assertArrayEquals(Arrays.copyOfRange(FILE_CONTENT, 31, 36), response.getContentAsByteArray());
+
+        //suffix longer than the file selects the whole file
+        response = getFile("bytes=-1000")
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-35/" + FILE_CONTENT.length))
+                .andReturn().getResponse();
+        assertArrayEquals(FILE_CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void fileRangeNotSatisfiable() throws Exception {
+        MockHttpServletResponse response = getFile("bytes=" + FILE_CONTENT.length + "-")
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + FILE_CONTENT.length))
+                .andReturn().getResponse();
+        assertThat(response.getContentAsByteArray().length, is(0));
+
+        when(aipService.getAipFile(AIP_ID, FILE_PATH)).thenReturn(new AipFileRetrievalResource(new ByteArrayInputStream(new byte[0]), 0, null));
+        mvc(api).perform(MockMvcRequestBuilders.get(BASE + "/{aipId}/file", AIP_ID)
+                        .param("path", FILE_PATH)
+                        .header(HttpHeaders.RANGE, "bytes=-5"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */0"));
+    }
+
+    @Test
+    public void fileMultipleOrMalformedRangesReturnWholeFile() throws Exception {
+        for (String range : List.of("bytes=0-1,5-6", "bytes=abc", "items=0-5", "bytes=5-2")) {
+            MockHttpServletResponse response = getFile(range)
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                    .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, String.valueOf(FILE_CONTENT.length)))
+                    .andReturn().getResponse();
+            assertArrayEquals(range, FILE_CONTENT, response.getContentAsByteArray());
+        }
+    }
+
+    private ResultActions getFile(String range) throws Exception {
+        when(aipService.getAipFile(AIP_ID, FILE_PATH)).thenReturn(new AipFileRetrievalResource(new ByteArrayInputStream(FILE_CONTENT), FILE_CONTENT.length, null));
+        return mvc(api).perform(MockMvcRequestBuilders.get(BASE + "/{aipId}/file", AIP_ID)
+                .param("path", FILE_PATH)
+                .header(HttpHeaders.RANGE, range));
+    }
+
+    private static Map<String, byte[]> readTar(byte[] tar) throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (TarArchiveInputStream tis = new TarArchiveInputStream(new ByteArrayInputStream(tar))) {
+            TarArchiveEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                byte[] content = IOUtils.toByteArray(tis);
+                assertThat(entry.getSize(), is((long) content.length));
+                entries.put(entry.getName(), content);
+            }
+        }
+        return entries;
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
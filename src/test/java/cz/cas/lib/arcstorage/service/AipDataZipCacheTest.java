@@ -0,0 +1,77 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.service.AipDataZipCache.ZipHandle;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AipDataZipCacheTest {
+    private static final Path SIP_SOURCE_PATH = Paths.get("src/test/resources", "KPW01169310.ZIP");
+    private static final String FILE_PATH = "KPW01169310/ALTO/ALTO_KPW01169310_0001.XML";
+
+    private AipDataZipCache cache;
+
+    @Before
+    public void before() {
+        cache = new AipDataZipCache();
+        cache.setMaxWeight(64 * 1024 * 1024);
+    }
+
+    @Test
+    public void repeatedAcquireSharesZip() throws Exception {
+        try (ZipHandle first = cache.acquire("sip", SIP_SOURCE_PATH);
+             ZipHandle second = cache.acquire("sip", SIP_SOURCE_PATH)) {
+            assertThat(second.getZipFile(), sameInstance(first.getZipFile()));
+        }
+        try (ZipHandle third = cache.acquire("sip", SIP_SOURCE_PATH)) {
+            assertThat(third.getZipFile().getEntry(FILE_PATH), notNullValue());
+        }
+    }
+
+    @Test
+    public void invalidatedZipUsableUntilReleased() throws Exception {
+        ZipHandle handle = cache.acquire("sip", SIP_SOURCE_PATH);
+        cache.invalidate("sip");
+        try (InputStream is = handle.getZipFile().getInputStream(handle.getZipFile().getEntry(FILE_PATH))) {
+            assertThat(IOUtils.toByteArray(is).length, greaterThan(0));
+        }
+        handle.close();
+        try (ZipHandle newHandle = cache.acquire("sip", SIP_SOURCE_PATH)) {
+            assertThat(newHandle.getZipFile(), not(sameInstance(handle.getZipFile())));
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws Exception {
+        long zipWeight;
+        try (ZipFile zipFile = ZipFile.builder().setPath(SIP_SOURCE_PATH).get()) {
+            zipWeight = AipDataZipCache.estimateWeight(zipFile);
+        }
+        cache.setMaxWeight(zipWeight * 3 / 2);
+        ZipFile first;
+        try (ZipHandle handle = cache.acquire("first", SIP_SOURCE_PATH)) {
+            first = handle.getZipFile();
+        }
+        cache.acquire("second", SIP_SOURCE_PATH).close();
+        try (ZipHandle handle = cache.acquire("first", SIP_SOURCE_PATH)) {
+            assertThat(handle.getZipFile(), not(sameInstance(first)));
+        }
+    }
+
+    @Test
+    public void zipOverBoundNotCached() throws Exception {
+        cache.setMaxWeight(1);
+        try (ZipHandle first = cache.acquire("sip", SIP_SOURCE_PATH);
+             ZipHandle second = cache.acquire("sip", SIP_SOURCE_PATH)) {
+            assertThat(second.getZipFile(), not(sameInstance(first.getZipFile())));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.dto.DataReduction;
+import cz.cas.lib.arcstorage.dto.DataReductionMode;
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
+import cz.cas.lib.arcstorage.storage.RandomAccessObjectChannel;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static cz.cas.lib.arcstorage.util.Utils.asList;
+import static cz.cas.lib.arcstorage.util.Utils.asSet;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AipServiceExportTest {
+    private static final AipService service = new AipService();
+    private static final Path SIP_SOURCE_PATH = Paths.get("src/test/resources", "KPW01169310.ZIP");
+    private static final String SIP_ID = "8f719ff7-8756-4101-9e87-42391ced37f1";
+
+    @Test
+    public void includeMultipleRegexes() throws Exception {
+        DataReduction dataReduction = new DataReduction();
+        dataReduction.setMode(DataReductionMode.INCLUDE);
+        dataReduction.setRegexes(asList(".*ALTO_KPW01169310_0001\\.XML", ".*AMD_METS_KPW01169310_000[12]\\.xml"));
+        List<String> exported = export(dataReduction);
+        assertThat(exported, containsInAnyOrder(
+                "KPW01169310/ALTO/ALTO_KPW01169310_0001.XML",
+                "KPW01169310/amdSec/AMD_METS_KPW01169310_0001.xml",
+                "KPW01169310/amdSec/AMD_METS_KPW01169310_0002.xml"));
+    }
+
+    @Test
+    public void excludeMultipleRegexes() throws Exception {
+        DataReduction dataReduction = new DataReduction();
+        dataReduction.setMode(DataReductionMode.EXCLUDE);
+        dataReduction.setRegexes(asList(".*/ALTO/.*", ".*/amdSec/.*"));
+        List<String> exported = export(dataReduction);
+        assertThat(exported, not(empty()));
+        for (String name : exported) {
+            assertThat(name, not(containsString("/ALTO/")));
+            assertThat(name, not(containsString("/amdSec/")));
+            assertThat(name, not(endsWith("/")));
+        }
+    }
+
+    @Test
+    public void noReductionExportsAllEntries() throws Exception {
+        List<String> exported = export(null);
+        assertThat(exported, hasItems("KPW01169310/", "KPW01169310/ALTO/ALTO_KPW01169310_0001.XML"));
+    }
+
+    @Test
+    public void fileListReadByRanges() throws Exception {
+        byte[] sip = Files.readAllBytes(SIP_SOURCE_PATH);
+        AtomicInteger reads = new AtomicInteger();
+        RandomAccessObject object = new RandomAccessObject() {
+            @Override
+            public long size() {
+                return sip.length;
+            }
+
+            @Override
+            public int read(long position, byte[] buffer, int offset, int length) {
+                reads.incrementAndGet();
+                int count = (int) Math.min(length, sip.length - position);
+                System.arraycopy(sip, (int) position, buffer, offset, count);
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipFile zip = ZipFile.builder()
+                .setSeekableByteChannel(new RandomAccessObjectChannel(object, 4096))
+                .setIgnoreLocalFileHeader(true)
+                .get()) {
+            service.exportAipReducedByFileList(SIP_ID, zip, bos, asSet("KPW01169310/ALTO/ALTO_KPW01169310_0001.XML"));
+        }
+        assertThat(names(bos), contains("KPW01169310/ALTO/ALTO_KPW01169310_0001.XML"));
+        assertThat(reads.get() * 4096L, lessThan((long) sip.length));
+    }
+
+    @Test
+    public void parallelDeflateKeepsOrderAndContent() throws Exception {
+        AipService parallelService = new AipService();
+        parallelService.setExecutorService(Executors.newFixedThreadPool(4));
+        parallelService.setExportDeflateParallelism(4);
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        service.exportAipReducedByRegexes(SIP_ID, SIP_SOURCE_PATH, sequential, null);
+        parallelService.exportAipReducedByRegexes(SIP_ID, SIP_SOURCE_PATH, parallel, null);
+        assertThat(names(parallel), contains(names(sequential).toArray()));
+        try (ZipInputStream seqZis = new ZipInputStream(new ByteArrayInputStream(sequential.toByteArray()));
+             ZipInputStream parZis = new ZipInputStream(new ByteArrayInputStream(parallel.toByteArray()))) {
+            while (seqZis.getNextEntry() != null) {
+                parZis.getNextEntry();
+                assertThat(IOUtils.toByteArray(parZis), equalTo(IOUtils.toByteArray(seqZis)));
+            }
+        }
+    }
+
+    @Test
+    public void regexesWithGroupsMatchedSeparately() throws Exception {
+        DataReduction dataReduction = new DataReduction();
+        dataReduction.setMode(DataReductionMode.INCLUDE);
+        //backreference of the second regex would point to the group of the first one in a single alternation
+        dataReduction.setRegexes(asList(".*ALTO_(KPW\\d+)_0001\\.XML", "(KPW\\d+)/amdSec/AMD_METS_\\1_0002\\.xml",
+                ".*/(?<name>AMD_METS)_KPW01169310_0001\\.xml", ".*/ALTO/(?<name>ALTO)_KPW01169310_0002\\.XML",
+                ".*ALTO_KPW01169310_0003\\.XML"));
+        List<String> exported = export(dataReduction);
+        assertThat(exported, containsInAnyOrder(
+                "KPW01169310/ALTO/ALTO_KPW01169310_0001.XML",
+                "KPW01169310/ALTO/ALTO_KPW01169310_0002.XML",
+                "KPW01169310/ALTO/ALTO_KPW01169310_0003.XML",
+                "KPW01169310/amdSec/AMD_METS_KPW01169310_0001.xml",
+                "KPW01169310/amdSec/AMD_METS_KPW01169310_0002.xml"));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void malformedRegexNotBalancedByOthers() {
+        AipService.compileCombinedRegex(asList("a)", "(b"));
+    }
+
+    private List<String> export(DataReduction dataReduction) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        service.exportAipReducedByRegexes(SIP_ID, SIP_SOURCE_PATH, bos, dataReduction);
+        return names(bos);
+    }
+
+    private List<String> names(ByteArrayOutputStream bos) throws Exception {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
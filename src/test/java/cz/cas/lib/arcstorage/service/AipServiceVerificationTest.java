@@ -0,0 +1,195 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.AipSip;
+import cz.cas.lib.arcstorage.domain.entity.AipXml;
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.domain.entity.SystemState;
+import cz.cas.lib.arcstorage.domain.entity.User;
+import cz.cas.lib.arcstorage.domain.store.*;
+import cz.cas.lib.arcstorage.dto.*;
+import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
+import cz.cas.lib.arcstorage.security.Role;
+import cz.cas.lib.arcstorage.security.user.UserDelegate;
+import cz.cas.lib.arcstorage.security.user.UserStore;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import cz.cas.lib.arcstorage.storage.exception.IOStorageException;
+import helper.DbTest;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
+import static cz.cas.lib.arcstorage.util.Utils.asList;
+import static helper.ThrowableAssertion.assertThrown;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.*;
+
+public class AipServiceVerificationTest extends DbTest {
+    private static final AipService aipService = new AipService();
+    private static final ArchivalDbService archivalDbService = new ArchivalDbService();
+    private static final FixityHistoryService fixityHistoryService = new FixityHistoryService();
+    private static final ObjectFixityStore objectFixityStore = new ObjectFixityStore();
+    private static final ArchivalObjectStore objectStore = new ArchivalObjectStore();
+    private static final AipSipStore aipSipStore = new AipSipStore();
+    private static final AipXmlStore aipXmlStore = new AipXmlStore();
+    private static final StorageStore storageStore = new StorageStore();
+    private static final SystemStateStore systemStateStore = new SystemStateStore();
+    private static final UserStore userStore = new UserStore();
+    //entity manager of the test is not thread safe, so the batches and the recovery run on the calling thread
+    private static final ExecutorService executorService = new InlineExecutorService();
+
+    private static final String USER_ID = "dd23923a-923b-43b1-8a8e-3eebc7598432";
+    private static final String DATA_SPACE = "dataSpace";
+    private static final String SIP_ID = "SIPtestID";
+    private static final String SIP2_ID = "testSipId";
+    private static final Checksum SIP_CHECKSUM = new Checksum(ChecksumType.MD5, "101b295a91f771d96e1987ff501b034c");
+    private static final String XML1_ID = toXmlId(SIP_ID, 1);
+    private static final Checksum XML1_CHECKSUM = new Checksum(ChecksumType.MD5, "5e95c70e5ca025d836f3bbe04fab0968");
+
+    @Mock
+    private ArcstorageMailCenter mailCenter;
+
+    @Mock
+    private StorageProvider storageProvider;
+
+    @Mock
+    private ObjectRepairService objectRepairService;
+
+    private User user;
+    private AipSip sip;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        initializeStores(objectFixityStore, objectStore, aipSipStore, aipXmlStore, storageStore, systemStateStore, userStore);
+
+        SystemStateService systemStateService = new SystemStateService();
+        systemStateService.setSystemStateStore(systemStateStore);
+        systemStateStore.save(new SystemState(2, false));
+        archivalDbService.setTransactionTemplate(new JpaTransactionManager(getFactory()), 5);
+        archivalDbService.setAipSipStore(aipSipStore);
+        archivalDbService.setAipXmlStore(aipXmlStore);
+        archivalDbService.setArchivalObjectStore(objectStore);
+        archivalDbService.setSystemStateService(systemStateService);
+        archivalDbService.setUserDetails(new UserDelegate(new User(USER_ID)));
+        archivalDbService.setUserStore(userStore);
+
+        fixityHistoryService.setObjectFixityStore(objectFixityStore);
+        fixityHistoryService.setArchivalObjectStore(objectStore);
+        fixityHistoryService.setStorageStore(storageStore);
+        fixityHistoryService.setTransactionTemplate(new TransactionTemplate(new JpaTransactionManager(getFactory())));
+
+        aipService.setArchivalDbService(archivalDbService);
+        aipService.setStorageProvider(storageProvider);
+        aipService.setArcstorageMailCenter(mailCenter);
+        aipService.setExecutorService(executorService);
+        aipService.setObjectRepairService(objectRepairService);
+        aipService.setFixityHistoryService(fixityHistoryService);
+        aipService.setVerificationBatchSize(20);
+        aipService.setVerificationStorageParallelism(2);
+        aipService.setVerificationMaxConcurrent(1);
+
+        user = userStore.save(new User(USER_ID, "username", "password", DATA_SPACE, Role.ROLE_READ_WRITE, null));
+        sip = aipSipStore.save(new AipSip(SIP_ID, SIP_CHECKSUM, user, ObjectState.ARCHIVED));
+        aipXmlStore.save(new AipXml(XML1_ID, XML1_CHECKSUM, user, sip, 1, ObjectState.ARCHIVED));
+    }
+
+    @Test
+    public void verifyAipsAtAllStorages() throws Exception {
+        StorageService storageService = verifyingAdapter("test ceph storage");
+        StorageService storageService2 = verifyingAdapter("test second storage");
+        when(storageProvider.createAdaptersForRead()).thenReturn(asList(storageService, storageService2));
+        AipSip aip2 = aipSipStore.save(new AipSip(SIP2_ID, SIP_CHECKSUM, user, ObjectState.ARCHIVED));
+
+        List<AipConsistencyVerificationResultDto> results = aipService.verifyAipsAtStorage(asList(sip, aip2), null, VerificationLevel.FULL);
+        assertThat(results.stream().map(r -> r.getStorageName() + "/" + r.getAipState().getDatabaseId()).collect(Collectors.toList()),
+                contains("test ceph storage/" + SIP_ID, "test ceph storage/" + SIP2_ID,
+                        "test second storage/" + SIP_ID, "test second storage/" + SIP2_ID));
+        verify(mailCenter, never()).sendAipsVerificationError(any());
+    }
+
+    /**
+     * Failure of the whole storage is not reported as a failure of every single AIP of the batch.
+     */
+    @Test
+    public void unreachableStorageStopsBatch() throws Exception {
+        StorageService storageService = verifyingAdapter("test ceph storage");
+        doThrow(new IOStorageException("connection refused", storageService.getStorage())).when(storageService).getAipInfo(any(), any(), any(), any());
+        when(storageProvider.createAdaptersForRead()).thenReturn(asList(storageService));
+        AipSip aip2 = aipSipStore.save(new AipSip(SIP2_ID, SIP_CHECKSUM, user, ObjectState.ARCHIVED));
+
+        assertThrown(() -> storageService.getAipsInfo(asList(Pair.of(sip.toDto(), Map.of()), Pair.of(aip2.toDto(), Map.of())), DATA_SPACE, VerificationLevel.FULL))
+                .isInstanceOf(IOStorageException.class);
+        verify(storageService, times(1)).getAipInfo(any(), any(), any(), any());
+
+        List<AipConsistencyVerificationResultDto> results = aipService.verifyAipsAtStorage(asList(sip, aip2), null, VerificationLevel.FULL);
+        assertThat(results, hasSize(2));
+        verify(storageService, times(2)).getAipInfo(any(), any(), any(), any());
+    }
+
+    /**
+     * @return adapter of a new storage, which finds every AIP consistent
+     */
+    private StorageService verifyingAdapter(String storageName) throws Exception {
+        Storage storage = new Storage();
+        storage.setName(storageName);
+        storage.setStorageType(StorageType.CEPH);
+        storage.setReachable(true);
+        storageStore.save(storage);
+        StorageService service = mock(StorageService.class);
+        when(service.getStorage()).thenReturn(storage);
+        when(service.getAipsInfo(any(), any(), any())).thenCallRealMethod();
+        when(service.getAipInfo(any(), any(), any(), any())).thenAnswer(i -> {
+            ArchivalObjectDto aipDto = i.getArgument(0);
+            AipConsistencyVerificationResultDto dto = new AipConsistencyVerificationResultDto(storageName, null, true);
+            dto.setAipState(new ObjectConsistencyVerificationResultDto(aipDto.getDatabaseId(), aipDto.getStorageId(), ObjectState.ARCHIVED, true, true, null, null, Instant.now()));
+            return dto;
+        });
+        return service;
+    }
+
+    private static class InlineExecutorService extends AbstractExecutorService {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
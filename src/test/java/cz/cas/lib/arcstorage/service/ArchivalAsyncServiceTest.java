@@ -38,6 +38,7 @@ public class ArchivalAsyncServiceTest {
         MockitoAnnotations.initMocks(this);
         service.setArchivalDbService(archivalDbService);
         service.setMailCenter(mailCenter);
+        service.setForegroundLoadMonitor(new ForegroundLoadMonitor());
         service.setExecutor(Executors.newFixedThreadPool(1));
         s = new Storage();
         s.setName("name");
@@ -3,6 +3,7 @@ package cz.cas.lib.arcstorage.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.cas.lib.arcstorage.domain.entity.*;
 import cz.cas.lib.arcstorage.domain.store.AipSipStore;
+import cz.cas.lib.arcstorage.domain.store.AipManifestEntryStore;
 import cz.cas.lib.arcstorage.domain.store.AipXmlStore;
 import cz.cas.lib.arcstorage.domain.store.ArchivalObjectStore;
 import cz.cas.lib.arcstorage.domain.store.SystemStateStore;
@@ -47,6 +48,7 @@ public class ArchivalDbServiceTest extends DbTest {
     public TestName name = new TestName();
 
     private static final AipXmlStore xmlStore = new AipXmlStore();
+    private static final AipManifestEntryStore aipManifestEntryStore = new AipManifestEntryStore();
     private static final AipSipStore sipStore = new AipSipStore();
     private static final ArchivalObjectStore archivalObjectStore = new ArchivalObjectStore();
     private static final ArchivalDbService service = new ArchivalDbService();
@@ -75,7 +77,7 @@ public class ArchivalDbServiceTest extends DbTest {
         UserStore userStore = new UserStore();
 
 
-        initializeStores(xmlStore, sipStore, archivalObjectStore, SYSTEM_STATE_STORE, objectAuditStore, userStore);
+        initializeStores(aipManifestEntryStore, xmlStore, sipStore, archivalObjectStore, SYSTEM_STATE_STORE, objectAuditStore, userStore);
         auditLogger.setMapper(objectMapper);
         sipStore.setAuditLogger(auditLogger);
         xmlStore.setAuditLogger(auditLogger);
@@ -86,6 +88,8 @@ public class ArchivalDbServiceTest extends DbTest {
 
         service.setAipSipStore(sipStore);
         service.setAipXmlStore(xmlStore);
+        service.setAipManifestEntryStore(aipManifestEntryStore);
+        service.setAipDataZipCache(new AipDataZipCache());
         service.setArchivalObjectStore(archivalObjectStore);
         service.setObjectAuditStore(objectAuditStore);
         service.setSystemStateService(new SystemStateService());
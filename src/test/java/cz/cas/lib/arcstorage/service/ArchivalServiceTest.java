@@ -11,6 +11,7 @@ import cz.cas.lib.arcstorage.security.user.UserStore;
 import cz.cas.lib.arcstorage.service.exception.state.DeletedStateException;
 import cz.cas.lib.arcstorage.service.exception.state.RollbackStateException;
 import cz.cas.lib.arcstorage.service.exception.state.StillProcessingStateException;
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
 import cz.cas.lib.arcstorage.storage.StorageService;
 import cz.cas.lib.arcstorage.storage.exception.IOStorageException;
 import cz.cas.lib.arcstorage.storage.fs.FsAdapter;
@@ -30,6 +31,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -37,13 +39,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
 import static cz.cas.lib.arcstorage.util.Utils.asList;
+import static cz.cas.lib.arcstorage.util.Utils.asSet;
 import static helper.ThrowableAssertion.assertThrown;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
@@ -56,6 +62,7 @@ public class ArchivalServiceTest extends DbTest {
     private static final ArchivalService archivalService = new ArchivalService();
     private static final AipSipStore aipSipStore = new AipSipStore();
     private static final AipXmlStore aipXmlStore = new AipXmlStore();
+    private static final AipManifestEntryStore aipManifestEntryStore = new AipManifestEntryStore();
     private static final StorageStore storageStore = new StorageStore();
     private static final ArchivalDbService archivalDbService = new ArchivalDbService();
     private static final SystemStateStore SYSTEM_STATE_STORE = new SystemStateStore();
@@ -63,6 +70,12 @@ public class ArchivalServiceTest extends DbTest {
     private static final ArchivalObjectStore objectStore = new ArchivalObjectStore();
     private static final SystemAdministrationService systemAdministrationService = new SystemAdministrationService();
     private static final ExecutorService executorService = Executors.newFixedThreadPool(2);
+    private static final StoragePerformanceTracker storagePerformanceTracker = new StoragePerformanceTracker();
+    private static final AipDataZipCache aipDataZipCache = new AipDataZipCache();
+    private static final ObjectRepairStore objectRepairStore = new ObjectRepairStore();
+    private static final ObjectFixityStore objectFixityStore = new ObjectFixityStore();
+    private static final FixityHistoryService fixityHistoryService = new FixityHistoryService();
+    private static final ObjectRepairService objectRepairService = new ObjectRepairService();
 
     private static final String USER_ID = "dd23923a-923b-43b1-8a8e-3eebc7598432";
     private static final String DATA_SPACE = "dataSpace";
@@ -118,6 +131,9 @@ public class ArchivalServiceTest extends DbTest {
     @Mock
     private StorageSyncStatusStore storageSyncStatusStore;
 
+    @Mock
+    private ExecutorService repairExecutorService;
+
     private Storage storage;
     private User user;
 
@@ -144,7 +160,7 @@ public class ArchivalServiceTest extends DbTest {
         XML1 = new AipXml(XML1_ID, XML1_CHECKSUM, new User(USER_ID), null, 1, ObjectState.ARCHIVED);
         XML2 = new AipXml(XML2_ID, XML2_CHECKSUM, new User(USER_ID), null, 2, ObjectState.ARCHIVED);
 
-        initializeStores(aipSipStore, aipXmlStore, storageStore, SYSTEM_STATE_STORE, userStore, objectStore);
+        initializeStores(aipManifestEntryStore, aipSipStore, aipXmlStore, storageStore, SYSTEM_STATE_STORE, userStore, objectStore, objectRepairStore, objectFixityStore);
 
         SystemStateService systemStateService = new SystemStateService();
         systemStateService.setSystemStateStore(SYSTEM_STATE_STORE);
@@ -153,6 +169,8 @@ public class ArchivalServiceTest extends DbTest {
         SYSTEM_STATE_STORE.save(new SystemState(2, false));
         archivalDbService.setAipSipStore(aipSipStore);
         archivalDbService.setAipXmlStore(aipXmlStore);
+        archivalDbService.setAipManifestEntryStore(aipManifestEntryStore);
+        archivalDbService.setAipDataZipCache(aipDataZipCache);
         archivalDbService.setSystemStateService(systemStateService);
         archivalDbService.setObjectAuditStore(objectAuditStore);
         archivalDbService.setArchivalObjectStore(objectStore);
@@ -169,12 +187,50 @@ public class ArchivalServiceTest extends DbTest {
         aipService.setArcstorageMailCenter(mailCenter);
         aipService.setExecutorService(executorService);
         aipService.setArchivalService(archivalService);
+        storagePerformanceTracker.setForegroundLoadMonitor(new ForegroundLoadMonitor());
+        aipService.setStoragePerformanceTracker(storagePerformanceTracker);
+        aipService.setAipDataZipCache(aipDataZipCache);
+        aipService.setObjectRepairService(objectRepairService);
+        aipService.setFixityHistoryService(fixityHistoryService);
+        aipService.setAipRetrievalParallelism(3);
+        aipService.setVerificationBatchSize(20);
+        aipService.setVerificationStorageParallelism(2);
+        aipService.setVerificationMaxConcurrent(4);
 
         archivalService.setArchivalDbService(archivalDbService);
         archivalService.setStorageProvider(storageProvider);
         archivalService.setTmpFolder(tmpFolder.toString());
         archivalService.setArcstorageMailCenter(mailCenter);
         archivalService.setAsync(async);
+        archivalService.setExecutorService(executorService);
+        archivalService.setStoragePerformanceTracker(storagePerformanceTracker);
+        archivalService.setObjectRepairService(objectRepairService);
+
+        objectRepairService.setObjectRepairStore(objectRepairStore);
+        objectRepairService.setArchivalObjectStore(objectStore);
+        objectRepairService.setStorageProvider(storageProvider);
+        objectRepairService.setArcstorageMailCenter(mailCenter);
+        objectRepairService.setTransactionTemplate(new TransactionTemplate(new JpaTransactionManager(getFactory())));
+        objectRepairService.setRepairExecutorService(repairExecutorService);
+        objectRepairService.setTmpFolder(tmpFolder.toString());
+        objectRepairService.setMaxAttempts(3);
+        objectRepairService.setRetryDelay(60);
+
+        fixityHistoryService.setObjectFixityStore(objectFixityStore);
+        fixityHistoryService.setArchivalObjectStore(objectStore);
+        fixityHistoryService.setStorageStore(storageStore);
+        fixityHistoryService.setTransactionTemplate(new TransactionTemplate(new JpaTransactionManager(getFactory())));
+
+        PrefetchCache prefetchCache = new PrefetchCache();
+        prefetchCache.setCacheFolder(tmpFolder.toString());
+        prefetchCache.setMaxSize(100_000_000);
+        prefetchCache.setTtl(1);
+        aipService.setPrefetchCache(prefetchCache);
+        archivalService.setPrefetchCache(prefetchCache);
+        SmallObjectBufferPool smallObjectBufferPool = new SmallObjectBufferPool();
+        smallObjectBufferPool.setMaxObjectSize(1024 * 1024);
+        smallObjectBufferPool.setBudget(8 * 1024 * 1024);
+        archivalService.setSmallObjectBufferPool(smallObjectBufferPool);
 
         systemAdministrationService.setStorageSyncStatusStore(storageSyncStatusStore);
         systemAdministrationService.setStorageProvider(storageProvider);
@@ -198,6 +254,7 @@ public class ArchivalServiceTest extends DbTest {
         storage.setReachable(true);
         storageStore.save(storage);
         when(storageService.getStorage()).thenReturn(storage);
+        when(storageService.getAipsInfo(any(), any(), any())).thenCallRealMethod();
 
         AipRetrievalResource aip1 = new AipRetrievalResource(null);
         aip1.setSip(sipStream());
@@ -257,6 +314,166 @@ public class ArchivalServiceTest extends DbTest {
         }
     }
 
+    /**
+     * SIP and XML streams block until both of them are being read, so the retrieval passes only if they are copied
+     * concurrently.
+     */
+    @Test
+    public void getAipCopiesObjectsConcurrently() throws Exception {
+        CountDownLatch bothRead = new CountDownLatch(2);
+        AipRetrievalResource aip = new AipRetrievalResource(null);
+        aip.setSip(new LatchedInputStream(sipStream(), bothRead));
+        aip.addXml(1, new LatchedInputStream(xml1Stream(), bothRead));
+        aip.addXml(2, xml2Stream());
+        when(storageService.getAip(SIP_ID, DATA_SPACE, 1, 2)).thenReturn(aip);
+
+        AipRetrievalResource retrieved = aipService.getAip(SIP_ID, true);
+
+        assertThat(bothRead.getCount(), is(0L));
+        try (InputStream ios = retrieved.getSip(); InputStream sipStream = sipStream()) {
+            assertTrue(IOUtils.contentEquals(ios, sipStream));
+        }
+        try (InputStream inputStream1 = retrieved.getXmls().get(1); InputStream xml1Stream = xml1Stream()) {
+            assertTrue(IOUtils.contentEquals(inputStream1, xml1Stream));
+        }
+        try (InputStream inputStream2 = retrieved.getXmls().get(2); InputStream xml2Stream = xml2Stream()) {
+            assertTrue(IOUtils.contentEquals(inputStream2, xml2Stream));
+        }
+    }
+
+    @Test
+    public void getAipFile() throws Exception {
+        Storage zfsStorage = new Storage();
+        zfsStorage.setPriority(1);
+        zfsStorage.setName("test ZFS");
+        zfsStorage.setStorageType(StorageType.ZFS);
+        zfsStorage.setConfig(STORAGE_CONFIG);
+        zfsStorage.setReachable(true);
+        zfsStorage.setHost("localhost");
+        storageStore.save(zfsStorage);
+
+        FsAdapter fsAdapter = mock(FsAdapter.class);
+        when(fsAdapter.getStorage()).thenReturn(zfsStorage);
+        when(storageProvider.createAdaptersForRead()).thenReturn(List.of(fsAdapter));
+        LocalFsProcessor localFsProcessorMock = mock(LocalFsProcessor.class);
+        when(localFsProcessorMock.getStorage()).thenReturn(zfsStorage);
+        when(localFsProcessorMock.getAipDataFilePath(anyString(), any())).thenReturn(SIP_SOURCE_PATH);
+        when(fsAdapter.getFsProcessor()).thenReturn(localFsProcessorMock);
+
+        String filePath = "KPW01169310/ALTO/ALTO_KPW01169310_0001.XML";
+        byte[] expected;
+        try (ZipFile zip = new ZipFile(SIP_SOURCE_PATH.toFile())) {
+            expected = IOUtils.toByteArray(zip.getInputStream(zip.getEntry(filePath)));
+        }
+        try (AipFileRetrievalResource file = aipService.getAipFile(SIP.getId(), filePath)) {
+            assertEquals(expected.length, file.getSize());
+            assertArrayEquals(expected, IOUtils.toByteArray(file.getInputStream()));
+        }
+        assertThrown(() -> aipService.getAipFile(SIP.getId(), "KPW01169310/ALTO/missing.XML")).isInstanceOf(MissingObject.class);
+    }
+
+    @Test
+    public void getAipFileFallsBackToOtherStorage() throws Exception {
+        Storage storage2 = new Storage();
+        storage2.setPriority(1);
+        storage2.setName("test ceph storage 2");
+        storage2.setStorageType(StorageType.CEPH);
+        storage2.setConfig(STORAGE_CONFIG);
+        storage2.setReachable(true);
+        storageStore.save(storage2);
+        StorageService storageService2 = mock(StorageService.class);
+        when(storageService2.getStorage()).thenReturn(storage2);
+        when(storageProvider.createAdaptersForRead()).thenReturn(asList(storageService, storageService2));
+
+        //client exception of the first storage does not stop the read
+        when(storageService.getObjectRandomAccess(SIP_ID, DATA_SPACE)).thenThrow(new IllegalStateException("client failure"));
+        byte[] sip = Files.readAllBytes(SIP_SOURCE_PATH);
+        when(storageService2.getObjectRandomAccess(SIP_ID, DATA_SPACE)).thenReturn(new ByteArrayReplica(sip));
+
+        String filePath = "KPW01169310/ALTO/ALTO_KPW01169310_0001.XML";
+        byte[] expected;
+        try (ZipFile zip = new ZipFile(SIP_SOURCE_PATH.toFile())) {
+            expected = IOUtils.toByteArray(zip.getInputStream(zip.getEntry(filePath)));
+        }
+        try (AipFileRetrievalResource file = aipService.getAipFile(SIP.getId(), filePath)) {
+            assertArrayEquals(expected, IOUtils.toByteArray(file.getInputStream()));
+        }
+    }
+
+    /**
+     * Striped SIP is not requested from the storage, only the XMLs are, and failing replica is skipped.
+     */
+    @Test
+    public void getAipStriped() throws Exception {
+        List<StorageService> services = new ArrayList<>(List.of(storageService));
+        for (int i = 2; i <= 3; i++) {
+            Storage replicaStorage = new Storage();
+            replicaStorage.setPriority(1);
+            replicaStorage.setName("test ceph storage " + i);
+            replicaStorage.setStorageType(StorageType.CEPH);
+            replicaStorage.setReachable(true);
+            storageStore.save(replicaStorage);
+            StorageService replicaService = mock(StorageService.class);
+            when(replicaService.getStorage()).thenReturn(replicaStorage);
+            services.add(replicaService);
+        }
+        when(storageProvider.createAdaptersForRead()).thenReturn(services);
+        when(storageService.getObjectRandomAccess(SIP_ID, DATA_SPACE)).thenAnswer(i -> new ByteArrayReplica(SIP_ID.getBytes()));
+        when(services.get(1).getObjectRandomAccess(SIP_ID, DATA_SPACE)).thenThrow(new IllegalStateException("client failure"));
+        when(services.get(2).getObjectRandomAccess(SIP_ID, DATA_SPACE)).thenAnswer(i -> new ByteArrayReplica(SIP_ID.getBytes()));
+        archivalService.setStripingEnabled(true);
+        archivalService.setStripingMinSize(0);
+        archivalService.setStripingStripeSize(2);
+        archivalService.setStripingMaxStorages(3);
+        try (AipRetrievalResource aip = aipService.getAip(SIP_ID, true);
+             InputStream sipStream = sipStream(); InputStream xml1Stream = xml1Stream(); InputStream xml2Stream = xml2Stream()) {
+            assertTrue(IOUtils.contentEquals(aip.getSip(), sipStream));
+            assertTrue(IOUtils.contentEquals(aip.getXmls().get(1), xml1Stream));
+            assertTrue(IOUtils.contentEquals(aip.getXmls().get(2), xml2Stream));
+        } finally {
+            archivalService.setStripingEnabled(false);
+        }
+        verify(storageService, never()).getAip(any(), any(), any());
+        verify(storageService).getObject(XML1_ID, DATA_SPACE);
+        verify(storageService).getObject(XML2_ID, DATA_SPACE);
+    }
+
+    @Test
+    public void getAipManifest() throws Exception {
+        Storage zfsStorage = new Storage();
+        zfsStorage.setPriority(1);
+        zfsStorage.setName("test ZFS");
+        zfsStorage.setStorageType(StorageType.ZFS);
+        zfsStorage.setConfig(STORAGE_CONFIG);
+        zfsStorage.setReachable(true);
+        zfsStorage.setHost("localhost");
+        storageStore.save(zfsStorage);
+
+        FsAdapter fsAdapter = mock(FsAdapter.class);
+        when(fsAdapter.getStorage()).thenReturn(zfsStorage);
+        when(storageProvider.createAdaptersForRead()).thenReturn(List.of(fsAdapter));
+        LocalFsProcessor localFsProcessorMock = mock(LocalFsProcessor.class);
+        when(localFsProcessorMock.getStorage()).thenReturn(zfsStorage);
+        when(localFsProcessorMock.getAipDataFilePath(anyString(), any())).thenReturn(SIP_SOURCE_PATH);
+        when(fsAdapter.getFsProcessor()).thenReturn(localFsProcessorMock);
+
+        String filePath = "KPW01169310/ALTO/ALTO_KPW01169310_0001.XML";
+        List<AipManifestEntry> manifest = aipService.getAipManifest(SIP.getId());
+        AipManifestEntry entry = manifest.stream().filter(e -> e.getPath().equals(filePath)).findFirst().orElseThrow();
+        try (ZipFile zip = new ZipFile(SIP_SOURCE_PATH.toFile())) {
+            assertEquals(zip.size(), manifest.size());
+            assertEquals(zip.getEntry(filePath).getSize(), entry.getSize());
+            assertEquals(zip.getEntry(filePath).getCrc(), entry.getCrc());
+        }
+        assertEquals(manifest.size(), aipService.getAipManifest(SIP.getId()).size());
+        verify(storageProvider, times(1)).createAdaptersForRead();
+
+        //missing path is detected from the manifest, storage is not accessed
+        assertThrown(() -> aipService.streamAipReducedByFileList(SIP.getId(), new ByteArrayOutputStream(), asSet(filePath, "KPW01169310/missing.XML")))
+                .isInstanceOf(MissingObject.class);
+        verify(storageProvider, times(1)).createAdaptersForRead();
+    }
+
     @Test
     public void getAipWithListedFiles() throws Exception {
         Storage zfsStorage = new Storage();
@@ -283,7 +500,7 @@ public class ArchivalServiceTest extends DbTest {
         wantedFiles.add("KPW01169310/userCopy/UC_KPW01169310_0002.JP2");
 
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(0);
-        aipService.streamAipReducedByFileListFromLocalStorage(SIP.getId(), byteArrayOutputStream, wantedFiles);
+        aipService.streamAipReducedByFileList(SIP.getId(), byteArrayOutputStream, wantedFiles);
 
         Set<String> paths = new LinkedHashSet<>();
         HashMap<String, LinkedList<String>> files = new HashMap<>();
@@ -363,12 +580,12 @@ public class ArchivalServiceTest extends DbTest {
 
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(0);
         DataReduction inclReduction = new DataReduction(regexesForInclMode, DataReductionMode.INCLUDE);
-        aipService.streamAipReducedByRegexesFromLocalStorage(SIP.getId(), byteArrayOutputStream, inclReduction);
+        aipService.streamAipReducedByRegexes(SIP.getId(), byteArrayOutputStream, inclReduction);
         assertGetAipWithFilesReducedByRegexOutput(byteArrayOutputStream);
 
         byteArrayOutputStream = new ByteArrayOutputStream(0);
         DataReduction exclReduction = new DataReduction(regexesForExclMode, DataReductionMode.EXCLUDE);
-        aipService.streamAipReducedByRegexesFromLocalStorage(SIP.getId(), byteArrayOutputStream, exclReduction);
+        aipService.streamAipReducedByRegexes(SIP.getId(), byteArrayOutputStream, exclReduction);
         assertGetAipWithFilesReducedByRegexOutput(byteArrayOutputStream);
     }
 
@@ -444,9 +661,10 @@ public class ArchivalServiceTest extends DbTest {
         Pair<Integer, ObjectRetrievalResource> xml = aipService.getXml(SIP_ID, null);
         assertThat(xml.getLeft(), is(2));
         try (InputStream inputStream = xml.getRight().getInputStream(); InputStream xml2Stream = xml2Stream()) {
-            assertThat(inputStream, notNullValue());
+            assertThat(inputStream, instanceOf(SmallObjectBufferPool.BufferInputStream.class));
             assertTrue(IOUtils.contentEquals(inputStream, xml2Stream));
         }
+        assertFalse(tmpFolder.resolve(xml.getRight().getId()).toFile().exists());
     }
 
     @Test
@@ -482,6 +700,103 @@ public class ArchivalServiceTest extends DbTest {
         assertThrown(() -> aipService.getXml(SIP_ID, 2)).isInstanceOf(StillProcessingStateException.class);
     }
 
+    @Test
+    public void getXmlHedgedRead() throws Exception {
+        Storage slowStorage = new Storage();
+        slowStorage.setPriority(1);
+        slowStorage.setName("slow storage");
+        Storage fastStorage = new Storage();
+        fastStorage.setPriority(1);
+        fastStorage.setName("fast storage");
+        StorageService slowStorageService = mock(StorageService.class);
+        StorageService fastStorageService = mock(StorageService.class);
+        when(slowStorageService.getStorage()).thenReturn(slowStorage);
+        when(fastStorageService.getStorage()).thenReturn(fastStorage);
+
+        CountDownLatch slowStreamClosed = new CountDownLatch(1);
+        InputStream slowStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    slowStreamClosed.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("stream closed");
+            }
+
+            @Override
+            public void close() {
+                slowStreamClosed.countDown();
+            }
+        };
+        when(slowStorageService.getObject(XML1_ID, DATA_SPACE)).thenReturn(new ObjectRetrievalResource(slowStream, null));
+        when(fastStorageService.getObject(XML1_ID, DATA_SPACE)).thenReturn(new ObjectRetrievalResource(xml1Stream(), null));
+        when(storageProvider.createAdaptersForRead()).thenReturn(asList(slowStorageService, fastStorageService));
+
+        archivalService.setHedgingEnabled(true);
+        archivalService.setHedgingDelay(50);
+        try {
+            Pair<Integer, ObjectRetrievalResource> xml = aipService.getXml(SIP_ID, 1);
+            try (InputStream inputStream = xml.getRight().getInputStream(); InputStream xml1Stream = xml1Stream()) {
+                assertTrue(IOUtils.contentEquals(inputStream, xml1Stream));
+            }
+            assertTrue(slowStreamClosed.await(5, TimeUnit.SECONDS));
+            verify(mailCenter, never()).sendObjectRetrievalError(any(), any(), any(), any(), any());
+        } finally {
+            archivalService.setHedgingEnabled(false);
+        }
+    }
+
+    @Test
+    public void getXmlHedgedReadClosesCancelledConnection() throws Exception {
+        Storage slowStorage = new Storage();
+        slowStorage.setPriority(1);
+        slowStorage.setName("slow storage");
+        Storage fastStorage = new Storage();
+        fastStorage.setPriority(1);
+        fastStorage.setName("fast storage");
+        StorageService slowStorageService = mock(StorageService.class);
+        StorageService fastStorageService = mock(StorageService.class);
+        when(slowStorageService.getStorage()).thenReturn(slowStorage);
+        when(fastStorageService.getStorage()).thenReturn(fastStorage);
+
+        CountDownLatch slowStreamClosed = new CountDownLatch(1);
+        CountDownLatch slowConnectionClosed = new CountDownLatch(1);
+        InputStream slowStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    slowStreamClosed.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("stream closed");
+            }
+
+            @Override
+            public void close() {
+                slowStreamClosed.countDown();
+            }
+        };
+        //the cancelled attempt fails once its stream is closed, its connection must be closed anyway
+        when(slowStorageService.getObject(XML1_ID, DATA_SPACE)).thenReturn(new ObjectRetrievalResource(slowStream, slowConnectionClosed::countDown));
+        when(fastStorageService.getObject(XML1_ID, DATA_SPACE)).thenReturn(new ObjectRetrievalResource(xml1Stream(), null));
+        when(storageProvider.createAdaptersForRead()).thenReturn(asList(slowStorageService, fastStorageService));
+
+        archivalService.setHedgingEnabled(true);
+        archivalService.setHedgingDelay(50);
+        try {
+            Pair<Integer, ObjectRetrievalResource> xml = aipService.getXml(SIP_ID, 1);
+            try (InputStream inputStream = xml.getRight().getInputStream(); InputStream xml1Stream = xml1Stream()) {
+                assertTrue(IOUtils.contentEquals(inputStream, xml1Stream));
+            }
+            assertTrue(slowConnectionClosed.await(5, TimeUnit.SECONDS));
+        } finally {
+            archivalService.setHedgingEnabled(false);
+        }
+    }
+
     @Test
     public void store() throws Exception {
         AipDto aipDto = new AipDto(USER_ID, SIP2_ID, sipStream(), SIP_CHECKSUM, xml1Stream(), XML1_CHECKSUM);
@@ -533,8 +848,15 @@ public class ArchivalServiceTest extends DbTest {
         xmlStates.add(xml1state);
         xmlStates.add(xml2state);
         dto.setXmlStates(xmlStates);
-        when(storageService.getAipInfo(any(), any(), any())).thenReturn(dto);
+        when(storageService.getAipInfo(any(), any(), any(), any())).thenReturn(dto);
         doThrow(new IOStorageException(storage)).when(storageService).storeObject(any(), any(), any());
+        //recovery runs on the calling thread, the entity manager of the test is not thread safe
+        ExecutorService recoveryExecutorService = mock(ExecutorService.class);
+        doAnswer(i -> {
+            ((Runnable) i.getArgument(0)).run();
+            return null;
+        }).when(recoveryExecutorService).execute(any(Runnable.class));
+        aipService.setExecutorService(recoveryExecutorService);
 
         AipSip aip = new AipSip("aip", null, user, ObjectState.REMOVED);
         AipXml xml1 = new AipXml("xml1", null, user, aip, 1, ObjectState.ARCHIVED);
@@ -543,10 +865,10 @@ public class ArchivalServiceTest extends DbTest {
         aipSipStore.save(aip);
         aipXmlStore.save(asList(xml1, xml2, xml3));
 
-        aipService.verifyAipsAtStorage(asList(aip), storage.getId());
+        aipService.verifyAipsAtStorage(asList(aip), storage.getId(), VerificationLevel.FULL);
 
         ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
-        verify(storageService).getAipInfo(eq(aip.toDto()), captor.capture(), any());
+        verify(storageService).getAipInfo(eq(aip.toDto()), captor.capture(), any(), eq(VerificationLevel.FULL));
         Map<Integer, ArchivalObjectDto> requestedXmls = captor.getValue();
         assertThat(requestedXmls.keySet(), containsInAnyOrder(1, 2));
 
@@ -643,4 +965,68 @@ public class ArchivalServiceTest extends DbTest {
         assertThat(cleanup, containsInAnyOrder(o2, o3, x1));
         verify(async).cleanUp(cleanup, storageProvider.createAdaptersForWriteOperation());
     }
-}
\ No newline at end of file
+
+    private static class ByteArrayReplica implements RandomAccessObject {
+        private final byte[] data;
+
+        private ByteArrayReplica(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) {
+            if (position >= data.length)
+                return -1;
+            int count = (int) Math.min(length, data.length - position);
+            System.arraycopy(data, (int) position, buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Stream which waits for the latch before its first read, counting the latch down itself.
+     */
+    private static class LatchedInputStream extends FilterInputStream {
+        private final CountDownLatch latch;
+        private boolean started;
+
+        private LatchedInputStream(InputStream in, CountDownLatch latch) {
+            super(in);
+            this.latch = latch;
+        }
+
+        @Override
+        public int read() throws IOException {
+            awaitLatch();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            awaitLatch();
+            return super.read(b, off, len);
+        }
+
+        private void awaitLatch() throws IOException {
+            if (started)
+                return;
+            started = true;
+            latch.countDown();
+            try {
+                if (!latch.await(10, TimeUnit.SECONDS))
+                    throw new IOException("other stream has not been read concurrently");
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.dto.BandwidthLimitDto;
+import cz.cas.lib.arcstorage.dto.TrafficClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BandwidthLimiterTest {
+
+    private BandwidthLimiter limiter;
+
+    @Before
+    public void setUp() {
+        limiter = new BandwidthLimiter();
+        limiter.setForegroundRate(0);
+        limiter.setSyncRate(100);
+        limiter.setBackupRate(0);
+        limiter.setScrubRate(0);
+        limiter.setVerifyRate(0);
+    }
+
+    @Test
+    public void storageLimitOverridesDefault() {
+        TokenBucket bucket = limiter.getBucket("s1", TrafficClass.SYNC);
+        assertEquals(100, bucket.getRate());
+
+        limiter.setLimit(new BandwidthLimitDto("s1", TrafficClass.SYNC, 10));
+        assertSame(bucket, limiter.getBucket("s1", TrafficClass.SYNC));
+        assertEquals(10, bucket.getRate());
+        assertEquals(100, limiter.getBucket("s2", TrafficClass.SYNC).getRate());
+
+        limiter.setLimit(new BandwidthLimitDto(null, TrafficClass.SYNC, 50));
+        assertEquals(10, bucket.getRate());
+        assertEquals(50, limiter.getBucket("s2", TrafficClass.SYNC).getRate());
+
+        limiter.removeLimit("s1", TrafficClass.SYNC);
+        assertEquals(50, bucket.getRate());
+        assertEquals(0, limiter.getBucket("s1", TrafficClass.SCRUB).getRate());
+    }
+}
@@ -0,0 +1,255 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.AipSip;
+import cz.cas.lib.arcstorage.domain.entity.ArchivalObject;
+import cz.cas.lib.arcstorage.domain.entity.AipXml;
+import cz.cas.lib.arcstorage.domain.entity.ObjectFixity;
+import cz.cas.lib.arcstorage.domain.entity.ObjectRepair;
+import cz.cas.lib.arcstorage.domain.entity.ScrubCycle;
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.domain.entity.User;
+import cz.cas.lib.arcstorage.domain.store.*;
+import cz.cas.lib.arcstorage.dto.*;
+import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
+import cz.cas.lib.arcstorage.security.Role;
+import cz.cas.lib.arcstorage.security.user.UserStore;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import cz.cas.lib.arcstorage.storage.exception.IOStorageException;
+import helper.DbTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.*;
+
+public class FixityScrubberServiceTest extends DbTest {
+    private static final FixityScrubberService scrubber = new FixityScrubberService();
+    private static final FixityHistoryService fixityHistoryService = new FixityHistoryService();
+    private static final ObjectRepairService objectRepairService = new ObjectRepairService();
+    private static final ObjectFixityStore objectFixityStore = new ObjectFixityStore();
+    private static final ScrubCycleStore scrubCycleStore = new ScrubCycleStore();
+    private static final ObjectRepairStore objectRepairStore = new ObjectRepairStore();
+    private static final ArchivalObjectStore objectStore = new ArchivalObjectStore();
+    private static final AipSipStore aipSipStore = new AipSipStore();
+    private static final AipXmlStore aipXmlStore = new AipXmlStore();
+    private static final StorageStore storageStore = new StorageStore();
+    private static final UserStore userStore = new UserStore();
+
+    private static final String USER_ID = "dd23923a-923b-43b1-8a8e-3eebc7598432";
+    private static final String DATA_SPACE = "dataSpace";
+    private static final String SIP_ID = "SIPtestID";
+    private static final Checksum SIP_CHECKSUM = new Checksum(ChecksumType.MD5, "101b295a91f771d96e1987ff501b034c");
+    private static final String XML1_ID = toXmlId(SIP_ID, 1);
+    private static final Checksum XML1_CHECKSUM = new Checksum(ChecksumType.MD5, "5e95c70e5ca025d836f3bbe04fab0968");
+    private static final String XML2_ID = toXmlId(SIP_ID, 2);
+    private static final Checksum XML2_CHECKSUM = new Checksum(ChecksumType.MD5, "2aef000621927f2091b88f32d5a3ff00");
+
+    @Mock
+    private ArcstorageMailCenter mailCenter;
+
+    @Mock
+    private StorageProvider storageProvider;
+
+    @Mock
+    private StorageService storageService;
+
+    @Mock
+    private ExecutorService repairExecutorService;
+
+    private Storage storage;
+    private AipSip sip;
+    private AipXml xml1;
+    private AipXml xml2;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        initializeStores(objectFixityStore, scrubCycleStore, objectRepairStore, objectStore, aipSipStore, aipXmlStore, storageStore, userStore);
+
+        objectRepairService.setObjectRepairStore(objectRepairStore);
+        objectRepairService.setArchivalObjectStore(objectStore);
+        objectRepairService.setStorageProvider(storageProvider);
+        objectRepairService.setArcstorageMailCenter(mailCenter);
+        objectRepairService.setTransactionTemplate(new TransactionTemplate(new JpaTransactionManager(getFactory())));
+        objectRepairService.setRepairExecutorService(repairExecutorService);
+        objectRepairService.setMaxAttempts(3);
+        objectRepairService.setRetryDelay(60);
+
+        fixityHistoryService.setObjectFixityStore(objectFixityStore);
+        fixityHistoryService.setArchivalObjectStore(objectStore);
+        fixityHistoryService.setStorageStore(storageStore);
+        fixityHistoryService.setTransactionTemplate(new TransactionTemplate(new JpaTransactionManager(getFactory())));
+
+        ForegroundLoadMonitor foregroundLoadMonitor = new ForegroundLoadMonitor();
+        foregroundLoadMonitor.setMaxReadLatency(1000);
+        foregroundLoadMonitor.setMaxIngests(1);
+        scrubber.setArchivalObjectStore(objectStore);
+        scrubber.setFixityHistoryService(fixityHistoryService);
+        scrubber.setScrubCycleStore(scrubCycleStore);
+        scrubber.setStorageProvider(storageProvider);
+        scrubber.setObjectRepairService(objectRepairService);
+        scrubber.setForegroundLoadMonitor(foregroundLoadMonitor);
+        scrubber.setTransactionTemplate(new TransactionTemplate(new JpaTransactionManager(getFactory())));
+        scrubber.setCyclePeriod(VerificationLevel.FULL, 24);
+        scrubber.setCyclePeriod(VerificationLevel.SHALLOW, 24);
+        scrubber.setBatchSize(10);
+        scrubber.setBandwidthLimiter(new BandwidthLimiter());
+
+        User user = userStore.save(new User(USER_ID, "username", "password", DATA_SPACE, Role.ROLE_READ_WRITE, null));
+        sip = aipSipStore.save(new AipSip(SIP_ID, SIP_CHECKSUM, user, ObjectState.ARCHIVED));
+        xml1 = aipXmlStore.save(new AipXml(XML1_ID, XML1_CHECKSUM, user, sip, 1, ObjectState.ARCHIVED));
+        xml2 = aipXmlStore.save(new AipXml(XML2_ID, XML2_CHECKSUM, user, sip, 2, ObjectState.ARCHIVED));
+
+        storage = new Storage();
+        storage.setPriority(1);
+        storage.setName("test ceph storage");
+        storage.setStorageType(StorageType.CEPH);
+        storage.setReachable(true);
+        storageStore.save(storage);
+        when(storageService.getStorage()).thenReturn(storage);
+        when(storageProvider.createAdapter(storage.getId())).thenReturn(storageService);
+        when(storageProvider.createAdaptersForRead()).thenReturn(List.of(storageService));
+        when(storageService.getObject(XML1_ID, DATA_SPACE)).thenReturn(new ObjectRetrievalResource(new ByteArrayInputStream(XML1_ID.getBytes()), null));
+        when(storageService.getObject(XML2_ID, DATA_SPACE)).thenReturn(new ObjectRetrievalResource(new ByteArrayInputStream(XML2_ID.getBytes()), null));
+    }
+
+    @Test
+    public void fixityScrubber() throws Exception {
+        when(storageService.getObject(SIP_ID, DATA_SPACE)).thenReturn(new ObjectRetrievalResource(new ByteArrayInputStream("corrupted".getBytes()), null));
+        AtomicLong sizeAtStorage = new AtomicLong(9);
+        when(storageService.getObjectInfo(any(), eq(DATA_SPACE), any())).thenAnswer(i -> {
+            ArchivalObjectDto objectDto = i.getArgument(0);
+            ObjectConsistencyVerificationResultDto info = new ObjectConsistencyVerificationResultDto(objectDto.getDatabaseId(),
+                    objectDto.getStorageId(), objectDto.getState(), true, true, null, objectDto.getChecksum(), objectDto.getCreated());
+            info.setStorageSize(sizeAtStorage.get());
+            return info;
+        });
+
+        scrubCycleStore.save(new ScrubCycle(VerificationLevel.FULL, Instant.now().minusSeconds(2 * 24 * 3600)));
+        assertThat(scrubber.step(VerificationLevel.FULL), is(0L));
+        assertThat(scrubCycleStore.findByLevel(VerificationLevel.FULL).getVerified(), is(3L));
+        assertThat(fixityResults(VerificationLevel.FULL), is(Map.of(sip.getId(), FixityResult.CORRUPTED, xml1.getId(), FixityResult.OK, xml2.getId(), FixityResult.OK)));
+        //full verification covers also the lower levels
+        assertThat(fixityResults(VerificationLevel.METADATA), is(fixityResults(VerificationLevel.FULL)));
+        List<ObjectRepair> repairs = new ArrayList<>(objectRepairStore.findAll());
+        assertThat(repairs, hasSize(1));
+        assertThat(repairs.get(0).getObjectId(), is(sip.getId()));
+
+        //cycle is finished and the next one is ahead of the schedule
+        assertThat(scrubber.step(VerificationLevel.FULL), is(0L));
+        assertThat(scrubCycleStore.findByLevel(VerificationLevel.FULL).getVerified(), is(0L));
+        assertThat(scrubber.step(VerificationLevel.FULL), greaterThan(0L));
+        verify(storageService, times(3)).getObject(anyString(), eq(DATA_SPACE));
+
+        //objects verified before the next cycle are due, the oldest first
+        assertThat(fixityHistoryService.findDue(new ScrubCycle(VerificationLevel.FULL, Instant.now().plusSeconds(60)), List.of(storage.getId()), 10), hasSize(3));
+
+        //shallow verification does not read the content and finds the size different from the size found by the full verification
+        List<ObjectFixity> shallowFixities = objectFixityStore.findAll().stream().filter(f -> f.getLevel() == VerificationLevel.SHALLOW).collect(Collectors.toList());
+        shallowFixities.forEach(f -> f.setVerified(Instant.now().minusSeconds(3 * 24 * 3600)));
+        objectFixityStore.save(shallowFixities);
+        scrubCycleStore.save(new ScrubCycle(VerificationLevel.SHALLOW, Instant.now().minusSeconds(2 * 24 * 3600)));
+        sizeAtStorage.set(10);
+        assertThat(scrubber.step(VerificationLevel.SHALLOW), is(0L));
+        assertThat(fixityResults(VerificationLevel.SHALLOW), is(Map.of(sip.getId(), FixityResult.OK, xml1.getId(), FixityResult.CORRUPTED, xml2.getId(), FixityResult.CORRUPTED)));
+        assertThat(objectRepairStore.findAll(), hasSize(3));
+        verify(storageService, times(3)).getObject(anyString(), eq(DATA_SPACE));
+
+        FixityCoverageDto coverage = fixityHistoryService.getCoverage().stream()
+                .filter(c -> c.getStorageId().equals(storage.getId()) && c.getLevel() == VerificationLevel.FULL).findFirst().get();
+        assertThat(coverage.getObjects(), is(3L));
+        assertThat(coverage.getVerifiedObjects(), is(3L));
+        assertThat(coverage.getFailedObjects(), is(1L));
+        assertThat(coverage.getAgeP99(), notNullValue());
+    }
+
+    /**
+     * Object which could not be read is not considered verified, it is retried in the same cycle and the records at the
+     * lower levels are kept.
+     */
+    @Test
+    public void errorRetriedInCycle() throws Exception {
+        when(storageService.getObjectInfo(any(), eq(DATA_SPACE), any())).thenAnswer(i -> {
+            ArchivalObjectDto objectDto = i.getArgument(0);
+            return new ObjectConsistencyVerificationResultDto(objectDto.getDatabaseId(), objectDto.getStorageId(), objectDto.getState(), true, true, null, objectDto.getChecksum(), objectDto.getCreated());
+        });
+        when(storageService.getObject(SIP_ID, DATA_SPACE))
+                .thenThrow(new IOStorageException("connection reset", storage))
+                .thenReturn(new ObjectRetrievalResource(new ByteArrayInputStream(SIP_ID.getBytes()), null));
+        Instant shallowVerified = Instant.now().minusSeconds(3600);
+        ObjectFixity shallow = new ObjectFixity(sip.getId(), storage, VerificationLevel.SHALLOW, ChecksumType.MD5, FixityResult.OK, 9L, null, null);
+        shallow.setVerified(shallowVerified);
+        fixityHistoryService.record(List.of(shallow));
+
+        scrubCycleStore.save(new ScrubCycle(VerificationLevel.FULL, Instant.now().minusSeconds(2 * 24 * 3600)));
+        assertThat(scrubber.step(VerificationLevel.FULL), is(0L));
+        assertThat(fixityResults(VerificationLevel.FULL), is(Map.of(sip.getId(), FixityResult.ERROR, xml1.getId(), FixityResult.OK, xml2.getId(), FixityResult.OK)));
+        //error is not propagated to the lower levels
+        assertThat(fixityResults(VerificationLevel.SHALLOW).get(sip.getId()), is(FixityResult.OK));
+        assertThat(fixityHistoryService.getCoverage().stream()
+                .filter(c -> c.getStorageId().equals(storage.getId()) && c.getLevel() == VerificationLevel.FULL).findFirst().get().getVerifiedObjects(), is(2L));
+
+        assertThat(scrubber.step(VerificationLevel.FULL), is(0L));
+        assertThat(fixityResults(VerificationLevel.FULL), is(Map.of(sip.getId(), FixityResult.OK, xml1.getId(), FixityResult.OK, xml2.getId(), FixityResult.OK)));
+        assertThat(scrubCycleStore.findByLevel(VerificationLevel.FULL).getVerified(), is(4L));
+        verify(storageService, times(2)).getObject(SIP_ID, DATA_SPACE);
+        assertThat(objectRepairStore.findAll(), empty());
+
+        //cycle is finished
+        assertThat(scrubber.step(VerificationLevel.FULL), is(0L));
+        assertThat(scrubCycleStore.findByLevel(VerificationLevel.FULL).getVerified(), is(0L));
+    }
+
+    @Test
+    public void findDueAtSomeOfStorages() throws Exception {
+        Storage storage2 = new Storage();
+        storage2.setPriority(2);
+        storage2.setName("test second storage");
+        storage2.setStorageType(StorageType.CEPH);
+        storage2.setReachable(true);
+        storageStore.save(storage2);
+        Instant cycleStart = Instant.now().minusSeconds(60);
+        fixityHistoryService.record(List.of(
+                new ObjectFixity(sip.getId(), storage, VerificationLevel.SHALLOW, ChecksumType.MD5, FixityResult.OK, 9L, null, null),
+                new ObjectFixity(xml1.getId(), storage, VerificationLevel.SHALLOW, ChecksumType.MD5, FixityResult.OK, 9L, null, null),
+                new ObjectFixity(xml1.getId(), storage2, VerificationLevel.SHALLOW, ChecksumType.MD5, FixityResult.OK, 9L, null, null)));
+        ObjectFixity staleAtStorage2 = new ObjectFixity(xml2.getId(), storage2, VerificationLevel.SHALLOW, ChecksumType.MD5, FixityResult.OK, 9L, null, null);
+        staleAtStorage2.setVerified(cycleStart.minusSeconds(60));
+        fixityHistoryService.record(List.of(staleAtStorage2,
+                new ObjectFixity(xml2.getId(), storage, VerificationLevel.SHALLOW, ChecksumType.MD5, FixityResult.OK, 9L, null, null)));
+
+        //sip is not verified at the second storage, xml2 is stale at the second storage
+        assertThat(fixityHistoryService.findDue(new ScrubCycle(VerificationLevel.SHALLOW, cycleStart), List.of(storage.getId()), 10), empty());
+        ScrubCycle cycle = new ScrubCycle(VerificationLevel.SHALLOW, cycleStart);
+        assertThat(fixityHistoryService.findDue(cycle, List.of(storage.getId(), storage2.getId()), 10).stream().map(ArchivalObject::getId).collect(Collectors.toList()),
+                is(List.of(sip.getId(), xml2.getId())));
+
+        assertThat(cycle.getCheckedUntil(), is(aipSipStore.find(sip.getId()).getCreated()));
+
+        //objects checked for missing verification in the cycle are not searched again
+        cycle.setCheckedUntil(Instant.now().plusSeconds(60));
+        assertThat(fixityHistoryService.findDue(cycle, List.of(storage.getId(), storage2.getId()), 10).stream().map(ArchivalObject::getId).collect(Collectors.toList()),
+                is(List.of(xml2.getId())));
+    }
+
+    private Map<String, FixityResult> fixityResults(VerificationLevel level) {
+        return objectFixityStore.findAll().stream().filter(f -> f.getLevel() == level)
+                .collect(Collectors.toMap(ObjectFixity::getObjectId, ObjectFixity::getResult));
+    }
+}
@@ -0,0 +1,167 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.AipSip;
+import cz.cas.lib.arcstorage.domain.entity.AipXml;
+import cz.cas.lib.arcstorage.domain.entity.ObjectRepair;
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.domain.entity.User;
+import cz.cas.lib.arcstorage.domain.store.AipSipStore;
+import cz.cas.lib.arcstorage.domain.store.AipXmlStore;
+import cz.cas.lib.arcstorage.domain.store.ArchivalObjectStore;
+import cz.cas.lib.arcstorage.domain.store.ObjectRepairStore;
+import cz.cas.lib.arcstorage.domain.store.StorageStore;
+import cz.cas.lib.arcstorage.dto.Checksum;
+import cz.cas.lib.arcstorage.dto.ChecksumType;
+import cz.cas.lib.arcstorage.dto.ObjectRetrievalResource;
+import cz.cas.lib.arcstorage.dto.ObjectState;
+import cz.cas.lib.arcstorage.dto.StorageType;
+import cz.cas.lib.arcstorage.mail.ArcstorageMailCenter;
+import cz.cas.lib.arcstorage.security.Role;
+import cz.cas.lib.arcstorage.security.user.UserStore;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import helper.DbTest;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
+import static cz.cas.lib.arcstorage.util.Utils.asList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.*;
+
+public class ObjectRepairServiceTest extends DbTest {
+    private static final ObjectRepairService objectRepairService = new ObjectRepairService();
+    private static final ObjectRepairStore objectRepairStore = new ObjectRepairStore();
+    private static final ArchivalObjectStore objectStore = new ArchivalObjectStore();
+    private static final AipSipStore aipSipStore = new AipSipStore();
+    private static final AipXmlStore aipXmlStore = new AipXmlStore();
+    private static final StorageStore storageStore = new StorageStore();
+    private static final UserStore userStore = new UserStore();
+
+    private static final String USER_ID = "dd23923a-923b-43b1-8a8e-3eebc7598432";
+    private static final String DATA_SPACE = "dataSpace";
+    private static final String SIP_ID = "SIPtestID";
+    private static final Checksum SIP_CHECKSUM = new Checksum(ChecksumType.MD5, "101b295a91f771d96e1987ff501b034c");
+    private static final String XML1_ID = toXmlId(SIP_ID, 1);
+    private static final Checksum XML1_CHECKSUM = new Checksum(ChecksumType.MD5, "5e95c70e5ca025d836f3bbe04fab0968");
+
+    private static Path tmpFolder;
+
+    @Mock
+    private ArcstorageMailCenter mailCenter;
+
+    @Mock
+    private StorageProvider storageProvider;
+
+    @Mock
+    private StorageService storageService;
+
+    @Mock
+    private StorageService sourceService;
+
+    @Mock
+    private ExecutorService repairExecutorService;
+
+    private Storage storage;
+    private Storage sourceStorage;
+    private AipXml xml1;
+
+    private static InputStream xml1Stream() {
+        return new ByteArrayInputStream(XML1_ID.getBytes());
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        tmpFolder = Files.createTempDirectory("repair");
+    }
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        initializeStores(objectRepairStore, objectStore, aipSipStore, aipXmlStore, storageStore, userStore);
+
+        objectRepairService.setObjectRepairStore(objectRepairStore);
+        objectRepairService.setArchivalObjectStore(objectStore);
+        objectRepairService.setStorageProvider(storageProvider);
+        objectRepairService.setArcstorageMailCenter(mailCenter);
+        objectRepairService.setTransactionTemplate(new TransactionTemplate(new JpaTransactionManager(getFactory())));
+        objectRepairService.setRepairExecutorService(repairExecutorService);
+        objectRepairService.setTmpFolder(tmpFolder.toString());
+        objectRepairService.setMaxAttempts(2);
+        objectRepairService.setRetryDelay(60);
+
+        User user = userStore.save(new User(USER_ID, "username", "password", DATA_SPACE, Role.ROLE_READ_WRITE, null));
+        AipSip sip = aipSipStore.save(new AipSip(SIP_ID, SIP_CHECKSUM, user, ObjectState.ARCHIVED));
+        xml1 = aipXmlStore.save(new AipXml(XML1_ID, XML1_CHECKSUM, user, sip, 1, ObjectState.ARCHIVED));
+
+        storage = new Storage();
+        storage.setName("test storage");
+        storage.setStorageType(StorageType.CEPH);
+        storage.setReachable(true);
+        storageStore.save(storage);
+        sourceStorage = new Storage();
+        sourceStorage.setName("test source storage");
+        sourceStorage.setReachable(true);
+        storageStore.save(sourceStorage);
+
+        when(storageService.getStorage()).thenReturn(storage);
+        when(sourceService.getStorage()).thenReturn(sourceStorage);
+        when(storageProvider.createAdapter(storage.getId())).thenReturn(storageService);
+        when(storageProvider.createAdaptersForRead()).thenReturn(asList(storageService, sourceService));
+    }
+
+    @Test
+    public void objectRepair() throws Exception {
+        when(sourceService.getObject(XML1_ID, DATA_SPACE)).thenReturn(new ObjectRetrievalResource(xml1Stream(), null));
+
+        objectRepairService.enqueue(xml1.toDto(), storage);
+        objectRepairService.enqueue(xml1.toDto(), storage);
+        List<ObjectRepair> repairs = objectRepairStore.findDue(Instant.now(), 10);
+        assertThat(repairs, hasSize(1));
+        verify(repairExecutorService, times(1)).submit(any(Runnable.class));
+
+        objectRepairService.process(repairs.get(0));
+        verify(storageService).storeObject(argThat(o -> o.getStorageId().equals(XML1_ID)), any(), eq(DATA_SPACE));
+        verify(mailCenter).sendObjectRetrievalError(any(), eq(sourceStorage), anyList(), eq(List.of(storage)), eq(List.of(storage)));
+        assertThat(objectRepairStore.findAll(), empty());
+    }
+
+    /**
+     * Runtime exception of the adapter is a failed attempt, so the repair is not picked up by every poll forever.
+     */
+    @Test
+    public void objectRepairAdapterRuntimeException() throws Exception {
+        when(sourceService.getObject(XML1_ID, DATA_SPACE)).thenAnswer(i -> new ObjectRetrievalResource(xml1Stream(), null));
+        doThrow(new IllegalStateException("client failure")).when(storageService).storeObject(any(), any(), any());
+
+        objectRepairService.enqueue(xml1.toDto(), storage);
+        ObjectRepair repair = objectRepairStore.findDue(Instant.now(), 10).get(0);
+
+        objectRepairService.process(repair);
+        repair = objectRepairStore.find(repair.getId());
+        assertThat(repair.getAttempts(), is(1));
+        assertThat(repair.getLastError(), containsString("client failure"));
+        assertThat(repair.getNextAttempt(), greaterThan(Instant.now()));
+        assertThat(objectRepairStore.findDue(Instant.now(), 10), empty());
+        verify(mailCenter, never()).sendObjectRetrievalError(any(), any(), anyList(), anyList(), anyList());
+
+        objectRepairService.process(repair);
+        assertThat(objectRepairStore.findAll(), empty());
+        verify(mailCenter).sendObjectRetrievalError(any(), isNull(), anyList(), eq(List.of(storage)), eq(List.of()));
+    }
+}
@@ -0,0 +1,236 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.AipSip;
+import cz.cas.lib.arcstorage.domain.entity.AipXml;
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.domain.entity.SystemState;
+import cz.cas.lib.arcstorage.domain.entity.User;
+import cz.cas.lib.arcstorage.domain.store.AipSipStore;
+import cz.cas.lib.arcstorage.domain.store.AipXmlStore;
+import cz.cas.lib.arcstorage.domain.store.ArchivalObjectStore;
+import cz.cas.lib.arcstorage.domain.store.StorageStore;
+import cz.cas.lib.arcstorage.domain.store.SystemStateStore;
+import cz.cas.lib.arcstorage.dto.AipRetrievalResource;
+import cz.cas.lib.arcstorage.dto.Checksum;
+import cz.cas.lib.arcstorage.dto.ChecksumType;
+import cz.cas.lib.arcstorage.dto.ObjectRetrievalResource;
+import cz.cas.lib.arcstorage.dto.ObjectState;
+import cz.cas.lib.arcstorage.dto.PrefetchJobDto;
+import cz.cas.lib.arcstorage.dto.StorageType;
+import cz.cas.lib.arcstorage.exception.MissingObject;
+import cz.cas.lib.arcstorage.security.Role;
+import cz.cas.lib.arcstorage.security.user.UserDelegate;
+import cz.cas.lib.arcstorage.security.user.UserStore;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import helper.DbTest;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static cz.cas.lib.arcstorage.storage.StorageUtils.toXmlId;
+import static cz.cas.lib.arcstorage.util.Utils.asList;
+import static helper.ThrowableAssertion.assertThrown;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.*;
+
+public class PrefetchServiceTest extends DbTest {
+    private static final PrefetchService prefetchService = new PrefetchService();
+    private static final AipService aipService = new AipService();
+    private static final ArchivalService archivalService = new ArchivalService();
+    private static final ArchivalDbService archivalDbService = new ArchivalDbService();
+    private static final AipSipStore aipSipStore = new AipSipStore();
+    private static final AipXmlStore aipXmlStore = new AipXmlStore();
+    private static final ArchivalObjectStore objectStore = new ArchivalObjectStore();
+    private static final StorageStore storageStore = new StorageStore();
+    private static final SystemStateStore systemStateStore = new SystemStateStore();
+    private static final UserStore userStore = new UserStore();
+    private static final ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+    private static final String USER_ID = "dd23923a-923b-43b1-8a8e-3eebc7598432";
+    private static final String DATA_SPACE = "dataSpace";
+    private static final String SIP_ID = "SIPtestID";
+    private static final Checksum SIP_CHECKSUM = new Checksum(ChecksumType.MD5, "101b295a91f771d96e1987ff501b034c");
+    private static final String XML1_ID = toXmlId(SIP_ID, 1);
+    private static final Checksum XML1_CHECKSUM = new Checksum(ChecksumType.MD5, "5e95c70e5ca025d836f3bbe04fab0968");
+    private static final String XML2_ID = toXmlId(SIP_ID, 2);
+    private static final Checksum XML2_CHECKSUM = new Checksum(ChecksumType.MD5, "2aef000621927f2091b88f32d5a3ff00");
+
+    private Path tmpFolder;
+    private PrefetchCache prefetchCache;
+
+    @Mock
+    private StorageProvider storageProvider;
+
+    @Mock
+    private StorageService storageService;
+
+    @Mock
+    private ObjectRepairService objectRepairService;
+
+    private static InputStream sipStream() {
+        return new ByteArrayInputStream(SIP_ID.getBytes());
+    }
+
+    private static InputStream xml1Stream() {
+        return new ByteArrayInputStream(XML1_ID.getBytes());
+    }
+
+    private static InputStream xml2Stream() {
+        return new ByteArrayInputStream(XML2_ID.getBytes());
+    }
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        tmpFolder = Files.createTempDirectory("prefetch");
+        initializeStores(aipSipStore, aipXmlStore, objectStore, storageStore, systemStateStore, userStore);
+
+        SystemStateService systemStateService = new SystemStateService();
+        systemStateService.setSystemStateStore(systemStateStore);
+        systemStateStore.save(new SystemState(2, false));
+        archivalDbService.setTransactionTemplate(new JpaTransactionManager(getFactory()), 5);
+        archivalDbService.setAipSipStore(aipSipStore);
+        archivalDbService.setAipXmlStore(aipXmlStore);
+        archivalDbService.setArchivalObjectStore(objectStore);
+        archivalDbService.setSystemStateService(systemStateService);
+        archivalDbService.setUserDetails(new UserDelegate(new User(USER_ID)));
+        archivalDbService.setUserStore(userStore);
+
+        prefetchCache = new PrefetchCache();
+        prefetchCache.setCacheFolder(tmpFolder.toString());
+        prefetchCache.setMaxSize(100_000_000);
+        prefetchCache.setTtl(1);
+        StoragePerformanceTracker storagePerformanceTracker = new StoragePerformanceTracker();
+        storagePerformanceTracker.setForegroundLoadMonitor(new ForegroundLoadMonitor());
+        SmallObjectBufferPool smallObjectBufferPool = new SmallObjectBufferPool();
+        smallObjectBufferPool.setMaxObjectSize(1024 * 1024);
+        smallObjectBufferPool.setBudget(8 * 1024 * 1024);
+
+        archivalService.setArchivalDbService(archivalDbService);
+        archivalService.setStorageProvider(storageProvider);
+        archivalService.setTmpFolder(tmpFolder.toString());
+        archivalService.setExecutorService(executorService);
+        archivalService.setStoragePerformanceTracker(storagePerformanceTracker);
+        archivalService.setObjectRepairService(objectRepairService);
+        archivalService.setPrefetchCache(prefetchCache);
+        archivalService.setSmallObjectBufferPool(smallObjectBufferPool);
+
+        aipService.setArchivalDbService(archivalDbService);
+        aipService.setStorageProvider(storageProvider);
+        aipService.setTmpFolder(tmpFolder.toString());
+        aipService.setExecutorService(executorService);
+        aipService.setArchivalService(archivalService);
+        aipService.setStoragePerformanceTracker(storagePerformanceTracker);
+        aipService.setObjectRepairService(objectRepairService);
+        aipService.setPrefetchCache(prefetchCache);
+        aipService.setAipRetrievalParallelism(3);
+
+        ExecutorService prefetchExecutorService = mock(ExecutorService.class);
+        when(prefetchExecutorService.submit(any(Runnable.class))).thenAnswer(i -> {
+            ((Runnable) i.getArgument(0)).run();
+            return null;
+        });
+        prefetchService.setArchivalDbService(archivalDbService);
+        prefetchService.setStorageProvider(storageProvider);
+        prefetchService.setObjectRepairService(objectRepairService);
+        prefetchService.setPrefetchCache(prefetchCache);
+        prefetchService.setPrefetchExecutorService(prefetchExecutorService);
+        prefetchService.setBytesPerSecond(0);
+
+        User user = userStore.save(new User(USER_ID, "username", "password", DATA_SPACE, Role.ROLE_READ_WRITE, null));
+        AipSip sip = aipSipStore.save(new AipSip(SIP_ID, SIP_CHECKSUM, user, ObjectState.ARCHIVED));
+        aipXmlStore.save(new AipXml(XML1_ID, XML1_CHECKSUM, user, sip, 1, ObjectState.ARCHIVED));
+        aipXmlStore.save(new AipXml(XML2_ID, XML2_CHECKSUM, user, sip, 2, ObjectState.ARCHIVED));
+
+        Storage storage = new Storage();
+        storage.setPriority(1);
+        storage.setName("test ceph storage");
+        storage.setStorageType(StorageType.CEPH);
+        storage.setReachable(true);
+        storageStore.save(storage);
+        when(storageService.getStorage()).thenReturn(storage);
+        when(storageProvider.createAdaptersForRead()).thenReturn(asList(storageService));
+        when(storageService.getAip(SIP_ID, DATA_SPACE, 1, 2)).thenAnswer(i -> {
+            AipRetrievalResource aip = new AipRetrievalResource(null);
+            aip.setSip(sipStream());
+            aip.addXml(1, xml1Stream());
+            aip.addXml(2, xml2Stream());
+            return aip;
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpFolder.toFile());
+    }
+
+    @Test
+    public void prefetch() throws Exception {
+        PrefetchJobDto job = prefetchService.prefetch(List.of(SIP_ID));
+        assertThat(prefetchService.getJob(job.getId()), is(job));
+        assertThat(job.getFinished(), notNullValue());
+        assertThat(job.getPrefetched().get(), is(1));
+        assertThat(job.getFailed().entrySet(), empty());
+        verify(storageService, times(1)).getAip(SIP_ID, DATA_SPACE, 1, 2);
+
+        try (AipRetrievalResource aip = aipService.getAip(SIP_ID, true);
+             InputStream sipStream = sipStream(); InputStream xml2Stream = xml2Stream()) {
+            assertTrue(IOUtils.contentEquals(aip.getSip(), sipStream));
+            assertTrue(IOUtils.contentEquals(aip.getXmls().get(2), xml2Stream));
+        }
+        verify(storageService, times(1)).getAip(SIP_ID, DATA_SPACE, 1, 2);
+        assertThrown(() -> prefetchService.getJob("missing")).isInstanceOf(MissingObject.class);
+    }
+
+    @Test
+    public void evict() throws Exception {
+        prefetchService.prefetch(List.of(SIP_ID));
+        prefetchCache.evict(SIP_ID);
+        try (AipRetrievalResource aip = aipService.getAip(SIP_ID, true); InputStream sipStream = sipStream()) {
+            assertTrue(IOUtils.contentEquals(aip.getSip(), sipStream));
+        }
+        verify(storageService, times(2)).getAip(SIP_ID, DATA_SPACE, 1, 2);
+    }
+
+    @Test
+    public void prefetchOnlyMissingXml() throws Exception {
+        prefetchService.prefetch(List.of(SIP_ID));
+        prefetchCache.evict(XML2_ID);
+        when(storageService.getObject(XML2_ID, DATA_SPACE)).thenAnswer(i -> new ObjectRetrievalResource(xml2Stream(), null));
+        PrefetchJobDto job = prefetchService.prefetch(List.of(SIP_ID));
+        assertThat(job.getPrefetched().get(), is(1));
+        assertThat(job.getFailed().entrySet(), empty());
+        verify(storageService, times(1)).getAip(SIP_ID, DATA_SPACE, 1, 2);
+        verify(storageService, times(1)).getObject(XML2_ID, DATA_SPACE);
+
+        try (AipRetrievalResource aip = aipService.getAip(SIP_ID, true); InputStream xml2Stream = xml2Stream()) {
+            assertTrue(IOUtils.contentEquals(aip.getXmls().get(2), xml2Stream));
+        }
+        verify(storageService, times(1)).getAip(SIP_ID, DATA_SPACE, 1, 2);
+    }
+
+    @Test
+    public void initClearsCacheFolder() throws Exception {
+        Path leftover = prefetchCache.newDownloadFile();
+        Files.write(leftover, SIP_ID.getBytes());
+        prefetchCache.init();
+        assertThat(Files.exists(leftover), is(false));
+        assertThat(Files.exists(leftover.getParent()), is(true));
+    }
+}
@@ -0,0 +1,164 @@
+package cz.cas.lib.arcstorage.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private static final int CALLERS = 8;
+
+    @Test
+    public void followerGetsShareOfLeaderResult() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        SingleFlight.Call<String, String> leader = singleFlight.join("key");
+        assertTrue(leader.isLeader());
+
+        SingleFlight.Call<String, String> follower = singleFlight.join("key");
+        assertFalse(follower.isLeader());
+        assertTrue(singleFlight.join("other").isLeader());
+        CompletableFuture<String> followerResult = CompletableFuture.supplyAsync(follower::awaitShare);
+
+        leader.complete("data", r -> r + "-share");
+        assertThat(followerResult.get(), is("data-share"));
+        //finished call is not joined anymore
+        assertTrue(singleFlight.join("key").isLeader());
+    }
+
+    @Test
+    public void followerGetsNullIfLeaderFails() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        SingleFlight.Call<String, String> leader = singleFlight.join("key");
+        SingleFlight.Call<String, String> follower = singleFlight.join("key");
+
+        leader.complete(null, r -> r + "-share");
+        assertThat(follower.awaitShare(), nullValue());
+
+        SingleFlight.Call<String, String> next = singleFlight.join("key");
+        SingleFlight.Call<String, String> nextFollower = singleFlight.join("key");
+        next.complete("data", r -> {
+            throw new IllegalStateException("sharing failed");
+        });
+        assertThat(nextFollower.awaitShare(), nullValue());
+    }
+
+    @Test
+    public void concurrentRetrievalsCoalesced() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch joined = new CountDownLatch(CALLERS);
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<String> retrieval = () -> {
+            invocations.incrementAndGet();
+            await(release);
+            return "data";
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(() -> retrieve(singleFlight, joined, retrieval, retrieval)));
+            }
+            //retrieval of the leader is blocked until all callers have joined
+            assertTrue(joined.await(10, TimeUnit.SECONDS));
+            release.countDown();
+            List<String> values = new ArrayList<>();
+            for (Future<String> result : results) {
+                values.add(result.get(10, TimeUnit.SECONDS));
+            }
+            assertThat(invocations.get(), is(1));
+            assertThat(values.stream().filter("data"::equals).count(), is(1L));
+            assertThat(values.stream().filter("data-share"::equals).count(), is((long) CALLERS - 1));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(singleFlight.join("key").isLeader());
+    }
+
+    @Test
+    public void leaderFailureReachesAllFollowers() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger invocations = new AtomicInteger();
+        AtomicInteger fallbacks = new AtomicInteger();
+        CountDownLatch joined = new CountDownLatch(CALLERS);
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<String> failingRetrieval = () -> {
+            invocations.incrementAndGet();
+            await(release);
+            throw new IllegalStateException("retrieval failed");
+        };
+        Supplier<String> fallback = () -> "fallback-" + fallbacks.incrementAndGet();
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(() -> retrieve(singleFlight, joined, failingRetrieval, fallback)));
+            }
+            assertTrue(joined.await(10, TimeUnit.SECONDS));
+            release.countDown();
+            int failed = 0;
+            for (Future<String> result : results) {
+                try {
+                    assertThat(result.get(10, TimeUnit.SECONDS), startsWith("fallback-"));
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+                    failed++;
+                }
+            }
+            //only the leader gets the exception, every follower is released and retrieves on its own
+            assertThat(failed, is(1));
+            assertThat(invocations.get(), is(1));
+            assertThat(fallbacks.get(), is(CALLERS - 1));
+        } finally {
+            executor.shutdownNow();
+        }
+        //failed call is not joined anymore
+        SingleFlight.Call<String, String> next = singleFlight.join("key");
+        assertTrue(next.isLeader());
+        SingleFlight.Call<String, String> nextFollower = singleFlight.join("key");
+        assertFalse(nextFollower.isLeader());
+        next.complete("data", r -> r + "-share");
+        assertThat(nextFollower.awaitShare(), is("data-share"));
+    }
+
+    /**
+     * Retrieves the resource the same way as the services do, the leader completes the call even if the retrieval fails
+     * and followers which get no share retrieve the resource by the fallback.
+     */
+    private static String retrieve(SingleFlight<String, String> singleFlight, CountDownLatch joined, Supplier<String> retrieval,
+                                   Supplier<String> fallback) {
+        SingleFlight.Call<String, String> call = singleFlight.join("key");
+        joined.countDown();
+        if (!call.isLeader()) {
+            String share = call.awaitShare();
+            return share != null ? share : fallback.get();
+        }
+        String result = null;
+        try {
+            result = retrieval.get();
+        } finally {
+            call.complete(result, r -> r + "-share");
+        }
+        return result;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package cz.cas.lib.arcstorage.service;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.*;
+
+public class SmallObjectBufferPoolTest {
+
+    private SmallObjectBufferPool pool;
+    private File spillFile;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new SmallObjectBufferPool();
+        pool.setMaxObjectSize(16);
+        pool.setBudget(32);
+        spillFile = Files.createTempFile("spill", null).toFile();
+        spillFile.delete();
+    }
+
+    @Test
+    public void objectIsSpilledOnceItDoesNotFitBuffer() throws Exception {
+        byte[] data = "0123456789abcdefghijklmnopqrst".getBytes();
+        SmallObjectBufferPool.SpillingOutputStream os = pool.newOutputStream(spillFile);
+        os.write(data, 0, 10);
+        os.write(data, 10, data.length - 10);
+        os.close();
+        assertEquals(data.length, os.getSize());
+        try (InputStream is = os.toInputStream()) {
+            assertThat(is, instanceOf(FileInputStream.class));
+            assertArrayEquals(data, IOUtils.toByteArray(is));
+        } finally {
+            spillFile.delete();
+        }
+        //buffer of the spilled object has been returned
+        assertNotNull(pool.newOutputStream(spillFile));
+        assertNotNull(pool.newOutputStream(spillFile));
+    }
+
+    @Test
+    public void budgetIsReleasedOnceAllSharesAreClosed() throws Exception {
+        byte[] data = "small".getBytes();
+        SmallObjectBufferPool.SpillingOutputStream os = pool.newOutputStream(spillFile);
+        os.write(data, 0, data.length);
+        os.close();
+        SmallObjectBufferPool.BufferInputStream is = (SmallObjectBufferPool.BufferInputStream) os.toInputStream();
+        SmallObjectBufferPool.BufferInputStream share = is.share();
+        assertFalse(spillFile.exists());
+
+        SmallObjectBufferPool.SpillingOutputStream other = pool.newOutputStream(spillFile);
+        assertNotNull(other);
+        assertNull(pool.newOutputStream(spillFile));
+
+        is.close();
+        is.close();
+        assertNull(pool.newOutputStream(spillFile));
+        assertArrayEquals(data, IOUtils.toByteArray(share));
+        share.close();
+        other.discard();
+        assertNotNull(pool.newOutputStream(spillFile));
+        assertNotNull(pool.newOutputStream(spillFile));
+    }
+
+    @Test
+    public void budgetIsReleasedOnceDroppedStreamIsGarbageCollected() throws Exception {
+        SmallObjectBufferPool.SpillingOutputStream os = pool.newOutputStream(spillFile);
+        os.write("small".getBytes(), 0, 5);
+        os.close();
+        assertNotNull(os.toInputStream());
+        SmallObjectBufferPool.SpillingOutputStream other = pool.newOutputStream(spillFile);
+        assertNotNull(other);
+        //the budget is used up until the dropped stream is collected
+        assertNull(pool.newOutputStream(spillFile));
+        SmallObjectBufferPool.SpillingOutputStream reclaimed = null;
+        for (int i = 0; i < 100 && reclaimed == null; i++) {
+            System.gc();
+            Thread.sleep(20);
+            reclaimed = pool.newOutputStream(spillFile);
+        }
+        assertNotNull(reclaimed);
+        other.discard();
+        reclaimed.discard();
+    }
+}
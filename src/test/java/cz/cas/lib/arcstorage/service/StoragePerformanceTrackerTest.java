@@ -0,0 +1,82 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.domain.entity.Storage;
+import cz.cas.lib.arcstorage.dto.StoragePerformanceDto;
+import cz.cas.lib.arcstorage.storage.StorageService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static cz.cas.lib.arcstorage.util.Utils.asList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StoragePerformanceTrackerTest {
+    private StoragePerformanceTracker tracker;
+    private Storage fastStorage;
+    private Storage slowStorage;
+    private StorageService fastStorageService;
+    private StorageService slowStorageService;
+
+    @Before
+    public void setup() {
+        tracker = new StoragePerformanceTracker();
+        tracker.setEnabled(true);
+        tracker.setAlpha(0.5);
+        tracker.setForegroundLoadMonitor(new ForegroundLoadMonitor());
+        fastStorage = new Storage();
+        fastStorage.setName("fast");
+        slowStorage = new Storage();
+        slowStorage.setName("slow");
+        fastStorageService = mock(StorageService.class);
+        slowStorageService = mock(StorageService.class);
+        when(fastStorageService.getStorage()).thenReturn(fastStorage);
+        when(slowStorageService.getStorage()).thenReturn(slowStorage);
+    }
+
+    @Test
+    public void fasterStorageIsPreferred() {
+        for (int i = 0; i < 5; i++) {
+            tracker.recordRead(fastStorage, 5, 10 * 1024 * 1024, 100);
+            tracker.recordRead(slowStorage, 500, 10 * 1024 * 1024, 10000);
+        }
+        int fastFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            List<StorageService> ordered = tracker.orderForRead(asList(slowStorageService, fastStorageService));
+            if (ordered.get(0) == fastStorageService)
+                fastFirst++;
+        }
+        assertThat(fastFirst, greaterThan(900));
+        //slower storage still gets some reads so that its measurements stay up-to-date
+        assertThat(fastFirst, lessThan(1000));
+    }
+
+    @Test
+    public void failingStorageIsAvoided() {
+        for (int i = 0; i < 10; i++) {
+            tracker.recordRead(fastStorage, 5, 1024, 1);
+            tracker.recordReadFailure(slowStorage);
+        }
+        List<StoragePerformanceDto> performances = tracker.getPerformances(asList(fastStorage, slowStorage));
+        assertThat(performances.get(1).getErrorRate(), greaterThan(0.9));
+        assertThat(performances.get(1).getScore(), nullValue());
+        int fastFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (tracker.orderForRead(asList(slowStorageService, fastStorageService)).get(0) == fastStorageService)
+                fastFirst++;
+        }
+        assertThat(fastFirst, greaterThan(900));
+    }
+
+    @Test
+    public void disabled() {
+        tracker.setEnabled(false);
+        tracker.recordRead(fastStorage, 5, 1024, 1);
+        tracker.recordRead(slowStorage, 5000, 1024, 1000);
+        List<StorageService> ordered = tracker.orderForRead(asList(slowStorageService, fastStorageService));
+        assertThat(ordered, containsInAnyOrder(slowStorageService, fastStorageService));
+    }
+}
@@ -0,0 +1,102 @@
+package cz.cas.lib.arcstorage.service;
+
+import cz.cas.lib.arcstorage.storage.RandomAccessObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class StripedDownloadTest {
+
+    private static ExecutorService executorService;
+
+    @BeforeClass
+    public static void setUp() {
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void stripesAreAssembledInOrder() throws Exception {
+        byte[] data = randomData(1000);
+        Path target = Files.createTempFile("striped", null);
+        try {
+            StripedDownload download = new StripedDownload(List.of(new ByteArrayReplica(data, -1), new ByteArrayReplica(data, -1),
+                    new ByteArrayReplica(data, -1)), data.length, 64, executorService);
+            assertTrue(download.downloadTo(target));
+            assertArrayEquals(data, Files.readAllBytes(target));
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void stripesOfFailedReplicaAreDownloadedFromOther() throws Exception {
+        byte[] data = randomData(1000);
+        Path target = Files.createTempFile("striped", null);
+        try {
+            StripedDownload download = new StripedDownload(List.of(new ByteArrayReplica(data, 300), new ByteArrayReplica(data, -1)),
+                    data.length, 64, executorService);
+            assertTrue(download.downloadTo(target));
+            assertArrayEquals(data, Files.readAllBytes(target));
+
+            download = new StripedDownload(List.of(new ByteArrayReplica(data, 300), new ByteArrayReplica(data, 0)),
+                    data.length, 64, executorService);
+            assertFalse(download.downloadTo(target));
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * replica failing reads at and after the given position, -1 for replica which never fails
+     */
+    private static class ByteArrayReplica implements RandomAccessObject {
+        private final byte[] data;
+        private final long failFrom;
+
+        private ByteArrayReplica(byte[] data, long failFrom) {
+            this.data = data;
+            this.failFrom = failFrom;
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            if (failFrom >= 0 && position + length > failFrom)
+                throw new IOException("replica failure");
+            if (position >= data.length)
+                return -1;
+            int count = (int) Math.min(length, data.length - position);
+            System.arraycopy(data, (int) position, buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
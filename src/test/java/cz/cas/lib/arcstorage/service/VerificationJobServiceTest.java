@@ -0,0 +1,161 @@
+package cz.cas.lib.arcstorage.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cas.lib.arcstorage.domain.entity.AipSip;
+import cz.cas.lib.arcstorage.domain.entity.User;
+import cz.cas.lib.arcstorage.domain.store.AipSipStore;
+import cz.cas.lib.arcstorage.dto.*;
+import cz.cas.lib.arcstorage.exception.BadRequestException;
+import cz.cas.lib.arcstorage.exception.MissingObject;
+import cz.cas.lib.arcstorage.security.Role;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static cz.cas.lib.arcstorage.util.Utils.asList;
+import static cz.cas.lib.arcstorage.util.Utils.asSet;
+import static helper.ThrowableAssertion.assertThrown;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.*;
+
+public class VerificationJobServiceTest {
+    private static final String SIP_ID = "SIPtestID";
+    private static final String SIP2_ID = "testSipId";
+    private static final String STORAGE_ID = "storageId";
+    private static final String USER_ID = "dd23923a-923b-43b1-8a8e-3eebc7598432";
+    private static final String OTHER_USER_ID = "4b66655a-819a-474f-8203-6c4fb39e8ce0";
+    private static final String DATA_SPACE = "dataSpace";
+
+    private final VerificationJobService verificationJobService = new VerificationJobService();
+    private Path tmpFolder;
+
+    @Mock
+    private AipService aipService;
+
+    @Mock
+    private ArchivalDbService archivalDbService;
+
+    @Mock
+    private AipSipStore aipSipStore;
+
+    @Mock
+    private ExecutorService jobExecutorService;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        tmpFolder = Files.createTempDirectory("verification");
+        when(jobExecutorService.submit(any(Runnable.class))).thenAnswer(i -> {
+            ((Runnable) i.getArgument(0)).run();
+            return null;
+        });
+        verificationJobService.setAipService(aipService);
+        verificationJobService.setArchivalDbService(archivalDbService);
+        verificationJobService.setAipSipStore(aipSipStore);
+        verificationJobService.setObjectMapper(new ObjectMapper().findAndRegisterModules());
+        verificationJobService.setVerificationJobExecutorService(jobExecutorService);
+        verificationJobService.setResultsFolder(tmpFolder.toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpFolder.toFile());
+    }
+
+    @Test
+    public void verificationJob() throws Exception {
+        AipSip sip = new AipSip(SIP_ID, null, null, ObjectState.ARCHIVED);
+        when(archivalDbService.getAip(SIP_ID)).thenReturn(sip);
+        when(archivalDbService.getAip(SIP2_ID)).thenThrow(new MissingObject(AipSip.class, SIP2_ID));
+        when(aipService.verifyAipsAtStorage(List.of(sip), STORAGE_ID, VerificationLevel.FULL)).thenAnswer(i -> {
+            AipConsistencyVerificationResultDto dto = new AipConsistencyVerificationResultDto("storage", null, true);
+            dto.setAipState(new ObjectConsistencyVerificationResultDto(SIP_ID, SIP_ID, ObjectState.ARCHIVED, true, true, null, null, Instant.now()));
+            dto.getAipState().setStorageSize(10L);
+            return List.of(dto);
+        });
+        VerificationJobRequestDto request = new VerificationJobRequestDto();
+        request.setAipIds(asList(SIP_ID, SIP2_ID));
+        request.setStorageId(STORAGE_ID);
+
+        VerificationJobDto job = verificationJobService.submit(request, null, USER_ID);
+        assertThat(verificationJobService.getJob(job.getId(), USER_ID), is(job));
+        assertThat(job.getFinished(), notNullValue());
+        assertThat(job.getError(), nullValue());
+        assertThat(job.getProcessed().get(), is(2));
+        assertThat(job.getFailed().keySet(), is(asSet(SIP2_ID)));
+        assertThat(job.getObjects().get(), is(1L));
+        assertThat(job.getBytes().get(), is(10L));
+        assertThat(job.getInconsistent().get(), is(0));
+        List<String> results = Files.readAllLines(verificationJobService.getResults(job.getId(), USER_ID));
+        assertThat(results, hasSize(1));
+        assertThat(results.get(0), containsString(SIP_ID));
+
+        request.setAipIds(null);
+        request.setFrom(Instant.now());
+        assertThrown(() -> verificationJobService.submit(request, null, USER_ID)).isInstanceOf(BadRequestException.class);
+        assertThrown(() -> verificationJobService.getJob("missing", null)).isInstanceOf(MissingObject.class);
+    }
+
+    @Test
+    public void verificationJobOfOtherUser() throws Exception {
+        VerificationJobDto job = verificationJobService.submit(requestOf(SIP_ID), null, USER_ID);
+        assertThrown(() -> verificationJobService.getJob(job.getId(), OTHER_USER_ID)).isInstanceOf(MissingObject.class);
+        assertThrown(() -> verificationJobService.getResults(job.getId(), OTHER_USER_ID)).isInstanceOf(MissingObject.class);
+        //admin
+        assertThat(verificationJobService.getJob(job.getId(), null), is(job));
+        assertThat(Files.exists(verificationJobService.getResults(job.getId(), null)), is(true));
+    }
+
+    @Test
+    public void verificationJobLimitedToDataSpace() throws Exception {
+        AipSip sip = new AipSip(SIP_ID, null, new User(USER_ID, "username", "password", DATA_SPACE, Role.ROLE_READ, null), ObjectState.ARCHIVED);
+        AipSip otherSip = new AipSip(SIP2_ID, null, new User(OTHER_USER_ID, "other", "password", "otherDataSpace", Role.ROLE_READ, null), ObjectState.ARCHIVED);
+        when(archivalDbService.getAip(SIP_ID)).thenReturn(sip);
+        when(archivalDbService.getAip(SIP2_ID)).thenReturn(otherSip);
+        when(aipService.verifyAipsAtStorage(anyList(), eq(STORAGE_ID), eq(VerificationLevel.FULL))).thenReturn(List.of());
+
+        VerificationJobDto job = verificationJobService.submit(requestOf(SIP_ID, SIP2_ID), DATA_SPACE, USER_ID);
+        assertThat(job.getFailed().keySet(), is(asSet(SIP2_ID)));
+        verify(aipService).verifyAipsAtStorage(List.of(sip), STORAGE_ID, VerificationLevel.FULL);
+    }
+
+    @Test
+    public void cleanup() throws Exception {
+        VerificationJobDto job = verificationJobService.submit(requestOf(SIP_ID), null, USER_ID);
+        Path results = verificationJobService.getResults(job.getId(), USER_ID);
+        verificationJobService.cleanup();
+        assertThat(verificationJobService.getJob(job.getId(), USER_ID), is(job));
+
+        job.setFinished(Instant.now().minus(Duration.ofDays(8)));
+        verificationJobService.cleanup();
+        assertThrown(() -> verificationJobService.getJob(job.getId(), USER_ID)).isInstanceOf(MissingObject.class);
+        assertThat(Files.exists(results), is(false));
+    }
+
+    @Test
+    public void initClearsResultsFolder() throws Exception {
+        VerificationJobDto job = verificationJobService.submit(requestOf(SIP_ID), null, USER_ID);
+        Path results = verificationJobService.getResults(job.getId(), USER_ID);
+        verificationJobService.init();
+        assertThat(Files.exists(results), is(false));
+    }
+
+    private static VerificationJobRequestDto requestOf(String... aipIds) {
+        VerificationJobRequestDto request = new VerificationJobRequestDto();
+        request.setAipIds(asList(aipIds));
+        request.setStorageId(STORAGE_ID);
+        return request;
+    }
+}
@@ -0,0 +1,59 @@
+package cz.cas.lib.arcstorage.storage;
+
+import cz.cas.lib.arcstorage.dto.Checksum;
+import cz.cas.lib.arcstorage.dto.ChecksumType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cz.cas.lib.arcstorage.util.Utils.bytesToHexString;
+import static org.junit.Assert.*;
+
+public class ChecksumPipelineTest {
+
+    private final int bufferSize = IoBufferPool.getBufferSize();
+
+    @Test
+    public void streamOfManyBuffersIsCopiedAndHashed() throws Exception {
+        byte[] data = new byte[bufferSize * 5 + 7];
+        new Random(1).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Checksum checksum = ChecksumPipeline.copy(new ByteArrayInputStream(data), out, ChecksumType.SHA512, null);
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals(expected(data, "SHA-512"), checksum.getValue());
+        assertEquals(0, IoBufferPool.getStats().getInUse());
+    }
+
+    @Test
+    public void streamOfSingleBufferIsHashedInline() throws Exception {
+        byte[] data = "small".getBytes();
+        Checksum checksum = ChecksumPipeline.copy(new ByteArrayInputStream(data), null, ChecksumType.MD5, null);
+        assertEquals(expected(data, "MD5"), checksum.getValue());
+        byte[] exact = new byte[bufferSize];
+        checksum = ChecksumPipeline.copy(new ByteArrayInputStream(exact), null, ChecksumType.MD5, null);
+        assertEquals(expected(exact, "MD5"), checksum.getValue());
+    }
+
+    @Test
+    public void rollbackStopsTheCopy() throws Exception {
+        AtomicBoolean rollback = new AtomicBoolean(false);
+        InputStream is = new ByteArrayInputStream(new byte[bufferSize * 3]) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                rollback.set(true);
+                return super.read(b, off, len);
+            }
+        };
+        assertNull(ChecksumPipeline.copy(is, null, ChecksumType.MD5, rollback));
+        assertTrue(is.available() > 0);
+    }
+
+    private static String expected(byte[] data, String algorithm) throws Exception {
+        return bytesToHexString(MessageDigest.getInstance(algorithm).digest(data));
+    }
+}
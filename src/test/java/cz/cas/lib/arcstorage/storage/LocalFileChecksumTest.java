@@ -0,0 +1,81 @@
+package cz.cas.lib.arcstorage.storage;
+
+import cz.cas.lib.arcstorage.dto.ChecksumType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cz.cas.lib.arcstorage.util.Utils.bytesToHexString;
+import static helper.ThrowableAssertion.assertThrown;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LocalFileChecksumTest {
+
+    private static final int WINDOW_SIZE = 4096;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("checksum", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void allModesComputeTheSameChecksum() throws Exception {
+        byte[] data = new byte[WINDOW_SIZE * 5 + 13];
+        new Random(1).nextBytes(data);
+        Files.write(file, data);
+        String expected = bytesToHexString(MessageDigest.getInstance("SHA-512").digest(data));
+        for (LocalFileChecksum.Mode mode : LocalFileChecksum.Mode.values())
+            assertEquals(mode.toString(), expected, LocalFileChecksum.compute(file, ChecksumType.SHA512, null, mode, WINDOW_SIZE).getValue());
+    }
+
+    /**
+     * File of a single window is hashed by the calling thread, file of whole windows ends with an empty read.
+     */
+    @Test
+    public void wholeWindows() throws Exception {
+        for (int windows = 1; windows <= 3; windows++) {
+            byte[] data = new byte[WINDOW_SIZE * windows];
+            new Random(windows).nextBytes(data);
+            Files.write(file, data);
+            String expected = bytesToHexString(MessageDigest.getInstance("MD5").digest(data));
+            for (LocalFileChecksum.Mode mode : LocalFileChecksum.Mode.values())
+                assertEquals(mode + " " + windows, expected, LocalFileChecksum.compute(file, ChecksumType.MD5, null, mode, WINDOW_SIZE).getValue());
+        }
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        String expected = bytesToHexString(MessageDigest.getInstance("MD5").digest(new byte[0]));
+        for (LocalFileChecksum.Mode mode : LocalFileChecksum.Mode.values())
+            assertEquals(mode.toString(), expected, LocalFileChecksum.compute(file, ChecksumType.MD5, null, mode, WINDOW_SIZE).getValue());
+    }
+
+    @Test
+    public void missingFile() throws Exception {
+        Files.delete(file);
+        for (LocalFileChecksum.Mode mode : LocalFileChecksum.Mode.values())
+            assertThrown(() -> LocalFileChecksum.compute(file, ChecksumType.MD5, null, mode, WINDOW_SIZE)).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    public void rollback() throws Exception {
+        Files.write(file, new byte[WINDOW_SIZE * 2]);
+        for (LocalFileChecksum.Mode mode : LocalFileChecksum.Mode.values())
+            assertNull(mode.toString(), LocalFileChecksum.compute(file, ChecksumType.MD5, new AtomicBoolean(true), mode, WINDOW_SIZE));
+    }
+}
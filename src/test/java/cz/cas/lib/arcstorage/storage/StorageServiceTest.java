@@ -7,6 +7,7 @@ import cz.cas.lib.arcstorage.exception.GeneralException;
 import cz.cas.lib.arcstorage.security.Role;
 import cz.cas.lib.arcstorage.storage.exception.FileDoesNotExistException;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
@@ -222,7 +223,7 @@ public abstract class StorageServiceTest {
         Map<Integer, ArchivalObjectDto> map = new HashMap<>();
         map.put(1, aip.getXml());
         map.put(2, xml2);
-        AipConsistencyVerificationResultDto aipInfo = getService().getAipInfo(aip.getSip(), map, getDataSpace());
+        AipConsistencyVerificationResultDto aipInfo = getService().getAipInfo(aip.getSip(), map, getDataSpace(), VerificationLevel.FULL);
 
         assertThat(aipInfo.getStorageType(), is(getService().getStorage().getStorageType()));
         assertThat(aipInfo.getStorageName(), is(getService().getStorage().getName()));
@@ -259,11 +260,59 @@ public abstract class StorageServiceTest {
         assertThat(xmlInfo2.getCreated(), is(xml2.getCreated()));
     }
 
+    @Test
+    public void getObjectInfoLevels() throws Exception {
+        String sipId = testName.getMethodName();
+        AipDto aip = new AipDto("ownerId", sipId, getSipStream(), SIP_CHECKSUM, getXmlStream(), XML_CHECKSUM);
+        getService().storeAip(aip, new AtomicBoolean(false), getDataSpace());
+        aip.getXml().setState(ObjectState.ARCHIVED);
+
+        ObjectConsistencyVerificationResultDto info = getService().getObjectInfo(aip.getXml(), getDataSpace(), VerificationLevel.METADATA);
+        assertThat(info.isMetadataConsistent(), is(true));
+        assertThat(info.isContentConsistent(), is(false));
+        assertThat(info.getStorageSize(), nullValue());
+
+        info = getService().getObjectInfo(aip.getXml(), getDataSpace(), VerificationLevel.SHALLOW);
+        assertThat(info.isMetadataConsistent(), is(true));
+        assertThat(info.isContentConsistent(), is(true));
+        assertThat(info.getStorageSize(), is((long) XML_CONTENT.length()));
+        assertThat(info.getStorageChecksum(), nullValue());
+
+        info = getService().getObjectInfo(aip.getXml(), getDataSpace(), VerificationLevel.FULL);
+        assertThat(info.isContentConsistent(), is(true));
+        assertThat(info.getStorageSize(), is((long) XML_CONTENT.length()));
+        assertThat(info.getStorageChecksum(), is(XML_CHECKSUM));
+    }
+
+    @Test
+    public void getAipsInfo() throws Exception {
+        String sipId = testName.getMethodName();
+        AipDto aip = new AipDto("ownerId", sipId, getSipStream(), SIP_CHECKSUM, getXmlStream(), XML_CHECKSUM);
+        getService().storeAip(aip, new AtomicBoolean(false), getDataSpace());
+        aip.getSip().setState(ObjectState.ARCHIVED);
+        aip.getXml().setState(ObjectState.ARCHIVED);
+        ArchivalObjectDto missingSip = new ArchivalObjectDto(sipId + "missing", sipId + "missing", SIP_CHECKSUM, null, null, ObjectState.ARCHIVED, Instant.now(), ObjectType.SIP);
+        Map<Integer, ArchivalObjectDto> xmls = new HashMap<>();
+        xmls.put(1, aip.getXml());
+
+        List<AipConsistencyVerificationResultDto> aipsInfo = getService().getAipsInfo(
+                asList(Pair.of(aip.getSip(), xmls), Pair.of(missingSip, new HashMap<>())), getDataSpace(), VerificationLevel.SHALLOW);
+
+        assertThat(aipsInfo, hasSize(2));
+        AipConsistencyVerificationResultDto aipInfo = aipsInfo.get(0);
+        assertThat(aipInfo.getAipState().isMetadataConsistent(), is(true));
+        assertThat(aipInfo.getAipState().isContentConsistent(), is(true));
+        assertThat(aipInfo.getAipState().getStorageSize(), is((long) SIP_CONTENT.length()));
+        assertThat(aipInfo.getXmlStates().get(0).isMetadataConsistent(), is(true));
+        assertThat(aipInfo.getXmlStates().get(0).getStorageSize(), is((long) XML_CONTENT.length()));
+        assertThat(aipsInfo.get(1), nullValue());
+    }
+
     @Test
     public void getAipInfoMissingSip() throws Exception {
         String sipId = testName.getMethodName();
         ArchivalObjectDto sipDto = new ArchivalObjectDto(sipId, sipId, SIP_CHECKSUM, null, null, ObjectState.ARCHIVED, Instant.now(), ObjectType.SIP);
-        assertThrown(() -> getService().getAipInfo(sipDto, new HashMap<>(), getDataSpace())).isInstanceOf(FileDoesNotExistException.class);
+        assertThrown(() -> getService().getAipInfo(sipDto, new HashMap<>(), getDataSpace(), VerificationLevel.FULL)).isInstanceOf(FileDoesNotExistException.class);
     }
 
     @Test
@@ -275,7 +324,7 @@ public abstract class StorageServiceTest {
         ArchivalObjectDto nonExistentXml = new ArchivalObjectDto(toXmlId(sipId, 99), null, XML_CHECKSUM, null, null, ObjectState.ARCHIVED, Instant.now(), ObjectType.XML);
         Map<Integer, ArchivalObjectDto> map = new HashMap<>();
         map.put(99, nonExistentXml);
-        assertThrown(() -> getService().getAipInfo(aip.getSip(), map, getDataSpace())).isInstanceOf(FileDoesNotExistException.class);
+        assertThrown(() -> getService().getAipInfo(aip.getSip(), map, getDataSpace(), VerificationLevel.FULL)).isInstanceOf(FileDoesNotExistException.class);
     }
 
     @Test
@@ -290,7 +339,7 @@ public abstract class StorageServiceTest {
 
         Map<Integer, ArchivalObjectDto> map = new HashMap<>();
         map.put(1, aip.getXml());
-        AipConsistencyVerificationResultDto aipInfo = getService().getAipInfo(aip.getSip(), map, getDataSpace());
+        AipConsistencyVerificationResultDto aipInfo = getService().getAipInfo(aip.getSip(), map, getDataSpace(), VerificationLevel.FULL);
 
         assertThat(aipInfo.getAipState().getState(), is(ObjectState.DELETED));
         assertThat(aipInfo.getAipState().getStorageChecksum(), nullValue());
@@ -330,7 +330,7 @@ public class LocalProcessorTest extends StorageServiceTest {
         }
 
         @Override
-        public Checksum computeChecksumRollbackAware(InputStream fileStream, ChecksumType checksumType, AtomicBoolean rollback) throws IOException {
+        Checksum computeChecksumRollbackAware(Path file, ChecksumType checksumType, AtomicBoolean rollback) throws IOException {
             return new Checksum(ChecksumType.MD5, "alwayswrong");
         }
     }
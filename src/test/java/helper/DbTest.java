@@ -64,6 +64,9 @@ public abstract class DbTest {
         if (em != null) {
             clearDatabase();
 
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
             em.close();
             em = null;
         }